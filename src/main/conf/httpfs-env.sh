@@ -36,6 +36,17 @@
 #
 # export HTTPFS_ADMIN_PORT=`expr ${HTTPFS_HTTP_PORT} + 1`
 
+# The Tomcat connector protocol used by HttpFS, HTTP/1.1 (blocking) or
+# org.apache.coyote.http11.Http11NioProtocol (idle keep-alive connections
+# do not hold a thread)
+#
+# export HTTPFS_HTTP_PROTOCOL=HTTP/1.1
+
+# The maximum number of Tomcat threads, every request in progress (including
+# every OPEN, CREATE and APPEND streaming data) holds one
+#
+# export HTTPFS_MAX_THREADS=200
+
 # The hostname HttpFS server runs on
 #
 # export HTTPFS_HTTP_HOSTNAME=`hostname -f`
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.client;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parses CBOR (RFC 7049) responses of the HttpFSServer into the same object
+ * model the JSON parser produces.
+ * <p/>
+ * Maps are returned as <code>JSONObject</code>, arrays as
+ * <code>JSONArray</code>, integers as <code>Long</code>, text strings as
+ * <code>String</code> and simple values as <code>Boolean</code> or
+ * <code>null</code>, so callers can handle both formats the same way. Only the
+ * subset of CBOR used by the HttpFSServer is supported: integers, text
+ * strings, arrays, maps and simple values.
+ */
+public class CBORParser {
+  private static final Object BREAK = new Object();
+
+  private DataInputStream is;
+
+  /**
+   * Creates a CBOR parser.
+   *
+   * @param is stream to read the CBOR data item from.
+   */
+  public CBORParser(InputStream is) {
+    this.is = new DataInputStream(new BufferedInputStream(is));
+  }
+
+  /**
+   * Parses a single CBOR data item.
+   *
+   * @return the parsed object.
+   *
+   * @throws IOException thrown if the stream could not be read or it is not
+   * a supported CBOR data item.
+   */
+  public Object parse() throws IOException {
+    Object value = read();
+    if (value == BREAK) {
+      throw new IOException("CBOR parser error, unexpected break");
+    }
+    return value;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Object read() throws IOException {
+    int initial = is.read();
+    if (initial < 0) {
+      throw new EOFException("CBOR parser error, unexpected end of stream");
+    }
+    int majorType = initial >> 5;
+    int info = initial & 0x1F;
+    switch (majorType) {
+      case 0:
+        return readLength(info);
+      case 1:
+        return -1 - readLength(info);
+      case 3: {
+        if (info == 31) {
+          throw new IOException("CBOR parser error, indefinite length strings are not supported");
+        }
+        byte[] bytes = new byte[toInt(readLength(info))];
+        is.readFully(bytes);
+        return new String(bytes, "UTF-8");
+      }
+      case 4: {
+        JSONArray array = new JSONArray();
+        if (info == 31) {
+          for (Object value = read(); value != BREAK; value = read()) {
+            array.add(value);
+          }
+        } else {
+          for (long i = readLength(info); i > 0; i--) {
+            array.add(parse());
+          }
+        }
+        return array;
+      }
+      case 5: {
+        JSONObject map = new JSONObject();
+        if (info == 31) {
+          for (Object key = read(); key != BREAK; key = read()) {
+            map.put(key, parse());
+          }
+        } else {
+          for (long i = readLength(info); i > 0; i--) {
+            map.put(parse(), parse());
+          }
+        }
+        return map;
+      }
+      case 7: {
+        switch (info) {
+          case 20:
+            return Boolean.FALSE;
+          case 21:
+            return Boolean.TRUE;
+          case 22:
+          case 23:
+            return null;
+          case 31:
+            return BREAK;
+          default:
+            throw new IOException("CBOR parser error, unsupported simple value " + info);
+        }
+      }
+      default:
+        throw new IOException("CBOR parser error, unsupported major type " + majorType);
+    }
+  }
+
+  private long readLength(int info) throws IOException {
+    if (info < 24) {
+      return info;
+    }
+    switch (info) {
+      case 24:
+        return is.readUnsignedByte();
+      case 25:
+        return is.readUnsignedShort();
+      case 26:
+        return is.readInt() & 0xFFFFFFFFL;
+      case 27:
+        return is.readLong();
+      default:
+        throw new IOException("CBOR parser error, invalid additional information " + info);
+    }
+  }
+
+  private static int toInt(long length) throws IOException {
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IOException("CBOR parser error, invalid length " + length);
+    }
+    return (int) length;
+  }
+
+}
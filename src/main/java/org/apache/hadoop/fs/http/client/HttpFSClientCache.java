@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Client side cache of HttpFSServer responses, revalidated with conditional
+ * requests.
+ * <p/>
+ * Responses are cached by request URL with their entity tag. The client
+ * sends the entity tag in an <code>If-None-Match</code> header and uses the
+ * cached response if the server answers <code>304 Not Modified</code>, a
+ * cached response is never used without revalidating it. The least recently
+ * used responses are evicted when the cache is full.
+ * <p/>
+ * Only responses with an entity tag are cached, the server sends them for
+ * GETFILESTATUS and LISTSTATUS if it has
+ * <code>httpfs.metadata.validators.enabled</code> set.
+ */
+public class HttpFSClientCache {
+
+  /**
+   * A cached response.
+   */
+  public static class Entry {
+    private final String etag;
+    private final Object value;
+
+    private Entry(String etag, Object value) {
+      this.etag = etag;
+      this.value = value;
+    }
+
+    /**
+     * Returns the entity tag of the response.
+     *
+     * @return the entity tag of the response.
+     */
+    public String getETag() {
+      return etag;
+    }
+
+    /**
+     * Returns the response, a parsed JSON object or the bytes of a file.
+     *
+     * @return the response.
+     */
+    public Object getValue() {
+      return value;
+    }
+  }
+
+  private final int maxFileSize;
+  private final Map<String, Entry> entries;
+
+  /**
+   * Creates a client cache.
+   *
+   * @param maxEntries maximum number of cached responses.
+   * @param maxFileSize maximum size, in bytes, of a cached file.
+   */
+  @SuppressWarnings("serial")
+  public HttpFSClientCache(final int maxEntries, int maxFileSize) {
+    this.maxFileSize = maxFileSize;
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Returns a cached response.
+   *
+   * @param url the request URL.
+   *
+   * @return the cached response, <code>null</code> if not cached.
+   */
+  public synchronized Entry get(String url) {
+    return entries.get(url);
+  }
+
+  /**
+   * Caches a response.
+   *
+   * @param url the request URL.
+   * @param etag the entity tag of the response.
+   * @param value the response.
+   */
+  public synchronized void put(String url, String etag, Object value) {
+    entries.put(url, new Entry(etag, value));
+  }
+
+  /**
+   * Returns the number of cached responses.
+   *
+   * @return the number of cached responses.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Caches the bytes of a file as they are read, the file is cached once
+   * read to its end if it is not bigger than the maximum file size.
+   *
+   * @param url the request URL.
+   * @param etag the entity tag of the response.
+   * @param is the stream of the file.
+   *
+   * @return the stream to read the file from.
+   */
+  public InputStream cache(final String url, final String etag, InputStream is) {
+    return new FilterInputStream(is) {
+      private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+      private void cache(byte[] b, int off, int read) {
+        if (buffer != null) {
+          if (read < 0) {
+            put(url, etag, buffer.toByteArray());
+            buffer = null;
+          } else if (buffer.size() + read > maxFileSize) {
+            buffer = null;
+          } else {
+            buffer.write(b, off, read);
+          }
+        }
+      }
+
+      @Override
+      public int read() throws IOException {
+        int b = super.read();
+        cache(new byte[]{(byte) b}, 0, (b < 0) ? -1 : 1);
+        return b;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read != 0) {
+          cache(b, off, read);
+        }
+        return read;
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+        // skipped bytes are not cached
+        buffer = null;
+        return super.skip(n);
+      }
+
+      @Override
+      public boolean markSupported() {
+        return false;
+      }
+    };
+  }
+
+}
@@ -41,6 +41,7 @@ import org.json.simple.parser.ParseException;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.FileNotFoundException;
@@ -58,6 +59,8 @@ import java.net.URLEncoder;
 import java.text.MessageFormat;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * HttpFSServer implementation of the FileSystemAccess FileSystem.
@@ -85,6 +88,7 @@ public class HttpFSFileSystem extends FileSystem {
   public static final String MODIFICATION_TIME_PARAM = "modificationtime";
   public static final String ACCESS_TIME_PARAM = "accesstime";
   public static final String RENEWER_PARAM = "renewer";
+  public static final String COMPRESS_PARAM = "compress";
 
   public static final Short DEFAULT_PERMISSION = 0755;
 
@@ -100,6 +104,24 @@ public class HttpFSFileSystem extends FileSystem {
 
   public static final String UPLOAD_CONTENT_TYPE= "application/octet-stream";
 
+  public static final String CBOR_CONTENT_TYPE = "application/cbor";
+
+  public static final String CBOR_ENABLED = "httpfs.cbor.enabled";
+
+  public static final String COMPRESSION_ENABLED = "httpfs.compression.enabled";
+
+  public static final String OPEN_COMPRESSION_ENABLED = "httpfs.open.compression.enabled";
+
+  public static final String CLIENT_CACHE_ENABLED = "httpfs.client.cache.enabled";
+
+  public static final String CLIENT_CACHE_MAX_ENTRIES = "httpfs.client.cache.max.entries";
+
+  public static final String CLIENT_CACHE_MAX_FILE_SIZE = "httpfs.client.cache.max.file.size";
+
+  private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+  private static final String METADATA_ACCEPT = CBOR_CONTENT_TYPE + ", application/json;q=0.9";
+
   public static enum FILE_TYPE {
     FILE, DIRECTORY, SYMLINK;
 
@@ -151,6 +173,9 @@ public class HttpFSFileSystem extends FileSystem {
 
   public static final int HTTP_TEMPORARY_REDIRECT = 307;
 
+  private static final String ETAG = "ETag";
+  private static final String IF_NONE_MATCH = "If-None-Match";
+
   private static final String HTTP_GET = "GET";
   private static final String HTTP_PUT = "PUT";
   private static final String HTTP_POST = "POST";
@@ -183,6 +208,10 @@ public class HttpFSFileSystem extends FileSystem {
   private URI uri;
   private Path workingDir;
   private String doAs;
+  private boolean cborEnabled;
+  private boolean compressionEnabled;
+  private boolean openCompressionEnabled;
+  private HttpFSClientCache clientCache;
 
   /**
    * Convenience method that creates a <code>HttpURLConnection</code> for the
@@ -253,6 +282,9 @@ public class HttpFSFileSystem extends FileSystem {
 
   /**
    * Convenience method that JSON Parses the <code>InputStream</code> of a <code>HttpURLConnection</code>.
+   * <p/>
+   * If the server responded with CBOR the response is parsed with the
+   * {@link CBORParser} instead, the returned object model is the same.
    *
    * @param conn the <code>HttpURLConnection</code>.
    *
@@ -261,14 +293,106 @@ public class HttpFSFileSystem extends FileSystem {
    * @throws IOException thrown if the <code>InputStream</code> could not be JSON parsed.
    */
   private static Object jsonParse(HttpURLConnection conn) throws IOException {
+    String contentType = conn.getContentType();
+    if (contentType != null && contentType.startsWith(CBOR_CONTENT_TYPE)) {
+      return new CBORParser(getInputStream(conn)).parse();
+    }
     try {
       JSONParser parser = new JSONParser();
-      return parser.parse(new InputStreamReader(conn.getInputStream()));
+      return parser.parse(new InputStreamReader(getInputStream(conn), "UTF-8"));
     } catch (ParseException ex) {
       throw new IOException("JSON parser error, " + ex.getMessage(), ex);
     }
   }
 
+  /**
+   * Returns the <code>InputStream</code> of a <code>HttpURLConnection</code>
+   * decompressing it if the server compressed the response.
+   *
+   * @param conn the <code>HttpURLConnection</code>.
+   *
+   * @return the response <code>InputStream</code>.
+   *
+   * @throws IOException thrown if the <code>InputStream</code> could not be
+   * obtained.
+   */
+  private static InputStream getInputStream(HttpURLConnection conn) throws IOException {
+    String encoding = conn.getContentEncoding();
+    InputStream is = conn.getInputStream();
+    if (encoding != null) {
+      encoding = encoding.trim();
+      if (encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip")) {
+        is = new GZIPInputStream(is);
+      } else if (encoding.equalsIgnoreCase("deflate")) {
+        is = new InflaterInputStream(is);
+      }
+    }
+    return is;
+  }
+
+  /**
+   * Asks the server for a CBOR and compressed response if it supports them,
+   * servers not supporting them respond with plain JSON.
+   *
+   * @param conn the <code>HttpURLConnection</code> of a metadata operation.
+   *
+   * @return the given <code>HttpURLConnection</code>.
+   */
+  private HttpURLConnection acceptMetadata(HttpURLConnection conn) {
+    if (cborEnabled) {
+      conn.setRequestProperty("Accept", METADATA_ACCEPT);
+    }
+    if (compressionEnabled) {
+      conn.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+    }
+    return conn;
+  }
+
+  /**
+   * Returns the {@link HttpFSClientCache} entry of a request, if any, and
+   * makes the request conditional on it.
+   *
+   * @param conn the <code>HttpURLConnection</code> of the request.
+   *
+   * @return the cached entry, <code>null</code> if the client cache is
+   * disabled or the response is not cached.
+   */
+  private HttpFSClientCache.Entry getCached(HttpURLConnection conn) {
+    HttpFSClientCache.Entry entry = null;
+    if (clientCache != null) {
+      entry = clientCache.get(conn.getURL().toString());
+      if (entry != null) {
+        conn.setRequestProperty(IF_NONE_MATCH, entry.getETag());
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Validates and JSON parses the response of a metadata request, using the
+   * {@link HttpFSClientCache} if enabled.
+   *
+   * @param conn the <code>HttpURLConnection</code> of the request.
+   *
+   * @return the parsed JSON object.
+   *
+   * @throws IOException thrown if the request failed or its response could
+   * not be parsed.
+   */
+  private Object conditionalJsonParse(HttpURLConnection conn) throws IOException {
+    HttpFSClientCache.Entry entry = getCached(conn);
+    if (entry != null && conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+      return entry.getValue();
+    }
+    validateResponse(conn, HttpURLConnection.HTTP_OK);
+    Object json = jsonParse(conn);
+    String etag = conn.getHeaderField(ETAG);
+    if (clientCache != null && etag != null) {
+      clientCache.put(conn.getURL().toString(), etag, json);
+    }
+    return json;
+  }
+
   /**
    * Validates the status of an <code>HttpURLConnection</code> against an expected HTTP
    * status code. If the current status code is not the expected one it throws an exception
@@ -319,6 +443,13 @@ public class HttpFSFileSystem extends FileSystem {
     UserGroupInformation ugi = UserGroupInformation.getCurrentUser();
     doAs = ugi.getUserName();
     super.initialize(name, conf);
+    cborEnabled = conf.getBoolean(CBOR_ENABLED, true);
+    compressionEnabled = conf.getBoolean(COMPRESSION_ENABLED, true);
+    openCompressionEnabled = conf.getBoolean(OPEN_COMPRESSION_ENABLED, false);
+    if (conf.getBoolean(CLIENT_CACHE_ENABLED, false)) {
+      clientCache = new HttpFSClientCache(conf.getInt(CLIENT_CACHE_MAX_ENTRIES, 1000),
+                                          conf.getInt(CLIENT_CACHE_MAX_FILE_SIZE, 1024 * 1024));
+    }
     try {
       uri = new URI(name.getScheme() + "://" + name.getHost() + ":" + name.getPort());
     } catch (URISyntaxException ex) {
@@ -392,11 +523,27 @@ public class HttpFSFileSystem extends FileSystem {
   public FSDataInputStream open(Path f, int bufferSize) throws IOException {
     Map<String, String> params = new HashMap<String, String>();
     params.put(OP_PARAM, Operation.OPEN.toString());
+    if (openCompressionEnabled) {
+      params.put(COMPRESS_PARAM, "true");
+    }
     HttpURLConnection conn = getConnection(Operation.OPEN.getMethod(), params,
                                            f, true);
-    validateResponse(conn, HttpURLConnection.HTTP_OK);
-    return new FSDataInputStream(
-      new HttpFSDataInputStream(conn.getInputStream(), bufferSize));
+    if (openCompressionEnabled) {
+      conn.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+    }
+    HttpFSClientCache.Entry entry = getCached(conn);
+    InputStream is;
+    if (entry != null && conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+      is = new ByteArrayInputStream((byte[]) entry.getValue());
+    } else {
+      validateResponse(conn, HttpURLConnection.HTTP_OK);
+      is = getInputStream(conn);
+      String etag = conn.getHeaderField(ETAG);
+      if (clientCache != null && etag != null) {
+        is = clientCache.cache(conn.getURL().toString(), etag, is);
+      }
+    }
+    return new FSDataInputStream(new HttpFSDataInputStream(is, bufferSize));
   }
 
   /**
@@ -600,10 +747,9 @@ public class HttpFSFileSystem extends FileSystem {
   public FileStatus[] listStatus(Path f) throws IOException {
     Map<String, String> params = new HashMap<String, String>();
     params.put(OP_PARAM, Operation.LISTSTATUS.toString());
-    HttpURLConnection conn = getConnection(Operation.LISTSTATUS.getMethod(),
-                                           params, f, true);
-    validateResponse(conn, HttpURLConnection.HTTP_OK);
-    JSONObject json = (JSONObject) jsonParse(conn);
+    HttpURLConnection conn = acceptMetadata(
+      getConnection(Operation.LISTSTATUS.getMethod(), params, f, true));
+    JSONObject json = (JSONObject) conditionalJsonParse(conn);
     json = (JSONObject) json.get(FILE_STATUSES_JSON);
     JSONArray jsonArray = (JSONArray) json.get(FILE_STATUS_JSON);
     FileStatus[] array = new FileStatus[jsonArray.size()];
@@ -669,10 +815,9 @@ public class HttpFSFileSystem extends FileSystem {
   public FileStatus getFileStatus(Path f) throws IOException {
     Map<String, String> params = new HashMap<String, String>();
     params.put(OP_PARAM, Operation.GETFILESTATUS.toString());
-    HttpURLConnection conn = getConnection(Operation.GETFILESTATUS.getMethod(),
-                                           params, f, true);
-    validateResponse(conn, HttpURLConnection.HTTP_OK);
-    JSONObject json = (JSONObject) jsonParse(conn);
+    HttpURLConnection conn = acceptMetadata(
+      getConnection(Operation.GETFILESTATUS.getMethod(), params, f, true));
+    JSONObject json = (JSONObject) conditionalJsonParse(conn);
     json = (JSONObject) json.get(FILE_STATUS_JSON);
     f = makeQualified(f);
     return createFileStatus(f, json);
@@ -820,8 +965,8 @@ public class HttpFSFileSystem extends FileSystem {
   public ContentSummary getContentSummary(Path f) throws IOException {
     Map<String, String> params = new HashMap<String, String>();
     params.put(OP_PARAM, Operation.GETCONTENTSUMMARY.toString());
-    HttpURLConnection conn =
-      getConnection(Operation.GETCONTENTSUMMARY.getMethod(), params, f, true);
+    HttpURLConnection conn = acceptMetadata(
+      getConnection(Operation.GETCONTENTSUMMARY.getMethod(), params, f, true));
     validateResponse(conn, HttpURLConnection.HTTP_OK);
     JSONObject json =
       (JSONObject) ((JSONObject) jsonParse(conn)).get(CONTENT_SUMMARY_JSON);
@@ -838,8 +983,8 @@ public class HttpFSFileSystem extends FileSystem {
   public FileChecksum getFileChecksum(Path f) throws IOException {
     Map<String, String> params = new HashMap<String, String>();
     params.put(OP_PARAM, Operation.GETFILECHECKSUM.toString());
-    HttpURLConnection conn =
-      getConnection(Operation.GETFILECHECKSUM.getMethod(), params, f, true);
+    HttpURLConnection conn = acceptMetadata(
+      getConnection(Operation.GETFILECHECKSUM.getMethod(), params, f, true));
     validateResponse(conn, HttpURLConnection.HTTP_OK);
     final JSONObject json =
       (JSONObject) ((JSONObject) jsonParse(conn)).get(FILE_CHECKSUM_JSON);
@@ -27,34 +27,90 @@ import org.apache.hadoop.fs.http.client.HttpFSFileSystem;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.lib.service.FileSystemAccess;
-import org.json.simple.JSONArray;
+import org.apache.hadoop.lib.wsrs.EntityBuffer;
 import org.json.simple.JSONObject;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.LinkedHashMap;
-import java.util.Map;
 
 /**
  * FileSystem operation executors used by {@link HttpFSServer}.
  */
 public class FSOperations {
 
-  @SuppressWarnings({"unchecked", "deprecation"})
-  private static Map fileStatusToJSONRaw(FileStatus status, boolean emptyPathSuffix) {
-    Map json = new LinkedHashMap();
-    json.put(HttpFSFileSystem.PATH_SUFFIX_JSON, (emptyPathSuffix) ? "" : status.getPath().getName());
-    json.put(HttpFSFileSystem.TYPE_JSON, HttpFSFileSystem.FILE_TYPE.getType(status).toString());
-    json.put(HttpFSFileSystem.LENGTH_JSON, status.getLen());
-    json.put(HttpFSFileSystem.OWNER_JSON, status.getOwner());
-    json.put(HttpFSFileSystem.GROUP_JSON, status.getGroup());
-    json.put(HttpFSFileSystem.PERMISSION_JSON, HttpFSFileSystem.permissionToString(status.getPermission()));
-    json.put(HttpFSFileSystem.ACCESS_TIME_JSON, status.getAccessTime());
-    json.put(HttpFSFileSystem.MODIFICATION_TIME_JSON, status.getModificationTime());
-    json.put(HttpFSFileSystem.BLOCK_SIZE_JSON, status.getBlockSize());
-    json.put(HttpFSFileSystem.REPLICATION_JSON, status.getReplication());
-    return json;
+  private static final EntityBuffer.Token FILE_STATUSES_KEY = EntityBuffer.key(HttpFSFileSystem.FILE_STATUSES_JSON);
+  private static final EntityBuffer.Token FILE_STATUS_KEY = EntityBuffer.key(HttpFSFileSystem.FILE_STATUS_JSON);
+  private static final EntityBuffer.Token PATH_SUFFIX_KEY = EntityBuffer.key(HttpFSFileSystem.PATH_SUFFIX_JSON);
+  private static final EntityBuffer.Token TYPE_KEY = EntityBuffer.key(HttpFSFileSystem.TYPE_JSON);
+  private static final EntityBuffer.Token LENGTH_KEY = EntityBuffer.key(HttpFSFileSystem.LENGTH_JSON);
+  private static final EntityBuffer.Token OWNER_KEY = EntityBuffer.key(HttpFSFileSystem.OWNER_JSON);
+  private static final EntityBuffer.Token GROUP_KEY = EntityBuffer.key(HttpFSFileSystem.GROUP_JSON);
+  private static final EntityBuffer.Token PERMISSION_KEY = EntityBuffer.key(HttpFSFileSystem.PERMISSION_JSON);
+  private static final EntityBuffer.Token ACCESS_TIME_KEY = EntityBuffer.key(HttpFSFileSystem.ACCESS_TIME_JSON);
+  private static final EntityBuffer.Token MODIFICATION_TIME_KEY = EntityBuffer.key(HttpFSFileSystem.MODIFICATION_TIME_JSON);
+  private static final EntityBuffer.Token BLOCK_SIZE_KEY = EntityBuffer.key(HttpFSFileSystem.BLOCK_SIZE_JSON);
+  private static final EntityBuffer.Token REPLICATION_KEY = EntityBuffer.key(HttpFSFileSystem.REPLICATION_JSON);
+
+  private static final EntityBuffer.Token FILE_CHECKSUM_KEY = EntityBuffer.key(HttpFSFileSystem.FILE_CHECKSUM_JSON);
+  private static final EntityBuffer.Token CHECKSUM_ALGORITHM_KEY = EntityBuffer.key(HttpFSFileSystem.CHECKSUM_ALGORITHM_JSON);
+  private static final EntityBuffer.Token CHECKSUM_BYTES_KEY = EntityBuffer.key(HttpFSFileSystem.CHECKSUM_BYTES_JSON);
+  private static final EntityBuffer.Token CHECKSUM_LENGTH_KEY = EntityBuffer.key(HttpFSFileSystem.CHECKSUM_LENGTH_JSON);
+
+  private static final EntityBuffer.Token CONTENT_SUMMARY_KEY = EntityBuffer.key(HttpFSFileSystem.CONTENT_SUMMARY_JSON);
+  private static final EntityBuffer.Token CONTENT_SUMMARY_DIRECTORY_COUNT_KEY =
+    EntityBuffer.key(HttpFSFileSystem.CONTENT_SUMMARY_DIRECTORY_COUNT_JSON);
+  private static final EntityBuffer.Token CONTENT_SUMMARY_FILE_COUNT_KEY =
+    EntityBuffer.key(HttpFSFileSystem.CONTENT_SUMMARY_FILE_COUNT_JSON);
+  private static final EntityBuffer.Token CONTENT_SUMMARY_LENGTH_KEY = EntityBuffer.key(HttpFSFileSystem.CONTENT_SUMMARY_LENGTH_JSON);
+  private static final EntityBuffer.Token CONTENT_SUMMARY_QUOTA_KEY = EntityBuffer.key(HttpFSFileSystem.CONTENT_SUMMARY_QUOTA_JSON);
+  private static final EntityBuffer.Token CONTENT_SUMMARY_SPACE_CONSUMED_KEY =
+    EntityBuffer.key(HttpFSFileSystem.CONTENT_SUMMARY_SPACE_CONSUMED_JSON);
+  private static final EntityBuffer.Token CONTENT_SUMMARY_SPACE_QUOTA_KEY =
+    EntityBuffer.key(HttpFSFileSystem.CONTENT_SUMMARY_SPACE_QUOTA_JSON);
+
+  private static final EntityBuffer.Token[] FILE_TYPES;
+
+  static {
+    HttpFSFileSystem.FILE_TYPE[] types = HttpFSFileSystem.FILE_TYPE.values();
+    FILE_TYPES = new EntityBuffer.Token[types.length];
+    for (HttpFSFileSystem.FILE_TYPE type : types) {
+      FILE_TYPES[type.ordinal()] = EntityBuffer.string(type.toString());
+    }
+  }
+
+  private static final EntityBuffer.Token EMPTY_PATH_SUFFIX = EntityBuffer.string("");
+
+  /**
+   * Writes the JSON object of a FileSystemAccess <code>FileStatus</code> into an
+   * entity buffer.
+   *
+   * @param json entity buffer to write to.
+   * @param status FileSystemAccess file status.
+   * @param emptyPathSuffix if the path suffix should be empty instead of the
+   * file name.
+   */
+  @SuppressWarnings("deprecation")
+  private static void fileStatusToJSONRaw(EntityBuffer json, FileStatus status, boolean emptyPathSuffix) {
+    FsPermission permission = status.getPermission();
+    json.startObject();
+    json.key(PATH_SUFFIX_KEY);
+    if (emptyPathSuffix) {
+      json.value(EMPTY_PATH_SUFFIX);
+    } else {
+      json.value(status.getPath().getName());
+    }
+    json.key(TYPE_KEY).value(FILE_TYPES[HttpFSFileSystem.FILE_TYPE.getType(status).ordinal()]);
+    json.key(LENGTH_KEY).value(status.getLen());
+    json.key(OWNER_KEY).value(status.getOwner());
+    json.key(GROUP_KEY).value(status.getGroup());
+    json.key(PERMISSION_KEY).stringValue(
+      (permission == null) ? HttpFSFileSystem.DEFAULT_PERMISSION : permission.toShort(), 8);
+    json.key(ACCESS_TIME_KEY).value(status.getAccessTime());
+    json.key(MODIFICATION_TIME_KEY).value(status.getModificationTime());
+    json.key(BLOCK_SIZE_KEY).value(status.getBlockSize());
+    json.key(REPLICATION_KEY).value(status.getReplication());
+    json.endObject();
   }
 
   /**
@@ -62,13 +118,15 @@ public class FSOperations {
    * object.
    *
    * @param status FileSystemAccess file status.
+   * @param format response format.
    *
    * @return The JSON representation of the file status.
    */
-  @SuppressWarnings({"unchecked", "deprecation"})
-  private static Map fileStatusToJSON(FileStatus status) {
-    Map json = new LinkedHashMap();
-    json.put(HttpFSFileSystem.FILE_STATUS_JSON, fileStatusToJSONRaw(status, true));
+  static EntityBuffer fileStatusToJSON(FileStatus status, EntityBuffer.Format format) {
+    EntityBuffer json = format.createBuffer(256);
+    json.startObject().key(FILE_STATUS_KEY);
+    fileStatusToJSONRaw(json, status, true);
+    json.endObject();
     return json;
   }
 
@@ -77,19 +135,18 @@ public class FSOperations {
    * object.
    *
    * @param checksum file checksum.
+   * @param format response format.
    *
    * @return The JSON representation of the file checksum.
    */
-  @SuppressWarnings({"unchecked"})
-  private static Map fileChecksumToJSON(FileChecksum checksum) {
-    Map json = new LinkedHashMap();
-    json.put(HttpFSFileSystem.CHECKSUM_ALGORITHM_JSON, checksum.getAlgorithmName());
-    json.put(HttpFSFileSystem.CHECKSUM_BYTES_JSON,
-             org.apache.hadoop.util.StringUtils.byteToHexString(checksum.getBytes()));
-    json.put(HttpFSFileSystem.CHECKSUM_LENGTH_JSON, checksum.getLength());
-    Map response = new LinkedHashMap();
-    response.put(HttpFSFileSystem.FILE_CHECKSUM_JSON, json);
-    return response;
+  static EntityBuffer fileChecksumToJSON(FileChecksum checksum, EntityBuffer.Format format) {
+    EntityBuffer json = format.createBuffer(256);
+    json.startObject().key(FILE_CHECKSUM_KEY).startObject();
+    json.key(CHECKSUM_ALGORITHM_KEY).value(checksum.getAlgorithmName());
+    json.key(CHECKSUM_BYTES_KEY).hexValue(checksum.getBytes());
+    json.key(CHECKSUM_LENGTH_KEY).value(checksum.getLength());
+    json.endObject().endObject();
+    return json;
   }
 
   /**
@@ -97,21 +154,21 @@ public class FSOperations {
    * object.
    *
    * @param contentSummary the content summary
+   * @param format response format.
    *
    * @return The JSON representation of the content summary.
    */
-  @SuppressWarnings({"unchecked"})
-  private static Map contentSummaryToJSON(ContentSummary contentSummary) {
-    Map json = new LinkedHashMap();
-    json.put(HttpFSFileSystem.CONTENT_SUMMARY_DIRECTORY_COUNT_JSON, contentSummary.getDirectoryCount());
-    json.put(HttpFSFileSystem.CONTENT_SUMMARY_FILE_COUNT_JSON, contentSummary.getFileCount());
-    json.put(HttpFSFileSystem.CONTENT_SUMMARY_LENGTH_JSON, contentSummary.getLength());
-    json.put(HttpFSFileSystem.CONTENT_SUMMARY_QUOTA_JSON, contentSummary.getQuota());
-    json.put(HttpFSFileSystem.CONTENT_SUMMARY_SPACE_CONSUMED_JSON, contentSummary.getSpaceConsumed());
-    json.put(HttpFSFileSystem.CONTENT_SUMMARY_SPACE_QUOTA_JSON, contentSummary.getSpaceQuota());
-    Map response = new LinkedHashMap();
-    response.put(HttpFSFileSystem.CONTENT_SUMMARY_JSON, json);
-    return response;
+  static EntityBuffer contentSummaryToJSON(ContentSummary contentSummary, EntityBuffer.Format format) {
+    EntityBuffer json = format.createBuffer(256);
+    json.startObject().key(CONTENT_SUMMARY_KEY).startObject();
+    json.key(CONTENT_SUMMARY_DIRECTORY_COUNT_KEY).value(contentSummary.getDirectoryCount());
+    json.key(CONTENT_SUMMARY_FILE_COUNT_KEY).value(contentSummary.getFileCount());
+    json.key(CONTENT_SUMMARY_LENGTH_KEY).value(contentSummary.getLength());
+    json.key(CONTENT_SUMMARY_QUOTA_KEY).value(contentSummary.getQuota());
+    json.key(CONTENT_SUMMARY_SPACE_CONSUMED_KEY).value(contentSummary.getSpaceConsumed());
+    json.key(CONTENT_SUMMARY_SPACE_QUOTA_KEY).value(contentSummary.getSpaceQuota());
+    json.endObject().endObject();
+    return json;
   }
 
   /**
@@ -120,22 +177,39 @@ public class FSOperations {
    *
    * @param status FileSystemAccess file status array.
    * <code>SCHEME://HOST:PORT</code> in the file status.
+   * @param format response format.
    *
    * @return The JSON representation of the file status array.
    */
-  @SuppressWarnings("unchecked")
-  private static Map fileStatusToJSON(FileStatus[] status) {
-    JSONArray json = new JSONArray();
+  static EntityBuffer fileStatusToJSON(FileStatus[] status, EntityBuffer.Format format) {
+    // ~200 bytes per entry avoids most buffer growth for large listings
+    EntityBuffer json = format.createBuffer(64 + ((status != null) ? status.length * 200 : 0));
+    json.startObject().key(FILE_STATUSES_KEY).startObject().key(FILE_STATUS_KEY).startArray();
     if (status != null) {
       for (FileStatus s : status) {
-        json.add(fileStatusToJSONRaw(s, false));
+        fileStatusToJSONRaw(json, s, false);
       }
     }
-    Map response = new LinkedHashMap();
-    Map temp = new LinkedHashMap();
-    temp.put(HttpFSFileSystem.FILE_STATUS_JSON, json);
-    response.put(HttpFSFileSystem.FILE_STATUSES_JSON, temp);
-    return response;
+    json.endArray().endObject().endObject();
+    return json;
+  }
+
+  /**
+   * Checks the user of a filesystem can read a file, for the responses served
+   * from a cache without opening the file.
+   * <p/>
+   * Getting the block locations of a file is subject to the same read
+   * permission check in the namenode as opening it, and it does not contact
+   * any datanode. A cached response is then served to all the users that can
+   * read the file, whoever caused it to be cached.
+   *
+   * @param fs filesystem of the user.
+   * @param status status of the file.
+   *
+   * @throws IOException thrown if the user can not read the file.
+   */
+  static void checkReadAccess(FileSystem fs, FileStatus status) throws IOException {
+    fs.getFileBlockLocations(status, 0, 0);
   }
 
   /**
@@ -162,6 +236,7 @@ public class FSOperations {
   public static class FSAppend implements FileSystemAccess.FileSystemExecutor<Void> {
     private InputStream is;
     private Path path;
+    private HttpFSUploadPipeline pipeline;
 
     /**
      * Creates an Append executor.
@@ -170,8 +245,22 @@ public class FSOperations {
      * @param path path of the file to append.
      */
     public FSAppend(InputStream is, String path) {
+      this(is, path, null);
+    }
+
+    /**
+     * Creates an Append executor that writes the input stream through an
+     * upload pipeline.
+     *
+     * @param is input stream to append.
+     * @param path path of the file to append.
+     * @param pipeline upload pipeline, <code>null</code> to copy the input
+     * stream in the calling thread.
+     */
+    public FSAppend(InputStream is, String path, HttpFSUploadPipeline pipeline) {
       this.is = is;
       this.path = new Path(path);
+      this.pipeline = pipeline;
     }
 
     /**
@@ -187,8 +276,12 @@ public class FSOperations {
     public Void execute(FileSystem fs) throws IOException {
       int bufferSize = fs.getConf().getInt("httpfs.buffer.size", 4096);
       OutputStream os = fs.append(path, bufferSize);
-      IOUtils.copyBytes(is, os, bufferSize, true);
-      os.close();
+      if (pipeline != null) {
+        pipeline.copy(is, os, bufferSize);
+      } else {
+        IOUtils.copyBytes(is, os, bufferSize, true);
+        os.close();
+      }
       return null;
     }
 
@@ -197,8 +290,10 @@ public class FSOperations {
   /**
    * Executor that performs a content-summary FileSystemAccess files system operation.
    */
-  public static class FSContentSummary implements FileSystemAccess.FileSystemExecutor<Map> {
+  public static class FSContentSummary implements FileSystemAccess.FileSystemExecutor<EntityBuffer> {
     private Path path;
+    private EntityBuffer.Format format;
+    private HttpFSContentSummary engine;
 
     /**
      * Creates a content-summary executor.
@@ -206,7 +301,30 @@ public class FSOperations {
      * @param path the path to retrieve the content-summary.
      */
     public FSContentSummary(String path) {
+      this(path, EntityBuffer.Format.JSON);
+    }
+
+    /**
+     * Creates a content-summary executor.
+     *
+     * @param path the path to retrieve the content-summary.
+     * @param format response format.
+     */
+    public FSContentSummary(String path, EntityBuffer.Format format) {
+      this(path, format, null);
+    }
+
+    /**
+     * Creates a content-summary executor.
+     *
+     * @param path the path to retrieve the content-summary.
+     * @param format response format.
+     * @param engine content summary engine to use, <code>null</code> if none.
+     */
+    public FSContentSummary(String path, EntityBuffer.Format format, HttpFSContentSummary engine) {
       this.path = new Path(path);
+      this.format = format;
+      this.engine = engine;
     }
 
     /**
@@ -214,14 +332,15 @@ public class FSOperations {
      *
      * @param fs filesystem instance to use.
      *
-     * @return a Map object (JSON friendly) with the content-summary.
+     * @return an entity buffer with the content-summary.
      *
      * @throws IOException thrown if an IO error occured.
      */
     @Override
-    public Map execute(FileSystem fs) throws IOException {
-      ContentSummary contentSummary = fs.getContentSummary(path);
-      return contentSummaryToJSON(contentSummary);
+    public EntityBuffer execute(FileSystem fs) throws IOException {
+      ContentSummary contentSummary =
+        (engine != null) ? engine.getContentSummary(fs, path) : fs.getContentSummary(path);
+      return contentSummaryToJSON(contentSummary, format);
     }
 
   }
@@ -236,6 +355,7 @@ public class FSOperations {
     private boolean override;
     private short replication;
     private long blockSize;
+    private HttpFSUploadPipeline pipeline;
 
     /**
      * Creates a Create executor.
@@ -249,12 +369,31 @@ public class FSOperations {
      */
     public FSCreate(InputStream is, String path, short perm, boolean override,
                     short repl, long blockSize) {
+      this(is, path, perm, override, repl, blockSize, null);
+    }
+
+    /**
+     * Creates a Create executor that writes the input stream through an
+     * upload pipeline.
+     *
+     * @param is input stream to for the file to create.
+     * @param path path of the file to create.
+     * @param perm permission for the file.
+     * @param override if the file should be overriden if it already exist.
+     * @param repl the replication factor for the file.
+     * @param blockSize the block size for the file.
+     * @param pipeline upload pipeline, <code>null</code> to copy the input
+     * stream in the calling thread.
+     */
+    public FSCreate(InputStream is, String path, short perm, boolean override,
+                    short repl, long blockSize, HttpFSUploadPipeline pipeline) {
       this.is = is;
       this.path = new Path(path);
       this.permission = perm;
       this.override = override;
       this.replication = repl;
       this.blockSize = blockSize;
+      this.pipeline = pipeline;
     }
 
     /**
@@ -277,8 +416,12 @@ public class FSOperations {
       FsPermission fsPermission = new FsPermission(permission);
       int bufferSize = fs.getConf().getInt("httpfs.buffer.size", 4096);
       OutputStream os = fs.create(path, fsPermission, override, bufferSize, replication, blockSize, null);
-      IOUtils.copyBytes(is, os, bufferSize, true);
-      os.close();
+      if (pipeline != null) {
+        pipeline.copy(is, os, bufferSize);
+      } else {
+        IOUtils.copyBytes(is, os, bufferSize, true);
+        os.close();
+      }
       return null;
     }
 
@@ -323,8 +466,10 @@ public class FSOperations {
   /**
    * Executor that performs a file-checksum FileSystemAccess files system operation.
    */
-  public static class FSFileChecksum implements FileSystemAccess.FileSystemExecutor<Map> {
+  public static class FSFileChecksum implements FileSystemAccess.FileSystemExecutor<EntityBuffer> {
     private Path path;
+    private EntityBuffer.Format format;
+    private HttpFSChecksumCache cache;
 
     /**
      * Creates a file-checksum executor.
@@ -332,7 +477,30 @@ public class FSOperations {
      * @param path the path to retrieve the checksum.
      */
     public FSFileChecksum(String path) {
+      this(path, EntityBuffer.Format.JSON);
+    }
+
+    /**
+     * Creates a file-checksum executor.
+     *
+     * @param path the path to retrieve the checksum.
+     * @param format response format.
+     */
+    public FSFileChecksum(String path, EntityBuffer.Format format) {
+      this(path, format, null);
+    }
+
+    /**
+     * Creates a file-checksum executor.
+     *
+     * @param path the path to retrieve the checksum.
+     * @param format response format.
+     * @param cache checksum cache to use, <code>null</code> if none.
+     */
+    public FSFileChecksum(String path, EntityBuffer.Format format, HttpFSChecksumCache cache) {
       this.path = new Path(path);
+      this.format = format;
+      this.cache = cache;
     }
 
     /**
@@ -340,14 +508,14 @@ public class FSOperations {
      *
      * @param fs filesystem instance to use.
      *
-     * @return a Map object (JSON friendly) with the file checksum.
+     * @return an entity buffer with the file checksum.
      *
      * @throws IOException thrown if an IO error occured.
      */
     @Override
-    public Map execute(FileSystem fs) throws IOException {
-      FileChecksum checksum = fs.getFileChecksum(path);
-      return fileChecksumToJSON(checksum);
+    public EntityBuffer execute(FileSystem fs) throws IOException {
+      FileChecksum checksum = (cache != null) ? cache.getFileChecksum(fs, path) : fs.getFileChecksum(path);
+      return fileChecksumToJSON(checksum, format);
     }
 
   }
@@ -355,8 +523,9 @@ public class FSOperations {
   /**
    * Executor that performs a file-status FileSystemAccess files system operation.
    */
-  public static class FSFileStatus implements FileSystemAccess.FileSystemExecutor<Map> {
+  public static class FSFileStatus implements FileSystemAccess.FileSystemExecutor<EntityBuffer> {
     private Path path;
+    private EntityBuffer.Format format;
 
     /**
      * Creates a file-status executor.
@@ -364,7 +533,18 @@ public class FSOperations {
      * @param path the path to retrieve the status.
      */
     public FSFileStatus(String path) {
+      this(path, EntityBuffer.Format.JSON);
+    }
+
+    /**
+     * Creates a file-status executor.
+     *
+     * @param path the path to retrieve the status.
+     * @param format response format.
+     */
+    public FSFileStatus(String path, EntityBuffer.Format format) {
       this.path = new Path(path);
+      this.format = format;
     }
 
     /**
@@ -372,14 +552,14 @@ public class FSOperations {
      *
      * @param fs filesystem instance to use.
      *
-     * @return a Map object (JSON friendly) with the file status.
+     * @return an entity buffer with the file status.
      *
      * @throws IOException thrown if an IO error occured.
      */
     @Override
-    public Map execute(FileSystem fs) throws IOException {
+    public EntityBuffer execute(FileSystem fs) throws IOException {
       FileStatus status = fs.getFileStatus(path);
-      return fileStatusToJSON(status);
+      return fileStatusToJSON(status, format);
     }
 
   }
@@ -412,9 +592,10 @@ public class FSOperations {
   /**
    * Executor that performs a list-status FileSystemAccess files system operation.
    */
-  public static class FSListStatus implements FileSystemAccess.FileSystemExecutor<Map>, PathFilter {
+  public static class FSListStatus implements FileSystemAccess.FileSystemExecutor<EntityBuffer>, PathFilter {
     private Path path;
     private PathFilter filter;
+    private EntityBuffer.Format format;
 
     /**
      * Creates a list-status executor.
@@ -425,8 +606,22 @@ public class FSOperations {
      * @throws IOException thrown if the filter expression is incorrect.
      */
     public FSListStatus(String path, String filter) throws IOException {
+      this(path, filter, EntityBuffer.Format.JSON);
+    }
+
+    /**
+     * Creates a list-status executor.
+     *
+     * @param path the directory to retrieve the status of its contents.
+     * @param filter glob filter to use.
+     * @param format response format.
+     *
+     * @throws IOException thrown if the filter expression is incorrect.
+     */
+    public FSListStatus(String path, String filter, EntityBuffer.Format format) throws IOException {
       this.path = new Path(path);
       this.filter = this;
+      this.format = format;
     }
 
     /**
@@ -434,15 +629,15 @@ public class FSOperations {
      *
      * @param fs filesystem instance to use.
      *
-     * @return a Map with the file status of the directory
+     * @return an entity buffer with the file status of the directory
      *         contents.
      *
      * @throws IOException thrown if an IO error occured.
      */
     @Override
-    public Map execute(FileSystem fs) throws IOException {
+    public EntityBuffer execute(FileSystem fs) throws IOException {
       FileStatus[] status = fs.listStatus(path, filter);
-      return fileStatusToJSON(status);
+      return fileStatusToJSON(status, format);
     }
 
     @Override
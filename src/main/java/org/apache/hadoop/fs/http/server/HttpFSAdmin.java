@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.security.Principal;
+
+/**
+ * Admin endpoints of the HttpFSServer, they require the user to be in the
+ * HttpFSServer admin group.
+ */
+@Path("/admin")
+public class HttpFSAdmin {
+
+  /**
+   * Binding to dump the requests in flight.
+   *
+   * @param user the principal of the user making the request.
+   *
+   * @return the requests in flight, oldest first, as JSON.
+   *
+   * @throws IOException thrown if the user is not in the admin group or its
+   * groups could not be resolved. Thrown exceptions are handled by
+   * {@link HttpFSExceptionProvider}.
+   */
+  @GET
+  @Path("/inflight")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response inFlight(@Context Principal user) throws IOException {
+    HttpFSServer.enforceAdminUser(user);
+    return Response.ok(HttpFSServerWebApp.get().getInFlightRequests().toJSON())
+      .type(MediaType.APPLICATION_JSON).build();
+  }
+
+}
@@ -0,0 +1,278 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.hadoop.lib.service.Instrumentation;
+import org.apache.hadoop.lib.util.TokenBucket;
+import org.apache.hadoop.util.Time;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bandwidth throttle for the data streamed by the HttpFSServer.
+ * <p/>
+ * The bytes uploaded by CREATE and APPEND and the bytes downloaded by OPEN
+ * are taken, as they are transferred, from a global token bucket and from a
+ * token bucket of the user, the stream waits if any of the buckets is in debt.
+ * Transfers are throttled in chunks of at most {@link #CHUNK_SIZE} bytes,
+ * concurrent streams wait in arrival order and share the rate fairly. The
+ * bucket of a user is dropped once it is full again, as a new bucket is the
+ * same, so only the users transferring recently are tracked.
+ * <p/>
+ * The number of throttled transfers and the time they waited are accounted
+ * in the <code>httpfs.throttle</code> instrumentation group.
+ */
+public class HttpFSBandwidthThrottle {
+
+  /**
+   * Instrumentation group of the throttle metrics.
+   */
+  public static final String THROTTLE_GROUP = "httpfs.throttle";
+
+  /**
+   * Maximum number of bytes taken from the token buckets at once.
+   */
+  public static final int CHUNK_SIZE = 64 * 1024;
+
+  // minimum time between the sweeps of the full user buckets
+  static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * Direction of the throttled data.
+   */
+  public enum Direction {
+    /** Data uploaded by the client, CREATE and APPEND. */
+    IN,
+    /** Data downloaded by the client, OPEN. */
+    OUT
+  }
+
+  private final TokenBucket global;
+  private final long userRate;
+  private final long userBurst;
+  private final ConcurrentMap<String, TokenBucket> userBuckets;
+  private final AtomicLong lastSweep = new AtomicLong(Time.monotonicNowNanos());
+  private final Instrumentation.Counter[] throttledCounters;
+  private final Instrumentation.Counter[] throttledTimeCounters;
+
+  /**
+   * Creates a bandwidth throttle.
+   *
+   * @param globalRate bytes per second of all the streams together, zero or
+   * negative for unlimited.
+   * @param globalBurst burst size in bytes of all the streams together, zero
+   * or negative for one second worth of bytes.
+   * @param userRate bytes per second of the streams of a user, zero or
+   * negative for unlimited.
+   * @param userBurst burst size in bytes of the streams of a user, zero or
+   * negative for one second worth of bytes.
+   * @param instrumentation instrumentation to account the throttled time.
+   */
+  public HttpFSBandwidthThrottle(long globalRate, long globalBurst, long userRate,
+                                 long userBurst, Instrumentation instrumentation) {
+    global = (globalRate > 0) ? new TokenBucket(globalRate, globalBurst) : null;
+    this.userRate = userRate;
+    this.userBurst = userBurst;
+    userBuckets = new ConcurrentHashMap<String, TokenBucket>();
+    Direction[] directions = Direction.values();
+    throttledCounters = new Instrumentation.Counter[directions.length];
+    throttledTimeCounters = new Instrumentation.Counter[directions.length];
+    for (Direction direction : directions) {
+      String name = direction.name().toLowerCase();
+      throttledCounters[direction.ordinal()] =
+        instrumentation.counter(THROTTLE_GROUP, name + ".throttled");
+      throttledTimeCounters[direction.ordinal()] =
+        instrumentation.counter(THROTTLE_GROUP, name + ".throttled.ms");
+    }
+  }
+
+  /**
+   * Returns if the throttle limits any stream.
+   *
+   * @return if the throttle limits any stream.
+   */
+  public boolean isEnabled() {
+    return global != null || userRate > 0;
+  }
+
+  /**
+   * Throttles the data uploaded by a user.
+   *
+   * @param is the uploaded data.
+   * @param user the effective user.
+   *
+   * @return the throttled stream, the given stream if the throttle is
+   * disabled.
+   */
+  public InputStream throttle(InputStream is, String user) {
+    return (isEnabled()) ? new ThrottledInputStream(is, user) : is;
+  }
+
+  /**
+   * Throttles the data downloaded by a user.
+   *
+   * @param output the downloaded data.
+   * @param user the effective user.
+   *
+   * @return the throttled output, the given output if the throttle is
+   * disabled.
+   */
+  public StreamingOutput throttle(final StreamingOutput output, final String user) {
+    if (!isEnabled()) {
+      return output;
+    }
+    return new StreamingOutput() {
+      @Override
+      public void write(OutputStream os) throws IOException {
+        output.write(new ThrottledOutputStream(os, user));
+      }
+    };
+  }
+
+  private TokenBucket getUserBucket(String user) {
+    TokenBucket bucket = userBuckets.get(user);
+    if (bucket == null) {
+      sweep();
+      bucket = new TokenBucket(userRate, userBurst);
+      TokenBucket existing = userBuckets.putIfAbsent(user, bucket);
+      if (existing != null) {
+        bucket = existing;
+      }
+    }
+    return bucket;
+  }
+
+  /**
+   * Drops the full user buckets, at most once every
+   * {@link #SWEEP_INTERVAL_NANOS}. It runs before a bucket is created, so the
+   * number of buckets is bounded by the users transferring recently.
+   */
+  private void sweep() {
+    long last = lastSweep.get();
+    long now = Time.monotonicNowNanos();
+    if (now - last >= SWEEP_INTERVAL_NANOS && lastSweep.compareAndSet(last, now)) {
+      for (Map.Entry<String, TokenBucket> entry : userBuckets.entrySet()) {
+        if (entry.getValue().isFull()) {
+          userBuckets.remove(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of user buckets.
+   *
+   * @return the number of user buckets.
+   */
+  int getUserBuckets() {
+    return userBuckets.size();
+  }
+
+  /**
+   * Takes bytes from the global and user token buckets, waiting if any of
+   * them is in debt.
+   *
+   * @param user the effective user.
+   * @param direction direction of the data.
+   * @param bytes number of bytes, at most {@link #CHUNK_SIZE}.
+   *
+   * @return the time waited in nanoseconds.
+   *
+   * @throws IOException thrown if interrupted while waiting.
+   */
+  long acquire(String user, Direction direction, long bytes) throws IOException {
+    long wait = 0;
+    if (userRate > 0) {
+      wait = getUserBucket(user).reserve(bytes);
+    }
+    if (global != null) {
+      wait = Math.max(wait, global.reserve(bytes));
+    }
+    if (wait > 0) {
+      throttledCounters[direction.ordinal()].incr(1);
+      throttledTimeCounters[direction.ordinal()].incr(TimeUnit.NANOSECONDS.toMillis(wait));
+      TokenBucket.sleep(wait);
+    }
+    return wait;
+  }
+
+  private class ThrottledInputStream extends FilterInputStream {
+    private final String user;
+
+    private ThrottledInputStream(InputStream is, String user) {
+      super(is);
+      this.user = user;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        acquire(user, Direction.IN, 1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, Math.min(len, CHUNK_SIZE));
+      if (read > 0) {
+        acquire(user, Direction.IN, read);
+      }
+      return read;
+    }
+  }
+
+  private class ThrottledOutputStream extends FilterOutputStream {
+    private final String user;
+
+    private ThrottledOutputStream(OutputStream os, String user) {
+      super(os);
+      this.user = user;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      acquire(user, Direction.OUT, 1);
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int chunk = Math.min(len, CHUNK_SIZE);
+        acquire(user, Direction.OUT, chunk);
+        out.write(b, off, chunk);
+        off += chunk;
+        len -= chunk;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.hadoop.fs.http.client.HttpFSFileSystem;
+import org.apache.hadoop.lib.service.FileSystemAccessException;
+import org.apache.hadoop.lib.service.FileSystemAccessRejectedException;
+import org.apache.hadoop.lib.service.Instrumentation;
+import org.apache.hadoop.lib.util.BoundedQueueSemaphore;
+
+/**
+ * Bulkheads isolating the metadata requests from the data streaming requests
+ * of the HttpFSServer.
+ * <p/>
+ * Streaming requests (OPEN, and CREATE and APPEND with data) take minutes,
+ * metadata requests take milliseconds. Each kind of request takes a permit
+ * of its own bulkhead when dispatched and returns it when the request
+ * completes, after the response has been streamed, in the
+ * {@link HttpFSReleaseFilter}. A request over the concurrency limit of its
+ * bulkhead waits, in FIFO order, up to a timeout; if the bulkhead wait queue
+ * is full it is rejected right away. Rejected requests get an HTTP 503
+ * (Service Unavailable) response with a Retry-After header, as the requests
+ * rejected by the operation classes of the <code>FileSystemAccess</code>.
+ * <p/>
+ * The servlet container serves a request in a single thread from beginning
+ * to end, the bulkheads limit how many container threads each kind of
+ * request can hold. Keeping the streaming limit plus its wait queue below the
+ * container thread pool size leaves threads for the metadata requests.
+ * <p/>
+ * The running and waiting requests, admitted and rejected requests and the
+ * wait time of every bulkhead are reported in the
+ * <code>httpfs.bulkheads</code> instrumentation group.
+ */
+public class HttpFSBulkheads {
+
+  /**
+   * Instrumentation group of the bulkhead metrics.
+   */
+  public static final String INSTRUMENTATION_GROUP = "httpfs.bulkheads";
+
+  /**
+   * Kinds of requests, each one with its own bulkhead.
+   */
+  public enum Type {
+    /** Short requests on the filesystem namespace. */
+    METADATA,
+    /** Long requests streaming file data. */
+    STREAMING
+  }
+
+  private static class Bulkhead {
+    private final String name;
+    private final int maxConcurrent;
+    private final BoundedQueueSemaphore permits;
+    private final Instrumentation.Counter admitted;
+    private final Instrumentation.Counter rejectedQueueFull;
+    private final Instrumentation.Counter rejectedTimeout;
+
+    private Bulkhead(Type type, int maxConcurrent, int queueSize, Instrumentation instrumentation) {
+      name = type.name().toLowerCase();
+      this.maxConcurrent = maxConcurrent;
+      permits = (maxConcurrent > 0) ? new BoundedQueueSemaphore(maxConcurrent, queueSize) : null;
+      admitted = instrumentation.counter(INSTRUMENTATION_GROUP, name + ".admitted");
+      rejectedQueueFull = instrumentation.counter(INSTRUMENTATION_GROUP, name + ".rejected.queue.full");
+      rejectedTimeout = instrumentation.counter(INSTRUMENTATION_GROUP, name + ".rejected.timeout");
+      instrumentation.addVariable(INSTRUMENTATION_GROUP, name + ".running", new Instrumentation.Variable<Integer>() {
+        @Override
+        public Integer getValue() {
+          return getRunning();
+        }
+      });
+      instrumentation.addVariable(INSTRUMENTATION_GROUP, name + ".waiting", new Instrumentation.Variable<Integer>() {
+        @Override
+        public Integer getValue() {
+          return getWaiting();
+        }
+      });
+      instrumentation.addSampler(INSTRUMENTATION_GROUP, name + ".waiting", 60, new Instrumentation.Variable<Long>() {
+        @Override
+        public Long getValue() {
+          return (long) getWaiting();
+        }
+      });
+    }
+
+    private int getRunning() {
+      return (permits != null) ? permits.getRunning() : 0;
+    }
+
+    private int getWaiting() {
+      return (permits != null) ? permits.getWaiting() : 0;
+    }
+  }
+
+  private static final ThreadLocal<BoundedQueueSemaphore> PERMIT_TL = new ThreadLocal<BoundedQueueSemaphore>();
+
+  private final Bulkhead[] bulkheads;
+  private final long queueTimeoutMillis;
+  private final int retryAfterSeconds;
+  private final Instrumentation instrumentation;
+
+  /**
+   * Creates the bulkheads.
+   *
+   * @param metadataMaxConcurrent concurrent metadata requests, zero or
+   * negative for no limit.
+   * @param metadataQueueSize maximum number of metadata requests waiting.
+   * @param streamingMaxConcurrent concurrent streaming requests, zero or
+   * negative for no limit.
+   * @param streamingQueueSize maximum number of streaming requests waiting.
+   * @param queueTimeoutMillis maximum time a request waits for its bulkhead.
+   * @param retryAfterSeconds suggested time to wait before retrying a
+   * rejected request.
+   * @param instrumentation instrumentation to report the bulkhead metrics.
+   */
+  public HttpFSBulkheads(int metadataMaxConcurrent, int metadataQueueSize,
+                         int streamingMaxConcurrent, int streamingQueueSize,
+                         long queueTimeoutMillis, int retryAfterSeconds,
+                         Instrumentation instrumentation) {
+    bulkheads = new Bulkhead[Type.values().length];
+    bulkheads[Type.METADATA.ordinal()] =
+      new Bulkhead(Type.METADATA, metadataMaxConcurrent, metadataQueueSize, instrumentation);
+    bulkheads[Type.STREAMING.ordinal()] =
+      new Bulkhead(Type.STREAMING, streamingMaxConcurrent, streamingQueueSize, instrumentation);
+    this.queueTimeoutMillis = queueTimeoutMillis;
+    this.retryAfterSeconds = retryAfterSeconds;
+    this.instrumentation = instrumentation;
+  }
+
+  /**
+   * Returns the kind of a request.
+   *
+   * @param op the operation of the request.
+   * @param hasData if the request carries data, only meaningful for CREATE
+   * and APPEND.
+   *
+   * @return the kind of the request.
+   */
+  public static Type getType(HttpFSFileSystem.Operation op, boolean hasData) {
+    switch (op) {
+      case OPEN:
+        return Type.STREAMING;
+      case CREATE:
+      case APPEND:
+        return (hasData) ? Type.STREAMING : Type.METADATA;
+      default:
+        return Type.METADATA;
+    }
+  }
+
+  /**
+   * Takes a permit of a bulkhead for the current request, waiting if the
+   * bulkhead is at its limit. The permit is returned by {@link #release}.
+   *
+   * @param type kind of the current request.
+   *
+   * @throws FileSystemAccessRejectedException thrown if the wait queue of the
+   * bulkhead is full or the wait timed out.
+   */
+  public void acquire(Type type) throws FileSystemAccessException {
+    Bulkhead bulkhead = bulkheads[type.ordinal()];
+    if (bulkhead.permits == null) {
+      bulkhead.admitted.incr(1);
+      return;
+    }
+    if (!bulkhead.permits.tryAcquire()) {
+      await(bulkhead);
+    }
+    PERMIT_TL.set(bulkhead.permits);
+    bulkhead.admitted.incr(1);
+  }
+
+  private void await(Bulkhead bulkhead) throws FileSystemAccessException {
+    HttpFSInFlightRequests.setPhase(HttpFSInFlightRequests.Phase.QUEUED);
+    Instrumentation.Cron cron = instrumentation.createCron().start();
+    BoundedQueueSemaphore.Result result = bulkhead.permits.acquire(queueTimeoutMillis);
+    HttpFSInFlightRequests.setPhase(HttpFSInFlightRequests.Phase.AUTH);
+    if (result == BoundedQueueSemaphore.Result.QUEUE_FULL) {
+      bulkhead.rejectedQueueFull.incr(1);
+      throw new FileSystemAccessRejectedException(retryAfterSeconds, FileSystemAccessException.ERROR.H16,
+                                                  bulkhead.name, Integer.toString(bulkhead.maxConcurrent),
+                                                  "wait queue full");
+    }
+    instrumentation.addCron(INSTRUMENTATION_GROUP, bulkhead.name + ".wait", cron.stop());
+    if (result == BoundedQueueSemaphore.Result.TIMED_OUT) {
+      bulkhead.rejectedTimeout.incr(1);
+      throw new FileSystemAccessRejectedException(retryAfterSeconds, FileSystemAccessException.ERROR.H16,
+                                                  bulkhead.name, Integer.toString(bulkhead.maxConcurrent),
+                                                  "waited [" + queueTimeoutMillis + "] ms");
+    }
+  }
+
+  /**
+   * Returns the permit taken by the current request, if any.
+   */
+  public void release() {
+    BoundedQueueSemaphore permits = PERMIT_TL.get();
+    if (permits != null) {
+      PERMIT_TL.remove();
+      permits.release();
+    }
+  }
+
+  /**
+   * Returns the number of requests of a kind holding a permit.
+   *
+   * @param type kind of the requests.
+   *
+   * @return the number of running requests, zero if the bulkhead has no
+   * limit.
+   */
+  public int getRunning(Type type) {
+    return bulkheads[type.ordinal()].getRunning();
+  }
+
+  /**
+   * Returns the number of requests of a kind waiting for a permit.
+   *
+   * @param type kind of the requests.
+   *
+   * @return the number of waiting requests.
+   */
+  public int getWaiting(Type type) {
+    return bulkheads[type.ordinal()].getWaiting();
+  }
+
+}
@@ -0,0 +1,310 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.lib.service.FileSystemAccess;
+import org.apache.hadoop.lib.service.Instrumentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Cache of the file checksums computed by GETFILECHECKSUM.
+ * <p/>
+ * Computing a file checksum contacts a datanode of every block of the file,
+ * a cached checksum is used instead while the length and the modification
+ * time of the file are the ones it was computed for. The user of a lookup
+ * must pass {@link FSOperations#checkReadAccess} to get a cached checksum.
+ * <p/>
+ * Files written through this server (CREATE and APPEND) can be queued for
+ * the {@link ChecksumPrecompute} task, run by the
+ * {@link org.apache.hadoop.lib.service.Scheduler}, to compute their
+ * checksums in the background.
+ * <p/>
+ * When the cache is full the least recently used checksums are evicted.
+ * Hits, misses, evictions and precomputations are accounted in the
+ * <code>httpfs.checksum.cache</code> instrumentation group.
+ */
+public class HttpFSChecksumCache {
+  private static final Logger LOG = LoggerFactory.getLogger(HttpFSChecksumCache.class);
+
+  /**
+   * Instrumentation group of the cache metrics.
+   */
+  public static final String INSTRUMENTATION_GROUP = "httpfs.checksum.cache";
+
+  private static class Entry {
+    private final long length;
+    private final long modificationTime;
+    private final FileChecksum checksum;
+
+    private Entry(FileStatus status, FileChecksum checksum) {
+      length = status.getLen();
+      modificationTime = status.getModificationTime();
+      this.checksum = checksum;
+    }
+
+    private boolean isValid(FileStatus status) {
+      return length == status.getLen() && modificationTime == status.getModificationTime();
+    }
+  }
+
+  private final int maxEntries;
+  private final boolean precompute;
+  private final LinkedHashMap<String, Entry> entries;
+  private final LinkedHashMap<String, String> pending;
+  private final Instrumentation.Counter hits;
+  private final Instrumentation.Counter misses;
+  private final Instrumentation.Counter evicted;
+  private final Instrumentation.Counter precomputed;
+  private final Instrumentation.Counter precomputeFailed;
+  private final Instrumentation.Counter precomputeDropped;
+
+  /**
+   * Creates a checksum cache.
+   *
+   * @param maxEntries maximum number of cached checksums, zero or negative
+   * disables the cache.
+   * @param precompute if written files are queued for the
+   * {@link ChecksumPrecompute} task.
+   * @param instrumentation instrumentation to report the cache metrics.
+   */
+  @SuppressWarnings("serial")
+  public HttpFSChecksumCache(final int maxEntries, boolean precompute, Instrumentation instrumentation) {
+    this.maxEntries = maxEntries;
+    this.precompute = precompute;
+    hits = instrumentation.counter(INSTRUMENTATION_GROUP, "hits");
+    misses = instrumentation.counter(INSTRUMENTATION_GROUP, "misses");
+    evicted = instrumentation.counter(INSTRUMENTATION_GROUP, "evicted");
+    precomputed = instrumentation.counter(INSTRUMENTATION_GROUP, "precomputed");
+    precomputeFailed = instrumentation.counter(INSTRUMENTATION_GROUP, "precompute.failed");
+    precomputeDropped = instrumentation.counter(INSTRUMENTATION_GROUP, "precompute.dropped");
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        if (size() > maxEntries) {
+          evicted.incr(1);
+          return true;
+        }
+        return false;
+      }
+    };
+    pending = new LinkedHashMap<String, String>();
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "size", new Instrumentation.Variable<Integer>() {
+      @Override
+      public Integer getValue() {
+        return size();
+      }
+    });
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "pending", new Instrumentation.Variable<Integer>() {
+      @Override
+      public Integer getValue() {
+        return getPending();
+      }
+    });
+  }
+
+  /**
+   * Returns if the cache is enabled.
+   *
+   * @return if the cache is enabled.
+   */
+  public boolean isEnabled() {
+    return maxEntries > 0;
+  }
+
+  private static String normalize(Path path) {
+    return path.toUri().getPath();
+  }
+
+  /**
+   * Returns the checksum of a file, from the cache if the file did not
+   * change since it was cached.
+   *
+   * @param fs filesystem instance to use.
+   * @param path the path of the file.
+   *
+   * @return the checksum of the file.
+   *
+   * @throws IOException thrown if an IO error occurred.
+   */
+  public FileChecksum getFileChecksum(FileSystem fs, Path path) throws IOException {
+    if (!isEnabled()) {
+      return fs.getFileChecksum(path);
+    }
+    FileStatus status = fs.getFileStatus(path);
+    if (status.isDir()) {
+      return fs.getFileChecksum(path);
+    }
+    String key = normalize(path);
+    FileChecksum checksum = get(key, status);
+    if (checksum != null) {
+      FSOperations.checkReadAccess(fs, status);
+      hits.incr(1);
+      return checksum;
+    }
+    misses.incr(1);
+    checksum = fs.getFileChecksum(path);
+    // a checksum computed while the file changed is not cached, it may not
+    // match the status taken before computing it
+    if (checksum != null) {
+      FileStatus after = fs.getFileStatus(path);
+      if (after.getLen() == status.getLen() && after.getModificationTime() == status.getModificationTime()) {
+        put(key, status, checksum);
+      }
+    }
+    return checksum;
+  }
+
+  private synchronized FileChecksum get(String key, FileStatus status) {
+    Entry entry = entries.get(key);
+    if (entry != null && !entry.isValid(status)) {
+      entries.remove(key);
+      entry = null;
+    }
+    return (entry != null) ? entry.checksum : null;
+  }
+
+  private synchronized void put(String key, FileStatus status, FileChecksum checksum) {
+    entries.put(key, new Entry(status, checksum));
+  }
+
+  /**
+   * Invalidates the checksums of a changed path.
+   *
+   * @param path the changed path.
+   * @param tree if the checksums of everything under the path must be
+   * invalidated too, for a deleted or renamed path.
+   */
+  public synchronized void invalidate(String path, boolean tree) {
+    path = normalize(new Path(path));
+    entries.remove(path);
+    if (tree) {
+      String prefix = (path.endsWith("/")) ? path : path + "/";
+      Iterator<String> it = entries.keySet().iterator();
+      while (it.hasNext()) {
+        if (it.next().startsWith(prefix)) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Queues a file written by a user for the {@link ChecksumPrecompute} task.
+   * Files are not queued if the cache or the precomputation are disabled, or
+   * if the queue is full.
+   *
+   * @param path the path of the file.
+   * @param user the user that wrote the file, the checksum is computed as
+   * this user.
+   */
+  public synchronized void precompute(String path, String user) {
+    if (isEnabled() && precompute) {
+      path = normalize(new Path(path));
+      if (pending.containsKey(path) || pending.size() < maxEntries) {
+        pending.put(path, user);
+      } else {
+        precomputeDropped.incr(1);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of files queued for the {@link ChecksumPrecompute}
+   * task.
+   *
+   * @return the number of queued files.
+   */
+  public synchronized int getPending() {
+    return pending.size();
+  }
+
+  /**
+   * Returns the number of cached checksums.
+   *
+   * @return the number of cached checksums.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Task that computes the checksums of the queued files, to be run
+   * periodically by the {@link org.apache.hadoop.lib.service.Scheduler}.
+   */
+  public class ChecksumPrecompute implements Callable<Void> {
+    private final FileSystemAccess fsAccess;
+
+    /**
+     * Creates a precompute task.
+     *
+     * @param fsAccess the FileSystemAccess to compute the checksums with.
+     */
+    public ChecksumPrecompute(FileSystemAccess fsAccess) {
+      this.fsAccess = fsAccess;
+    }
+
+    /**
+     * Computes the checksums of the files queued so far.
+     *
+     * @return <code>null</code>.
+     */
+    @Override
+    public Void call() {
+      List<Map.Entry<String, String>> files;
+      synchronized (HttpFSChecksumCache.this) {
+        files = new ArrayList<Map.Entry<String, String>>(pending.entrySet());
+        pending.clear();
+      }
+      Configuration conf = fsAccess.getFileSystemConfiguration();
+      for (Map.Entry<String, String> file : files) {
+        final Path path = new Path(file.getKey());
+        try {
+          fsAccess.execute(file.getValue(), conf, new FileSystemAccess.FileSystemExecutor<Void>() {
+            @Override
+            public Void execute(FileSystem fs) throws IOException {
+              getFileChecksum(fs, path);
+              return null;
+            }
+          });
+          precomputed.incr(1);
+        } catch (Exception ex) {
+          // the file may have been deleted or changed since it was written
+          LOG.debug("Could not precompute checksum of [{}], {}", path, ex.getMessage());
+          precomputeFailed.incr(1);
+        }
+      }
+      return null;
+    }
+  }
+
+}
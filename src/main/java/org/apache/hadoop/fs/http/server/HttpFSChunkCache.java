@@ -0,0 +1,458 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.lib.service.Instrumentation;
+import org.apache.hadoop.lib.util.StripedCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Local disk read-through cache of the files served by OPEN.
+ * <p/>
+ * Files are cached in fixed size chunks, each chunk in a file of the cache
+ * directory, keyed by the path, the modification time and the length of the
+ * file and the index of the chunk. A chunk read from the filesystem is
+ * streamed to the client and written to the cache directory at the same
+ * time, later reads of the chunk, of any range within it, are served from
+ * the local file. Chunks of changed files are not used anymore, they are
+ * evicted as the least recently used chunks when the cache is full.
+ * <p/>
+ * A request whose first chunk is cached is checked with
+ * {@link FSOperations#checkReadAccess}, otherwise the file is opened before
+ * the response is sent, as without the cache.
+ * <p/>
+ * Hits, misses, evictions, the bytes served from the cache (saved) and the
+ * bytes loaded into the cache are accounted in the
+ * <code>httpfs.chunk.cache</code> instrumentation group, the
+ * <code>hit.ratio</code> variable is the fraction of chunks served from the
+ * cache.
+ */
+public class HttpFSChunkCache {
+  private static final Logger LOG = LoggerFactory.getLogger(HttpFSChunkCache.class);
+
+  /**
+   * Instrumentation group of the cache metrics.
+   */
+  public static final String INSTRUMENTATION_GROUP = "httpfs.chunk.cache";
+
+  private static final String TEMP_PREFIX = "tmp-";
+
+  /**
+   * Names of the files of the cache, chunks and chunks being loaded.
+   */
+  private static final Pattern FILE_NAME = Pattern.compile("(" + TEMP_PREFIX + "|[0-9a-f]{32}-)[0-9]+");
+
+  private static class Chunk {
+    private final File file;
+    private final long length;
+
+    private Chunk(File file, long length) {
+      this.file = file;
+      this.length = length;
+    }
+  }
+
+  private final File dir;
+  private final int chunkSize;
+  private final long maxBytes;
+  private final boolean enabled;
+  private volatile boolean destroyed;
+  private final LinkedHashMap<String, Chunk> chunks;
+  private long bytes;
+  private final AtomicLong tempCount = new AtomicLong();
+  private final Instrumentation.Counter hits;
+  private final Instrumentation.Counter misses;
+  private final Instrumentation.Counter evicted;
+  private final Instrumentation.Counter bytesSaved;
+  private final Instrumentation.Counter bytesLoaded;
+  private final StripedCounter hitCount = new StripedCounter();
+  private final StripedCounter missCount = new StripedCounter();
+
+  /**
+   * Creates a chunk cache. The files of the cache left in the cache
+   * directory are deleted, the cache does not survive restarts. Other files
+   * in the directory are left alone.
+   *
+   * @param dir the cache directory.
+   * @param chunkSize the size of the chunks.
+   * @param maxBytes maximum number of bytes cached, zero or negative, or
+   * less than the chunk size, disables the cache.
+   * @param instrumentation instrumentation to report the cache metrics.
+   */
+  public HttpFSChunkCache(File dir, int chunkSize, long maxBytes, Instrumentation instrumentation) {
+    this.dir = dir;
+    this.chunkSize = chunkSize;
+    this.maxBytes = maxBytes;
+    boolean usable = chunkSize > 0 && maxBytes >= chunkSize;
+    if (usable) {
+      deleteFiles();
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        LOG.warn("Could not create chunk cache dir [{}], chunk cache disabled", dir);
+        usable = false;
+      }
+    }
+    enabled = usable;
+    chunks = new LinkedHashMap<String, Chunk>(16, 0.75f, true);
+    hits = instrumentation.counter(INSTRUMENTATION_GROUP, "hits");
+    misses = instrumentation.counter(INSTRUMENTATION_GROUP, "misses");
+    evicted = instrumentation.counter(INSTRUMENTATION_GROUP, "evicted");
+    bytesSaved = instrumentation.counter(INSTRUMENTATION_GROUP, "bytes.saved");
+    bytesLoaded = instrumentation.counter(INSTRUMENTATION_GROUP, "bytes.loaded");
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "hit.ratio", new Instrumentation.Variable<Double>() {
+      @Override
+      public Double getValue() {
+        long hitValue = hitCount.get();
+        long total = hitValue + missCount.get();
+        return (total > 0) ? (double) hitValue / total : 0d;
+      }
+    });
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "size", new Instrumentation.Variable<Integer>() {
+      @Override
+      public Integer getValue() {
+        return size();
+      }
+    });
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "bytes", new Instrumentation.Variable<Long>() {
+      @Override
+      public Long getValue() {
+        return getBytes();
+      }
+    });
+  }
+
+  /**
+   * Returns if the cache is enabled, it is not once destroyed.
+   *
+   * @return if the cache is enabled.
+   */
+  public boolean isEnabled() {
+    return enabled && !destroyed;
+  }
+
+  private void deleteFiles() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isFile() && FILE_NAME.matcher(file.getName()).matches()) {
+          delete(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the entity streaming a range of a file through the cache.
+   *
+   * @param fs filesystem instance to use, it must be usable until the entity
+   * is written.
+   * @param path the path of the file.
+   * @param status the status of the file.
+   * @param offset the offset of the range.
+   * @param len the length of the range, negative to the end of the file.
+   * @param bufferSize the buffer size to open the file with.
+   *
+   * @return the entity, <code>null</code> if the path is not a file, it must
+   * be read from the filesystem.
+   *
+   * @throws IOException thrown if an IO error occurred.
+   */
+  public StreamingOutput getEntity(FileSystem fs, Path path, FileStatus status, long offset, long len,
+                                   int bufferSize) throws IOException {
+    if (!isEnabled() || status.isDir()) {
+      return null;
+    }
+    ChunkedEntity entity = new ChunkedEntity(fs, path, status, offset, len, bufferSize);
+    if (offset >= status.getLen() || getChunk(entity.key(offset / chunkSize)) != null) {
+      FSOperations.checkReadAccess(fs, status);
+    } else {
+      entity.open();
+    }
+    return entity;
+  }
+
+  private synchronized File getChunk(String key) {
+    Chunk chunk = chunks.get(key);
+    return (chunk != null) ? chunk.file : null;
+  }
+
+  private File createTempFile() {
+    return new File(dir, TEMP_PREFIX + tempCount.incrementAndGet());
+  }
+
+  private synchronized void putChunk(String key, File temp, long length) {
+    if (destroyed || chunks.containsKey(key)) {
+      // destroyed or loaded concurrently by another request
+      delete(temp);
+      return;
+    }
+    Iterator<Chunk> it = chunks.values().iterator();
+    while (bytes + length > maxBytes && it.hasNext()) {
+      Chunk eldest = it.next();
+      it.remove();
+      bytes -= eldest.length;
+      delete(eldest.file);
+      evicted.incr(1);
+    }
+    File file = new File(dir, key);
+    if (bytes + length <= maxBytes && temp.renameTo(file)) {
+      chunks.put(key, new Chunk(file, length));
+      bytes += length;
+      bytesLoaded.incr(length);
+    } else {
+      delete(temp);
+    }
+  }
+
+  private synchronized void removeChunk(String key) {
+    Chunk chunk = chunks.remove(key);
+    if (chunk != null) {
+      bytes -= chunk.length;
+      delete(chunk.file);
+    }
+  }
+
+  private static void delete(File file) {
+    if (!file.delete() && file.exists()) {
+      LOG.warn("Could not delete chunk cache file [{}]", file);
+    }
+  }
+
+  /**
+   * Returns the number of cached chunks.
+   *
+   * @return the number of cached chunks.
+   */
+  public synchronized int size() {
+    return chunks.size();
+  }
+
+  /**
+   * Returns the number of cached bytes.
+   *
+   * @return the number of cached bytes.
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Deletes the files of the cache, responses streaming chunks complete from
+   * the files they have open. Chunks are not cached afterwards.
+   */
+  public void destroy() {
+    synchronized (this) {
+      destroyed = true;
+      chunks.clear();
+      bytes = 0;
+    }
+    if (enabled) {
+      deleteFiles();
+    }
+  }
+
+  /**
+   * Streams a range of a file, chunk by chunk, from the cache or from the
+   * filesystem.
+   */
+  private class ChunkedEntity implements StreamingOutput {
+    private final FileSystem fs;
+    private final Path path;
+    private final long fileLength;
+    private final String prefix;
+    private final long offset;
+    private final long len;
+    private final int bufferSize;
+    private FSDataInputStream is;
+
+    private ChunkedEntity(FileSystem fs, Path path, FileStatus status, long offset, long len, int bufferSize) {
+      this.fs = fs;
+      this.path = path;
+      fileLength = status.getLen();
+      prefix = DigestUtils.md5Hex(path.toUri().getPath() + '\n' + status.getModificationTime() + '\n' +
+                                  status.getLen());
+      this.offset = offset;
+      this.len = len;
+      this.bufferSize = bufferSize;
+    }
+
+    private String key(long index) {
+      return prefix + '-' + index;
+    }
+
+    private void open() throws IOException {
+      if (is == null) {
+        is = fs.open(path, bufferSize);
+      }
+    }
+
+    @Override
+    public void write(OutputStream os) throws IOException {
+      try {
+        if (offset > fileLength) {
+          throw new EOFException("Bytes to skip: " + offset + " actual: " + fileLength);
+        }
+        long end = (len < 0) ? fileLength : Math.min(fileLength, offset + len);
+        WritableByteChannel out = Channels.newChannel(os);
+        long pos = offset;
+        while (pos < end) {
+          long index = pos / chunkSize;
+          long chunkStart = index * chunkSize;
+          long chunkLength = Math.min(chunkSize, fileLength - chunkStart);
+          long from = pos - chunkStart;
+          long count = Math.min(chunkLength - from, end - pos);
+          String key = key(index);
+          if (!transfer(key, from, count, out)) {
+            missCount.increment();
+            misses.incr(1);
+            if (!load(key, chunkStart, chunkLength, from, count, os)) {
+              // the file is shorter than its status, it changed
+              break;
+            }
+          }
+          pos += count;
+        }
+      } finally {
+        if (is != null) {
+          is.close();
+        }
+        os.close();
+      }
+    }
+
+    /**
+     * Streams a range of a cached chunk.
+     */
+    private boolean transfer(String key, long from, long count, WritableByteChannel out) throws IOException {
+      File file = getChunk(key);
+      if (file == null) {
+        return false;
+      }
+      RandomAccessFile raf;
+      try {
+        raf = new RandomAccessFile(file, "r");
+      } catch (FileNotFoundException ex) {
+        // evicted since looked up
+        return false;
+      }
+      try {
+        FileChannel channel = raf.getChannel();
+        long done = 0;
+        while (done < count) {
+          long transferred = channel.transferTo(from + done, count - done, out);
+          if (transferred <= 0) {
+            // the chunk file is corrupt, nothing was sent yet if it is empty
+            if (done == 0) {
+              removeChunk(key);
+              return false;
+            }
+            throw new EOFException("Corrupt chunk cache file " + file);
+          }
+          done += transferred;
+        }
+      } finally {
+        raf.close();
+      }
+      hitCount.increment();
+      hits.incr(1);
+      bytesSaved.incr(count);
+      return true;
+    }
+
+    /**
+     * Reads a chunk from the filesystem, streaming a range of it and caching
+     * all of it.
+     */
+    private boolean load(String key, long chunkStart, long chunkLength, long from, long count,
+                         OutputStream os) throws IOException {
+      open();
+      is.seek(chunkStart);
+      File temp = createTempFile();
+      OutputStream cacheOs = null;
+      try {
+        cacheOs = new FileOutputStream(temp);
+      } catch (IOException ex) {
+        LOG.warn("Could not create chunk cache file [{}], {}", temp, ex.toString());
+      }
+      byte[] buffer = new byte[Math.max(bufferSize, 4096)];
+      long read = 0;
+      boolean cached = false;
+      try {
+        while (read < chunkLength) {
+          int n = is.read(buffer, 0, (int) Math.min(buffer.length, chunkLength - read));
+          if (n < 0) {
+            break;
+          }
+          // the part of the buffer within the requested range
+          long start = Math.max(from, read);
+          long stop = Math.min(from + count, read + n);
+          if (start < stop) {
+            os.write(buffer, (int) (start - read), (int) (stop - start));
+          }
+          if (cacheOs != null) {
+            try {
+              cacheOs.write(buffer, 0, n);
+            } catch (IOException ex) {
+              // a full disk does not fail the request
+              LOG.warn("Could not write chunk cache file [{}], {}", temp, ex.toString());
+              cacheOs.close();
+              cacheOs = null;
+            }
+          }
+          read += n;
+        }
+        if (cacheOs != null && read == chunkLength) {
+          cacheOs.close();
+          cached = true;
+          putChunk(key, temp, chunkLength);
+        }
+      } finally {
+        if (!cached) {
+          if (cacheOs != null) {
+            cacheOs.close();
+          }
+          delete(temp);
+        }
+      }
+      return read == chunkLength;
+    }
+  }
+
+}
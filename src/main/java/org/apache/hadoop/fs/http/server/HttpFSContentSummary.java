@@ -0,0 +1,429 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.lib.service.Instrumentation;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Time;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the GETCONTENTSUMMARY of filesystems that compute it with a
+ * client side walk of the tree, the base <code>FileSystem</code>
+ * implementation, walking the directories of the tree in parallel.
+ * Filesystems computing it themselves, like HDFS in the namenode, are not
+ * walked.
+ * <p/>
+ * The directories of all the walks are listed by a shared pool of threads,
+ * its size bounds the filesystem calls done at once by this server.
+ * <p/>
+ * The subtotals of the files directly in a directory, and its
+ * subdirectories, are cached keyed by the modification time of the
+ * directory. A directory whose modification time did not change is not
+ * listed again, only its subdirectories are looked up. Subtotals are cached
+ * per directory and per user, a user never gets the subtotals of a
+ * directory listed with the permissions of another user. As the
+ * modification time of a directory does not change when one of its files
+ * grows, cached subtotals expire after a time to live, and they are
+ * invalidated by the changes done through this server.
+ * <p/>
+ * Walks, listed directories, cache hits and evictions are accounted in the
+ * <code>httpfs.content.summary</code> instrumentation group.
+ */
+public class HttpFSContentSummary {
+
+  /**
+   * Instrumentation group of the content summary metrics.
+   */
+  public static final String INSTRUMENTATION_GROUP = "httpfs.content.summary";
+
+  private static class Entry {
+    private final long modificationTime;
+    private final long length;
+    private final long files;
+    private final List<String> directories;
+    private final long expires;
+
+    private Entry(long modificationTime, long length, long files, List<String> directories, long expires) {
+      this.modificationTime = modificationTime;
+      this.length = length;
+      this.files = files;
+      this.directories = directories;
+      this.expires = expires;
+    }
+  }
+
+  private final ExecutorService executor;
+  private final long ttlMillis;
+  private final int maxEntries;
+  private final LinkedHashMap<String, Map<String, Entry>> entries;
+  private int count;
+  private final Instrumentation.Counter walks;
+  private final Instrumentation.Counter listed;
+  private final Instrumentation.Counter hits;
+  private final Instrumentation.Counter evicted;
+
+  /**
+   * Creates a content summary engine.
+   *
+   * @param parallelism number of threads listing directories, zero or
+   * negative disables the engine.
+   * @param ttlMillis time to live of the cached directory subtotals, zero or
+   * negative disables the cache.
+   * @param maxEntries maximum number of cached directory subtotals, zero or
+   * negative disables the cache.
+   * @param instrumentation instrumentation to report the metrics.
+   */
+  public HttpFSContentSummary(int parallelism, long ttlMillis, int maxEntries,
+                              Instrumentation instrumentation) {
+    if (parallelism > 0) {
+      executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                                        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "httpfs-content-summary-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    } else {
+      executor = null;
+    }
+    this.ttlMillis = ttlMillis;
+    this.maxEntries = maxEntries;
+    walks = instrumentation.counter(INSTRUMENTATION_GROUP, "walks");
+    listed = instrumentation.counter(INSTRUMENTATION_GROUP, "listed");
+    hits = instrumentation.counter(INSTRUMENTATION_GROUP, "hits");
+    evicted = instrumentation.counter(INSTRUMENTATION_GROUP, "evicted");
+    entries = new LinkedHashMap<String, Map<String, Entry>>(16, 0.75f, true);
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "size", new Instrumentation.Variable<Integer>() {
+      @Override
+      public Integer getValue() {
+        return size();
+      }
+    });
+  }
+
+  /**
+   * Returns if the parallel walk is enabled.
+   *
+   * @return if the parallel walk is enabled.
+   */
+  public boolean isEnabled() {
+    return executor != null;
+  }
+
+  private boolean isCacheEnabled() {
+    return ttlMillis > 0 && maxEntries > 0;
+  }
+
+  /**
+   * Returns if a filesystem computes the content summary with the client
+   * side walk of the base <code>FileSystem</code> implementation.
+   *
+   * @param fs the filesystem.
+   *
+   * @return if the filesystem walks the tree in the client.
+   */
+  static boolean isClientSideWalk(FileSystem fs) {
+    try {
+      return fs.getClass().getMethod("getContentSummary", Path.class).getDeclaringClass() == FileSystem.class;
+    } catch (NoSuchMethodException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the content summary of a path.
+   *
+   * @param fs filesystem instance to use, the caller must be in the
+   * <code>doAs</code> of the user of the filesystem.
+   * @param path the path.
+   *
+   * @return the content summary of the path.
+   *
+   * @throws IOException thrown if an IO error occurred.
+   */
+  public ContentSummary getContentSummary(FileSystem fs, Path path) throws IOException {
+    if (!isEnabled() || !isClientSideWalk(fs)) {
+      return fs.getContentSummary(path);
+    }
+    FileStatus status = fs.getFileStatus(path);
+    if (!status.isDir()) {
+      return new ContentSummary(status.getLen(), 1, 0);
+    }
+    walks.incr(1);
+    Walk walk = new Walk(fs, UserGroupInformation.getCurrentUser());
+    walk.submit(status.getPath(), status);
+    return walk.await();
+  }
+
+  private static String normalize(Path path) {
+    return path.toUri().getPath();
+  }
+
+  private synchronized Entry get(String key, String user, FileStatus status) {
+    Map<String, Entry> users = entries.get(key);
+    Entry entry = (users != null) ? users.get(user) : null;
+    if (entry != null &&
+        (entry.modificationTime != status.getModificationTime() || entry.expires <= Time.monotonicNow())) {
+      users.remove(user);
+      count--;
+      if (users.isEmpty()) {
+        entries.remove(key);
+      }
+      entry = null;
+    }
+    return entry;
+  }
+
+  private synchronized void put(String key, String user, Entry entry) {
+    Map<String, Entry> users = entries.get(key);
+    if (users == null) {
+      users = new HashMap<String, Entry>();
+      entries.put(key, users);
+    }
+    if (users.put(user, entry) == null) {
+      count++;
+    }
+    Iterator<Map<String, Entry>> it = entries.values().iterator();
+    while (count > maxEntries && it.hasNext()) {
+      Map<String, Entry> eldest = it.next();
+      it.remove();
+      count -= eldest.size();
+      evicted.incr(eldest.size());
+    }
+  }
+
+  private void uncount(Map<String, Entry> users) {
+    if (users != null) {
+      count -= users.size();
+    }
+  }
+
+  /**
+   * Invalidates the cached subtotals of a changed path and of its parent
+   * directory.
+   *
+   * @param path the changed path.
+   * @param tree if the subtotals of everything under the path must be
+   * invalidated too, for a deleted or renamed path.
+   */
+  public synchronized void invalidate(String path, boolean tree) {
+    Path p = new Path(path);
+    path = normalize(p);
+    uncount(entries.remove(path));
+    if (p.getParent() != null) {
+      uncount(entries.remove(normalize(p.getParent())));
+    }
+    if (tree) {
+      String prefix = (path.endsWith("/")) ? path : path + "/";
+      Iterator<Map.Entry<String, Map<String, Entry>>> it = entries.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<String, Map<String, Entry>> entry = it.next();
+        if (entry.getKey().startsWith(prefix)) {
+          uncount(entry.getValue());
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of cached directory subtotals.
+   *
+   * @return the number of cached directory subtotals.
+   */
+  public synchronized int size() {
+    return count;
+  }
+
+  /**
+   * Stops the threads listing directories, walks in progress fail.
+   */
+  public void destroy() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * A walk of a tree, each directory is visited by a task of its own.
+   */
+  private class Walk {
+    private final FileSystem fs;
+    private final UserGroupInformation ugi;
+    private long length;
+    private long files;
+    private long directories;
+    private int pending;
+    private IOException error;
+
+    private Walk(FileSystem fs, UserGroupInformation ugi) {
+      this.fs = fs;
+      this.ugi = ugi;
+    }
+
+    private synchronized boolean isFailed() {
+      return error != null;
+    }
+
+    private void submit(final Path dir, final FileStatus status) throws IOException {
+      synchronized (this) {
+        pending++;
+      }
+      try {
+        execute(dir, status);
+      } catch (RejectedExecutionException ex) {
+        done(null);
+        throw new IOException("Content summary walks are shut down", ex);
+      }
+    }
+
+    private void execute(final Path dir, final FileStatus status) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          IOException failure = null;
+          try {
+            if (!isFailed()) {
+              ugi.doAs(new PrivilegedExceptionAction<Void>() {
+                @Override
+                public Void run() throws IOException {
+                  visit(dir, status);
+                  return null;
+                }
+              });
+            }
+          } catch (IOException ex) {
+            failure = ex;
+          } catch (InterruptedException ex) {
+            failure = new InterruptedIOException(ex.toString());
+          } catch (RuntimeException ex) {
+            failure = new IOException(ex.toString(), ex);
+          } finally {
+            done(failure);
+          }
+        }
+      });
+    }
+
+    private void visit(Path dir, FileStatus status) throws IOException {
+      if (status == null) {
+        try {
+          status = fs.getFileStatus(dir);
+        } catch (FileNotFoundException ex) {
+          // deleted since its parent was listed
+          return;
+        }
+      }
+      String key = normalize(dir);
+      String user = ugi.getShortUserName();
+      Entry entry = (isCacheEnabled()) ? get(key, user, status) : null;
+      if (entry != null) {
+        hits.incr(1);
+        for (String child : entry.directories) {
+          submit(new Path(dir, child), null);
+        }
+      } else {
+        FileStatus[] children = fs.listStatus(dir);
+        listed.incr(1);
+        if (children == null) {
+          // deleted since its parent was listed
+          return;
+        }
+        long dirLength = 0;
+        long dirFiles = 0;
+        List<String> dirs = new ArrayList<String>();
+        for (FileStatus child : children) {
+          if (child.isDir()) {
+            dirs.add(child.getPath().getName());
+            submit(child.getPath(), child);
+          } else {
+            dirLength += child.getLen();
+            dirFiles++;
+          }
+        }
+        entry = new Entry(status.getModificationTime(), dirLength, dirFiles, dirs,
+                          Time.monotonicNow() + ttlMillis);
+        if (isCacheEnabled()) {
+          put(key, user, entry);
+        }
+      }
+      add(entry);
+    }
+
+    private synchronized void add(Entry entry) {
+      length += entry.length;
+      files += entry.files;
+      directories++;
+    }
+
+    private synchronized void done(IOException failure) {
+      pending--;
+      if (failure != null && error == null) {
+        error = failure;
+      }
+      if (pending == 0 || error != null) {
+        notifyAll();
+      }
+    }
+
+    private synchronized ContentSummary await() throws IOException {
+      try {
+        while (pending > 0 && error == null) {
+          wait();
+        }
+      } catch (InterruptedException ex) {
+        // pending tasks of the walk skip their directories
+        error = new InterruptedIOException(ex.toString());
+        throw error;
+      }
+      if (error != null) {
+        throw error;
+      }
+      return new ContentSummary(length, files, directories);
+    }
+  }
+
+}
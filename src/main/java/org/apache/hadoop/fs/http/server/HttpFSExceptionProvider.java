@@ -20,6 +20,7 @@ package org.apache.hadoop.fs.http.server;
 
 import com.sun.jersey.api.container.ContainerException;
 import org.apache.hadoop.lib.service.FileSystemAccessException;
+import org.apache.hadoop.lib.service.FileSystemAccessRejectedException;
 import org.apache.hadoop.lib.wsrs.ExceptionProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,10 +40,20 @@ public class HttpFSExceptionProvider extends ExceptionProvider {
   private static Logger AUDIT_LOG = LoggerFactory.getLogger("httpfsaudit");
   private static Logger LOG = LoggerFactory.getLogger(HttpFSExceptionProvider.class);
 
+  /**
+   * HTTP status code for too many requests, not defined by JAX-RS.
+   */
+  static final int TOO_MANY_REQUESTS = 429;
+
+  private static final String RETRY_AFTER = "Retry-After";
+
   /**
    * Maps different exceptions thrown by HttpFSServer to HTTP status codes.
    * <p/>
    * <ul>
+   * <li>FileSystemAccessRejectedException : HTTP TOO_MANY_REQUESTS (429) if
+   * the user reached its concurrency limit, HTTP SERVICE_UNAVAILABLE
+   * otherwise, with a Retry-After header</li>
    * <li>SecurityException : HTTP UNAUTHORIZED</li>
    * <li>FileNotFoundException : HTTP NOT_FOUND</li>
    * <li>IOException : INTERNAL_HTTP SERVER_ERROR</li>
@@ -57,6 +68,9 @@ public class HttpFSExceptionProvider extends ExceptionProvider {
   @Override
   public Response toResponse(Throwable throwable) {
     Response.Status status;
+    if (throwable instanceof FileSystemAccessRejectedException) {
+      return createRejectedResponse((FileSystemAccessRejectedException) throwable);
+    }
     if (throwable instanceof FileSystemAccessException) {
       throwable = throwable.getCause();
     }
@@ -79,6 +93,16 @@ public class HttpFSExceptionProvider extends ExceptionProvider {
     return createResponse(status, throwable);
   }
 
+  private Response createRejectedResponse(FileSystemAccessRejectedException ex) {
+    Response response = createResponse(Response.Status.SERVICE_UNAVAILABLE, ex);
+    Response.ResponseBuilder builder = Response.fromResponse(response)
+      .header(RETRY_AFTER, Integer.toString(ex.getRetryAfterSeconds()));
+    if (ex.isUserLimit()) {
+      builder.status(TOO_MANY_REQUESTS);
+    }
+    return builder.build();
+  }
+
   /**
    * Logs the HTTP status code and exception in HttpFSServer's log.
    *
@@ -91,7 +115,12 @@ public class HttpFSExceptionProvider extends ExceptionProvider {
     String path = MDC.get("path");
     String message = getOneLineMessage(throwable);
     AUDIT_LOG.warn("FAILED [{}:{}] response [{}] {}", new Object[]{method, path, status, message});
-    LOG.warn("[{}:{}] response [{}] {}", new Object[]{method, path, status, message}, throwable);
+    if (throwable instanceof FileSystemAccessRejectedException) {
+      // expected under load, the stack trace would only flood the log
+      LOG.warn("[{}:{}] response [{}] {}", new Object[]{method, path, status, message});
+    } else {
+      LOG.warn("[{}:{}] response [{}] {}", new Object[]{method, path, status, message}, throwable);
+    }
   }
 
 }
@@ -0,0 +1,358 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.lib.service.Instrumentation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Off-heap cache of small files served by OPEN.
+ * <p/>
+ * Files not bigger than a maximum file size are kept whole in direct
+ * buffers, outside of the Java heap, up to a maximum number of bytes. A
+ * cached file is served while its length and modification time are the ones
+ * it was cached with, without reading it from the datanodes. A hit is served
+ * only after {@link FSOperations#checkReadAccess} passes for the user.
+ * <p/>
+ * Eviction is least recently used, with a TinyLFU admission filter: the
+ * frequencies of the requested files are estimated with a count-min sketch
+ * and a file is cached only if it is requested more often than the files it
+ * would evict, one-off reads do not flush the frequently read files.
+ * <p/>
+ * Hits, misses, loads, rejections and evictions are accounted in the
+ * <code>httpfs.file.cache</code> instrumentation group.
+ */
+public class HttpFSFileCache {
+
+  /**
+   * Instrumentation group of the cache metrics.
+   */
+  public static final String INSTRUMENTATION_GROUP = "httpfs.file.cache";
+
+  private static class Entry {
+    private final long length;
+    private final long modificationTime;
+    private final ByteBuffer data;
+
+    private Entry(FileStatus status, ByteBuffer data) {
+      length = status.getLen();
+      modificationTime = status.getModificationTime();
+      this.data = data;
+    }
+
+    private boolean isValid(FileStatus status) {
+      return length == status.getLen() && modificationTime == status.getModificationTime();
+    }
+  }
+
+  /**
+   * Count-min sketch of 4 bit counters estimating the request frequency of
+   * the files, the counters are halved periodically so the estimates follow
+   * recent requests.
+   */
+  static class FrequencySketch {
+    private static final int[] SEEDS = {0x97cb3127, 0xb7e15162, 0x6a09e667, 0x3c6ef372};
+    private static final int MAX = 15;
+
+    private final byte[] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int width) {
+      int size = Integer.highestOneBit(Math.max(width, 16) - 1) << 1;
+      counters = new byte[size];
+      mask = size - 1;
+      sampleSize = 10 * size;
+    }
+
+    private int index(int hash, int i) {
+      int h = (hash ^ SEEDS[i]) * 0x9e3779b9;
+      return (h ^ (h >>> 16)) & mask;
+    }
+
+    synchronized int frequency(String key) {
+      int hash = key.hashCode();
+      int frequency = MAX;
+      for (int i = 0; i < SEEDS.length; i++) {
+        frequency = Math.min(frequency, counters[index(hash, i)]);
+      }
+      return frequency;
+    }
+
+    synchronized void increment(String key) {
+      int hash = key.hashCode();
+      int frequency = MAX;
+      for (int i = 0; i < SEEDS.length; i++) {
+        frequency = Math.min(frequency, counters[index(hash, i)]);
+      }
+      if (frequency < MAX) {
+        // conservative update, only the minimum counters are incremented
+        for (int i = 0; i < SEEDS.length; i++) {
+          int index = index(hash, i);
+          if (counters[index] == frequency) {
+            counters[index]++;
+          }
+        }
+      }
+      if (++additions >= sampleSize) {
+        for (int i = 0; i < counters.length; i++) {
+          counters[i] = (byte) (counters[i] >> 1);
+        }
+        additions /= 2;
+      }
+    }
+  }
+
+  private final long maxBytes;
+  private final int maxFileSize;
+  private final LinkedHashMap<String, Entry> entries;
+  private final FrequencySketch sketch;
+  private long bytes;
+  private volatile boolean destroyed;
+  private final Instrumentation.Counter hits;
+  private final Instrumentation.Counter misses;
+  private final Instrumentation.Counter loaded;
+  private final Instrumentation.Counter rejected;
+  private final Instrumentation.Counter evicted;
+
+  /**
+   * Creates a file cache.
+   *
+   * @param maxBytes maximum number of bytes cached, zero or negative disables
+   * the cache.
+   * @param maxFileSize maximum size of a cached file, zero or negative
+   * disables the cache.
+   * @param instrumentation instrumentation to report the cache metrics.
+   */
+  public HttpFSFileCache(long maxBytes, int maxFileSize, Instrumentation instrumentation) {
+    this.maxBytes = maxBytes;
+    this.maxFileSize = maxFileSize;
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    // enough counters for as many files as fit in the cache if they were of
+    // 1/4 of the maximum file size
+    long width = (isEnabled()) ? 4 * maxBytes / Math.max(maxFileSize / 4, 1) : 0;
+    sketch = new FrequencySketch((int) Math.min(Math.max(width, 1024), 1 << 22));
+    hits = instrumentation.counter(INSTRUMENTATION_GROUP, "hits");
+    misses = instrumentation.counter(INSTRUMENTATION_GROUP, "misses");
+    loaded = instrumentation.counter(INSTRUMENTATION_GROUP, "loaded");
+    rejected = instrumentation.counter(INSTRUMENTATION_GROUP, "rejected");
+    evicted = instrumentation.counter(INSTRUMENTATION_GROUP, "evicted");
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "size", new Instrumentation.Variable<Integer>() {
+      @Override
+      public Integer getValue() {
+        return size();
+      }
+    });
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "bytes", new Instrumentation.Variable<Long>() {
+      @Override
+      public Long getValue() {
+        return getBytes();
+      }
+    });
+  }
+
+  /**
+   * Returns if the cache is enabled, it is not once destroyed.
+   *
+   * @return if the cache is enabled.
+   */
+  public boolean isEnabled() {
+    return maxBytes > 0 && maxFileSize > 0 && !destroyed;
+  }
+
+  private static String normalize(Path path) {
+    return path.toUri().getPath();
+  }
+
+  /**
+   * Returns the data of a file from the cache, loading it into the cache if
+   * it is small enough and requested often enough.
+   *
+   * @param fs filesystem instance to use.
+   * @param path the path of the file.
+   * @param status the status of the file.
+   * @param bufferSize the buffer size to open the file with.
+   *
+   * @return a read only buffer with the data of the file, <code>null</code>
+   * if the file is not cached, it must be read from the filesystem.
+   *
+   * @throws IOException thrown if an IO error occurred.
+   */
+  public ByteBuffer getFileData(FileSystem fs, Path path, FileStatus status, int bufferSize)
+    throws IOException {
+    if (!isEnabled() || status.isDir() || status.getLen() > maxFileSize) {
+      return null;
+    }
+    String key = normalize(path);
+    sketch.increment(key);
+    ByteBuffer data = get(key, status);
+    if (data != null) {
+      FSOperations.checkReadAccess(fs, status);
+      hits.incr(1);
+      return data;
+    }
+    misses.incr(1);
+    if (!isAdmitted(key, status.getLen())) {
+      rejected.incr(1);
+      return null;
+    }
+    data = ByteBuffer.allocateDirect((int) status.getLen());
+    byte[] buffer = new byte[Math.min(Math.max(bufferSize, 4096), Math.max(data.capacity(), 1))];
+    boolean changed = false;
+    FSDataInputStream is = fs.open(path, bufferSize);
+    try {
+      int read = is.read(buffer);
+      while (read > -1 && !changed) {
+        if (read > data.remaining()) {
+          changed = true;
+        } else {
+          data.put(buffer, 0, read);
+          read = is.read(buffer);
+        }
+      }
+    } finally {
+      is.close();
+    }
+    if (changed || data.hasRemaining()) {
+      // the file changed since its status was taken
+      return null;
+    }
+    data.flip();
+    data = data.asReadOnlyBuffer();
+    loaded.incr(1);
+    put(key, status, data);
+    return data.duplicate();
+  }
+
+  private synchronized ByteBuffer get(String key, FileStatus status) {
+    Entry entry = entries.get(key);
+    if (entry != null && !entry.isValid(status)) {
+      remove(key);
+      entry = null;
+    }
+    return (entry != null) ? entry.data.duplicate() : null;
+  }
+
+  /**
+   * Returns if a file fits in the cache without evicting files requested
+   * more often than it.
+   */
+  private synchronized boolean isAdmitted(String key, long length) {
+    long free = maxBytes - bytes;
+    if (free >= length) {
+      return true;
+    }
+    int frequency = sketch.frequency(key);
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while (free < length && it.hasNext()) {
+      Map.Entry<String, Entry> victim = it.next();
+      if (sketch.frequency(victim.getKey()) >= frequency) {
+        return false;
+      }
+      free += victim.getValue().length;
+    }
+    return free >= length;
+  }
+
+  private synchronized void put(String key, FileStatus status, ByteBuffer data) {
+    if (destroyed) {
+      return;
+    }
+    remove(key);
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while (bytes + data.capacity() > maxBytes && it.hasNext()) {
+      bytes -= it.next().getValue().length;
+      it.remove();
+      evicted.incr(1);
+    }
+    if (bytes + data.capacity() <= maxBytes) {
+      entries.put(key, new Entry(status, data));
+      bytes += data.capacity();
+    }
+  }
+
+  private void remove(String key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      bytes -= entry.length;
+    }
+  }
+
+  /**
+   * Invalidates the cached files of a changed path.
+   *
+   * @param path the changed path.
+   * @param tree if the files under the path must be invalidated too, for a
+   * deleted or renamed path.
+   */
+  public synchronized void invalidate(String path, boolean tree) {
+    path = normalize(new Path(path));
+    remove(path);
+    if (tree) {
+      String prefix = (path.endsWith("/")) ? path : path + "/";
+      Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<String, Entry> entry = it.next();
+        if (entry.getKey().startsWith(prefix)) {
+          bytes -= entry.getValue().length;
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of cached files.
+   *
+   * @return the number of cached files.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the number of cached bytes.
+   *
+   * @return the number of cached bytes.
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Drops the cached files, their direct buffers are freed once the
+   * responses using them complete. Files are not cached afterwards.
+   */
+  public synchronized void destroy() {
+    destroyed = true;
+    entries.clear();
+    bytes = 0;
+  }
+
+}
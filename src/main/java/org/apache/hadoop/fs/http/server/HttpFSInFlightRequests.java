@@ -0,0 +1,245 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.hadoop.lib.wsrs.EntityBuffer;
+import org.apache.hadoop.lib.wsrs.JSONBuffer;
+import org.apache.hadoop.util.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the requests being served by the HttpFSServer.
+ * <p/>
+ * {@link HttpFSServer} registers every request, with its operation, path and
+ * user, and updates its phase as it progresses. The request is deregistered
+ * by the {@link HttpFSReleaseFilter} on completion, after the response has
+ * been streamed. Requests that took longer than the slow request threshold
+ * are logged on completion.
+ * <p/>
+ * The current request of a thread is kept in a thread local, registering,
+ * updating and deregistering a request do not lock.
+ */
+public class HttpFSInFlightRequests {
+  private static final Logger LOG = LoggerFactory.getLogger(HttpFSInFlightRequests.class);
+
+  /**
+   * Phases of a request.
+   */
+  public enum Phase {
+    /** Waiting for a permit of its {@link HttpFSBulkheads} bulkhead. */
+    QUEUED,
+    /** Resolving and authorizing the effective (proxy) user. */
+    AUTH,
+    /** Creating the filesystem instance of the effective user. */
+    FS_CREATE,
+    /** Executing the filesystem operation. */
+    EXECUTOR,
+    /** Streaming the response data. */
+    STREAMING
+  }
+
+  /**
+   * A request in flight.
+   */
+  public static class Request {
+    private final long id;
+    private final String operation;
+    private final String path;
+    private final String user;
+    private final String thread;
+    private final long startTime;
+    private final long startNanos;
+    private volatile Phase phase;
+
+    private Request(long id, String operation, String path, String user) {
+      this.id = id;
+      this.operation = operation;
+      this.path = path;
+      this.user = user;
+      thread = Thread.currentThread().getName();
+      startTime = Time.now();
+      startNanos = Time.monotonicNowNanos();
+      phase = Phase.AUTH;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public String getOperation() {
+      return operation;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public String getUser() {
+      return user;
+    }
+
+    public String getThread() {
+      return thread;
+    }
+
+    public long getStartTime() {
+      return startTime;
+    }
+
+    public Phase getPhase() {
+      return phase;
+    }
+
+    /**
+     * Returns the time elapsed since the request was registered.
+     *
+     * @return the elapsed time in milliseconds.
+     */
+    public long getElapsedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(Time.monotonicNowNanos() - startNanos);
+    }
+  }
+
+  private static final ThreadLocal<Request> CURRENT_REQUEST_TL = new ThreadLocal<Request>();
+
+  private static final EntityBuffer.Token REQUESTS_JSON = EntityBuffer.key("requests");
+  private static final EntityBuffer.Token ID_JSON = EntityBuffer.key("id");
+  private static final EntityBuffer.Token OPERATION_JSON = EntityBuffer.key("operation");
+  private static final EntityBuffer.Token PATH_JSON = EntityBuffer.key("path");
+  private static final EntityBuffer.Token USER_JSON = EntityBuffer.key("user");
+  private static final EntityBuffer.Token THREAD_JSON = EntityBuffer.key("thread");
+  private static final EntityBuffer.Token START_TIME_JSON = EntityBuffer.key("startTime");
+  private static final EntityBuffer.Token ELAPSED_JSON = EntityBuffer.key("elapsed");
+  private static final EntityBuffer.Token PHASE_JSON = EntityBuffer.key("phase");
+
+  private final ConcurrentMap<Long, Request> requests = new ConcurrentHashMap<Long, Request>();
+  private final AtomicLong ids = new AtomicLong();
+  private final long slowThresholdMillis;
+
+  /**
+   * Creates a registry.
+   *
+   * @param slowThresholdMillis time, in milliseconds, above which completed
+   * requests are logged, zero or negative disables the slow request log.
+   */
+  public HttpFSInFlightRequests(long slowThresholdMillis) {
+    this.slowThresholdMillis = slowThresholdMillis;
+  }
+
+  /**
+   * Registers the request of the current thread, in the {@link Phase#AUTH}
+   * phase.
+   *
+   * @param operation the HttpFS operation of the request.
+   * @param path the path of the request.
+   * @param user the user making the request.
+   *
+   * @return the registered request.
+   */
+  public Request register(String operation, String path, String user) {
+    // a request not deregistered, it should not happen, would leak
+    deregister();
+    Request request = new Request(ids.incrementAndGet(), operation, path, user);
+    requests.put(request.getId(), request);
+    CURRENT_REQUEST_TL.set(request);
+    return request;
+  }
+
+  /**
+   * Sets the phase of the request of the current thread, if any.
+   *
+   * @param phase the new phase.
+   */
+  public static void setPhase(Phase phase) {
+    Request request = CURRENT_REQUEST_TL.get();
+    if (request != null) {
+      request.phase = phase;
+    }
+  }
+
+  /**
+   * Deregisters the request of the current thread, if any, logging it if it
+   * was slow.
+   */
+  public void deregister() {
+    Request request = CURRENT_REQUEST_TL.get();
+    if (request != null) {
+      CURRENT_REQUEST_TL.remove();
+      requests.remove(request.getId());
+      long elapsed = request.getElapsedMillis();
+      if (slowThresholdMillis > 0 && elapsed >= slowThresholdMillis) {
+        LOG.warn("Slow request [{}] op [{}] path [{}] user [{}] took [{}] ms, last phase [{}]",
+                 new Object[]{request.getId(), request.getOperation(), request.getPath(),
+                              request.getUser(), elapsed, request.getPhase()});
+      }
+    }
+  }
+
+  /**
+   * Returns the requests in flight, oldest first.
+   *
+   * @return the requests in flight.
+   */
+  public List<Request> getRequests() {
+    List<Request> list = new ArrayList<Request>(requests.values());
+    Collections.sort(list, new Comparator<Request>() {
+      @Override
+      public int compare(Request r1, Request r2) {
+        return (r1.getId() < r2.getId()) ? -1 : ((r1.getId() == r2.getId()) ? 0 : 1);
+      }
+    });
+    return list;
+  }
+
+  /**
+   * Returns the requests in flight as JSON, oldest first.
+   *
+   * @return a JSON object with a <code>requests</code> array.
+   */
+  public JSONBuffer toJSON() {
+    List<Request> list = getRequests();
+    JSONBuffer json = new JSONBuffer(64 + list.size() * 192);
+    json.startObject().key(REQUESTS_JSON).startArray();
+    for (Request request : list) {
+      json.startObject()
+        .key(ID_JSON).value(request.getId())
+        .key(OPERATION_JSON).value(request.getOperation())
+        .key(PATH_JSON).value(request.getPath())
+        .key(USER_JSON).value(request.getUser())
+        .key(THREAD_JSON).value(request.getThread())
+        .key(START_TIME_JSON).value(request.getStartTime())
+        .key(ELAPSED_JSON).value(request.getElapsedMillis())
+        .key(PHASE_JSON).value(request.getPhase().name())
+        .endObject();
+    }
+    json.endArray().endObject();
+    return json;
+  }
+
+}
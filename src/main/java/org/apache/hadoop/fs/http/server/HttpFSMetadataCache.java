@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.lib.service.Instrumentation;
+import org.apache.hadoop.lib.wsrs.EntityBuffer;
+import org.apache.hadoop.util.Time;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the GETFILESTATUS and LISTSTATUS responses of the HttpFSServer.
+ * <p/>
+ * Responses are cached per path and per effective user, a user never gets a
+ * response computed with the permissions of another user. Responses expire
+ * after a time to live, which is the staleness budget for changes done
+ * outside of this server. Changes done through this server (CREATE, APPEND,
+ * MKDIRS, DELETE, RENAME and SET*) invalidate the responses of the changed
+ * path, of its parent directory and, for DELETE and RENAME, of everything
+ * under it.
+ * <p/>
+ * A response computed while an invalidation happened is not cached, it may
+ * predate the change. When the cache is full the least recently used paths
+ * are evicted.
+ * <p/>
+ * Hits, misses, invalidations and evictions are accounted in the
+ * <code>httpfs.metadata.cache</code> instrumentation group.
+ */
+public class HttpFSMetadataCache {
+
+  /**
+   * Instrumentation group of the cache metrics.
+   */
+  public static final String INSTRUMENTATION_GROUP = "httpfs.metadata.cache";
+
+  private static class Entry {
+    private final EntityBuffer value;
+    private final long expires;
+
+    private Entry(EntityBuffer value, long expires) {
+      this.value = value;
+      this.expires = expires;
+    }
+  }
+
+  private final long ttlMillis;
+  private final int maxEntries;
+  private final LinkedHashMap<String, Map<String, Entry>> paths;
+  private int size;
+  private long invalidations;
+  private final Instrumentation.Counter hits;
+  private final Instrumentation.Counter misses;
+  private final Instrumentation.Counter invalidated;
+  private final Instrumentation.Counter evicted;
+
+  /**
+   * Creates a metadata cache.
+   *
+   * @param ttlMillis time to live of the cached responses, zero or negative
+   * disables the cache.
+   * @param maxEntries maximum number of cached responses, zero or negative
+   * disables the cache.
+   * @param instrumentation instrumentation to report the cache metrics.
+   */
+  public HttpFSMetadataCache(long ttlMillis, int maxEntries, Instrumentation instrumentation) {
+    this.ttlMillis = ttlMillis;
+    this.maxEntries = maxEntries;
+    paths = new LinkedHashMap<String, Map<String, Entry>>(16, 0.75f, true);
+    hits = instrumentation.counter(INSTRUMENTATION_GROUP, "hits");
+    misses = instrumentation.counter(INSTRUMENTATION_GROUP, "misses");
+    invalidated = instrumentation.counter(INSTRUMENTATION_GROUP, "invalidated");
+    evicted = instrumentation.counter(INSTRUMENTATION_GROUP, "evicted");
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "size", new Instrumentation.Variable<Integer>() {
+      @Override
+      public Integer getValue() {
+        return size();
+      }
+    });
+  }
+
+  /**
+   * Returns if the cache is enabled.
+   *
+   * @return if the cache is enabled.
+   */
+  public boolean isEnabled() {
+    return ttlMillis > 0 && maxEntries > 0;
+  }
+
+  /**
+   * Returns the key of a response of a path.
+   *
+   * @param user the effective user.
+   * @param operation the operation.
+   * @param filter the LISTSTATUS filter, if any.
+   * @param format the format of the response.
+   *
+   * @return the key of the response.
+   */
+  public static String key(String user, String operation, String filter, EntityBuffer.Format format) {
+    return user + '\n' + operation + '\n' + ((filter != null) ? filter : "") + '\n' + format;
+  }
+
+  private static String normalize(String path) {
+    return new Path(path).toUri().getPath();
+  }
+
+  /**
+   * Returns the invalidation sequence, to be given to {@link #put} with the
+   * response computed after calling this method.
+   *
+   * @return the invalidation sequence.
+   */
+  public synchronized long getSequence() {
+    return invalidations;
+  }
+
+  /**
+   * Returns a cached response.
+   *
+   * @param path the path.
+   * @param key the key of the response, from {@link #key}.
+   *
+   * @return the response, <code>null</code> if not cached or expired.
+   */
+  public synchronized EntityBuffer get(String path, String key) {
+    path = normalize(path);
+    Map<String, Entry> entries = paths.get(path);
+    Entry entry = (entries != null) ? entries.get(key) : null;
+    if (entry != null && entry.expires <= Time.monotonicNow()) {
+      entries.remove(key);
+      size--;
+      if (entries.isEmpty()) {
+        paths.remove(path);
+      }
+      entry = null;
+    }
+    if (entry == null) {
+      misses.incr(1);
+      return null;
+    }
+    hits.incr(1);
+    return entry.value;
+  }
+
+  /**
+   * Caches a response, unless an invalidation happened since the given
+   * sequence was taken.
+   *
+   * @param path the path.
+   * @param key the key of the response, from {@link #key}.
+   * @param value the response.
+   * @param sequence the invalidation sequence taken, with
+   * {@link #getSequence}, before computing the response.
+   */
+  public synchronized void put(String path, String key, EntityBuffer value, long sequence) {
+    if (sequence != invalidations) {
+      return;
+    }
+    path = normalize(path);
+    Map<String, Entry> entries = paths.get(path);
+    if (entries == null) {
+      entries = new HashMap<String, Entry>();
+      paths.put(path, entries);
+    }
+    if (entries.put(key, new Entry(value, Time.monotonicNow() + ttlMillis)) == null) {
+      size++;
+    }
+    Iterator<Map<String, Entry>> it = paths.values().iterator();
+    while (size > maxEntries && it.hasNext()) {
+      Map<String, Entry> eldest = it.next();
+      if (eldest != entries) {
+        size -= eldest.size();
+        evicted.incr(eldest.size());
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Invalidates the responses of a changed path and of its parent directory.
+   *
+   * @param path the changed path.
+   * @param tree if the responses of everything under the path must be
+   * invalidated too, for a deleted or renamed path.
+   */
+  public synchronized void invalidate(String path, boolean tree) {
+    invalidations++;
+    Path p = new Path(path);
+    path = p.toUri().getPath();
+    remove(path);
+    if (p.getParent() != null) {
+      remove(p.getParent().toUri().getPath());
+    }
+    if (tree) {
+      String prefix = (path.endsWith("/")) ? path : path + "/";
+      Iterator<Map.Entry<String, Map<String, Entry>>> it = paths.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<String, Map<String, Entry>> entry = it.next();
+        if (entry.getKey().startsWith(prefix)) {
+          size -= entry.getValue().size();
+          invalidated.incr(entry.getValue().size());
+          it.remove();
+        }
+      }
+    }
+  }
+
+  private void remove(String path) {
+    Map<String, Entry> entries = paths.remove(path);
+    if (entries != null) {
+      size -= entries.size();
+      invalidated.incr(entries.size());
+    }
+  }
+
+  /**
+   * Returns the number of cached responses.
+   *
+   * @return the number of cached responses.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+}
@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.hadoop.lib.service.Instrumentation;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Metrics scrape endpoint of the HttpFSServer.
+ * <p/>
+ * It exposes the counters, timers, variables and samplers of the
+ * {@link Instrumentation} service in the Prometheus text format. Unlike the
+ * <code>INSTRUMENTATION</code> operation it does not require the user to be
+ * in the admin group, as it does not expose the environment or the system
+ * properties of the server.
+ */
+@Path("/metrics")
+public class HttpFSMetrics {
+
+  /**
+   * Binding to handle metrics scrapes.
+   *
+   * @return the metrics response, the rendered metrics may be cached for a
+   * short time.
+   */
+  @GET
+  @Produces(MediaType.TEXT_PLAIN)
+  public Response get() {
+    Instrumentation instrumentation =
+      HttpFSServerWebApp.get().get(Instrumentation.class);
+    return Response.ok(instrumentation.getMetrics())
+      .type(instrumentation.getMetricsContentType()).build();
+  }
+
+}
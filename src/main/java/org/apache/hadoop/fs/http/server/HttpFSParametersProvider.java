@@ -45,7 +45,8 @@ public class HttpFSParametersProvider extends ParametersProvider {
 
   static {
     PARAMS_DEF.put(Operation.OPEN,
-      new Class[]{DoAsParam.class, OffsetParam.class, LenParam.class});
+      new Class[]{DoAsParam.class, OffsetParam.class, LenParam.class,
+                  CompressParam.class});
     PARAMS_DEF.put(Operation.GETFILESTATUS, new Class[]{DoAsParam.class});
     PARAMS_DEF.put(Operation.LISTSTATUS,
       new Class[]{DoAsParam.class, FilterParam.class});
@@ -54,7 +55,8 @@ public class HttpFSParametersProvider extends ParametersProvider {
     PARAMS_DEF.put(Operation.GETFILECHECKSUM, new Class[]{DoAsParam.class});
     PARAMS_DEF.put(Operation.GETFILEBLOCKLOCATIONS,
       new Class[]{DoAsParam.class});
-    PARAMS_DEF.put(Operation.INSTRUMENTATION, new Class[]{DoAsParam.class});
+    PARAMS_DEF.put(Operation.INSTRUMENTATION,
+      new Class[]{DoAsParam.class, SectionsParam.class, GroupsParam.class});
     PARAMS_DEF.put(Operation.APPEND,
       new Class[]{DoAsParam.class, DataParam.class});
     PARAMS_DEF.put(Operation.CREATE,
@@ -117,6 +119,24 @@ public class HttpFSParametersProvider extends ParametersProvider {
     }
   }
 
+  /**
+   * Class for open's compress parameter.
+   */
+  public static class CompressParam extends BooleanParam {
+
+    /**
+     * Parameter name.
+     */
+    public static final String NAME = HttpFSFileSystem.COMPRESS_PARAM;
+
+    /**
+     * Constructor.
+     */
+    public CompressParam() {
+      super(NAME, false);
+    }
+  }
+
   /**
    * Class for data parameter.
    */
@@ -243,6 +263,25 @@ public class HttpFSParametersProvider extends ParametersProvider {
 
   }
 
+  /**
+   * Class for instrumentation's groups parameter, a comma separated list.
+   */
+  public static class GroupsParam extends StringParam {
+
+    /**
+     * Parameter name.
+     */
+    public static final String NAME = "groups";
+
+    /**
+     * Constructor.
+     */
+    public GroupsParam() {
+      super(NAME, null);
+    }
+
+  }
+
   /**
    * Class for len parameter.
    */
@@ -382,6 +421,25 @@ public class HttpFSParametersProvider extends ParametersProvider {
     }
   }
 
+  /**
+   * Class for instrumentation's sections parameter, a comma separated list.
+   */
+  public static class SectionsParam extends StringParam {
+
+    /**
+     * Parameter name.
+     */
+    public static final String NAME = "sections";
+
+    /**
+     * Constructor.
+     */
+    public SectionsParam() {
+      super(NAME, null);
+    }
+
+  }
+
   /**
    * Class for to-path parameter.
    */
@@ -0,0 +1,382 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.hadoop.lib.service.Instrumentation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sequential read-ahead of the streams served by OPEN.
+ * <p/>
+ * The stream of a file is read in chunks by a thread of a shared I/O pool
+ * while the chunks already read are written to the client, the filesystem
+ * reads and the network writes overlap instead of alternating. The chunks of
+ * a stream are a bounded set of buffers, two, a double buffer, to start
+ * with. The read-ahead window adapts to the client: it grows by a buffer,
+ * up to a maximum, every time the client has to wait for a chunk, and it
+ * shrinks by a buffer when the chunks read ahead are piling up because the
+ * client is slower than the filesystem. The I/O thread is not held while
+ * the window is full, reading resumes when the client frees a buffer.
+ * <p/>
+ * Streams, stalls (the client waited for a chunk) and the bytes read ahead
+ * are accounted in the <code>httpfs.read.ahead</code> instrumentation
+ * group, the <code>buffered.bytes</code> variable is the memory used by the
+ * buffers of all the streams.
+ */
+public class HttpFSReadAhead {
+
+  /**
+   * Instrumentation group of the read-ahead metrics.
+   */
+  public static final String INSTRUMENTATION_GROUP = "httpfs.read.ahead";
+
+  private static final int MIN_CHUNKS = 2;
+
+  private final int chunkSize;
+  private final int maxChunks;
+  private final ExecutorService executor;
+  private final AtomicLong bufferedBytes = new AtomicLong();
+  private final Instrumentation.Counter streams;
+  private final Instrumentation.Counter stalls;
+  private final Instrumentation.Counter bytes;
+
+  /**
+   * Creates the read-ahead of the OPEN streams.
+   *
+   * @param chunkSize the size of the chunks read ahead, zero or negative
+   * disables the read-ahead.
+   * @param maxChunks maximum number of chunks of a stream, the maximum
+   * read-ahead window.
+   * @param threads number of I/O threads, zero or negative disables the
+   * read-ahead.
+   * @param instrumentation instrumentation to report the metrics.
+   */
+  public HttpFSReadAhead(int chunkSize, int maxChunks, int threads, Instrumentation instrumentation) {
+    this.chunkSize = chunkSize;
+    this.maxChunks = Math.max(maxChunks, MIN_CHUNKS);
+    if (chunkSize > 0 && threads > 0) {
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                                       new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "httpfs-read-ahead-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      pool.allowCoreThreadTimeOut(true);
+      executor = pool;
+    } else {
+      executor = null;
+    }
+    streams = instrumentation.counter(INSTRUMENTATION_GROUP, "streams");
+    stalls = instrumentation.counter(INSTRUMENTATION_GROUP, "stalls");
+    bytes = instrumentation.counter(INSTRUMENTATION_GROUP, "bytes");
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "buffered.bytes", new Instrumentation.Variable<Long>() {
+      @Override
+      public Long getValue() {
+        return bufferedBytes.get();
+      }
+    });
+  }
+
+  /**
+   * Returns if the read-ahead is enabled.
+   *
+   * @return if the read-ahead is enabled.
+   */
+  public boolean isEnabled() {
+    return executor != null;
+  }
+
+  /**
+   * Returns the number of bytes buffered by the read-ahead streams.
+   *
+   * @return the number of bytes buffered by the read-ahead streams.
+   */
+  public long getBufferedBytes() {
+    return bufferedBytes.get();
+  }
+
+  /**
+   * Wraps a stream with a read-ahead stream. Closing the returned stream
+   * closes the given stream.
+   *
+   * @param is the stream to read ahead.
+   * @param limit maximum number of bytes to read from the stream, negative
+   * to the end of the stream.
+   *
+   * @return the read-ahead stream, or the given stream if the read-ahead is
+   * disabled.
+   */
+  public InputStream readAhead(InputStream is, long limit) {
+    if (!isEnabled()) {
+      return is;
+    }
+    streams.incr(1);
+    return new ReadAheadInputStream(is, limit);
+  }
+
+  /**
+   * Stops the I/O threads.
+   */
+  public void destroy() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private static class Chunk {
+    private final byte[] data;
+    private int length;
+
+    private Chunk(byte[] data) {
+      this.data = data;
+    }
+  }
+
+  /**
+   * A stream read ahead by the I/O threads.
+   */
+  private class ReadAheadInputStream extends InputStream implements Runnable {
+    private final InputStream in;
+    private long remaining;
+    private final LinkedList<Chunk> free = new LinkedList<Chunk>();
+    private final LinkedList<Chunk> filled = new LinkedList<Chunk>();
+    private int window = MIN_CHUNKS;
+    private int allocated;
+    private boolean reading;
+    private boolean eof;
+    private IOException error;
+    private boolean closed;
+    private Chunk current;
+    private int position;
+
+    private ReadAheadInputStream(InputStream in, long limit) {
+      this.in = in;
+      remaining = (limit < 0) ? Long.MAX_VALUE : limit;
+      eof = remaining == 0;
+      schedule();
+    }
+
+    /**
+     * Starts the I/O thread reading ahead if there is a buffer for it.
+     */
+    private synchronized void schedule() {
+      if (!reading && !eof && !closed && error == null && (!free.isEmpty() || allocated < window)) {
+        reading = true;
+        try {
+          executor.execute(this);
+        } catch (RejectedExecutionException ex) {
+          reading = false;
+          error = new IOException("Read-ahead is shut down", ex);
+          notifyAll();
+        }
+      }
+    }
+
+    /**
+     * Returns a buffer for the I/O thread, if none the I/O thread stops and
+     * it is scheduled again when the client frees a buffer.
+     */
+    private synchronized Chunk takeBuffer() {
+      Chunk chunk = null;
+      if (!closed) {
+        if (!free.isEmpty()) {
+          chunk = free.removeFirst();
+        } else if (allocated < window) {
+          allocated++;
+          bufferedBytes.addAndGet(chunkSize);
+          chunk = new Chunk(new byte[chunkSize]);
+        }
+      }
+      if (chunk == null) {
+        reading = false;
+        notifyAll();
+      }
+      return chunk;
+    }
+
+    private synchronized void recycle(Chunk chunk) {
+      if (allocated > window) {
+        // the window shrank
+        allocated--;
+        bufferedBytes.addAndGet(-chunkSize);
+      } else {
+        free.addLast(chunk);
+      }
+    }
+
+    /**
+     * Reads chunks ahead until the window is full or the stream ends, in an
+     * I/O thread.
+     */
+    @Override
+    public void run() {
+      boolean stopped = false;
+      try {
+        while (!stopped) {
+          Chunk chunk = takeBuffer();
+          if (chunk == null) {
+            stopped = true;
+          } else {
+            int max = (int) Math.min(chunk.data.length, remaining);
+            int length = 0;
+            int n = 0;
+            while (length < max && n > -1) {
+              n = in.read(chunk.data, length, max - length);
+              if (n > 0) {
+                length += n;
+              }
+            }
+            bytes.incr(length);
+            synchronized (this) {
+              remaining -= length;
+              chunk.length = length;
+              if (length > 0) {
+                filled.addLast(chunk);
+              } else {
+                recycle(chunk);
+              }
+              if (n < 0 || remaining == 0) {
+                eof = true;
+                reading = false;
+                stopped = true;
+              }
+              notifyAll();
+            }
+          }
+        }
+      } catch (IOException ex) {
+        synchronized (this) {
+          error = ex;
+        }
+      } finally {
+        if (!stopped) {
+          synchronized (this) {
+            if (error == null) {
+              error = new IOException("Read-ahead failed");
+            }
+            reading = false;
+            notifyAll();
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the next chunk read ahead, waiting for it if necessary.
+     *
+     * @return the next chunk, <code>null</code> at the end of the stream.
+     */
+    private synchronized Chunk next() throws IOException {
+      if (filled.isEmpty() && !eof && error == null) {
+        // the client waits for the filesystem, a larger window helps
+        stalls.incr(1);
+        if (window < maxChunks) {
+          window++;
+        }
+        schedule();
+        try {
+          while (filled.isEmpty() && !eof && error == null) {
+            wait();
+          }
+        } catch (InterruptedException ex) {
+          throw new InterruptedIOException(ex.toString());
+        }
+      } else if (filled.size() >= window && window > MIN_CHUNKS) {
+        // the filesystem waits for the client, a smaller window suffices
+        window--;
+      }
+      if (!filled.isEmpty()) {
+        return filled.removeFirst();
+      }
+      if (error != null) {
+        throw error;
+      }
+      return null;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int n = read(b, 0, 1);
+      return (n > 0) ? b[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (current == null || position == current.length) {
+        if (current != null) {
+          recycle(current);
+          current = null;
+          schedule();
+        }
+        current = next();
+        position = 0;
+        if (current == null) {
+          return -1;
+        }
+      }
+      int n = Math.min(len, current.length - position);
+      System.arraycopy(current.data, position, b, off, n);
+      position += n;
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      synchronized (this) {
+        closed = true;
+        // the I/O thread completes the read in progress
+        try {
+          while (reading) {
+            wait();
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        bufferedBytes.addAndGet(-(long) allocated * chunkSize);
+        allocated = 0;
+        free.clear();
+        filled.clear();
+        current = null;
+      }
+      in.close();
+    }
+  }
+
+}
@@ -23,7 +23,7 @@ import org.apache.hadoop.lib.servlet.FileSystemReleaseFilter;
 
 /**
  * Filter that releases FileSystemAccess filesystem instances upon HTTP request
- * completion.
+ * completion and deregisters the request from the in flight requests.
  */
 public class HttpFSReleaseFilter extends FileSystemReleaseFilter {
 
@@ -38,4 +38,15 @@ public class HttpFSReleaseFilter extends FileSystemReleaseFilter {
     return HttpFSServerWebApp.get().get(FileSystemAccess.class);
   }
 
+  /**
+   * Returns the permit of the request to its {@link HttpFSBulkheads} bulkhead
+   * and deregisters the request from the {@link HttpFSInFlightRequests}
+   * registry.
+   */
+  @Override
+  protected void requestCompleted() {
+    HttpFSServerWebApp.get().getBulkheads().release();
+    HttpFSServerWebApp.get().getInFlightRequests().deregister();
+  }
+
 }
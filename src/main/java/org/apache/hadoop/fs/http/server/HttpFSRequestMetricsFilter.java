@@ -0,0 +1,487 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.hadoop.fs.http.client.HttpFSFileSystem;
+import org.apache.hadoop.lib.service.Instrumentation;
+import org.apache.hadoop.lib.util.StripedCounter;
+import org.apache.hadoop.util.Time;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Filter that collects per operation, per user and per status request
+ * metrics.
+ * <p/>
+ * It must be the first filter of the chain so the request time includes
+ * authentication and, for OPEN, the streaming of the data, which happens
+ * after the {@link HttpFSServer} method returns. For every request it
+ * records, by HttpFS operation:
+ * <ul>
+ *   <li>the request time, timer <code>httpfs.requests</code>.</li>
+ *   <li>the time until the request is dispatched to {@link HttpFSServer},
+ *   authentication and parameter parsing, timer
+ *   <code>httpfs.requests.dispatch</code>.</li>
+ *   <li>the bytes read and written, counters
+ *   <code>httpfs.requests.bytes.in</code> and
+ *   <code>httpfs.requests.bytes.out</code>.</li>
+ *   <li>the failed requests, counter <code>httpfs.requests.errors</code>.</li>
+ * </ul>
+ * The requests are also counted by HTTP status, counter
+ * <code>httpfs.requests.status</code>, and the load of the users with the
+ * highest request time is reported by the <code>httpfs.requests</code>
+ * <code>top.users</code> variable. When the maximum number of users is
+ * tracked, a new user replaces the user with the lowest request time, whose
+ * load is then accounted to the other users.
+ */
+public class HttpFSRequestMetricsFilter implements Filter {
+
+  static final String REQUESTS_GROUP = "httpfs.requests";
+  static final String DISPATCH_GROUP = "httpfs.requests.dispatch";
+  static final String BYTES_IN_GROUP = "httpfs.requests.bytes.in";
+  static final String BYTES_OUT_GROUP = "httpfs.requests.bytes.out";
+  static final String ERRORS_GROUP = "httpfs.requests.errors";
+  static final String STATUS_GROUP = "httpfs.requests.status";
+
+  static final String TOP_USERS = "top.users";
+  static final String OTHER_USERS = "*other*";
+  static final String UNKNOWN_USER = "*unknown*";
+
+  static final String NO_OPERATION = "NONE";
+  static final String UNKNOWN_OPERATION = "UNKNOWN";
+
+  private static final Set<String> OPERATIONS = new HashSet<String>();
+
+  static {
+    for (HttpFSFileSystem.Operation op : HttpFSFileSystem.Operation.values()) {
+      OPERATIONS.add(op.name());
+    }
+  }
+
+  private static final ThreadLocal<RequestMetrics> REQUEST_METRICS_TL = new ThreadLocal<RequestMetrics>();
+
+  private Instrumentation instrumentation;
+  private Map<String, Instrumentation.Counter> bytesInCounters;
+  private Map<String, Instrumentation.Counter> bytesOutCounters;
+  private int maxUsers;
+  private int topUsers;
+  private ConcurrentMap<String, UserLoad> users;
+  private UserLoad otherUsers;
+
+  /**
+   * Initializes the filter.
+   * <p/>
+   * It gets the {@link Instrumentation} service and the metrics configuration
+   * from the {@link HttpFSServerWebApp} server.
+   *
+   * @param config filter configuration.
+   *
+   * @throws ServletException thrown if the filter could not be initialized.
+   */
+  @Override
+  public void init(FilterConfig config) throws ServletException {
+    HttpFSServerWebApp server = HttpFSServerWebApp.get();
+    init(server.get(Instrumentation.class), server.getMetricsMaxUsers(), server.getMetricsTopUsers());
+  }
+
+  /**
+   * Initializes the filter with the given instrumentation and configuration,
+   * used for testing purposes.
+   *
+   * @param instrumentation instrumentation to record the metrics to.
+   * @param maxUsers maximum number of users to track.
+   * @param topUsers number of users to report.
+   */
+  void init(Instrumentation instrumentation, int maxUsers, int topUsers) {
+    this.instrumentation = instrumentation;
+    this.maxUsers = maxUsers;
+    this.topUsers = topUsers;
+    // the byte counters are updated by every request, their handles are kept
+    bytesInCounters = new HashMap<String, Instrumentation.Counter>();
+    bytesOutCounters = new HashMap<String, Instrumentation.Counter>();
+    List<String> operations = new ArrayList<String>(OPERATIONS);
+    operations.add(NO_OPERATION);
+    operations.add(UNKNOWN_OPERATION);
+    for (String op : operations) {
+      bytesInCounters.put(op, instrumentation.counter(BYTES_IN_GROUP, op));
+      bytesOutCounters.put(op, instrumentation.counter(BYTES_OUT_GROUP, op));
+    }
+    users = new ConcurrentHashMap<String, UserLoad>();
+    otherUsers = new UserLoad();
+    instrumentation.addVariable(REQUESTS_GROUP, TOP_USERS, new Instrumentation.Variable<Map<String, Map<String, Long>>>() {
+      @Override
+      public Map<String, Map<String, Long>> getValue() {
+        return getTopUsers();
+      }
+    });
+  }
+
+  /**
+   * Collects the metrics of the request while delegating it to the
+   * <code>FilterChain</code>.
+   *
+   * @param request servlet request.
+   * @param response servlet response.
+   * @param chain filter chain.
+   *
+   * @throws IOException thrown if an IO error occurrs.
+   * @throws ServletException thrown if a servet error occurrs.
+   */
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+    throws IOException, ServletException {
+    HttpServletRequest httpReq = (HttpServletRequest) request;
+    HttpServletResponse httpRes = (HttpServletResponse) response;
+    String op = getOperation(httpReq.getParameter(HttpFSFileSystem.OP_PARAM));
+    RequestMetrics metrics = new RequestMetrics(instrumentation, op);
+    metrics.cron = instrumentation.createCron().start();
+    metrics.dispatchCron = instrumentation.createCron().start();
+    CountingRequest countingReq = new CountingRequest(httpReq);
+    CountingResponse countingRes = new CountingResponse(httpRes);
+    REQUEST_METRICS_TL.set(metrics);
+    boolean completed = false;
+    try {
+      chain.doFilter(countingReq, countingRes);
+      completed = true;
+    } finally {
+      REQUEST_METRICS_TL.remove();
+      int status = countingRes.status;
+      if (!completed && status < HttpServletResponse.SC_BAD_REQUEST) {
+        // the exception propagates to the container, which fails the request
+        status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+      }
+      record(metrics, status, countingReq.bytes, countingRes.bytes);
+    }
+  }
+
+  /**
+   * Destroys the filter.
+   * <p/>
+   * This implementation is a NOP.
+   */
+  @Override
+  public void destroy() {
+  }
+
+  /**
+   * Static method that signals the request of the current thread has been
+   * authenticated and dispatched to {@link HttpFSServer}.
+   *
+   * @param user the principal of the user making the request.
+   */
+  public static void dispatched(Principal user) {
+    RequestMetrics metrics = REQUEST_METRICS_TL.get();
+    if (metrics != null && metrics.user == null) {
+      metrics.user = (user != null) ? user.getName() : UNKNOWN_USER;
+      // added now, adding a cron ends it and its total is the dispatch time
+      metrics.instrumentation.addCron(DISPATCH_GROUP, metrics.operation, metrics.dispatchCron);
+    }
+  }
+
+  static String getOperation(String op) {
+    if (op == null) {
+      return NO_OPERATION;
+    }
+    op = op.toUpperCase();
+    return (OPERATIONS.contains(op)) ? op : UNKNOWN_OPERATION;
+  }
+
+  private void record(RequestMetrics metrics, int status, long bytesIn, long bytesOut) {
+    metrics.cron.stop();
+    String op = metrics.operation;
+    instrumentation.addCron(REQUESTS_GROUP, op, metrics.cron);
+    bytesInCounters.get(op).incr(bytesIn);
+    bytesOutCounters.get(op).incr(bytesOut);
+    instrumentation.incr(STATUS_GROUP, Integer.toString(status), 1);
+    if (status >= HttpServletResponse.SC_BAD_REQUEST) {
+      instrumentation.incr(ERRORS_GROUP, op, 1);
+    }
+    // requests failing authentication are not accounted to any user
+    if (metrics.user != null) {
+      UserLoad load = getUserLoad(metrics.user);
+      load.requests.increment();
+      load.bytes.add(bytesIn + bytesOut);
+      load.nanos.add(Time.monotonicNowNanos() - metrics.start);
+    }
+  }
+
+  private UserLoad getUserLoad(String user) {
+    UserLoad load = users.get(user);
+    if (load == null) {
+      if (maxUsers <= 0) {
+        return otherUsers;
+      }
+      if (users.size() >= maxUsers) {
+        evictUser();
+      }
+      load = new UserLoad();
+      UserLoad existing = users.putIfAbsent(user, load);
+      if (existing != null) {
+        load = existing;
+      }
+    }
+    return load;
+  }
+
+  /**
+   * Makes room for a new user, removing the user with the lowest request
+   * time. Its load is added to the other users, requests of the removed user
+   * being recorded concurrently may be lost.
+   */
+  private synchronized void evictUser() {
+    if (users.size() < maxUsers) {
+      return;
+    }
+    Map.Entry<String, UserLoad> lowest = null;
+    long lowestNanos = Long.MAX_VALUE;
+    for (Map.Entry<String, UserLoad> entry : users.entrySet()) {
+      long nanos = entry.getValue().nanos.get();
+      if (nanos < lowestNanos) {
+        lowest = entry;
+        lowestNanos = nanos;
+      }
+    }
+    if (lowest != null && users.remove(lowest.getKey(), lowest.getValue())) {
+      UserLoad load = lowest.getValue();
+      otherUsers.requests.add(load.requests.get());
+      otherUsers.bytes.add(load.bytes.get());
+      otherUsers.nanos.add(load.nanos.get());
+    }
+  }
+
+  Map<String, Map<String, Long>> getTopUsers() {
+    List<Map.Entry<String, UserLoad>> entries = new ArrayList<Map.Entry<String, UserLoad>>();
+    for (Map.Entry<String, UserLoad> entry : users.entrySet()) {
+      entries.add(entry);
+    }
+    if (otherUsers.requests.get() > 0) {
+      entries.add(new UserLoadEntry(OTHER_USERS, otherUsers));
+    }
+    // sorting on a copy of the times, they may change while sorting
+    final Map<UserLoad, Long> times = new HashMap<UserLoad, Long>();
+    for (Map.Entry<String, UserLoad> entry : entries) {
+      times.put(entry.getValue(), entry.getValue().nanos.get());
+    }
+    Collections.sort(entries, new Comparator<Map.Entry<String, UserLoad>>() {
+      @Override
+      public int compare(Map.Entry<String, UserLoad> o1, Map.Entry<String, UserLoad> o2) {
+        long t1 = times.get(o1.getValue());
+        long t2 = times.get(o2.getValue());
+        return (t1 > t2) ? -1 : ((t1 < t2) ? 1 : o1.getKey().compareTo(o2.getKey()));
+      }
+    });
+    Map<String, Map<String, Long>> top = new LinkedHashMap<String, Map<String, Long>>();
+    for (Map.Entry<String, UserLoad> entry : entries.subList(0, Math.min(topUsers, entries.size()))) {
+      Map<String, Long> load = new LinkedHashMap<String, Long>();
+      load.put("requests", entry.getValue().requests.get());
+      load.put("bytes", entry.getValue().bytes.get());
+      load.put("nanos", times.get(entry.getValue()));
+      top.put(entry.getKey(), load);
+    }
+    return top;
+  }
+
+  private static class RequestMetrics {
+    private final Instrumentation instrumentation;
+    private final String operation;
+    private final long start = Time.monotonicNowNanos();
+    private String user;
+    private Instrumentation.Cron cron;
+    private Instrumentation.Cron dispatchCron;
+
+    private RequestMetrics(Instrumentation instrumentation, String operation) {
+      this.instrumentation = instrumentation;
+      this.operation = operation;
+    }
+  }
+
+  private static class UserLoad {
+    private final StripedCounter requests = new StripedCounter();
+    private final StripedCounter bytes = new StripedCounter();
+    private final StripedCounter nanos = new StripedCounter();
+  }
+
+  private static class UserLoadEntry implements Map.Entry<String, UserLoad> {
+    private final String user;
+    private final UserLoad load;
+
+    private UserLoadEntry(String user, UserLoad load) {
+      this.user = user;
+      this.load = load;
+    }
+
+    @Override
+    public String getKey() {
+      return user;
+    }
+
+    @Override
+    public UserLoad getValue() {
+      return load;
+    }
+
+    @Override
+    public UserLoad setValue(UserLoad value) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static class CountingRequest extends HttpServletRequestWrapper {
+    private long bytes;
+    private ServletInputStream is;
+
+    private CountingRequest(HttpServletRequest request) {
+      super(request);
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+      if (is == null) {
+        final ServletInputStream delegate = super.getInputStream();
+        is = new ServletInputStream() {
+          @Override
+          public int read() throws IOException {
+            int b = delegate.read();
+            if (b != -1) {
+              bytes++;
+            }
+            return b;
+          }
+
+          @Override
+          public int read(byte[] b, int off, int len) throws IOException {
+            int n = delegate.read(b, off, len);
+            if (n > 0) {
+              bytes += n;
+            }
+            return n;
+          }
+
+          @Override
+          public int available() throws IOException {
+            return delegate.available();
+          }
+
+          @Override
+          public void close() throws IOException {
+            delegate.close();
+          }
+        };
+      }
+      return is;
+    }
+  }
+
+  private static class CountingResponse extends HttpServletResponseWrapper {
+    private long bytes;
+    private int status = HttpServletResponse.SC_OK;
+    private ServletOutputStream os;
+
+    private CountingResponse(HttpServletResponse response) {
+      super(response);
+    }
+
+    @Override
+    public void setStatus(int sc) {
+      status = sc;
+      super.setStatus(sc);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setStatus(int sc, String sm) {
+      status = sc;
+      super.setStatus(sc, sm);
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+      status = sc;
+      super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+      status = sc;
+      super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+      status = HttpServletResponse.SC_MOVED_TEMPORARILY;
+      super.sendRedirect(location);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      if (os == null) {
+        final ServletOutputStream delegate = super.getOutputStream();
+        os = new ServletOutputStream() {
+          @Override
+          public void write(int b) throws IOException {
+            delegate.write(b);
+            bytes++;
+          }
+
+          @Override
+          public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            bytes += len;
+          }
+
+          @Override
+          public void flush() throws IOException {
+            delegate.flush();
+          }
+
+          @Override
+          public void close() throws IOException {
+            delegate.close();
+          }
+        };
+      }
+      return os;
+    }
+  }
+
+}
@@ -19,16 +19,20 @@
 package org.apache.hadoop.fs.http.server;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Seekable;
 import org.apache.hadoop.fs.http.client.HttpFSFileSystem;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.OperationParam;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.AccessTimeParam;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.BlockSizeParam;
+import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.CompressParam;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.DataParam;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.RecursiveParam;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.DoAsParam;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.FilterParam;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.GroupParam;
+import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.GroupsParam;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.LenParam;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.ModifiedTimeParam;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.OffsetParam;
@@ -36,6 +40,7 @@ import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.OverwriteParam;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.OwnerParam;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.PermissionParam;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.ReplicationParam;
+import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.SectionsParam;
 import org.apache.hadoop.fs.http.server.HttpFSParametersProvider.DestinationParam;
 import org.apache.hadoop.lib.service.FileSystemAccess;
 import org.apache.hadoop.lib.service.FileSystemAccessException;
@@ -44,7 +49,11 @@ import org.apache.hadoop.lib.service.Instrumentation;
 import org.apache.hadoop.lib.service.ProxyUser;
 import org.apache.hadoop.lib.servlet.FileSystemReleaseFilter;
 import org.apache.hadoop.lib.servlet.HostnameFilter;
+import org.apache.hadoop.lib.wsrs.ByteBufferEntity;
 import org.apache.hadoop.lib.wsrs.InputStreamEntity;
+import org.apache.hadoop.lib.wsrs.JSONBuffer;
+import org.apache.hadoop.lib.wsrs.CompressedEntity;
+import org.apache.hadoop.lib.wsrs.EntityBuffer;
 import org.apache.hadoop.lib.wsrs.Parameters;
 import org.apache.hadoop.security.authentication.server.AuthenticationToken;
 import org.json.simple.JSONObject;
@@ -62,18 +71,25 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.security.AccessControlException;
 import java.security.Principal;
 import java.text.MessageFormat;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 /**
  * Main class of HttpFSServer server.
@@ -85,6 +101,12 @@ import java.util.Map;
 public class HttpFSServer {
   private static Logger AUDIT_LOG = LoggerFactory.getLogger("httpfsaudit");
 
+  private static final MediaType CBOR_TYPE = MediaType.valueOf(HttpFSFileSystem.CBOR_CONTENT_TYPE);
+
+  // not defined by JAX-RS 1.0 HttpHeaders
+  private static final String ACCEPT_ENCODING = "Accept-Encoding";
+  private static final String CONTENT_ENCODING = "Content-Encoding";
+
   /**
    * Resolves the effective user that will be used to request a FileSystemAccess filesystem.
    * <p/>
@@ -122,6 +144,39 @@ public class HttpFSServer {
     return effectiveUser;
   }
 
+  /**
+   * Takes a permit of the bulkhead of the request, the permit is returned by
+   * the {@link HttpFSReleaseFilter} once the response has been streamed.
+   *
+   * @param op the operation of the request.
+   * @param params the parameters of the request.
+   *
+   * @throws FileSystemAccessException thrown if the bulkhead rejected the
+   * request.
+   */
+  private static void enterBulkhead(HttpFSFileSystem.Operation op, Parameters params)
+    throws FileSystemAccessException {
+    boolean hasData = false;
+    if (op == HttpFSFileSystem.Operation.CREATE || op == HttpFSFileSystem.Operation.APPEND) {
+      hasData = params.get(DataParam.NAME, DataParam.class);
+    }
+    HttpFSServerWebApp.get().getBulkheads().acquire(HttpFSBulkheads.getType(op, hasData));
+  }
+
+  /**
+   * Returns the effective user name of a request without validating the
+   * proxyuser rules, to be used once {@link #getEffectiveUser} has validated
+   * them or before any data is transferred on its behalf.
+   *
+   * @param user principal making the request.
+   * @param doAs do-as user, if any.
+   *
+   * @return the effective user name.
+   */
+  private static String getEffectiveUserName(Principal user, String doAs) {
+    return (doAs != null) ? doAs : user.getName();
+  }
+
   /**
    * Executes a {@link FileSystemAccess.FileSystemExecutor} using a filesystem for the effective
    * user.
@@ -138,12 +193,84 @@ public class HttpFSServer {
    */
   private <T> T fsExecute(Principal user, String doAs, FileSystemAccess.FileSystemExecutor<T> executor)
     throws IOException, FileSystemAccessException {
-    String hadoopUser = getEffectiveUser(user, doAs);
+    return fsExecute(getEffectiveUser(user, doAs), executor);
+  }
+
+  private <T> T fsExecute(String hadoopUser, FileSystemAccess.FileSystemExecutor<T> executor)
+    throws IOException, FileSystemAccessException {
     FileSystemAccess fsAccess = HttpFSServerWebApp.get().get(FileSystemAccess.class);
     Configuration conf = HttpFSServerWebApp.get().get(FileSystemAccess.class).getFileSystemConfiguration();
+    // the filesystem instances used by executors are cached, creating them is
+    // accounted as part of the execution
+    HttpFSInFlightRequests.setPhase(HttpFSInFlightRequests.Phase.EXECUTOR);
     return fsAccess.execute(hadoopUser, conf, executor);
   }
 
+  /**
+   * Executes a read-only {@link FileSystemAccess.FileSystemExecutor}. The
+   * GETFILESTATUS and LISTSTATUS responses are taken from the
+   * {@link HttpFSMetadataCache} if cached for the effective user, identical
+   * concurrent executions are coalesced by the {@link HttpFSSingleFlight}.
+   *
+   * @param user principal making the request.
+   * @param doAs do-as user, if any.
+   * @param op the operation.
+   * @param path path of the operation.
+   * @param filter LISTSTATUS filter, if any.
+   * @param format format of the response.
+   * @param executor FileSystemExecutor computing the response.
+   *
+   * @return the response.
+   *
+   * @throws IOException thrown if an IO error occurrs.
+   * @throws FileSystemAccessException thrown if a FileSystemAccess releated error occurred.
+   */
+  private EntityBuffer fsExecuteReadOnly(Principal user, String doAs, HttpFSFileSystem.Operation op,
+                                         String path, String filter, EntityBuffer.Format format,
+                                         final FileSystemAccess.FileSystemExecutor<EntityBuffer> executor)
+    throws IOException, FileSystemAccessException {
+    final String hadoopUser = getEffectiveUser(user, doAs);
+    HttpFSMetadataCache cache = HttpFSServerWebApp.get().getMetadataCache();
+    boolean cacheable = cache.isEnabled() &&
+      (op == HttpFSFileSystem.Operation.GETFILESTATUS || op == HttpFSFileSystem.Operation.LISTSTATUS);
+    String key = HttpFSMetadataCache.key(hadoopUser, op.name(), filter, format);
+    EntityBuffer response = (cacheable) ? cache.get(path, key) : null;
+    if (response == null) {
+      // executions started before a change done through this server are not
+      // joined, their response may predate the change
+      long sequence = cache.getSequence();
+      response = HttpFSServerWebApp.get().getSingleFlight().execute(
+        path + '\n' + key + '\n' + sequence, new HttpFSSingleFlight.Call<EntityBuffer>() {
+          @Override
+          public EntityBuffer call() throws IOException, FileSystemAccessException {
+            return fsExecute(hadoopUser, executor);
+          }
+        });
+      if (cacheable) {
+        cache.put(path, key, response, sequence);
+      }
+    }
+    return response;
+  }
+
+  /**
+   * Invalidates the {@link HttpFSMetadataCache} responses, the
+   * {@link HttpFSChecksumCache} checksums, the {@link HttpFSContentSummary}
+   * directory subtotals and the {@link HttpFSFileCache} files of a path
+   * changed by the current request. The cache invalidation sequence is advanced even if the cache is
+   * disabled, it keeps later read-only requests from joining executions
+   * started before the change.
+   *
+   * @param path the changed path.
+   * @param tree if the path was deleted or renamed.
+   */
+  private static void invalidateMetadata(String path, boolean tree) {
+    HttpFSServerWebApp.get().getMetadataCache().invalidate(path, tree);
+    HttpFSServerWebApp.get().getChecksumCache().invalidate(path, tree);
+    HttpFSServerWebApp.get().getContentSummary().invalidate(path, tree);
+    HttpFSServerWebApp.get().getFileCache().invalidate(path, tree);
+  }
+
   /**
    * Returns a filesystem instance. The fileystem instance is wired for release at the completion of
    * the current Servlet request via the {@link FileSystemReleaseFilter}.
@@ -165,11 +292,32 @@ public class HttpFSServer {
     String hadoopUser = getEffectiveUser(user, doAs);
     FileSystemAccess fsAccess = HttpFSServerWebApp.get().get(FileSystemAccess.class);
     Configuration conf = HttpFSServerWebApp.get().get(FileSystemAccess.class).getFileSystemConfiguration();
+    HttpFSInFlightRequests.setPhase(HttpFSInFlightRequests.Phase.FS_CREATE);
     FileSystem fs = fsAccess.createFileSystem(hadoopUser, conf);
     FileSystemReleaseFilter.setFileSystem(fs);
+    HttpFSInFlightRequests.setPhase(HttpFSInFlightRequests.Phase.EXECUTOR);
     return fs;
   }
 
+  /**
+   * Verifies the user is in the HttpFSServer admin group.
+   *
+   * @param user the principal of the user making the request.
+   *
+   * @throws IOException thrown if the groups of the user could not be
+   * resolved.
+   * @throws AccessControlException thrown if the user is not in the admin
+   * group.
+   */
+  static void enforceAdminUser(Principal user) throws IOException {
+    Groups groups = HttpFSServerWebApp.get().get(Groups.class);
+    List<String> userGroups = groups.getGroups(user.getName());
+    if (!userGroups.contains(HttpFSServerWebApp.get().getAdminGroup())) {
+      throw new AccessControlException(
+        "User not in HttpFSServer admin group");
+    }
+  }
+
   private void enforceRootPath(HttpFSFileSystem.Operation op, String path) {
     if (!path.equals("/")) {
       throw new UnsupportedOperationException(
@@ -182,6 +330,8 @@ public class HttpFSServer {
    * Special binding for '/' as it is not handled by the wildcard binding.
    *
    * @param user the principal of the user making the request.
+   * @param headers the HTTP headers of the request.
+   * @param request the request, to evaluate its preconditions.
    * @param op the HttpFS operation of the request.
    * @param params the HttpFS parameters of the request.
    *
@@ -195,12 +345,136 @@ public class HttpFSServer {
    */
   @GET
   @Path("/")
-  @Produces(MediaType.APPLICATION_JSON)
+  @Produces({MediaType.APPLICATION_JSON, HttpFSFileSystem.CBOR_CONTENT_TYPE})
   public Response getRoot(@Context Principal user,
+                          @Context HttpHeaders headers,
+                          @Context Request request,
                           @QueryParam(OperationParam.NAME) OperationParam op,
                           @Context Parameters params)
     throws IOException, FileSystemAccessException {
-    return get(user, "", op, params);
+    return get(user, headers, request, "", op, params);
+  }
+
+  /**
+   * Returns the response format for metadata operations.
+   * <p/>
+   * CBOR is used only if the client lists it in the <code>Accept</code> header
+   * ahead of JSON, otherwise (no header, wildcards, JSON preferred) the
+   * response is JSON.
+   *
+   * @param headers the HTTP headers of the request.
+   *
+   * @return the response format.
+   */
+  static EntityBuffer.Format getResponseFormat(HttpHeaders headers) {
+    if (headers != null) {
+      // Jersey returns the acceptable media types sorted by preference
+      for (MediaType mediaType : headers.getAcceptableMediaTypes()) {
+        if (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE) ||
+            mediaType.isCompatible(CBOR_TYPE)) {
+          return (mediaType.isWildcardType() || mediaType.isWildcardSubtype() ||
+                  !mediaType.isCompatible(CBOR_TYPE))
+                 ? EntityBuffer.Format.JSON : EntityBuffer.Format.CBOR;
+        }
+      }
+    }
+    return EntityBuffer.Format.JSON;
+  }
+
+  /**
+   * Returns the content encoding to compress a response with.
+   *
+   * @param headers the HTTP headers of the request.
+   * @param size the size of the response, <code>-1</code> if not known.
+   *
+   * @return the content encoding, <code>null</code> if the response should
+   * not be compressed.
+   */
+  private static CompressedEntity.Encoding getContentEncoding(HttpHeaders headers, long size) {
+    int minSize = HttpFSServerWebApp.get().getCompressionMinSize();
+    if (headers == null || minSize < 0 || size < minSize && size != -1) {
+      return null;
+    }
+    List<String> acceptEncoding = headers.getRequestHeader(ACCEPT_ENCODING);
+    return (acceptEncoding != null && !acceptEncoding.isEmpty())
+           ? CompressedEntity.negotiate(acceptEncoding.get(0)) : null;
+  }
+
+  /**
+   * Creates the response of a metadata operation, compressing it if it is
+   * large enough and the client accepts a supported content encoding.
+   *
+   * @param headers the HTTP headers of the request.
+   * @param entity the response entity.
+   *
+   * @return the response.
+   */
+  private static Response entityResponse(HttpHeaders headers, EntityBuffer entity) {
+    Response.ResponseBuilder builder;
+    CompressedEntity.Encoding encoding = getContentEncoding(headers, entity.size());
+    if (encoding != null) {
+      int level = HttpFSServerWebApp.get().getCompressionLevel();
+      builder = Response.ok(new CompressedEntity(entity, encoding, level))
+        .header(CONTENT_ENCODING, encoding.getName());
+    } else {
+      builder = Response.ok(entity);
+    }
+    return builder.type(entity.getFormat().getMediaType())
+      .header(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + ACCEPT_ENCODING).build();
+  }
+
+  /**
+   * Creates the response of a metadata entity with its entity tag, or a
+   * <code>304 Not Modified</code> response if the request preconditions
+   * match the entity tag.
+   * <p/>
+   * The entity tag is a digest of the whole entity, it is computed only for
+   * requests with an <code>If-None-Match</code> header or if the metadata
+   * validators are enabled.
+   *
+   * @param request the request.
+   * @param headers the request headers.
+   * @param entity the entity.
+   *
+   * @return the response.
+   */
+  private static Response conditionalEntityResponse(Request request, HttpHeaders headers,
+                                                    EntityBuffer entity) {
+    if (headers.getRequestHeader(HttpHeaders.IF_NONE_MATCH) == null &&
+        !HttpFSServerWebApp.get().isMetadataValidatorsEnabled()) {
+      return entityResponse(headers, entity);
+    }
+    EntityTag etag = HttpFSValidators.getEntityTag(entity);
+    Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+    if (notModified != null) {
+      return notModified.tag(etag)
+        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + ACCEPT_ENCODING).build();
+    }
+    return Response.fromResponse(entityResponse(headers, entity)).tag(etag).build();
+  }
+
+  /**
+   * Splits a comma separated list parameter.
+   *
+   * @param value the parameter value, it may be <code>null</code>.
+   *
+   * @return the trimmed non-empty elements of the list, <code>null</code> if
+   * there are none.
+   */
+  static Set<String> split(String value) {
+    Set<String> set = null;
+    if (value != null) {
+      for (String element : value.split(",")) {
+        element = element.trim();
+        if (element.length() > 0) {
+          if (set == null) {
+            set = new HashSet<String>();
+          }
+          set.add(element);
+        }
+      }
+    }
+    return set;
   }
 
   private String makeAbsolute(String path) {
@@ -211,6 +485,8 @@ public class HttpFSServer {
    * Binding to handle GET requests, supported operations are
    *
    * @param user the principal of the user making the request.
+   * @param headers the HTTP headers of the request.
+   * @param request the request, to evaluate its preconditions.
    * @param path the path for operation.
    * @param op the HttpFS operation of the request.
    * @param params the HttpFS parameters of the request.
@@ -225,8 +501,11 @@ public class HttpFSServer {
    */
   @GET
   @Path("{path:.*}")
-  @Produces({MediaType.APPLICATION_OCTET_STREAM, MediaType.APPLICATION_JSON})
+  @Produces({MediaType.APPLICATION_OCTET_STREAM, MediaType.APPLICATION_JSON,
+             HttpFSFileSystem.CBOR_CONTENT_TYPE})
   public Response get(@Context Principal user,
+                      @Context HttpHeaders headers,
+                      @Context Request request,
                       @PathParam("path") String path,
                       @QueryParam(OperationParam.NAME) OperationParam op,
                       @Context Parameters params)
@@ -234,6 +513,9 @@ public class HttpFSServer {
     Response response;
     path = makeAbsolute(path);
     MDC.put(HttpFSFileSystem.OP_PARAM, op.value().name());
+    HttpFSRequestMetricsFilter.dispatched(user);
+    HttpFSServerWebApp.get().getInFlightRequests().register(op.value().name(), path, user.getName());
+    enterBulkhead(op.value(), params);
     String doAs = params.get(DoAsParam.NAME, DoAsParam.class);
     switch (op.value()) {
       case OPEN: {
@@ -241,7 +523,6 @@ public class HttpFSServer {
         // released by the FileSystemReleaseFilter
         FSOperations.FSOpen command = new FSOperations.FSOpen(path);
         FileSystem fs = createFileSystem(user, doAs);
-        InputStream is = command.execute(fs);
         Long offset = params.get(OffsetParam.NAME, OffsetParam.class);
         Long len = params.get(LenParam.NAME, LenParam.class);
 
@@ -251,27 +532,111 @@ public class HttpFSServer {
 
         AUDIT_LOG.info("[{}] offset [{}] len [{}]",
                        new Object[]{path, offset, len});
-        InputStreamEntity entity = new InputStreamEntity(is, offset, len);
-        response =
-          Response.ok(entity).type(MediaType.APPLICATION_OCTET_STREAM).build();
+        EntityTag etag = null;
+        Date lastModified = null;
+        FileStatus status = null;
+        HttpFSFileCache fileCache = HttpFSServerWebApp.get().getFileCache();
+        HttpFSChunkCache chunkCache = HttpFSServerWebApp.get().getChunkCache();
+        HttpFSSharedReads sharedReads = HttpFSServerWebApp.get().getSharedReads();
+        boolean cached = fileCache.isEnabled() || chunkCache.isEnabled() || sharedReads.isEnabled();
+        // the validators come for free when the caches look up the status
+        if (cached || HttpFSServerWebApp.get().isOpenValidatorsEnabled()) {
+          status = fs.getFileStatus(new org.apache.hadoop.fs.Path(path));
+          etag = HttpFSValidators.getEntityTag(path, status, offset, len);
+          lastModified = HttpFSValidators.getLastModified(status);
+          Response.ResponseBuilder notModified = request.evaluatePreconditions(lastModified, etag);
+          if (notModified != null) {
+            // the file is not opened, no data is streamed
+            response = notModified.tag(etag).lastModified(lastModified).build();
+            break;
+          }
+        }
+        StreamingOutput entity = null;
+        if (cached) {
+          org.apache.hadoop.fs.Path fsPath = new org.apache.hadoop.fs.Path(path);
+          int bufferSize = HttpFSServerWebApp.get().getConfig().getInt("httpfs.buffer.size", 4096);
+          ByteBuffer data = fileCache.getFileData(fs, fsPath, status, bufferSize);
+          if (data != null) {
+            entity = new ByteBufferEntity(data, offset, len);
+          } else {
+            // files not in the small files cache are read through the chunk cache
+            entity = chunkCache.getEntity(fs, fsPath, status, offset, len, bufferSize);
+          }
+          if (entity == null) {
+            InputStream is = sharedReads.open(fs, getEffectiveUserName(user, doAs), fsPath, status,
+                                              offset, bufferSize);
+            if (is != null) {
+              // the shared stream starts at the offset
+              entity = new InputStreamEntity(is, 0, len);
+            }
+          }
+        }
+        if (entity == null) {
+          InputStream is = command.execute(fs);
+          HttpFSReadAhead readAhead = HttpFSServerWebApp.get().getReadAhead();
+          boolean sought = false;
+          if (readAhead.isEnabled() && is instanceof Seekable) {
+            // the read-ahead starts at the offset, skipped bytes are not read
+            try {
+              ((Seekable) is).seek(offset);
+              sought = true;
+            } catch (IOException ex) {
+              // an offset past the end of the file, the file is reopened
+              // and skipped to the offset as without the read-ahead
+              is.close();
+              is = command.execute(fs);
+            }
+          }
+          if (sought) {
+            entity = new InputStreamEntity(readAhead.readAhead(is, len), 0, len);
+          } else {
+            entity = new InputStreamEntity(is, offset, len);
+          }
+        }
+        // the data is streamed once this method returns
+        HttpFSInFlightRequests.setPhase(HttpFSInFlightRequests.Phase.STREAMING);
+        // data is compressed only if the client asks for it, it is costly and
+        // most file formats are already compressed
+        CompressedEntity.Encoding encoding =
+          (params.get(CompressParam.NAME, CompressParam.class))
+          ? getContentEncoding(headers, -1) : null;
+        StreamingOutput output = entity;
+        if (encoding != null) {
+          int level = HttpFSServerWebApp.get().getCompressionLevel();
+          output = new CompressedEntity(entity, encoding, level);
+        }
+        // the bytes sent to the client are throttled, after compression
+        output = HttpFSServerWebApp.get().getBandwidthThrottle()
+          .throttle(output, getEffectiveUserName(user, doAs));
+        Response.ResponseBuilder builder =
+          Response.ok(output).type(MediaType.APPLICATION_OCTET_STREAM);
+        if (encoding != null) {
+          builder.header(CONTENT_ENCODING, encoding.getName());
+        }
+        if (etag != null) {
+          builder.tag(etag).lastModified(lastModified);
+        }
+        response = builder.build();
         break;
       }
       case GETFILESTATUS: {
+        EntityBuffer.Format format = getResponseFormat(headers);
         FSOperations.FSFileStatus command =
-          new FSOperations.FSFileStatus(path);
-        Map json = fsExecute(user, doAs, command);
+          new FSOperations.FSFileStatus(path, format);
+        EntityBuffer json = fsExecuteReadOnly(user, doAs, op.value(), path, null, format, command);
         AUDIT_LOG.info("[{}]", path);
-        response = Response.ok(json).type(MediaType.APPLICATION_JSON).build();
+        response = conditionalEntityResponse(request, headers, json);
         break;
       }
       case LISTSTATUS: {
         String filter = params.get(FilterParam.NAME, FilterParam.class);
+        EntityBuffer.Format format = getResponseFormat(headers);
         FSOperations.FSListStatus command = new FSOperations.FSListStatus(
-          path, filter);
-        Map json = fsExecute(user, doAs, command);
+          path, filter, format);
+        EntityBuffer json = fsExecuteReadOnly(user, doAs, op.value(), path, filter, format, command);
         AUDIT_LOG.info("[{}] filter [{}]", path,
                        (filter != null) ? filter : "-");
-        response = Response.ok(json).type(MediaType.APPLICATION_JSON).build();
+        response = conditionalEntityResponse(request, headers, json);
         break;
       }
       case GETHOMEDIRECTORY: {
@@ -284,32 +649,31 @@ public class HttpFSServer {
       }
       case INSTRUMENTATION: {
         enforceRootPath(op.value(), path);
-        Groups groups = HttpFSServerWebApp.get().get(Groups.class);
-        List<String> userGroups = groups.getGroups(user.getName());
-        if (!userGroups.contains(HttpFSServerWebApp.get().getAdminGroup())) {
-          throw new AccessControlException(
-            "User not in HttpFSServer admin group");
-        }
+        enforceAdminUser(user);
         Instrumentation instrumentation =
           HttpFSServerWebApp.get().get(Instrumentation.class);
-        Map snapshot = instrumentation.getSnapshot();
-        response = Response.ok(snapshot).build();
+        byte[] snapshot = instrumentation.getSnapshot(
+          split(params.get(SectionsParam.NAME, SectionsParam.class)),
+          split(params.get(GroupsParam.NAME, GroupsParam.class)));
+        response = entityResponse(headers, JSONBuffer.valueOf(snapshot));
         break;
       }
       case GETCONTENTSUMMARY: {
+        EntityBuffer.Format format = getResponseFormat(headers);
         FSOperations.FSContentSummary command =
-          new FSOperations.FSContentSummary(path);
-        Map json = fsExecute(user, doAs, command);
+          new FSOperations.FSContentSummary(path, format, HttpFSServerWebApp.get().getContentSummary());
+        EntityBuffer json = fsExecuteReadOnly(user, doAs, op.value(), path, null, format, command);
         AUDIT_LOG.info("[{}]", path);
-        response = Response.ok(json).type(MediaType.APPLICATION_JSON).build();
+        response = entityResponse(headers, json);
         break;
       }
       case GETFILECHECKSUM: {
+        EntityBuffer.Format format = getResponseFormat(headers);
         FSOperations.FSFileChecksum command =
-          new FSOperations.FSFileChecksum(path);
-        Map json = fsExecute(user, doAs, command);
+          new FSOperations.FSFileChecksum(path, format, HttpFSServerWebApp.get().getChecksumCache());
+        EntityBuffer json = fsExecuteReadOnly(user, doAs, op.value(), path, null, format, command);
         AUDIT_LOG.info("[{}]", path);
-        response = Response.ok(json).type(MediaType.APPLICATION_JSON).build();
+        response = entityResponse(headers, json);
         break;
       }
       case GETFILEBLOCKLOCATIONS: {
@@ -353,6 +717,9 @@ public class HttpFSServer {
     Response response;
     path = makeAbsolute(path);
     MDC.put(HttpFSFileSystem.OP_PARAM, op.value().name());
+    HttpFSRequestMetricsFilter.dispatched(user);
+    HttpFSServerWebApp.get().getInFlightRequests().register(op.value().name(), path, user.getName());
+    enterBulkhead(op.value(), params);
     String doAs = params.get(DoAsParam.NAME, DoAsParam.class);
     switch (op.value()) {
       case DELETE: {
@@ -362,6 +729,7 @@ public class HttpFSServer {
         FSOperations.FSDelete command =
           new FSOperations.FSDelete(path, recursive);
         JSONObject json = fsExecute(user, doAs, command);
+        invalidateMetadata(path, true);
         response = Response.ok(json).type(MediaType.APPLICATION_JSON).build();
         break;
       }
@@ -406,6 +774,9 @@ public class HttpFSServer {
     Response response;
     path = makeAbsolute(path);
     MDC.put(HttpFSFileSystem.OP_PARAM, op.value().name());
+    HttpFSRequestMetricsFilter.dispatched(user);
+    HttpFSServerWebApp.get().getInFlightRequests().register(op.value().name(), path, user.getName());
+    enterBulkhead(op.value(), params);
     String doAs = params.get(DoAsParam.NAME, DoAsParam.class);
     switch (op.value()) {
       case APPEND: {
@@ -415,9 +786,13 @@ public class HttpFSServer {
             createUploadRedirectionURL(uriInfo,
               HttpFSFileSystem.Operation.APPEND)).build();
         } else {
+          InputStream data = HttpFSServerWebApp.get().getBandwidthThrottle()
+            .throttle(is, getEffectiveUserName(user, doAs));
           FSOperations.FSAppend command =
-            new FSOperations.FSAppend(is, path);
+            new FSOperations.FSAppend(data, path, HttpFSServerWebApp.get().getUploadPipeline());
           fsExecute(user, doAs, command);
+          invalidateMetadata(path, false);
+          HttpFSServerWebApp.get().getChecksumCache().precompute(path, getEffectiveUserName(user, doAs));
           AUDIT_LOG.info("[{}]", path);
           response = Response.ok().type(MediaType.APPLICATION_JSON).build();
         }
@@ -480,6 +855,9 @@ public class HttpFSServer {
     Response response;
     path = makeAbsolute(path);
     MDC.put(HttpFSFileSystem.OP_PARAM, op.value().name());
+    HttpFSRequestMetricsFilter.dispatched(user);
+    HttpFSServerWebApp.get().getInFlightRequests().register(op.value().name(), path, user.getName());
+    enterBulkhead(op.value(), params);
     String doAs = params.get(DoAsParam.NAME, DoAsParam.class);
     switch (op.value()) {
       case CREATE: {
@@ -497,10 +875,15 @@ public class HttpFSServer {
                                          ReplicationParam.class);
           Long blockSize = params.get(BlockSizeParam.NAME,
                                       BlockSizeParam.class);
+          InputStream data = HttpFSServerWebApp.get().getBandwidthThrottle()
+            .throttle(is, getEffectiveUserName(user, doAs));
           FSOperations.FSCreate command =
-            new FSOperations.FSCreate(is, path, permission, override,
-                                      replication, blockSize);
+            new FSOperations.FSCreate(data, path, permission, override,
+                                      replication, blockSize,
+                                      HttpFSServerWebApp.get().getUploadPipeline());
           fsExecute(user, doAs, command);
+          invalidateMetadata(path, false);
+          HttpFSServerWebApp.get().getChecksumCache().precompute(path, getEffectiveUserName(user, doAs));
           AUDIT_LOG.info(
             "[{}] permission [{}] override [{}] replication [{}] blockSize [{}]",
             new Object[]{path, permission, override, replication, blockSize});
@@ -514,6 +897,7 @@ public class HttpFSServer {
         FSOperations.FSMkdirs command =
           new FSOperations.FSMkdirs(path, permission);
         JSONObject json = fsExecute(user, doAs, command);
+        invalidateMetadata(path, false);
         AUDIT_LOG.info("[{}] permission [{}]", path, permission);
         response = Response.ok(json).type(MediaType.APPLICATION_JSON).build();
         break;
@@ -523,6 +907,8 @@ public class HttpFSServer {
         FSOperations.FSRename command =
           new FSOperations.FSRename(path, toPath);
         JSONObject json = fsExecute(user, doAs, command);
+        invalidateMetadata(path, true);
+        invalidateMetadata(toPath, true);
         AUDIT_LOG.info("[{}] to [{}]", path, toPath);
         response = Response.ok(json).type(MediaType.APPLICATION_JSON).build();
         break;
@@ -533,6 +919,7 @@ public class HttpFSServer {
         FSOperations.FSSetOwner command =
           new FSOperations.FSSetOwner(path, owner, group);
         fsExecute(user, doAs, command);
+        invalidateMetadata(path, false);
         AUDIT_LOG.info("[{}] to (O/G)[{}]", path, owner + ":" + group);
         response = Response.ok().build();
         break;
@@ -543,6 +930,7 @@ public class HttpFSServer {
         FSOperations.FSSetPermission command =
           new FSOperations.FSSetPermission(path, permission);
         fsExecute(user, doAs, command);
+        invalidateMetadata(path, false);
         AUDIT_LOG.info("[{}] to [{}]", path, permission);
         response = Response.ok().build();
         break;
@@ -553,6 +941,7 @@ public class HttpFSServer {
         FSOperations.FSSetReplication command =
           new FSOperations.FSSetReplication(path, replication);
         JSONObject json = fsExecute(user, doAs, command);
+        invalidateMetadata(path, false);
         AUDIT_LOG.info("[{}] to [{}]", path, replication);
         response = Response.ok(json).build();
         break;
@@ -565,6 +954,7 @@ public class HttpFSServer {
         FSOperations.FSSetTimes command =
           new FSOperations.FSSetTimes(path, modifiedTime, accessTime);
         fsExecute(user, doAs, command);
+        invalidateMetadata(path, false);
         AUDIT_LOG.info("[{}] to (M/A)[{}]", path,
                        modifiedTime + ":" + accessTime);
         response = Response.ok().build();
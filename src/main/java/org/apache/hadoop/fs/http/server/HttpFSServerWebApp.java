@@ -22,12 +22,16 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
 import org.apache.hadoop.lib.server.ServerException;
 import org.apache.hadoop.lib.service.FileSystemAccess;
+import org.apache.hadoop.lib.service.Instrumentation;
+import org.apache.hadoop.lib.service.Scheduler;
 import org.apache.hadoop.lib.servlet.ServerWebApp;
 import org.apache.hadoop.lib.wsrs.UserProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Bootstrap class that manages the initialization and destruction of the
@@ -54,9 +58,275 @@ public class HttpFSServerWebApp extends ServerWebApp {
    */
   public static final String CONF_ADMIN_GROUP = "admin.group";
 
+  /**
+   * Configuration property that defines the compression level of compressed
+   * responses, 0 to 9 or -1 for the zlib default.
+   */
+  public static final String CONF_COMPRESSION_LEVEL = "compression.level";
+
+  /**
+   * Configuration property that defines the minimum size, in bytes, of a JSON
+   * response to be compressed, a negative value disables compression.
+   */
+  public static final String CONF_COMPRESSION_MIN_SIZE = "compression.min.size";
+
+  /**
+   * Configuration property that defines the maximum number of users tracked
+   * by the request metrics, requests of further users are accounted together.
+   */
+  public static final String CONF_METRICS_MAX_USERS = "metrics.max.users";
+
+  /**
+   * Configuration property that defines how many users, the ones with the
+   * highest load, are reported by the request metrics.
+   */
+  public static final String CONF_METRICS_TOP_USERS = "metrics.top.users";
+
+  /**
+   * Configuration property that defines the time, in milliseconds, above which
+   * completed requests are logged as slow, zero or negative disables it.
+   */
+  public static final String CONF_SLOW_REQUEST_THRESHOLD = "slow.request.threshold.ms";
+
+  /**
+   * Configuration property that defines the bytes per second streamed by
+   * OPEN, CREATE and APPEND of all users together, zero or negative for
+   * unlimited.
+   */
+  public static final String CONF_THROTTLE_GLOBAL_RATE = "throttle.global.bytes.per.second";
+
+  /**
+   * Configuration property that defines the burst size, in bytes, of the
+   * global bandwidth throttle.
+   */
+  public static final String CONF_THROTTLE_GLOBAL_BURST = "throttle.global.burst.bytes";
+
+  /**
+   * Configuration property that defines the bytes per second streamed by
+   * OPEN, CREATE and APPEND of a single user, zero or negative for unlimited.
+   */
+  public static final String CONF_THROTTLE_USER_RATE = "throttle.user.bytes.per.second";
+
+  /**
+   * Configuration property that defines the burst size, in bytes, of the
+   * per user bandwidth throttle.
+   */
+  public static final String CONF_THROTTLE_USER_BURST = "throttle.user.burst.bytes";
+
+  /**
+   * Configuration property that defines the maximum number of concurrent
+   * metadata requests, zero or negative for no limit.
+   */
+  public static final String CONF_BULKHEAD_METADATA_MAX_CONCURRENT = "bulkhead.metadata.max.concurrent";
+
+  /**
+   * Configuration property that defines the maximum number of metadata
+   * requests waiting for the metadata bulkhead.
+   */
+  public static final String CONF_BULKHEAD_METADATA_QUEUE_SIZE = "bulkhead.metadata.queue.size";
+
+  /**
+   * Configuration property that defines the maximum number of concurrent
+   * streaming requests, zero or negative for no limit.
+   */
+  public static final String CONF_BULKHEAD_STREAMING_MAX_CONCURRENT = "bulkhead.streaming.max.concurrent";
+
+  /**
+   * Configuration property that defines the maximum number of streaming
+   * requests waiting for the streaming bulkhead.
+   */
+  public static final String CONF_BULKHEAD_STREAMING_QUEUE_SIZE = "bulkhead.streaming.queue.size";
+
+  /**
+   * Configuration property that defines the maximum time, in milliseconds, a
+   * request waits for its bulkhead.
+   */
+  public static final String CONF_BULKHEAD_QUEUE_TIMEOUT = "bulkhead.queue.timeout.ms";
+
+  /**
+   * Configuration property that defines the time, in seconds, a client is
+   * suggested to wait before retrying a request rejected by its bulkhead.
+   */
+  public static final String CONF_BULKHEAD_RETRY_AFTER = "bulkhead.retry.after.seconds";
+
+  /**
+   * Configuration property that defines the time, in milliseconds, the
+   * GETFILESTATUS and LISTSTATUS responses are cached, zero or negative
+   * disables the metadata cache.
+   */
+  public static final String CONF_METADATA_CACHE_TTL = "metadata.cache.ttl.ms";
+
+  /**
+   * Configuration property that defines the maximum number of responses in
+   * the metadata cache.
+   */
+  public static final String CONF_METADATA_CACHE_MAX_ENTRIES = "metadata.cache.max.entries";
+
+  /**
+   * Configuration property that defines if identical concurrent read-only
+   * requests are coalesced.
+   */
+  public static final String CONF_COALESCING_ENABLED = "coalescing.enabled";
+
+  /**
+   * Configuration property that defines if all OPEN responses carry
+   * validators, <code>ETag</code> and <code>Last-Modified</code>, and honor
+   * conditional requests. It costs a file status lookup per OPEN, when the
+   * OPEN caches are enabled the validators are always used as they look up
+   * the status anyway.
+   */
+  public static final String CONF_OPEN_VALIDATORS_ENABLED = "open.validators.enabled";
+
+  /**
+   * Configuration property that defines if all GETFILESTATUS and LISTSTATUS
+   * responses carry an <code>ETag</code>. It costs a digest of every
+   * response, requests with an <code>If-None-Match</code> header are
+   * honored regardless.
+   */
+  public static final String CONF_METADATA_VALIDATORS_ENABLED = "metadata.validators.enabled";
+
+  /**
+   * Configuration property that defines the maximum number of file checksums
+   * cached, zero or negative disables the checksum cache.
+   */
+  public static final String CONF_CHECKSUM_CACHE_MAX_ENTRIES = "checksum.cache.max.entries";
+
+  /**
+   * Configuration property that defines the interval, in milliseconds, at
+   * which the checksums of the files written through the server are computed
+   * in the background, zero or negative disables the precomputation.
+   */
+  public static final String CONF_CHECKSUM_PRECOMPUTE_INTERVAL = "checksum.precompute.interval.ms";
+
+  /**
+   * Configuration property that defines the number of threads listing
+   * directories for GETCONTENTSUMMARY on filesystems that walk the tree in
+   * the client, zero or negative disables the parallel walk.
+   */
+  public static final String CONF_CONTENT_SUMMARY_PARALLELISM = "content.summary.parallelism";
+
+  /**
+   * Configuration property that defines the time, in milliseconds, the
+   * directory subtotals of GETCONTENTSUMMARY are cached, zero or negative
+   * disables the cache.
+   */
+  public static final String CONF_CONTENT_SUMMARY_CACHE_TTL = "content.summary.cache.ttl.ms";
+
+  /**
+   * Configuration property that defines the maximum number of directory
+   * subtotals cached for GETCONTENTSUMMARY.
+   */
+  public static final String CONF_CONTENT_SUMMARY_CACHE_MAX_ENTRIES = "content.summary.cache.max.entries";
+
+  /**
+   * Configuration property that defines the maximum number of bytes of the
+   * off-heap cache of small files served by OPEN, zero or negative disables
+   * the file cache.
+   */
+  public static final String CONF_FILE_CACHE_MAX_BYTES = "file.cache.max.bytes";
+
+  /**
+   * Configuration property that defines the maximum size, in bytes, of a
+   * file in the file cache.
+   */
+  public static final String CONF_FILE_CACHE_MAX_FILE_SIZE = "file.cache.max.file.size";
+
+  /**
+   * Configuration property that defines the local directory of the chunk
+   * cache of the files served by OPEN, by default the <code>chunk-cache</code>
+   * directory in the server temp dir.
+   */
+  public static final String CONF_CHUNK_CACHE_DIR = "chunk.cache.dir";
+
+  /**
+   * Configuration property that defines the maximum number of bytes of the
+   * chunk cache, zero or negative disables the chunk cache.
+   */
+  public static final String CONF_CHUNK_CACHE_MAX_BYTES = "chunk.cache.max.bytes";
+
+  /**
+   * Configuration property that defines the size, in bytes, of the chunks
+   * of the chunk cache.
+   */
+  public static final String CONF_CHUNK_CACHE_CHUNK_SIZE = "chunk.cache.chunk.size";
+
+  /**
+   * Configuration property that defines the size, in bytes, of the ring
+   * buffer of a file read shared by concurrent OPENs, zero or negative
+   * disables the shared reads.
+   */
+  public static final String CONF_SHARED_READS_BUFFER_SIZE = "shared.reads.buffer.size";
+
+  /**
+   * Configuration property that defines the minimum length, in bytes, of
+   * the files read shared by concurrent OPENs.
+   */
+  public static final String CONF_SHARED_READS_MIN_FILE_SIZE = "shared.reads.min.file.size";
+
+  /**
+   * Configuration property that defines the maximum number of files read
+   * shared at once.
+   */
+  public static final String CONF_SHARED_READS_MAX_FILES = "shared.reads.max.files";
+
+  /**
+   * Configuration property that defines the size, in bytes, of the chunks
+   * read ahead of the OPEN streams, zero or negative disables the
+   * read-ahead.
+   */
+  public static final String CONF_READ_AHEAD_CHUNK_SIZE = "read.ahead.chunk.size";
+
+  /**
+   * Configuration property that defines the maximum number of chunks read
+   * ahead of an OPEN stream.
+   */
+  public static final String CONF_READ_AHEAD_MAX_CHUNKS = "read.ahead.max.chunks";
+
+  /**
+   * Configuration property that defines the number of threads reading ahead
+   * the OPEN streams.
+   */
+  public static final String CONF_READ_AHEAD_THREADS = "read.ahead.threads";
+
+  /**
+   * Configuration property that defines the size of the buffers of the
+   * CREATE and APPEND upload pipeline, zero or negative disables it.
+   */
+  public static final String CONF_UPLOAD_PIPELINE_BUFFER_SIZE = "upload.pipeline.buffer.size";
+
+  /**
+   * Configuration property that defines the maximum number of buffers
+   * queued by an upload.
+   */
+  public static final String CONF_UPLOAD_PIPELINE_QUEUE_SIZE = "upload.pipeline.queue.size";
+
+  /**
+   * Configuration property that defines the number of threads writing the
+   * uploads to the filesystem.
+   */
+  public static final String CONF_UPLOAD_PIPELINE_THREADS = "upload.pipeline.threads";
+
   private static HttpFSServerWebApp SERVER;
 
   private String adminGroup;
+  private int compressionLevel;
+  private int compressionMinSize;
+  private int metricsMaxUsers;
+  private int metricsTopUsers;
+  private HttpFSInFlightRequests inFlightRequests;
+  private HttpFSBandwidthThrottle bandwidthThrottle;
+  private HttpFSBulkheads bulkheads;
+  private HttpFSMetadataCache metadataCache;
+  private HttpFSSingleFlight singleFlight;
+  private boolean openValidatorsEnabled;
+  private boolean metadataValidatorsEnabled;
+  private HttpFSChecksumCache checksumCache;
+  private HttpFSContentSummary contentSummary;
+  private HttpFSFileCache fileCache;
+  private HttpFSChunkCache chunkCache;
+  private HttpFSSharedReads sharedReads;
+  private HttpFSReadAhead readAhead;
+  private HttpFSUploadPipeline uploadPipeline;
 
   /**
    * Default constructor.
@@ -98,6 +368,77 @@ public class HttpFSServerWebApp extends ServerWebApp {
     }
     SERVER = this;
     adminGroup = getConfig().get(getPrefixedName(CONF_ADMIN_GROUP), "admin");
+    compressionLevel = getConfig().getInt(getPrefixedName(CONF_COMPRESSION_LEVEL), 6);
+    if (compressionLevel < -1 || compressionLevel > 9) {
+      LOG.warn("Invalid [{}] value [{}], using the default",
+               getPrefixedName(CONF_COMPRESSION_LEVEL), compressionLevel);
+      compressionLevel = -1;
+    }
+    compressionMinSize = getConfig().getInt(getPrefixedName(CONF_COMPRESSION_MIN_SIZE), 1024);
+    metricsMaxUsers = getConfig().getInt(getPrefixedName(CONF_METRICS_MAX_USERS), 1000);
+    metricsTopUsers = getConfig().getInt(getPrefixedName(CONF_METRICS_TOP_USERS), 10);
+    inFlightRequests = new HttpFSInFlightRequests(
+      getConfig().getLong(getPrefixedName(CONF_SLOW_REQUEST_THRESHOLD), 10000));
+    bandwidthThrottle = new HttpFSBandwidthThrottle(
+      getConfig().getLong(getPrefixedName(CONF_THROTTLE_GLOBAL_RATE), 0),
+      getConfig().getLong(getPrefixedName(CONF_THROTTLE_GLOBAL_BURST), 0),
+      getConfig().getLong(getPrefixedName(CONF_THROTTLE_USER_RATE), 0),
+      getConfig().getLong(getPrefixedName(CONF_THROTTLE_USER_BURST), 0),
+      get(Instrumentation.class));
+    bulkheads = new HttpFSBulkheads(
+      getConfig().getInt(getPrefixedName(CONF_BULKHEAD_METADATA_MAX_CONCURRENT), 0),
+      getConfig().getInt(getPrefixedName(CONF_BULKHEAD_METADATA_QUEUE_SIZE), 50),
+      getConfig().getInt(getPrefixedName(CONF_BULKHEAD_STREAMING_MAX_CONCURRENT), 0),
+      getConfig().getInt(getPrefixedName(CONF_BULKHEAD_STREAMING_QUEUE_SIZE), 10),
+      getConfig().getLong(getPrefixedName(CONF_BULKHEAD_QUEUE_TIMEOUT), 5000),
+      getConfig().getInt(getPrefixedName(CONF_BULKHEAD_RETRY_AFTER), 5),
+      get(Instrumentation.class));
+    metadataCache = new HttpFSMetadataCache(
+      getConfig().getLong(getPrefixedName(CONF_METADATA_CACHE_TTL), 0),
+      getConfig().getInt(getPrefixedName(CONF_METADATA_CACHE_MAX_ENTRIES), 10000),
+      get(Instrumentation.class));
+    singleFlight = new HttpFSSingleFlight(
+      getConfig().getBoolean(getPrefixedName(CONF_COALESCING_ENABLED), true),
+      get(Instrumentation.class));
+    openValidatorsEnabled = getConfig().getBoolean(getPrefixedName(CONF_OPEN_VALIDATORS_ENABLED), false);
+    metadataValidatorsEnabled = getConfig().getBoolean(getPrefixedName(CONF_METADATA_VALIDATORS_ENABLED), false);
+    long precomputeInterval = getConfig().getLong(getPrefixedName(CONF_CHECKSUM_PRECOMPUTE_INTERVAL), 0);
+    checksumCache = new HttpFSChecksumCache(
+      getConfig().getInt(getPrefixedName(CONF_CHECKSUM_CACHE_MAX_ENTRIES), 0),
+      precomputeInterval > 0, get(Instrumentation.class));
+    if (checksumCache.isEnabled() && precomputeInterval > 0) {
+      get(Scheduler.class).schedule(checksumCache.new ChecksumPrecompute(get(FileSystemAccess.class)),
+                                    precomputeInterval, precomputeInterval, TimeUnit.MILLISECONDS);
+    }
+    contentSummary = new HttpFSContentSummary(
+      getConfig().getInt(getPrefixedName(CONF_CONTENT_SUMMARY_PARALLELISM), 0),
+      getConfig().getLong(getPrefixedName(CONF_CONTENT_SUMMARY_CACHE_TTL), 0),
+      getConfig().getInt(getPrefixedName(CONF_CONTENT_SUMMARY_CACHE_MAX_ENTRIES), 100000),
+      get(Instrumentation.class));
+    fileCache = new HttpFSFileCache(
+      getConfig().getLong(getPrefixedName(CONF_FILE_CACHE_MAX_BYTES), 0),
+      getConfig().getInt(getPrefixedName(CONF_FILE_CACHE_MAX_FILE_SIZE), 1024 * 1024),
+      get(Instrumentation.class));
+    chunkCache = new HttpFSChunkCache(
+      new File(getConfig().get(getPrefixedName(CONF_CHUNK_CACHE_DIR), new File(getTempDir(), "chunk-cache").getPath())),
+      getConfig().getInt(getPrefixedName(CONF_CHUNK_CACHE_CHUNK_SIZE), 4 * 1024 * 1024),
+      getConfig().getLong(getPrefixedName(CONF_CHUNK_CACHE_MAX_BYTES), 0),
+      get(Instrumentation.class));
+    sharedReads = new HttpFSSharedReads(get(FileSystemAccess.class),
+      getConfig().getInt(getPrefixedName(CONF_SHARED_READS_BUFFER_SIZE), 0),
+      getConfig().getLong(getPrefixedName(CONF_SHARED_READS_MIN_FILE_SIZE), 16 * 1024 * 1024),
+      getConfig().getInt(getPrefixedName(CONF_SHARED_READS_MAX_FILES), 64),
+      get(Instrumentation.class));
+    readAhead = new HttpFSReadAhead(
+      getConfig().getInt(getPrefixedName(CONF_READ_AHEAD_CHUNK_SIZE), 0),
+      getConfig().getInt(getPrefixedName(CONF_READ_AHEAD_MAX_CHUNKS), 8),
+      getConfig().getInt(getPrefixedName(CONF_READ_AHEAD_THREADS), 32),
+      get(Instrumentation.class));
+    uploadPipeline = new HttpFSUploadPipeline(
+      getConfig().getInt(getPrefixedName(CONF_UPLOAD_PIPELINE_BUFFER_SIZE), 0),
+      getConfig().getInt(getPrefixedName(CONF_UPLOAD_PIPELINE_QUEUE_SIZE), 4),
+      getConfig().getInt(getPrefixedName(CONF_UPLOAD_PIPELINE_THREADS), 32),
+      get(Instrumentation.class));
     LOG.info("Connects to Namenode [{}]",
              get().get(FileSystemAccess.class).getFileSystemConfiguration().
                get(CommonConfigurationKeysPublic.FS_DEFAULT_NAME_KEY));
@@ -111,6 +452,24 @@ public class HttpFSServerWebApp extends ServerWebApp {
    */
   @Override
   public void destroy() {
+    if (contentSummary != null) {
+      contentSummary.destroy();
+    }
+    if (fileCache != null) {
+      fileCache.destroy();
+    }
+    if (chunkCache != null) {
+      chunkCache.destroy();
+    }
+    if (sharedReads != null) {
+      sharedReads.destroy();
+    }
+    if (readAhead != null) {
+      readAhead.destroy();
+    }
+    if (uploadPipeline != null) {
+      uploadPipeline.destroy();
+    }
     SERVER = null;
     super.destroy();
   }
@@ -134,4 +493,168 @@ public class HttpFSServerWebApp extends ServerWebApp {
     return adminGroup;
   }
 
+  /**
+   * Returns the compression level of compressed responses.
+   *
+   * @return the compression level.
+   */
+  public int getCompressionLevel() {
+    return compressionLevel;
+  }
+
+  /**
+   * Returns the minimum size of a JSON response to be compressed.
+   *
+   * @return the minimum size in bytes, negative if compression is disabled.
+   */
+  public int getCompressionMinSize() {
+    return compressionMinSize;
+  }
+
+  /**
+   * Returns the maximum number of users tracked by the request metrics.
+   *
+   * @return the maximum number of users.
+   */
+  public int getMetricsMaxUsers() {
+    return metricsMaxUsers;
+  }
+
+  /**
+   * Returns the number of users reported by the request metrics.
+   *
+   * @return the number of top users.
+   */
+  public int getMetricsTopUsers() {
+    return metricsTopUsers;
+  }
+
+  /**
+   * Returns the registry of the requests in flight.
+   *
+   * @return the registry of the requests in flight.
+   */
+  public HttpFSInFlightRequests getInFlightRequests() {
+    return inFlightRequests;
+  }
+
+  /**
+   * Returns the bandwidth throttle of the streamed data.
+   *
+   * @return the bandwidth throttle.
+   */
+  public HttpFSBandwidthThrottle getBandwidthThrottle() {
+    return bandwidthThrottle;
+  }
+
+  /**
+   * Returns the bulkheads of the metadata and streaming requests.
+   *
+   * @return the bulkheads.
+   */
+  public HttpFSBulkheads getBulkheads() {
+    return bulkheads;
+  }
+
+  /**
+   * Returns the cache of the GETFILESTATUS and LISTSTATUS responses.
+   *
+   * @return the metadata cache.
+   */
+  public HttpFSMetadataCache getMetadataCache() {
+    return metadataCache;
+  }
+
+  /**
+   * Returns the coalescer of identical concurrent read-only requests.
+   *
+   * @return the single-flight coalescer.
+   */
+  public HttpFSSingleFlight getSingleFlight() {
+    return singleFlight;
+  }
+
+  /**
+   * Returns if OPEN responses carry validators and honor conditional
+   * requests.
+   *
+   * @return if OPEN responses carry validators.
+   */
+  public boolean isOpenValidatorsEnabled() {
+    return openValidatorsEnabled;
+  }
+
+  /**
+   * Returns if all GETFILESTATUS and LISTSTATUS responses carry an entity
+   * tag.
+   *
+   * @return if metadata responses carry an entity tag.
+   */
+  public boolean isMetadataValidatorsEnabled() {
+    return metadataValidatorsEnabled;
+  }
+
+  /**
+   * Returns the cache of the GETFILECHECKSUM checksums.
+   *
+   * @return the checksum cache.
+   */
+  public HttpFSChecksumCache getChecksumCache() {
+    return checksumCache;
+  }
+
+  /**
+   * Returns the GETCONTENTSUMMARY engine.
+   *
+   * @return the content summary engine.
+   */
+  public HttpFSContentSummary getContentSummary() {
+    return contentSummary;
+  }
+
+  /**
+   * Returns the off-heap cache of small files served by OPEN.
+   *
+   * @return the file cache.
+   */
+  public HttpFSFileCache getFileCache() {
+    return fileCache;
+  }
+
+  /**
+   * Returns the local disk chunk cache of the files served by OPEN.
+   *
+   * @return the chunk cache.
+   */
+  public HttpFSChunkCache getChunkCache() {
+    return chunkCache;
+  }
+
+  /**
+   * Returns the registry of the files read shared by concurrent OPENs.
+   *
+   * @return the shared reads registry.
+   */
+  public HttpFSSharedReads getSharedReads() {
+    return sharedReads;
+  }
+
+  /**
+   * Returns the read-ahead of the OPEN streams.
+   *
+   * @return the read-ahead.
+   */
+  public HttpFSReadAhead getReadAhead() {
+    return readAhead;
+  }
+
+  /**
+   * Returns the write-behind pipeline of the CREATE and APPEND uploads.
+   *
+   * @return the upload pipeline.
+   */
+  public HttpFSUploadPipeline getUploadPipeline() {
+    return uploadPipeline;
+  }
+
 }
@@ -0,0 +1,445 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.lib.service.FileSystemAccess;
+import org.apache.hadoop.lib.service.Instrumentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares the reads of a file among the concurrent OPENs of it.
+ * <p/>
+ * The concurrent OPENs of the same file, same path, modification time and
+ * length, attach to a single upstream stream of the file. The data read from
+ * it is kept in a bounded ring buffer, the OPEN that needs data not read yet
+ * reads it, the others copy it from the ring buffer. The upstream stream is
+ * opened with a filesystem of its own, as the user of the first OPEN, and it
+ * is closed when the last OPEN attached to it completes.
+ * <p/>
+ * The upstream stream is never held back by the slowest OPEN: an OPEN whose
+ * data was overwritten in the ring buffer, or that finds the upstream stream
+ * failed, falls back to a stream of its own from its position. An OPEN that
+ * can not attach to the shared read of the file, because its offset is out
+ * of the ring buffer, starts a new shared read for the OPENs that come
+ * after it.
+ * <p/>
+ * Each OPEN passes {@link FSOperations#checkReadAccess} before attaching to
+ * a shared read.
+ * <p/>
+ * Shared reads, attached OPENs, fallbacks, and the bytes read upstream and
+ * served to the OPENs are accounted in the <code>httpfs.shared.reads</code>
+ * instrumentation group.
+ */
+public class HttpFSSharedReads {
+  private static final Logger LOG = LoggerFactory.getLogger(HttpFSSharedReads.class);
+
+  /**
+   * Instrumentation group of the shared reads metrics.
+   */
+  public static final String INSTRUMENTATION_GROUP = "httpfs.shared.reads";
+
+  private static final int FELL_BEHIND = -2;
+
+  private static final int MAX_UPSTREAM_READ = 64 * 1024;
+
+  private final FileSystemAccess fsAccess;
+  private final int bufferSize;
+  private final long minFileSize;
+  private final int maxFiles;
+  private final Map<String, SharedRead> reads;
+  private volatile boolean destroyed;
+  private final Instrumentation.Counter started;
+  private final Instrumentation.Counter attached;
+  private final Instrumentation.Counter fallbacks;
+  private final Instrumentation.Counter bytesRead;
+  private final Instrumentation.Counter bytesServed;
+
+  /**
+   * Creates the shared reads registry.
+   *
+   * @param fsAccess the FileSystemAccess to open the upstream streams with.
+   * @param bufferSize size of the ring buffer of a shared read, zero or
+   * negative disables the shared reads.
+   * @param minFileSize minimum length of the files read shared.
+   * @param maxFiles maximum number of files read shared at once, zero or
+   * negative disables the shared reads.
+   * @param instrumentation instrumentation to report the metrics.
+   */
+  public HttpFSSharedReads(FileSystemAccess fsAccess, int bufferSize, long minFileSize, int maxFiles,
+                           Instrumentation instrumentation) {
+    this.fsAccess = fsAccess;
+    this.bufferSize = bufferSize;
+    this.minFileSize = minFileSize;
+    this.maxFiles = maxFiles;
+    reads = new HashMap<String, SharedRead>();
+    started = instrumentation.counter(INSTRUMENTATION_GROUP, "started");
+    attached = instrumentation.counter(INSTRUMENTATION_GROUP, "attached");
+    fallbacks = instrumentation.counter(INSTRUMENTATION_GROUP, "fallbacks");
+    bytesRead = instrumentation.counter(INSTRUMENTATION_GROUP, "bytes.read");
+    bytesServed = instrumentation.counter(INSTRUMENTATION_GROUP, "bytes.served");
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "files", new Instrumentation.Variable<Integer>() {
+      @Override
+      public Integer getValue() {
+        return getFiles();
+      }
+    });
+  }
+
+  /**
+   * Returns if the shared reads are enabled, they are not once destroyed.
+   *
+   * @return if the shared reads are enabled.
+   */
+  public boolean isEnabled() {
+    return bufferSize > 0 && maxFiles > 0 && !destroyed;
+  }
+
+  /**
+   * Returns the number of files being read shared.
+   *
+   * @return the number of files being read shared.
+   */
+  public synchronized int getFiles() {
+    return reads.size();
+  }
+
+  /**
+   * Opens a file for an OPEN, attached to the shared read of the file.
+   *
+   * @param fs filesystem instance of the OPEN, it must be usable until the
+   * returned stream is closed.
+   * @param user the effective user of the OPEN.
+   * @param path the path of the file.
+   * @param status the status of the file.
+   * @param offset the offset to read the file from.
+   * @param streamBufferSize the buffer size to open the file with.
+   *
+   * @return the stream of the file from the offset, <code>null</code> if the
+   * file is not to be read shared.
+   *
+   * @throws IOException thrown if an IO error occurred.
+   */
+  public InputStream open(FileSystem fs, String user, Path path, FileStatus status, long offset,
+                          int streamBufferSize) throws IOException {
+    if (!isEnabled() || status.isDir() || status.getLen() < minFileSize || offset >= status.getLen()) {
+      return null;
+    }
+    String key = path.toUri().getPath() + '\n' + status.getModificationTime() + '\n' + status.getLen();
+    SharedRead read;
+    synchronized (this) {
+      if (destroyed) {
+        return null;
+      }
+      read = reads.get(key);
+      if (read != null && read.attach(offset)) {
+        attached.incr(1);
+      } else if (read != null || reads.size() < maxFiles) {
+        read = new SharedRead(key, user, path, status.getLen(), offset, streamBufferSize);
+        read.attach(offset);
+        reads.put(key, read);
+        started.incr(1);
+      } else {
+        return null;
+      }
+    }
+    try {
+      FSOperations.checkReadAccess(fs, status);
+    } catch (IOException ex) {
+      read.detach();
+      throw ex;
+    }
+    return new SharedInputStream(read, fs, path, offset, streamBufferSize);
+  }
+
+  private synchronized void remove(SharedRead read) {
+    if (reads.get(read.key) == read) {
+      reads.remove(read.key);
+    }
+  }
+
+  /**
+   * Closes the upstream streams and releases their filesystems, the OPENs
+   * attached to them fall back to streams of their own. Files are not read
+   * shared afterwards.
+   */
+  public void destroy() {
+    List<SharedRead> aborted;
+    synchronized (this) {
+      destroyed = true;
+      aborted = new ArrayList<SharedRead>(reads.values());
+      reads.clear();
+    }
+    for (SharedRead read : aborted) {
+      read.abort();
+    }
+  }
+
+  /**
+   * A read of a file shared by OPENs, with a ring buffer holding the last
+   * bytes read.
+   */
+  private class SharedRead {
+    private final String key;
+    private final String user;
+    private final Path path;
+    private final long length;
+    private final int streamBufferSize;
+    private final byte[] ring;
+    private long base;
+    private long end;
+    private boolean reading;
+    private boolean failed;
+    private int consumers;
+    private boolean closed;
+    private FileSystem upstreamFs;
+    private FSDataInputStream upstream;
+
+    private SharedRead(String key, String user, Path path, long length, long offset, int streamBufferSize) {
+      this.key = key;
+      this.user = user;
+      this.path = path;
+      this.length = length;
+      this.streamBufferSize = streamBufferSize;
+      ring = new byte[(int) Math.min(bufferSize, length - offset)];
+      base = offset;
+      end = offset;
+    }
+
+    private synchronized boolean attach(long offset) {
+      // an offset ahead of the data read is read upstream by the OPEN itself
+      if (closed || failed || offset < base || offset > end + ring.length) {
+        return false;
+      }
+      consumers++;
+      return true;
+    }
+
+    private void detach() {
+      boolean last;
+      synchronized (this) {
+        last = --consumers == 0;
+        closed = last;
+      }
+      if (last) {
+        remove(this);
+        closeUpstream();
+      }
+    }
+
+    /**
+     * Fails the shared read, the upstream stream is closed now or, if it is
+     * being read, by its reader once the read completes.
+     */
+    private void abort() {
+      boolean close;
+      synchronized (this) {
+        failed = true;
+        closed = true;
+        close = !reading;
+        notifyAll();
+      }
+      if (close) {
+        closeUpstream();
+      }
+    }
+
+    private void closeUpstream() {
+      FSDataInputStream is;
+      FileSystem fs;
+      synchronized (this) {
+        is = upstream;
+        fs = upstreamFs;
+        upstream = null;
+        upstreamFs = null;
+      }
+      try {
+        if (is != null) {
+          is.close();
+        }
+      } catch (IOException ex) {
+        LOG.debug("Could not close shared read of [{}], {}", path, ex.toString());
+      }
+      try {
+        if (fs != null) {
+          fsAccess.releaseFileSystem(fs);
+        }
+      } catch (IOException ex) {
+        LOG.debug("Could not release filesystem of shared read of [{}], {}", path, ex.toString());
+      }
+    }
+
+    /**
+     * Copies data at a position from the ring buffer, reading it upstream if
+     * not read yet.
+     *
+     * @return the number of bytes copied, -1 at the end of the file, or
+     * {@link #FELL_BEHIND} if the data is not in the ring buffer anymore or
+     * the upstream stream failed.
+     */
+    private int read(long pos, byte[] b, int off, int len) throws IOException {
+      byte[] buffer = null;
+      while (true) {
+        long readPos;
+        synchronized (this) {
+          while (reading && pos >= end && !failed) {
+            try {
+              wait();
+            } catch (InterruptedException ex) {
+              throw new InterruptedIOException(ex.toString());
+            }
+          }
+          if (pos < base || (failed && pos >= end)) {
+            return FELL_BEHIND;
+          }
+          if (pos < end) {
+            int count = (int) Math.min(len, end - pos);
+            int index = (int) (pos % ring.length);
+            int first = Math.min(count, ring.length - index);
+            System.arraycopy(ring, index, b, off, first);
+            System.arraycopy(ring, 0, b, off + first, count - first);
+            bytesServed.incr(count);
+            return count;
+          }
+          if (end >= length) {
+            return -1;
+          }
+          reading = true;
+          readPos = end;
+        }
+        if (buffer == null) {
+          buffer = new byte[Math.min(ring.length, MAX_UPSTREAM_READ)];
+        }
+        int n = -1;
+        try {
+          if (upstream == null) {
+            upstreamFs = fsAccess.createFileSystem(user, fsAccess.getFileSystemConfiguration());
+            upstream = upstreamFs.open(path, streamBufferSize);
+          }
+          if (upstream.getPos() != readPos) {
+            upstream.seek(readPos);
+          }
+          n = upstream.read(buffer, 0, (int) Math.min(buffer.length, length - readPos));
+        } catch (Exception ex) {
+          LOG.debug("Shared read of [{}] failed, {}", path, ex.toString());
+        }
+        boolean aborted;
+        synchronized (this) {
+          reading = false;
+          aborted = closed;
+          if (n <= 0 || aborted) {
+            // the file changed, the read failed or the shared read was
+            // aborted, the OPENs fall back to streams of their own
+            failed = true;
+          } else {
+            bytesRead.incr(n);
+            int index = (int) (end % ring.length);
+            int first = Math.min(n, ring.length - index);
+            System.arraycopy(buffer, 0, ring, index, first);
+            System.arraycopy(buffer, first, ring, 0, n - first);
+            end += n;
+            base = Math.max(base, end - ring.length);
+          }
+          notifyAll();
+        }
+        if (aborted) {
+          closeUpstream();
+        }
+      }
+    }
+  }
+
+  /**
+   * The stream of an OPEN, reading from the shared read until it falls
+   * behind, from a stream of its own afterwards.
+   */
+  private class SharedInputStream extends InputStream {
+    private SharedRead shared;
+    private final FileSystem fs;
+    private final Path path;
+    private final int streamBufferSize;
+    private long pos;
+    private FSDataInputStream own;
+
+    private SharedInputStream(SharedRead shared, FileSystem fs, Path path, long pos, int streamBufferSize) {
+      this.shared = shared;
+      this.fs = fs;
+      this.path = path;
+      this.pos = pos;
+      this.streamBufferSize = streamBufferSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int n = read(b, 0, 1);
+      return (n > 0) ? b[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      int n = 0;
+      if (own == null) {
+        n = shared.read(pos, b, off, len);
+        if (n == FELL_BEHIND) {
+          fallbacks.incr(1);
+          shared.detach();
+          shared = null;
+          own = fs.open(path, streamBufferSize);
+          own.seek(pos);
+        }
+      }
+      if (own != null) {
+        n = own.read(b, off, len);
+      }
+      if (n > 0) {
+        pos += n;
+      }
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (shared != null) {
+        shared.detach();
+        shared = null;
+      }
+      if (own != null) {
+        own.close();
+        own = null;
+      }
+    }
+  }
+
+}
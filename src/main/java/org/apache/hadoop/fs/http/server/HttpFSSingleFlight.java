@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.hadoop.lib.service.FileSystemAccessException;
+import org.apache.hadoop.lib.service.Instrumentation;
+import org.apache.hadoop.lib.util.StripedCounter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces identical concurrent read-only requests of the HttpFSServer.
+ * <p/>
+ * The first request for a key executes the call, requests for the same key
+ * arriving while it is in flight wait for it and get its result, or its
+ * exception. The key must identify the operation, its path and parameters,
+ * and the effective user, so that a result is shared only by requests with
+ * the same authorization.
+ * <p/>
+ * Executed and coalesced requests are accounted in the
+ * <code>httpfs.coalescing</code> instrumentation group, the
+ * <code>ratio</code> variable is the fraction of coalesced requests.
+ */
+public class HttpFSSingleFlight {
+
+  /**
+   * Instrumentation group of the coalescing metrics.
+   */
+  public static final String INSTRUMENTATION_GROUP = "httpfs.coalescing";
+
+  /**
+   * A read-only call.
+   */
+  public interface Call<T> {
+
+    /**
+     * Executes the call.
+     *
+     * @return the result of the call.
+     *
+     * @throws IOException thrown if an IO error occurred.
+     * @throws FileSystemAccessException thrown if a FileSystemAccess error
+     * occurred.
+     */
+    public T call() throws IOException, FileSystemAccessException;
+  }
+
+  private final boolean enabled;
+  private final ConcurrentMap<String, FutureTask<Object>> inFlight;
+  private final Instrumentation.Counter executed;
+  private final Instrumentation.Counter coalesced;
+  private final StripedCounter executedCount = new StripedCounter();
+  private final StripedCounter coalescedCount = new StripedCounter();
+
+  /**
+   * Creates a single-flight coalescer.
+   *
+   * @param enabled if requests are coalesced.
+   * @param instrumentation instrumentation to report the coalescing metrics.
+   */
+  public HttpFSSingleFlight(boolean enabled, Instrumentation instrumentation) {
+    this.enabled = enabled;
+    inFlight = new ConcurrentHashMap<String, FutureTask<Object>>();
+    executed = instrumentation.counter(INSTRUMENTATION_GROUP, "executed");
+    coalesced = instrumentation.counter(INSTRUMENTATION_GROUP, "coalesced");
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "ratio", new Instrumentation.Variable<Double>() {
+      @Override
+      public Double getValue() {
+        long coalescedValue = coalescedCount.get();
+        long total = executedCount.get() + coalescedValue;
+        return (total > 0) ? (double) coalescedValue / total : 0d;
+      }
+    });
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "in.flight", new Instrumentation.Variable<Integer>() {
+      @Override
+      public Integer getValue() {
+        return inFlight.size();
+      }
+    });
+  }
+
+  /**
+   * Returns if requests are coalesced.
+   *
+   * @return if requests are coalesced.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Executes a call, or waits for the identical call in flight.
+   *
+   * @param key key identifying the call.
+   * @param call the call.
+   *
+   * @return the result of the call.
+   *
+   * @throws IOException thrown if an IO error occurred, or if interrupted
+   * while waiting.
+   * @throws FileSystemAccessException thrown if a FileSystemAccess error
+   * occurred.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T execute(String key, final Call<T> call) throws IOException, FileSystemAccessException {
+    if (!enabled) {
+      return call.call();
+    }
+    FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        return call.call();
+      }
+    });
+    FutureTask<Object> existing = inFlight.putIfAbsent(key, task);
+    if (existing == null) {
+      executed.incr(1);
+      executedCount.increment();
+      try {
+        task.run();
+      } finally {
+        inFlight.remove(key, task);
+      }
+    } else {
+      coalesced.incr(1);
+      coalescedCount.increment();
+      task = existing;
+    }
+    return (T) get(task);
+  }
+
+  private static Object get(FutureTask<Object> task) throws IOException, FileSystemAccessException {
+    try {
+      return task.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a coalesced request");
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof FileSystemAccessException) {
+        throw (FileSystemAccessException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+}
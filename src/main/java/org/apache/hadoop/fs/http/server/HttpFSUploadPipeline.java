@@ -0,0 +1,413 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.lib.service.Instrumentation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind pipeline of the uploads of CREATE and APPEND.
+ * <p/>
+ * The request thread reads the upload from the client into buffers and
+ * queues them, a thread of a shared I/O pool writes the queued buffers to
+ * the filesystem stream, network reads and filesystem writes overlap instead
+ * of alternating. The queue of an upload is bounded, when it is full the
+ * request thread waits for the writer, so a slow filesystem throttles the
+ * client. The buffers come from a pool shared by all the uploads. The I/O
+ * thread is not held while the queue of an upload is empty, writing resumes
+ * when the request thread queues a buffer.
+ * <p/>
+ * A failed write fails the upload when the request thread queues its next
+ * buffer or waits for the queue to drain, with the exception of the write.
+ * A failed read stops the writer and fails the upload with the exception of
+ * the read.
+ * <p/>
+ * Uploads, bytes, stalls (the request thread waited for the writer) and
+ * failures are accounted in the <code>httpfs.upload.pipeline</code>
+ * instrumentation group, the <code>queued.bytes</code> and
+ * <code>pooled.bytes</code> variables are the memory used by the queues of
+ * all the uploads and by the buffer pool, the <code>queued.buffers</code>
+ * sampler is the queue occupancy over time.
+ */
+public class HttpFSUploadPipeline {
+
+  /**
+   * Instrumentation group of the upload pipeline metrics.
+   */
+  public static final String INSTRUMENTATION_GROUP = "httpfs.upload.pipeline";
+
+  private final int bufferSize;
+  private final int queueSize;
+  private final int maxPooled;
+  private final ExecutorService executor;
+  private final LinkedList<byte[]> pool = new LinkedList<byte[]>();
+  private final AtomicLong queuedBuffers = new AtomicLong();
+  private final Instrumentation.Counter uploads;
+  private final Instrumentation.Counter bytes;
+  private final Instrumentation.Counter stalls;
+  private final Instrumentation.Counter failures;
+
+  /**
+   * Creates the upload pipeline of CREATE and APPEND.
+   *
+   * @param bufferSize the size of the buffers of the uploads, zero or
+   * negative disables the pipeline.
+   * @param queueSize maximum number of buffers queued by an upload.
+   * @param threads number of I/O threads, zero or negative disables the
+   * pipeline.
+   * @param instrumentation instrumentation to report the metrics.
+   */
+  public HttpFSUploadPipeline(int bufferSize, int queueSize, int threads, Instrumentation instrumentation) {
+    this.bufferSize = bufferSize;
+    this.queueSize = Math.max(queueSize, 1);
+    maxPooled = this.queueSize * Math.max(threads, 1);
+    if (bufferSize > 0 && threads > 0) {
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                                       new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "httpfs-upload-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      pool.allowCoreThreadTimeOut(true);
+      executor = pool;
+    } else {
+      executor = null;
+    }
+    uploads = instrumentation.counter(INSTRUMENTATION_GROUP, "uploads");
+    bytes = instrumentation.counter(INSTRUMENTATION_GROUP, "bytes");
+    stalls = instrumentation.counter(INSTRUMENTATION_GROUP, "stalls");
+    failures = instrumentation.counter(INSTRUMENTATION_GROUP, "failures");
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "queued.bytes", new Instrumentation.Variable<Long>() {
+      @Override
+      public Long getValue() {
+        return queuedBuffers.get() * HttpFSUploadPipeline.this.bufferSize;
+      }
+    });
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "pooled.bytes", new Instrumentation.Variable<Long>() {
+      @Override
+      public Long getValue() {
+        return getPooledBytes();
+      }
+    });
+    instrumentation.addSampler(INSTRUMENTATION_GROUP, "queued.buffers", 60, new Instrumentation.Variable<Long>() {
+      @Override
+      public Long getValue() {
+        return queuedBuffers.get();
+      }
+    });
+  }
+
+  /**
+   * Returns if the pipeline is enabled.
+   *
+   * @return if the pipeline is enabled.
+   */
+  public boolean isEnabled() {
+    return executor != null;
+  }
+
+  /**
+   * Returns the number of bytes queued by the uploads.
+   *
+   * @return the number of bytes queued by the uploads.
+   */
+  public long getQueuedBytes() {
+    return queuedBuffers.get() * bufferSize;
+  }
+
+  /**
+   * Returns the number of bytes of the buffer pool.
+   *
+   * @return the number of bytes of the buffer pool.
+   */
+  public long getPooledBytes() {
+    synchronized (pool) {
+      return (long) pool.size() * bufferSize;
+    }
+  }
+
+  /**
+   * Copies an upload to a filesystem stream, closing both streams. If the
+   * pipeline is disabled the copy is done by the calling thread.
+   *
+   * @param in the upload.
+   * @param out the filesystem stream.
+   * @param copyBufferSize buffer size of the copy if the pipeline is
+   * disabled.
+   *
+   * @throws IOException thrown if the upload could not be read or the
+   * filesystem stream could not be written.
+   */
+  public void copy(InputStream in, OutputStream out, int copyBufferSize) throws IOException {
+    if (!isEnabled()) {
+      IOUtils.copyBytes(in, out, copyBufferSize, true);
+    } else {
+      uploads.incr(1);
+      new Upload(out).copy(in);
+    }
+  }
+
+  /**
+   * Stops the I/O threads.
+   */
+  public void destroy() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private byte[] takeBuffer() {
+    synchronized (pool) {
+      if (!pool.isEmpty()) {
+        return pool.removeFirst();
+      }
+    }
+    return new byte[bufferSize];
+  }
+
+  private void releaseBuffer(byte[] buffer) {
+    synchronized (pool) {
+      if (pool.size() < maxPooled) {
+        pool.addLast(buffer);
+      }
+    }
+  }
+
+  private static class Chunk {
+    private final byte[] data;
+    private final int length;
+
+    private Chunk(byte[] data, int length) {
+      this.data = data;
+      this.length = length;
+    }
+  }
+
+  /**
+   * An upload, the request thread queues the buffers read from the client
+   * and the I/O threads write them.
+   */
+  private class Upload implements Runnable {
+    private final OutputStream out;
+    private final LinkedList<Chunk> queue = new LinkedList<Chunk>();
+    private boolean writing;
+    private boolean aborted;
+    private IOException error;
+
+    private Upload(OutputStream out) {
+      this.out = out;
+    }
+
+    /**
+     * Reads the upload and queues it for the writer, in the request thread.
+     */
+    private void copy(InputStream in) throws IOException {
+      boolean completed = false;
+      try {
+        boolean eof = false;
+        while (!eof) {
+          byte[] buffer = takeBuffer();
+          int length = 0;
+          int n = 0;
+          try {
+            while (length < buffer.length && n > -1) {
+              n = in.read(buffer, length, buffer.length - length);
+              if (n > 0) {
+                length += n;
+              }
+            }
+          } catch (IOException ex) {
+            releaseBuffer(buffer);
+            throw ex;
+          }
+          eof = n < 0;
+          if (length > 0) {
+            enqueue(new Chunk(buffer, length));
+          } else {
+            releaseBuffer(buffer);
+          }
+        }
+        drain();
+        out.close();
+        in.close();
+        completed = true;
+      } finally {
+        if (!completed) {
+          failures.incr(1);
+          abort();
+          IOUtils.closeStream(out);
+          IOUtils.closeStream(in);
+        }
+      }
+    }
+
+    private synchronized void enqueue(Chunk chunk) throws IOException {
+      if (queue.size() >= queueSize && error == null) {
+        // the client is ahead of the filesystem
+        stalls.incr(1);
+        try {
+          while (queue.size() >= queueSize && error == null) {
+            wait();
+          }
+        } catch (InterruptedException ex) {
+          releaseBuffer(chunk.data);
+          throw new InterruptedIOException(ex.toString());
+        }
+      }
+      if (error != null) {
+        releaseBuffer(chunk.data);
+        throw error;
+      }
+      queue.addLast(chunk);
+      queuedBuffers.incrementAndGet();
+      schedule();
+    }
+
+    /**
+     * Waits for the writer to write all the queued buffers.
+     */
+    private synchronized void drain() throws IOException {
+      try {
+        while ((writing || !queue.isEmpty()) && error == null) {
+          wait();
+        }
+      } catch (InterruptedException ex) {
+        throw new InterruptedIOException(ex.toString());
+      }
+      if (error != null) {
+        throw error;
+      }
+    }
+
+    /**
+     * Stops the writer and releases the queued buffers, the write in
+     * progress completes before the filesystem stream is closed.
+     */
+    private synchronized void abort() {
+      aborted = true;
+      try {
+        while (writing) {
+          wait();
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      release();
+    }
+
+    private synchronized void release() {
+      while (!queue.isEmpty()) {
+        releaseBuffer(queue.removeFirst().data);
+        queuedBuffers.decrementAndGet();
+      }
+    }
+
+    /**
+     * Starts the I/O thread writing if it is not writing already.
+     */
+    private synchronized void schedule() {
+      if (!writing && !aborted && error == null) {
+        writing = true;
+        try {
+          executor.execute(this);
+        } catch (RejectedExecutionException ex) {
+          writing = false;
+          error = new IOException("Upload pipeline is shut down", ex);
+          release();
+          notifyAll();
+        }
+      }
+    }
+
+    /**
+     * Returns the next buffer to write, if none the I/O thread stops and it
+     * is scheduled again when the request thread queues a buffer.
+     */
+    private synchronized Chunk next() {
+      Chunk chunk = null;
+      if (!aborted && !queue.isEmpty()) {
+        chunk = queue.getFirst();
+      } else {
+        writing = false;
+        notifyAll();
+      }
+      return chunk;
+    }
+
+    /**
+     * Writes the queued buffers until the queue is empty, in an I/O thread.
+     */
+    @Override
+    public void run() {
+      boolean stopped = false;
+      try {
+        while (!stopped) {
+          Chunk chunk = next();
+          if (chunk == null) {
+            stopped = true;
+          } else {
+            out.write(chunk.data, 0, chunk.length);
+            bytes.incr(chunk.length);
+            synchronized (this) {
+              queue.removeFirst();
+              queuedBuffers.decrementAndGet();
+              releaseBuffer(chunk.data);
+              notifyAll();
+            }
+          }
+        }
+      } catch (IOException ex) {
+        synchronized (this) {
+          error = ex;
+        }
+      } finally {
+        if (!stopped) {
+          synchronized (this) {
+            if (error == null) {
+              error = new IOException("Upload write failed");
+            }
+            writing = false;
+            release();
+            notifyAll();
+          }
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.lib.wsrs.EntityBuffer;
+
+import javax.ws.rs.core.EntityTag;
+import java.util.Date;
+
+/**
+ * Validators (<code>ETag</code> and <code>Last-Modified</code>) of the
+ * HttpFSServer responses, for conditional requests.
+ * <p/>
+ * The entity tags are weak, the same data is returned compressed or not, in
+ * JSON or in CBOR, depending on the request headers.
+ */
+public class HttpFSValidators {
+
+  private HttpFSValidators() {
+  }
+
+  /**
+   * Returns the entity tag of an OPEN response, derived from the path, length
+   * and modification time of the file and the requested range.
+   *
+   * @param path the path of the file.
+   * @param status the status of the file.
+   * @param offset the requested offset, if any.
+   * @param len the requested length, if any.
+   *
+   * @return the entity tag.
+   */
+  public static EntityTag getEntityTag(String path, FileStatus status, Long offset, Long len) {
+    String version = path + '\n' + status.getLen() + '\n' + status.getModificationTime() +
+      '\n' + offset + '\n' + len;
+    return new EntityTag(DigestUtils.md5Hex(version), true);
+  }
+
+  /**
+   * Returns the last modified date of an OPEN response.
+   *
+   * @param status the status of the file.
+   *
+   * @return the last modified date, with second precision as HTTP dates.
+   */
+  public static Date getLastModified(FileStatus status) {
+    return new Date(status.getModificationTime() / 1000 * 1000);
+  }
+
+  /**
+   * Returns the entity tag of a metadata response, derived from its content.
+   * The content of GETFILESTATUS and LISTSTATUS responses includes the path,
+   * length and modification time of the files.
+   *
+   * @param entity the response.
+   *
+   * @return the entity tag.
+   */
+  public static EntityTag getEntityTag(EntityBuffer entity) {
+    return new EntityTag(DigestUtils.md5Hex(entity.toByteArray()), true);
+  }
+
+}
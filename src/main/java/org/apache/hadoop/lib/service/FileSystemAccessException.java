@@ -33,7 +33,12 @@ public class FileSystemAccessException extends XException {
     H08("{0}"),
     H09("Invalid FileSystemAccess security mode [{0}]"),
     H10("Hadoop config directory not found [{0}]"),
-    H11("Could not load Hadoop config files, {0}");
+    H11("Could not load Hadoop config files, {0}"),
+    H12("User [{0}] reached its concurrency limit [{1}]"),
+    H13("Operation class [{0}] reached its concurrency limit [{1}], {2}"),
+    H14("Executor [{0}] assigned to operation classes [{1}] and [{2}]"),
+    H15("Invalid FileSystemAccess execution mode [{0}]"),
+    H16("Bulkhead [{0}] reached its concurrency limit [{1}], {2}");
 
     private String template;
 
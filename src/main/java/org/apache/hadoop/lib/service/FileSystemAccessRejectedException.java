@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.service;
+
+/**
+ * Exception thrown when the admission control of a {@link FileSystemAccess}
+ * rejects a request because of a concurrency limit.
+ */
+public class FileSystemAccessRejectedException extends FileSystemAccessException {
+  private int retryAfterSeconds;
+
+  public FileSystemAccessRejectedException(int retryAfterSeconds, ERROR error, Object... params) {
+    super(error, params);
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  /**
+   * Returns if the request was rejected because its user reached its own
+   * concurrency limit, rather than because the service is overloaded.
+   *
+   * @return if the user reached its concurrency limit.
+   */
+  public boolean isUserLimit() {
+    return getError() == ERROR.H12;
+  }
+
+  /**
+   * Returns the suggested time to wait before retrying the request.
+   *
+   * @return the time to wait in seconds.
+   */
+  public int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+}
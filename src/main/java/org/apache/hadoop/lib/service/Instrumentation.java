@@ -19,6 +19,7 @@
 package org.apache.hadoop.lib.service;
 
 import java.util.Map;
+import java.util.Set;
 
 public interface Instrumentation {
 
@@ -29,6 +30,11 @@ public interface Instrumentation {
     public Cron stop();
   }
 
+  public interface Counter {
+
+    public void incr(long count);
+  }
+
   public interface Variable<T> {
 
     T getValue();
@@ -38,6 +44,9 @@ public interface Instrumentation {
 
   public void incr(String group, String name, long count);
 
+  //the counter can be kept by callers to skip the name lookup on every increment
+  public Counter counter(String group, String name);
+
   public void addCron(String group, String name, Cron cron);
 
   public void addVariable(String group, String name, Variable<?> variable);
@@ -47,4 +56,14 @@ public interface Instrumentation {
 
   public Map<String, Map<String, ?>> getSnapshot();
 
+  //the snapshot as UTF-8 JSON restricted to the given sections and groups, null
+  //or empty selects all, it may be cached for a short time
+  public byte[] getSnapshot(Set<String> sections, Set<String> groups);
+
+  //counters, timers, variables and samplers rendered in a text format for
+  //metric scrapers, it may be cached for a short time
+  public byte[] getMetrics();
+
+  public String getMetricsContentType();
+
 }
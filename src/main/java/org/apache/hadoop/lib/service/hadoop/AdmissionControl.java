@@ -0,0 +1,303 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.service.hadoop;
+
+import org.apache.hadoop.lib.service.FileSystemAccessException;
+import org.apache.hadoop.lib.service.FileSystemAccessRejectedException;
+import org.apache.hadoop.lib.service.Instrumentation;
+import org.apache.hadoop.lib.util.BoundedQueueSemaphore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limits of the filesystem operations, per effective user and per
+ * operation class.
+ * <p/>
+ * A user over its limit is rejected right away, so it does not take the
+ * place of other users in the wait queue. Only the users with operations in
+ * progress are tracked, a user is forgotten when its last operation
+ * completes. An operation class over its limit
+ * makes the request wait, in FIFO order, up to a timeout. If the wait queue
+ * is full the request is rejected right away.
+ */
+class AdmissionControl {
+  static final String INSTRUMENTATION_GROUP = "hadoop.admission";
+
+  static final String DEFAULT_CLASS = "default";
+
+  // executor name of the unmanaged filesystems, used to stream data
+  static final String UNMANAGED_EXECUTOR = "unmanaged";
+
+  static final Permit NO_PERMIT = new Permit(null, null, null, null);
+
+  static class OperationClass {
+    private final String name;
+    private final int maxConcurrent;
+    private final BoundedQueueSemaphore permits;
+
+    OperationClass(String name, int maxConcurrent, int queueSize, AtomicInteger queue) {
+      this.name = name;
+      this.maxConcurrent = maxConcurrent;
+      permits = (maxConcurrent > 0) ? new BoundedQueueSemaphore(maxConcurrent, queueSize, queue) : null;
+    }
+
+    int getRunning() {
+      return (permits != null) ? permits.getRunning() : 0;
+    }
+
+    int getWaiting() {
+      return (permits != null) ? permits.getWaiting() : 0;
+    }
+  }
+
+  static class Permit {
+    private final AdmissionControl admission;
+    private final String user;
+    private final AtomicInteger userRunning;
+    private final BoundedQueueSemaphore classPermits;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Permit(AdmissionControl admission, String user, AtomicInteger userRunning,
+                   BoundedQueueSemaphore classPermits) {
+      this.admission = admission;
+      this.user = user;
+      this.userRunning = userRunning;
+      this.classPermits = classPermits;
+    }
+
+    void release() {
+      if (released.compareAndSet(false, true)) {
+        if (classPermits != null) {
+          classPermits.release();
+        }
+        if (userRunning != null) {
+          admission.releaseUser(user, userRunning);
+        }
+      }
+    }
+  }
+
+  private final int userMaxConcurrent;
+  private final int queueSize;
+  private final long queueTimeoutMillis;
+  private final int retryAfterSeconds;
+  private final Map<String, OperationClass> classesByExecutor;
+  private final Map<String, OperationClass> classes;
+  private final OperationClass defaultClass;
+  // operations in progress per user, -1 once removed from the map
+  private final ConcurrentMap<String, AtomicInteger> users = new ConcurrentHashMap<String, AtomicInteger>();
+  // wait queue shared by all the operation classes
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final boolean enabled;
+  private Instrumentation instrumentation;
+  private Instrumentation.Counter admitted;
+  private Instrumentation.Counter rejectedUser;
+  private Instrumentation.Counter rejectedQueueFull;
+  private Instrumentation.Counter rejectedTimeout;
+
+  /**
+   * Creates an admission control.
+   *
+   * @param userMaxConcurrent concurrent operations per user, zero or negative
+   * for no limit.
+   * @param classes concurrent operations per operation class, zero or negative
+   * for no limit. The {@link #DEFAULT_CLASS} class applies to the executors
+   * not assigned to a class.
+   * @param executorClasses operation class of the executors, by their simple
+   * class name.
+   * @param queueSize maximum number of operations waiting for their class.
+   * @param queueTimeoutMillis maximum time an operation waits for its class.
+   * @param retryAfterSeconds suggested time to wait before retrying a rejected
+   * operation.
+   */
+  AdmissionControl(int userMaxConcurrent, Map<String, Integer> classes, Map<String, String> executorClasses,
+                   int queueSize, long queueTimeoutMillis, int retryAfterSeconds) {
+    this.userMaxConcurrent = userMaxConcurrent;
+    this.queueSize = queueSize;
+    this.queueTimeoutMillis = queueTimeoutMillis;
+    this.retryAfterSeconds = retryAfterSeconds;
+    this.classes = new HashMap<String, OperationClass>();
+    boolean limited = userMaxConcurrent > 0;
+    for (Map.Entry<String, Integer> entry : classes.entrySet()) {
+      this.classes.put(entry.getKey(), new OperationClass(entry.getKey(), entry.getValue(), queueSize, waiting));
+      limited |= entry.getValue() > 0;
+    }
+    if (!this.classes.containsKey(DEFAULT_CLASS)) {
+      this.classes.put(DEFAULT_CLASS, new OperationClass(DEFAULT_CLASS, 0, queueSize, waiting));
+    }
+    defaultClass = this.classes.get(DEFAULT_CLASS);
+    classesByExecutor = new HashMap<String, OperationClass>();
+    for (Map.Entry<String, String> entry : executorClasses.entrySet()) {
+      OperationClass opClass = this.classes.get(entry.getValue());
+      if (opClass == null) {
+        throw new IllegalArgumentException("Undefined operation class [" + entry.getValue() + "]");
+      }
+      classesByExecutor.put(entry.getKey(), opClass);
+    }
+    enabled = limited;
+  }
+
+  void instrument(Instrumentation instrumentation) {
+    this.instrumentation = instrumentation;
+    admitted = instrumentation.counter(INSTRUMENTATION_GROUP, "admitted");
+    rejectedUser = instrumentation.counter(INSTRUMENTATION_GROUP, "rejected.user");
+    rejectedQueueFull = instrumentation.counter(INSTRUMENTATION_GROUP, "rejected.queue.full");
+    rejectedTimeout = instrumentation.counter(INSTRUMENTATION_GROUP, "rejected.timeout");
+    instrumentation.addVariable(INSTRUMENTATION_GROUP, "waiting", new Instrumentation.Variable<Integer>() {
+      @Override
+      public Integer getValue() {
+        return waiting.get();
+      }
+    });
+    instrumentation.addSampler(INSTRUMENTATION_GROUP, "waiting", 60, new Instrumentation.Variable<Long>() {
+      @Override
+      public Long getValue() {
+        return (long) waiting.get();
+      }
+    });
+    for (final OperationClass opClass : classes.values()) {
+      instrumentation.addVariable(INSTRUMENTATION_GROUP, opClass.name + ".running",
+                                  new Instrumentation.Variable<Integer>() {
+        @Override
+        public Integer getValue() {
+          return opClass.getRunning();
+        }
+      });
+      instrumentation.addVariable(INSTRUMENTATION_GROUP, opClass.name + ".waiting",
+                                  new Instrumentation.Variable<Integer>() {
+        @Override
+        public Integer getValue() {
+          return opClass.getWaiting();
+        }
+      });
+    }
+  }
+
+  OperationClass getOperationClass(String executor) {
+    OperationClass opClass = classesByExecutor.get(executor);
+    return (opClass != null) ? opClass : defaultClass;
+  }
+
+  /**
+   * Acquires the permits to run an operation.
+   *
+   * @param user effective user of the operation.
+   * @param executor simple class name of the operation executor.
+   *
+   * @return the permit, it must be released when the operation completes.
+   *
+   * @throws FileSystemAccessRejectedException thrown if the user is over its
+   * limit, the wait queue is full or the wait timed out.
+   */
+  Permit acquire(String user, String executor) throws FileSystemAccessException {
+    if (!enabled) {
+      return NO_PERMIT;
+    }
+    AtomicInteger userRunning = (userMaxConcurrent > 0) ? acquireUser(user) : null;
+    OperationClass opClass = getOperationClass(executor);
+    boolean acquired = false;
+    try {
+      if (opClass.permits != null) {
+        acquireClass(opClass);
+      }
+      acquired = true;
+    } finally {
+      if (!acquired && userRunning != null) {
+        releaseUser(user, userRunning);
+      }
+    }
+    count(admitted);
+    return new Permit(this, user, userRunning, opClass.permits);
+  }
+
+  private AtomicInteger acquireUser(String user) throws FileSystemAccessException {
+    while (true) {
+      AtomicInteger running = users.get(user);
+      if (running == null) {
+        running = new AtomicInteger();
+        AtomicInteger existing = users.putIfAbsent(user, running);
+        if (existing != null) {
+          running = existing;
+        }
+      }
+      int n = running.get();
+      if (n < 0) {
+        // the last operation of the user completed concurrently
+        users.remove(user, running);
+      } else if (n >= userMaxConcurrent) {
+        count(rejectedUser);
+        throw new FileSystemAccessRejectedException(retryAfterSeconds, FileSystemAccessException.ERROR.H12,
+                                                    user, Integer.toString(userMaxConcurrent));
+      } else if (running.compareAndSet(n, n + 1)) {
+        return running;
+      }
+    }
+  }
+
+  private void releaseUser(String user, AtomicInteger running) {
+    // an idle user is forgotten, unless it starts an operation meanwhile
+    if (running.decrementAndGet() == 0 && running.compareAndSet(0, -1)) {
+      users.remove(user, running);
+    }
+  }
+
+  /**
+   * Returns the number of users with operations in progress.
+   *
+   * @return the number of users with operations in progress.
+   */
+  int getUsers() {
+    return users.size();
+  }
+
+  private void acquireClass(OperationClass opClass) throws FileSystemAccessException {
+    if (opClass.permits.tryAcquire()) {
+      return;
+    }
+    Instrumentation.Cron cron = (instrumentation != null) ? instrumentation.createCron().start() : null;
+    BoundedQueueSemaphore.Result result = opClass.permits.acquire(queueTimeoutMillis);
+    if (result == BoundedQueueSemaphore.Result.QUEUE_FULL) {
+      count(rejectedQueueFull);
+      throw new FileSystemAccessRejectedException(retryAfterSeconds, FileSystemAccessException.ERROR.H13,
+                                                  opClass.name, Integer.toString(opClass.maxConcurrent),
+                                                  "wait queue full");
+    }
+    if (cron != null) {
+      instrumentation.addCron(INSTRUMENTATION_GROUP, opClass.name + ".wait", cron.stop());
+    }
+    if (result == BoundedQueueSemaphore.Result.TIMED_OUT) {
+      count(rejectedTimeout);
+      throw new FileSystemAccessRejectedException(retryAfterSeconds, FileSystemAccessException.ERROR.H13,
+                                                  opClass.name, Integer.toString(opClass.maxConcurrent),
+                                                  "waited [" + queueTimeoutMillis + "] ms");
+    }
+  }
+
+  private static void count(Instrumentation.Counter counter) {
+    if (counter != null) {
+      counter.incr(1);
+    }
+  }
+
+}
@@ -39,9 +39,12 @@ import java.io.IOException;
 import java.net.URI;
 import java.security.PrivilegedExceptionAction;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class FileSystemAccessService extends BaseService implements FileSystemAccess {
@@ -61,6 +64,18 @@ public class FileSystemAccessService extends BaseService implements FileSystemAc
 
   public static final String HADOOP_CONF_DIR = "config.dir";
 
+  public static final String ADMISSION_USER_MAX_CONCURRENT = "admission.user.max.concurrent";
+  public static final String ADMISSION_CLASSES = "admission.classes";
+  public static final String ADMISSION_CLASS_PREFIX = "admission.class.";
+  public static final String ADMISSION_CLASS_MAX_CONCURRENT = ".max.concurrent";
+  public static final String ADMISSION_CLASS_EXECUTORS = ".executors";
+  public static final String ADMISSION_QUEUE_SIZE = "admission.queue.size";
+  public static final String ADMISSION_QUEUE_TIMEOUT = "admission.queue.timeout.ms";
+  public static final String ADMISSION_RETRY_AFTER = "admission.retry.after.seconds";
+
+  public static final String EXECUTION_MODE = "execution.mode";
+  public static final String EXECUTION_MAX_CONCURRENT = "execution.max.concurrent";
+
   private static final String[] HADOOP_CONF_FILES = {"core-site.xml", "hdfs-site.xml"};
 
   private static final String FILE_SYSTEM_SERVICE_CREATED = "FileSystemAccessService.created";
@@ -75,6 +90,13 @@ public class FileSystemAccessService extends BaseService implements FileSystemAc
 
   private AtomicInteger unmanagedFileSystems = new AtomicInteger();
 
+  private AdmissionControl admissionControl;
+
+  private ThreadedExecution threadedExecution;
+
+  private ConcurrentMap<FileSystem, AdmissionControl.Permit> unmanagedPermits =
+    new ConcurrentHashMap<FileSystem, AdmissionControl.Permit>();
+
   @Override
   protected void init() throws ServiceException {
     LOG.info("Using FileSystemAccess JARs version [{}]", VersionInfo.getVersion());
@@ -132,6 +154,39 @@ public class FileSystemAccessService extends BaseService implements FileSystemAc
     setRequiredServiceHadoopConf(serviceHadoopConf);
 
     nameNodeWhitelist = toLowerCase(getServiceConfig().getTrimmedStringCollection(NAME_NODE_WHITELIST));
+
+    admissionControl = createAdmissionControl();
+
+    String mode = getServiceConfig().get(EXECUTION_MODE, ThreadedExecution.CALLER_MODE).trim();
+    if (mode.equals(ThreadedExecution.VIRTUAL_MODE)) {
+      int maxConcurrent = getServiceConfig().getInt(EXECUTION_MAX_CONCURRENT, 1000);
+      threadedExecution = new ThreadedExecution(maxConcurrent);
+      LOG.info("Running FileSystemAccess executors in {} threads, max concurrent [{}]",
+               (threadedExecution.isVirtual()) ? "virtual" : "platform", maxConcurrent);
+    } else if (!mode.equals(ThreadedExecution.CALLER_MODE)) {
+      throw new ServiceException(FileSystemAccessException.ERROR.H15, mode);
+    }
+  }
+
+  private AdmissionControl createAdmissionControl() throws ServiceException {
+    Configuration conf = getServiceConfig();
+    Map<String, Integer> classes = new HashMap<String, Integer>();
+    Map<String, String> executorClasses = new HashMap<String, String>();
+    Set<String> classNames = new HashSet<String>(conf.getTrimmedStringCollection(ADMISSION_CLASSES));
+    classNames.add(AdmissionControl.DEFAULT_CLASS);
+    for (String name : classNames) {
+      classes.put(name, conf.getInt(ADMISSION_CLASS_PREFIX + name + ADMISSION_CLASS_MAX_CONCURRENT, 0));
+      for (String executor : conf.getTrimmedStringCollection(ADMISSION_CLASS_PREFIX + name + ADMISSION_CLASS_EXECUTORS)) {
+        if (executorClasses.containsKey(executor)) {
+          throw new ServiceException(FileSystemAccessException.ERROR.H14, executor,
+                                     executorClasses.get(executor), name);
+        }
+        executorClasses.put(executor, name);
+      }
+    }
+    return new AdmissionControl(conf.getInt(ADMISSION_USER_MAX_CONCURRENT, 0), classes, executorClasses,
+                                conf.getInt(ADMISSION_QUEUE_SIZE, 100), conf.getLong(ADMISSION_QUEUE_TIMEOUT, 10000),
+                                conf.getInt(ADMISSION_RETRY_AFTER, 5));
   }
 
   private Configuration loadHadoopConf(File dir) throws IOException {
@@ -161,6 +216,23 @@ public class FileSystemAccessService extends BaseService implements FileSystemAc
         return (long) unmanagedFileSystems.get();
       }
     });
+    admissionControl.instrument(instrumentation);
+    if (threadedExecution != null) {
+      instrumentation.addVariable(INSTRUMENTATION_GROUP, "execution.running", new Instrumentation.Variable<Integer>() {
+        @Override
+        public Integer getValue() {
+          return threadedExecution.getRunning();
+        }
+      });
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (threadedExecution != null) {
+      threadedExecution.destroy();
+    }
+    super.destroy();
   }
 
   private Set<String> toLowerCase(Collection<String> collection) {
@@ -222,12 +294,13 @@ public class FileSystemAccessService extends BaseService implements FileSystemAc
       throw new FileSystemAccessException(FileSystemAccessException.ERROR.H06,
                                           CommonConfigurationKeysPublic.FS_DEFAULT_NAME_KEY);
     }
+    AdmissionControl.Permit permit = admissionControl.acquire(user, executor.getClass().getSimpleName());
     try {
       validateNamenode(
         new URI(conf.get(CommonConfigurationKeysPublic.FS_DEFAULT_NAME_KEY)).
           getAuthority());
       UserGroupInformation ugi = getUGI(user);
-      return ugi.doAs(new PrivilegedExceptionAction<T>() {
+      PrivilegedExceptionAction<T> action = new PrivilegedExceptionAction<T>() {
         public T run() throws Exception {
           FileSystem fs = createFileSystem(conf);
           Instrumentation instrumentation = getServer().get(Instrumentation.class);
@@ -242,11 +315,17 @@ public class FileSystemAccessService extends BaseService implements FileSystemAc
             closeFileSystem(fs);
           }
         }
-      });
+      };
+      if (threadedExecution != null) {
+        return threadedExecution.execute(ugi, action);
+      }
+      return ugi.doAs(action);
     } catch (FileSystemAccessException ex) {
       throw ex;
     } catch (Exception ex) {
       throw new FileSystemAccessException(FileSystemAccessException.ERROR.H03, ex);
+    } finally {
+      permit.release();
     }
   }
 
@@ -278,14 +357,34 @@ public class FileSystemAccessService extends BaseService implements FileSystemAc
   @Override
   public FileSystem createFileSystem(String user, final Configuration conf) throws IOException,
     FileSystemAccessException {
-    unmanagedFileSystems.incrementAndGet();
-    return createFileSystemInternal(user, conf);
+    // the permit is held until the filesystem is released
+    AdmissionControl.Permit permit = admissionControl.acquire(user, AdmissionControl.UNMANAGED_EXECUTOR);
+    FileSystem fs = null;
+    try {
+      unmanagedFileSystems.incrementAndGet();
+      fs = createFileSystemInternal(user, conf);
+      if (permit != AdmissionControl.NO_PERMIT) {
+        unmanagedPermits.put(fs, permit);
+      }
+      return fs;
+    } finally {
+      if (fs == null) {
+        permit.release();
+      }
+    }
   }
 
   @Override
   public void releaseFileSystem(FileSystem fs) throws IOException {
     unmanagedFileSystems.decrementAndGet();
-    closeFileSystem(fs);
+    AdmissionControl.Permit permit = unmanagedPermits.remove(fs);
+    try {
+      closeFileSystem(fs);
+    } finally {
+      if (permit != null) {
+        permit.release();
+      }
+    }
   }
 
   @Override
@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.service.hadoop;
+
+import org.apache.hadoop.security.UserGroupInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.lang.reflect.Method;
+import java.security.PrivilegedExceptionAction;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the filesystem executors in threads of their own, virtual threads if
+ * the JVM supports them (Java 21 and later), platform threads otherwise.
+ * <p/>
+ * The number of executors running at once is bounded by a concurrency limit
+ * instead of by a thread pool size, callers over the limit wait for a running
+ * executor to complete. The executor runs in the <code>doAs</code> of the
+ * user, in its own thread, with the logging MDC of the caller.
+ */
+class ThreadedExecution {
+  private static final Logger LOG = LoggerFactory.getLogger(ThreadedExecution.class);
+
+  static final String CALLER_MODE = "caller";
+  static final String VIRTUAL_MODE = "virtual";
+
+  private final ExecutorService executorService;
+  private final boolean virtual;
+  private final int maxConcurrent;
+  private final Semaphore permits;
+
+  ThreadedExecution(int maxConcurrent) {
+    ExecutorService service = createVirtualThreadExecutor();
+    virtual = service != null;
+    if (service == null) {
+      LOG.warn("Virtual threads not supported by the JVM, using platform threads");
+      service = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "FileSystemAccess-executor-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    executorService = service;
+    this.maxConcurrent = maxConcurrent;
+    permits = (maxConcurrent > 0) ? new Semaphore(maxConcurrent, true) : null;
+  }
+
+  /**
+   * Creates an executor service starting a virtual thread per task, using
+   * reflection as the code is compiled for JVMs without virtual threads.
+   *
+   * @return the executor service, <code>null</code> if the JVM does not
+   * support virtual threads.
+   */
+  static ExecutorService createVirtualThreadExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (NoSuchMethodException ex) {
+      return null;
+    } catch (Exception ex) {
+      // virtual threads are a preview feature in Java 19 and 20
+      LOG.debug("Could not create a virtual thread executor: {}", ex.toString());
+      return null;
+    }
+  }
+
+  boolean isVirtual() {
+    return virtual;
+  }
+
+  int getRunning() {
+    return (permits != null) ? maxConcurrent - permits.availablePermits() : 0;
+  }
+
+  /**
+   * Runs an action as a user in a thread of its own, waiting for it to
+   * complete.
+   *
+   * @param ugi the user.
+   * @param action the action.
+   *
+   * @return the value returned by the action.
+   *
+   * @throws Exception thrown by the action, or if interrupted while waiting.
+   */
+  <T> T execute(final UserGroupInformation ugi, final PrivilegedExceptionAction<T> action) throws Exception {
+    if (permits != null) {
+      permits.acquire();
+    }
+    try {
+      @SuppressWarnings("unchecked")
+      final Map<String, String> mdc = MDC.getCopyOfContextMap();
+      Future<T> future = executorService.submit(new Callable<T>() {
+        @Override
+        public T call() throws Exception {
+          if (mdc != null) {
+            MDC.setContextMap(mdc);
+          }
+          try {
+            return ugi.doAs(action);
+          } finally {
+            MDC.clear();
+          }
+        }
+      });
+      try {
+        return future.get();
+      } catch (InterruptedException ex) {
+        future.cancel(true);
+        throw ex;
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof Exception) {
+          throw (Exception) cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw ex;
+      }
+    } finally {
+      if (permits != null) {
+        permits.release();
+      }
+    }
+  }
+
+  void destroy() {
+    executorService.shutdownNow();
+  }
+
+}
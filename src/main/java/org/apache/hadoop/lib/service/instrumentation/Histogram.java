@@ -0,0 +1,230 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.service.instrumentation;
+
+import org.apache.hadoop.lib.util.StripedCounter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values with log-linear buckets
+ * (HDR-style) over a sliding time window.
+ * <p/>
+ * Each power of two range is split in {@link #SUB_BUCKETS} linear buckets, so
+ * any recorded value is reported with a relative error below 1/16th.
+ * Values above {@link #MAX_VALUE} are recorded as {@link #MAX_VALUE}.
+ * <p/>
+ * The window is a ring of time slices, a slice is reset by the first value
+ * recorded into it after the ring wraps around. Reads aggregate the slices of
+ * the requested window. Values are also aggregated since the histogram
+ * creation, for cumulative consumers like Prometheus. Count, sum and max of every slice are striped across
+ * threads, as every value updates them; buckets are not, values spread across
+ * them already.
+ */
+class Histogram {
+  static final int SUB_BUCKET_BITS = 4;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  static final int MAX_VALUE_BITS = 44;
+  static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+  static final int BUCKETS = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  static final int STRIPES = StripedCounter.STRIPES;
+
+  private static final int COUNT = 0;
+  private static final int SUM = 1;
+  private static final int MAX = 2;
+  // a stripe is padded to 64 bytes to avoid false sharing between stripes
+  private static final int STRIPE_WIDTH = 8;
+
+  /**
+   * Aggregated values of a time window.
+   */
+  static class Snapshot {
+    long count;
+    long sum;
+    long max;
+    long[] buckets = new long[BUCKETS];
+
+    /**
+     * Returns the value at the given percentile, the upper bound of the bucket
+     * containing it (but never above the max).
+     *
+     * @param percentile percentile, between 0 and 100.
+     *
+     * @return the value at the percentile, 0 if there are no values.
+     */
+    long getPercentile(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(count * percentile / 100);
+      rank = Math.max(1, Math.min(count, rank));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets[i];
+        if (seen >= rank) {
+          return Math.min(getBucketUpperBound(i), max);
+        }
+      }
+      return max;
+    }
+
+    long getMean() {
+      return (count == 0) ? 0 : sum / count;
+    }
+  }
+
+  private static class Slice {
+    final AtomicLong epoch = new AtomicLong(-1);
+    final AtomicLongArray stripes = new AtomicLongArray(STRIPES * STRIPE_WIDTH);
+    final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    void reset() {
+      for (int i = 0; i < stripes.length(); i++) {
+        stripes.set(i, 0);
+      }
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets.set(i, 0);
+      }
+    }
+  }
+
+  private final long sliceMillis;
+  private final Slice[] slices;
+  private final Slice allTime = new Slice();
+
+  /**
+   * Creates a histogram.
+   *
+   * @param sliceMillis duration of a time slice in milliseconds.
+   * @param sliceCount number of time slices, the longest window that can be
+   * read is <code>sliceMillis * sliceCount</code>.
+   */
+  Histogram(long sliceMillis, int sliceCount) {
+    this.sliceMillis = sliceMillis;
+    slices = new Slice[sliceCount];
+    for (int i = 0; i < sliceCount; i++) {
+      slices[i] = new Slice();
+    }
+  }
+
+  long getSliceMillis() {
+    return sliceMillis;
+  }
+
+  static int getBucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >> shift) - SUB_BUCKETS);
+  }
+
+  static long getBucketUpperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+    long base = SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1));
+    return ((base + 1) << shift) - 1;
+  }
+
+  /**
+   * Records a value.
+   *
+   * @param value value to record, negative values are recorded as 0.
+   * @param now current time from a monotonic clock in milliseconds.
+   */
+  void record(long value, long now) {
+    value = Math.max(0, Math.min(MAX_VALUE, value));
+    long epoch = now / sliceMillis;
+    Slice slice = slices[(int) (epoch % slices.length)];
+    long sliceEpoch = slice.epoch.get();
+    if (sliceEpoch != epoch) {
+      if (sliceEpoch < epoch && slice.epoch.compareAndSet(sliceEpoch, epoch)) {
+        // values concurrently recorded while resetting may be lost
+        slice.reset();
+      } else if (slice.epoch.get() != epoch) {
+        // stale time from a slow thread, the slice has been reused already
+        return;
+      }
+    }
+    int base = StripedCounter.getStripe() * STRIPE_WIDTH;
+    int bucket = getBucket(value);
+    record(slice, base, bucket, value);
+    record(allTime, base, bucket, value);
+  }
+
+  private static void record(Slice slice, int base, int bucket, long value) {
+    slice.stripes.incrementAndGet(base + COUNT);
+    slice.stripes.addAndGet(base + SUM, value);
+    long max = slice.stripes.get(base + MAX);
+    while (value > max && !slice.stripes.compareAndSet(base + MAX, max, value)) {
+      max = slice.stripes.get(base + MAX);
+    }
+    slice.buckets.incrementAndGet(bucket);
+  }
+
+  private static void aggregate(Slice slice, Snapshot snapshot) {
+    for (int i = 0; i < STRIPES; i++) {
+      int base = i * STRIPE_WIDTH;
+      snapshot.count += slice.stripes.get(base + COUNT);
+      snapshot.sum += slice.stripes.get(base + SUM);
+      snapshot.max = Math.max(snapshot.max, slice.stripes.get(base + MAX));
+    }
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot.buckets[i] += slice.buckets.get(i);
+    }
+  }
+
+  /**
+   * Returns the aggregated values since the histogram creation.
+   *
+   * @return the aggregated values.
+   */
+  Snapshot getAllTimeSnapshot() {
+    Snapshot snapshot = new Snapshot();
+    aggregate(allTime, snapshot);
+    return snapshot;
+  }
+
+  /**
+   * Returns the aggregated values of the last <code>windowMillis</code>,
+   * rounded up to whole time slices and including the current slice.
+   *
+   * @param windowMillis window duration in milliseconds.
+   * @param now current time from a monotonic clock in milliseconds.
+   *
+   * @return the aggregated values of the window.
+   */
+  Snapshot getSnapshot(long windowMillis, long now) {
+    long current = now / sliceMillis;
+    int count = (int) Math.min(slices.length, Math.max(1, (windowMillis + sliceMillis - 1) / sliceMillis));
+    Snapshot snapshot = new Snapshot();
+    for (Slice slice : slices) {
+      long epoch = slice.epoch.get();
+      if (epoch > current - count && epoch <= current) {
+        aggregate(slice, snapshot);
+      }
+    }
+    return snapshot;
+  }
+
+}
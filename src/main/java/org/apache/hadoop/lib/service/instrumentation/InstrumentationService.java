@@ -18,42 +18,94 @@
 
 package org.apache.hadoop.lib.service.instrumentation;
 
+import org.apache.hadoop.lib.lang.XException;
 import org.apache.hadoop.lib.server.BaseService;
 import org.apache.hadoop.lib.server.ServiceException;
 import org.apache.hadoop.lib.service.Instrumentation;
 import org.apache.hadoop.lib.service.Scheduler;
+import org.apache.hadoop.lib.util.StripedCounter;
 import org.apache.hadoop.util.Time;
 import org.json.simple.JSONAware;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
+import org.json.simple.JSONValue;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class InstrumentationService extends BaseService implements Instrumentation {
+
+  public enum ERROR implements XException.ERROR {
+    INST01("Invalid [{0}] value [{1}], it must be one of ns, us, ms or s");
+
+    private String template;
+
+    ERROR(String template) {
+      this.template = template;
+    }
+
+    @Override
+    public String getTemplate() {
+      return template;
+    }
+  }
+
   public static final String PREFIX = "instrumentation";
   public static final String CONF_TIMERS_SIZE = "timers.size";
+  public static final String CONF_TIMERS_UNIT = "timers.unit";
+  public static final String CONF_METRICS_CACHE = "metrics.cache.ms";
+  public static final String CONF_SNAPSHOT_CACHE = "snapshot.cache.ms";
+
+  // sections whose entries are groups, the group selector applies to them
+  static final Set<String> GROUPED_SECTIONS =
+    new HashSet<String>(Arrays.asList("counters", "timers", "variables", "samplers"));
+
+  // the selectors come from requests, bounding the cached combinations
+  private static final int SNAPSHOT_CACHE_MAX_ENTRIES = 32;
+
+  static final Map<TimeUnit, String> UNIT_NAMES = new LinkedHashMap<TimeUnit, String>();
+
+  static {
+    UNIT_NAMES.put(TimeUnit.NANOSECONDS, "ns");
+    UNIT_NAMES.put(TimeUnit.MICROSECONDS, "us");
+    UNIT_NAMES.put(TimeUnit.MILLISECONDS, "ms");
+    UNIT_NAMES.put(TimeUnit.SECONDS, "s");
+  }
 
   private int timersSize;
-  private Lock counterLock;
-  private Lock timerLock;
-  private Lock variableLock;
+  private TimeUnit timersUnit;
+  private long metricsCacheMillis;
+  private volatile RenderedMetrics renderedMetrics;
+  private long snapshotCacheMillis;
+  private ConcurrentMap<String, RenderedSnapshot> renderedSnapshots;
   private Lock samplerLock;
-  private Map<String, Map<String, AtomicLong>> counters;
-  private Map<String, Map<String, Timer>> timers;
-  private Map<String, Map<String, VariableHolder>> variables;
-  private Map<String, Map<String, Sampler>> samplers;
+  private ConcurrentMap<String, ConcurrentMap<String, Counter>> counters;
+  private ConcurrentMap<String, ConcurrentMap<String, Timer>> timers;
+  private ConcurrentMap<String, ConcurrentMap<String, VariableHolder>> variables;
+  private ConcurrentMap<String, ConcurrentMap<String, Sampler>> samplers;
   private List<Sampler> samplersList;
   private Map<String, Map<String, ?>> all;
+  private ConcurrentMap<String, VariableHolder> jvmVariables;
 
   public InstrumentationService() {
     super(PREFIX);
@@ -63,15 +115,24 @@ public class InstrumentationService extends BaseService implements Instrumentati
   @SuppressWarnings("unchecked")
   public void init() throws ServiceException {
     timersSize = getServiceConfig().getInt(CONF_TIMERS_SIZE, 10);
-    counterLock = new ReentrantLock();
-    timerLock = new ReentrantLock();
-    variableLock = new ReentrantLock();
+    String unit = getServiceConfig().get(CONF_TIMERS_UNIT, "ms").trim();
+    for (Map.Entry<TimeUnit, String> entry : UNIT_NAMES.entrySet()) {
+      if (entry.getValue().equals(unit)) {
+        timersUnit = entry.getKey();
+      }
+    }
+    if (timersUnit == null) {
+      throw new ServiceException(ERROR.INST01, getPrefixedName(CONF_TIMERS_UNIT), unit);
+    }
+    metricsCacheMillis = getServiceConfig().getLong(CONF_METRICS_CACHE, 5000);
+    snapshotCacheMillis = getServiceConfig().getLong(CONF_SNAPSHOT_CACHE, 1000);
+    renderedSnapshots = new ConcurrentHashMap<String, RenderedSnapshot>();
     samplerLock = new ReentrantLock();
-    Map<String, VariableHolder> jvmVariables = new ConcurrentHashMap<String, VariableHolder>();
-    counters = new ConcurrentHashMap<String, Map<String, AtomicLong>>();
-    timers = new ConcurrentHashMap<String, Map<String, Timer>>();
-    variables = new ConcurrentHashMap<String, Map<String, VariableHolder>>();
-    samplers = new ConcurrentHashMap<String, Map<String, Sampler>>();
+    jvmVariables = new ConcurrentHashMap<String, VariableHolder>();
+    counters = new ConcurrentHashMap<String, ConcurrentMap<String, Counter>>();
+    timers = new ConcurrentHashMap<String, ConcurrentMap<String, Timer>>();
+    variables = new ConcurrentHashMap<String, ConcurrentMap<String, VariableHolder>>();
+    samplers = new ConcurrentHashMap<String, ConcurrentMap<String, Sampler>>();
     samplersList = new ArrayList<Sampler>();
     all = new LinkedHashMap<String, Map<String, ?>>();
     all.put("os-env", System.getenv());
@@ -112,81 +173,80 @@ public class InstrumentationService extends BaseService implements Instrumentati
     return Instrumentation.class;
   }
 
+  // lock free, if two threads register the same name at once both create an
+  // element but only the one that got into the map is returned to both
   @SuppressWarnings("unchecked")
-  private <T> T getToAdd(String group, String name, Class<T> klass, Lock lock, Map<String, Map<String, T>> map) {
-    boolean locked = false;
-    try {
-      Map<String, T> groupMap = map.get(group);
-      if (groupMap == null) {
-        lock.lock();
-        locked = true;
-        groupMap = map.get(group);
-        if (groupMap == null) {
-          groupMap = new ConcurrentHashMap<String, T>();
-          map.put(group, groupMap);
-        }
+  private <T> T getToAdd(String group, String name, Class<T> klass, ConcurrentMap<String, ConcurrentMap<String, T>> map) {
+    ConcurrentMap<String, T> groupMap = map.get(group);
+    if (groupMap == null) {
+      groupMap = new ConcurrentHashMap<String, T>();
+      ConcurrentMap<String, T> existing = map.putIfAbsent(group, groupMap);
+      if (existing != null) {
+        groupMap = existing;
       }
-      T element = groupMap.get(name);
-      if (element == null) {
-        if (!locked) {
-          lock.lock();
-          locked = true;
-        }
-        element = groupMap.get(name);
-        if (element == null) {
-          try {
-            if (klass == Timer.class) {
-              element = (T) new Timer(timersSize);
-            } else {
-              element = klass.newInstance();
-            }
-          } catch (Exception ex) {
-            throw new RuntimeException(ex);
-          }
-          groupMap.put(name, element);
+    }
+    T element = groupMap.get(name);
+    if (element == null) {
+      try {
+        if (klass == Timer.class) {
+          element = (T) new Timer(timersSize, timersUnit);
+        } else {
+          element = klass.newInstance();
         }
+      } catch (Exception ex) {
+        throw new RuntimeException(ex);
       }
-      return element;
-    } finally {
-      if (locked) {
-        lock.unlock();
+      T existing = groupMap.putIfAbsent(name, element);
+      if (existing != null) {
+        element = existing;
       }
     }
+    return element;
   }
 
   static class Cron implements Instrumentation.Cron {
+    // nanoseconds from a monotonic clock, start and lapStart are set when
+    // started and running, any value including 0 may be a valid time
     long start;
     long lapStart;
     long own;
     long total;
+    private boolean started;
+    private boolean running;
+    private boolean ended;
 
     public Cron start() {
-      if (total != 0) {
+      if (ended) {
         throw new IllegalStateException("Cron already used");
       }
-      if (start == 0) {
-        start = Time.now();
+      if (!started) {
+        start = Time.monotonicNowNanos();
         lapStart = start;
-      } else if (lapStart == 0) {
-        lapStart = Time.now();
+        started = true;
+        running = true;
+      } else if (!running) {
+        lapStart = Time.monotonicNowNanos();
+        running = true;
       }
       return this;
     }
 
     public Cron stop() {
-      if (total != 0) {
+      if (ended) {
         throw new IllegalStateException("Cron already used");
       }
-      if (lapStart > 0) {
-        own += Time.now() - lapStart;
+      if (running) {
+        own += Time.monotonicNowNanos() - lapStart;
         lapStart = 0;
+        running = false;
       }
       return this;
     }
 
     void end() {
       stop();
-      total = Time.now() - start;
+      total = (started) ? Time.monotonicNowNanos() - start : 0;
+      ended = true;
     }
 
   }
@@ -197,54 +257,85 @@ public class InstrumentationService extends BaseService implements Instrumentati
     static final int AVG_TOTAL = 2;
     static final int AVG_OWN = 3;
 
-    Lock lock = new ReentrantLock();
-    private long[] own;
-    private long[] total;
-    private int last;
-    private boolean full;
+    static final long SLICE_MILLIS = 15 * 1000;
+    static final int SLICES = 20;
+    // sliding windows reported in the snapshot, the longest must fit in the slices
+    static final String[] WINDOW_NAMES = {"1m", "5m"};
+    static final long[] WINDOW_MILLIS = {60 * 1000, 5 * 60 * 1000};
+
+    // last and average of the last 'size' crons, updated without locking,
+    // concurrent updates may pair total and own of different crons
+    private AtomicLong crons = new AtomicLong();
+    private AtomicLongArray own;
+    private AtomicLongArray total;
     private int size;
+    // every cron total
+    private Histogram histogram;
+    private long created;
+    // crons are measured in nanoseconds, values are reported in this unit
+    private TimeUnit unit;
 
-    public Timer(int size) {
+    public Timer(int size, TimeUnit unit) {
       this.size = size;
-      own = new long[size];
-      total = new long[size];
-      for (int i = 0; i < size; i++) {
-        own[i] = -1;
-        total[i] = -1;
-      }
-      last = -1;
+      this.unit = unit;
+      own = new AtomicLongArray(size);
+      total = new AtomicLongArray(size);
+      histogram = new Histogram(SLICE_MILLIS, SLICES);
+      created = Time.monotonicNow();
+    }
+
+    private long toUnit(long nanos) {
+      return unit.convert(nanos, TimeUnit.NANOSECONDS);
     }
 
     long[] getValues() {
-      lock.lock();
-      try {
-        long[] values = new long[4];
-        values[LAST_TOTAL] = total[last];
-        values[LAST_OWN] = own[last];
-        int limit = (full) ? size : (last + 1);
+      long[] values = new long[4];
+      long count = crons.get();
+      if (count > 0) {
+        int last = (int) ((count - 1) % size);
+        values[LAST_TOTAL] = total.get(last);
+        values[LAST_OWN] = own.get(last);
+        int limit = (int) Math.min(count, size);
         for (int i = 0; i < limit; i++) {
-          values[AVG_TOTAL] += total[i];
-          values[AVG_OWN] += own[i];
+          values[AVG_TOTAL] += total.get(i);
+          values[AVG_OWN] += own.get(i);
         }
-        values[AVG_TOTAL] = values[AVG_TOTAL] / limit;
-        values[AVG_OWN] = values[AVG_OWN] / limit;
-        return values;
-      } finally {
-        lock.unlock();
+        values[LAST_TOTAL] = toUnit(values[LAST_TOTAL]);
+        values[LAST_OWN] = toUnit(values[LAST_OWN]);
+        values[AVG_TOTAL] = toUnit(values[AVG_TOTAL] / limit);
+        values[AVG_OWN] = toUnit(values[AVG_OWN] / limit);
       }
+      return values;
     }
 
     void addCron(Cron cron) {
       cron.end();
-      lock.lock();
-      try {
-        last = (last + 1) % size;
-        full = full || last == (size - 1);
-        total[last] = cron.total;
-        own[last] = cron.own;
-      } finally {
-        lock.unlock();
-      }
+      int index = (int) ((crons.getAndIncrement() & Long.MAX_VALUE) % size);
+      total.set(index, cron.total);
+      own.set(index, cron.own);
+      histogram.record(cron.total, Time.monotonicNow());
+    }
+
+    Histogram.Snapshot getAllTimeSnapshot() {
+      return histogram.getAllTimeSnapshot();
+    }
+
+    @SuppressWarnings("unchecked")
+    JSONObject getWindowJSON(long windowMillis, long now) {
+      Histogram.Snapshot snapshot = histogram.getSnapshot(windowMillis, now);
+      // the window includes the current slice, the rate uses the time actually covered
+      long windowStart = Math.max(created, (now / SLICE_MILLIS + 1) * SLICE_MILLIS - windowMillis);
+      long elapsed = Math.max(1, now - windowStart);
+      JSONObject json = new JSONObject();
+      json.put("count", snapshot.count);
+      json.put("rate", snapshot.count * 1000d / elapsed);
+      json.put("mean", toUnit(snapshot.getMean()));
+      json.put("p50", toUnit(snapshot.getPercentile(50)));
+      json.put("p90", toUnit(snapshot.getPercentile(90)));
+      json.put("p99", toUnit(snapshot.getPercentile(99)));
+      json.put("p999", toUnit(snapshot.getPercentile(99.9)));
+      json.put("max", toUnit(snapshot.max));
+      return json;
     }
 
     @SuppressWarnings("unchecked")
@@ -255,6 +346,11 @@ public class InstrumentationService extends BaseService implements Instrumentati
       json.put("lastOwn", values[1]);
       json.put("avgTotal", values[2]);
       json.put("avgOwn", values[3]);
+      json.put("unit", UNIT_NAMES.get(unit));
+      long now = Time.monotonicNow();
+      for (int i = 0; i < WINDOW_NAMES.length; i++) {
+        json.put(WINDOW_NAMES[i], getWindowJSON(WINDOW_MILLIS[i], now));
+      }
       return json;
     }
 
@@ -275,15 +371,28 @@ public class InstrumentationService extends BaseService implements Instrumentati
     return new Cron();
   }
 
+  static class Counter extends StripedCounter implements Instrumentation.Counter {
+
+    @Override
+    public void incr(long count) {
+      add(count);
+    }
+
+  }
+
   @Override
   public void incr(String group, String name, long count) {
-    AtomicLong counter = getToAdd(group, name, AtomicLong.class, counterLock, counters);
-    counter.addAndGet(count);
+    counter(group, name).incr(count);
+  }
+
+  @Override
+  public Counter counter(String group, String name) {
+    return getToAdd(group, name, Counter.class, counters);
   }
 
   @Override
   public void addCron(String group, String name, Instrumentation.Cron cron) {
-    Timer timer = getToAdd(group, name, Timer.class, timerLock, timers);
+    Timer timer = getToAdd(group, name, Timer.class, timers);
     timer.addCron((Cron) cron);
   }
 
@@ -318,7 +427,7 @@ public class InstrumentationService extends BaseService implements Instrumentati
 
   @Override
   public void addVariable(String group, String name, Variable<?> variable) {
-    VariableHolder holder = getToAdd(group, name, VariableHolder.class, variableLock, variables);
+    VariableHolder holder = getToAdd(group, name, VariableHolder.class, variables);
     holder.var = variable;
   }
 
@@ -370,7 +479,7 @@ public class InstrumentationService extends BaseService implements Instrumentati
 
   @Override
   public void addSampler(String group, String name, int samplingSize, Variable<Long> variable) {
-    Sampler sampler = getToAdd(group, name, Sampler.class, samplerLock, samplers);
+    Sampler sampler = getToAdd(group, name, Sampler.class, samplers);
     samplerLock.lock();
     try {
       sampler.init(samplingSize, variable);
@@ -400,5 +509,187 @@ public class InstrumentationService extends BaseService implements Instrumentati
     return all;
   }
 
+  class RenderedSnapshot {
+    final long time;
+    final FutureTask<byte[]> task;
+
+    RenderedSnapshot(long time, final Set<String> sections, final Set<String> groups) {
+      this.time = time;
+      task = new FutureTask<byte[]>(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws Exception {
+          return renderSnapshot(sections, groups);
+        }
+      });
+    }
+
+    byte[] get() {
+      try {
+        return task.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(ex);
+      } catch (ExecutionException ex) {
+        throw new RuntimeException(ex.getCause());
+      }
+    }
+  }
+
+  @Override
+  public byte[] getSnapshot(Set<String> sections, Set<String> groups) {
+    if (snapshotCacheMillis <= 0) {
+      return renderSnapshot(sections, groups);
+    }
+    String key = toKey(sections) + "|" + toKey(groups);
+    long now = Time.monotonicNow();
+    RenderedSnapshot rendered = renderedSnapshots.get(key);
+    // the poller that replaces an expired or missing snapshot renders it,
+    // concurrent pollers wait for it instead of rendering their own
+    while (rendered == null || now - rendered.time >= snapshotCacheMillis) {
+      RenderedSnapshot fresh = new RenderedSnapshot(now, sections, groups);
+      boolean replaced;
+      if (rendered == null) {
+        if (renderedSnapshots.size() >= SNAPSHOT_CACHE_MAX_ENTRIES) {
+          renderedSnapshots.clear();
+        }
+        replaced = renderedSnapshots.putIfAbsent(key, fresh) == null;
+      } else {
+        replaced = renderedSnapshots.replace(key, rendered, fresh);
+      }
+      if (replaced) {
+        fresh.task.run();
+        rendered = fresh;
+      } else {
+        rendered = renderedSnapshots.get(key);
+      }
+    }
+    return rendered.get();
+  }
+
+  private static String toKey(Set<String> selector) {
+    return (selector == null || selector.isEmpty()) ? "*" : new TreeSet<String>(selector).toString();
+  }
+
+  private static boolean isSelected(Set<String> selector, String name) {
+    return selector == null || selector.isEmpty() || selector.contains(name);
+  }
+
+  // rendered one group at a time, only the selected variables are evaluated
+  byte[] renderSnapshot(Set<String> sections, Set<String> groups) {
+    boolean allGroups = groups == null || groups.isEmpty();
+    StringBuilder sb = new StringBuilder(16 * 1024);
+    sb.append('{');
+    boolean firstSection = true;
+    for (Map.Entry<String, Map<String, ?>> section : all.entrySet()) {
+      boolean grouped = GROUPED_SECTIONS.contains(section.getKey());
+      if (isSelected(sections, section.getKey()) && (grouped || allGroups)) {
+        if (!firstSection) {
+          sb.append(',');
+        }
+        firstSection = false;
+        appendKey(sb, section.getKey());
+        sb.append('{');
+        boolean firstEntry = true;
+        for (Map.Entry<?, ?> entry : section.getValue().entrySet()) {
+          String name = String.valueOf(entry.getKey());
+          if (!grouped || isSelected(groups, name)) {
+            if (!firstEntry) {
+              sb.append(',');
+            }
+            firstEntry = false;
+            appendKey(sb, name);
+            sb.append(JSONValue.toJSONString(entry.getValue()));
+          }
+        }
+        sb.append('}');
+      }
+    }
+    sb.append('}');
+    try {
+      return sb.toString().getBytes("UTF-8");
+    } catch (UnsupportedEncodingException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  private static void appendKey(StringBuilder sb, String key) {
+    sb.append('"').append(JSONValue.escape(key)).append("\":");
+  }
+
+  private static class RenderedMetrics {
+    final long time;
+    final byte[] bytes;
+
+    RenderedMetrics(long time, byte[] bytes) {
+      this.time = time;
+      this.bytes = bytes;
+    }
+  }
+
+  @Override
+  public String getMetricsContentType() {
+    return PrometheusFormat.CONTENT_TYPE;
+  }
+
+  @Override
+  public byte[] getMetrics() {
+    long now = Time.monotonicNow();
+    RenderedMetrics rendered = renderedMetrics;
+    if (rendered == null || now - rendered.time >= metricsCacheMillis) {
+      // concurrent scrapes of an expired cache may render more than once
+      try {
+        rendered = new RenderedMetrics(now, renderMetrics().getBytes("UTF-8"));
+      } catch (UnsupportedEncodingException ex) {
+        throw new RuntimeException(ex);
+      }
+      renderedMetrics = rendered;
+    }
+    return rendered.bytes;
+  }
+
+  @SuppressWarnings("unchecked")
+  String renderMetrics() {
+    StringBuilder sb = new StringBuilder(16 * 1024);
+    PrometheusFormat.family(sb, "httpfs_counter_total", "counter", "HttpFS counters.");
+    for (Map.Entry<String, ConcurrentMap<String, Counter>> group : new TreeMap<String, ConcurrentMap<String, Counter>>(counters).entrySet()) {
+      for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(group.getValue()).entrySet()) {
+        PrometheusFormat.sample(sb, "httpfs_counter_total", group.getKey(), entry.getKey(), entry.getValue().get());
+      }
+    }
+    PrometheusFormat.family(sb, "httpfs_timer_seconds", "histogram", "HttpFS timers.");
+    for (Map.Entry<String, ConcurrentMap<String, Timer>> group : new TreeMap<String, ConcurrentMap<String, Timer>>(timers).entrySet()) {
+      for (Map.Entry<String, Timer> entry : new TreeMap<String, Timer>(group.getValue()).entrySet()) {
+        PrometheusFormat.timer(sb, "httpfs_timer_seconds", group.getKey(), entry.getKey(),
+                               entry.getValue().getAllTimeSnapshot());
+      }
+    }
+    Map<String, ConcurrentMap<String, VariableHolder>> allVariables =
+      new TreeMap<String, ConcurrentMap<String, VariableHolder>>(variables);
+    allVariables.put("jvm", jvmVariables);
+    PrometheusFormat.family(sb, "httpfs_variable", "gauge", "HttpFS variables, numeric and boolean ones only.");
+    for (Map.Entry<String, ConcurrentMap<String, VariableHolder>> group : allVariables.entrySet()) {
+      for (Map.Entry<String, VariableHolder> entry : new TreeMap<String, VariableHolder>(group.getValue()).entrySet()) {
+        Variable var = entry.getValue().var;
+        Object value = (var != null) ? var.getValue() : null;
+        if (value instanceof Number) {
+          PrometheusFormat.sample(sb, "httpfs_variable", group.getKey(), entry.getKey(),
+                                  ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+          PrometheusFormat.sample(sb, "httpfs_variable", group.getKey(), entry.getKey(),
+                                  ((Boolean) value) ? 1 : 0);
+        }
+      }
+    }
+    PrometheusFormat.family(sb, "httpfs_sampler", "gauge", "HttpFS samplers, average of the sampled values.");
+    for (Map.Entry<String, ConcurrentMap<String, Sampler>> group : new TreeMap<String, ConcurrentMap<String, Sampler>>(samplers).entrySet()) {
+      for (Map.Entry<String, Sampler> entry : new TreeMap<String, Sampler>(group.getValue()).entrySet()) {
+        if (entry.getValue().values != null) {
+          PrometheusFormat.sample(sb, "httpfs_sampler", group.getKey(), entry.getKey(), entry.getValue().getRate());
+        }
+      }
+    }
+    return sb.toString();
+  }
+
 
 }
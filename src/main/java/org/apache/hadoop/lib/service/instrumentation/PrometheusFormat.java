@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.service.instrumentation;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helpers to write metrics in the Prometheus text exposition format
+ * (version 0.0.4).
+ */
+class PrometheusFormat {
+  static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  // histogram buckets, in seconds, exposed for timers
+  static final double[] TIMER_BUCKETS = {
+    0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5,
+    1, 2.5, 5, 10, 30, 60
+  };
+
+  private static final long[] TIMER_BUCKETS_NANOS = new long[TIMER_BUCKETS.length];
+
+  static {
+    for (int i = 0; i < TIMER_BUCKETS.length; i++) {
+      TIMER_BUCKETS_NANOS[i] = (long) (TIMER_BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+    }
+  }
+
+  private PrometheusFormat() {
+  }
+
+  static void family(StringBuilder sb, String name, String type, String help) {
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  static void sample(StringBuilder sb, String name, String group, String metric, String le, double value) {
+    sb.append(name).append("{group=\"");
+    escape(sb, group);
+    sb.append("\",name=\"");
+    escape(sb, metric);
+    sb.append('"');
+    if (le != null) {
+      sb.append(",le=\"").append(le).append('"');
+    }
+    sb.append("} ");
+    value(sb, value);
+    sb.append('\n');
+  }
+
+  static void sample(StringBuilder sb, String name, String group, String metric, double value) {
+    sample(sb, name, group, metric, null, value);
+  }
+
+  static void value(StringBuilder sb, double value) {
+    if (Double.isNaN(value)) {
+      sb.append("NaN");
+    } else if (Double.isInfinite(value)) {
+      sb.append((value > 0) ? "+Inf" : "-Inf");
+    } else if (value == (long) value) {
+      sb.append((long) value);
+    } else {
+      sb.append(value);
+    }
+  }
+
+  static void escape(StringBuilder sb, String label) {
+    for (int i = 0; i < label.length(); i++) {
+      char c = label.charAt(i);
+      switch (c) {
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        default:
+          sb.append(c);
+      }
+    }
+  }
+
+  /**
+   * Writes the buckets, sum and count of a timer histogram measured in
+   * nanoseconds.
+   * <p/>
+   * A histogram bucket is counted in the first exposed bucket not below its
+   * upper bound, so exposed counts may be short by values within 1/16th of
+   * the exposed bucket boundary.
+   */
+  static void timer(StringBuilder sb, String name, String group, String metric, Histogram.Snapshot snapshot) {
+    long[] counts = new long[TIMER_BUCKETS_NANOS.length];
+    int exposed = 0;
+    for (int i = 0; i < Histogram.BUCKETS && exposed < counts.length; i++) {
+      long upperBound = Histogram.getBucketUpperBound(i);
+      while (exposed < counts.length && upperBound > TIMER_BUCKETS_NANOS[exposed]) {
+        exposed++;
+      }
+      if (exposed < counts.length) {
+        counts[exposed] += snapshot.buckets[i];
+      }
+    }
+    // the count is taken from the buckets, the striped count may be
+    // slightly off while values are being recorded
+    long total = 0;
+    for (long count : snapshot.buckets) {
+      total += count;
+    }
+    long cumulative = 0;
+    for (int i = 0; i < counts.length; i++) {
+      cumulative += counts[i];
+      sample(sb, name + "_bucket", group, metric, Double.toString(TIMER_BUCKETS[i]), cumulative);
+    }
+    sample(sb, name + "_bucket", group, metric, "+Inf", total);
+    sample(sb, name + "_sum", group, metric, snapshot.sum / (double) TimeUnit.SECONDS.toNanos(1));
+    sample(sb, name + "_count", group, metric, total);
+  }
+
+}
@@ -71,14 +71,27 @@ public abstract class FileSystemReleaseFilter implements Filter {
     try {
       filterChain.doFilter(servletRequest, servletResponse);
     } finally {
-      FileSystem fs = FILE_SYSTEM_TL.get();
-      if (fs != null) {
-        FILE_SYSTEM_TL.remove();
-        getFileSystemAccess().releaseFileSystem(fs);
+      try {
+        FileSystem fs = FILE_SYSTEM_TL.get();
+        if (fs != null) {
+          FILE_SYSTEM_TL.remove();
+          getFileSystemAccess().releaseFileSystem(fs);
+        }
+      } finally {
+        requestCompleted();
       }
     }
   }
 
+  /**
+   * Invoked on servlet request completion, after the filesystem instance has
+   * been released.
+   * <p/>
+   * This implementation is a NOP.
+   */
+  protected void requestCompleted() {
+  }
+
   /**
    * Destroys the filter.
    * <p/>
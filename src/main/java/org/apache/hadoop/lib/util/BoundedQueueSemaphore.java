@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.util;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fair semaphore with a bounded wait queue.
+ * <p/>
+ * A free permit is taken right away only if nobody is waiting for one,
+ * otherwise the caller waits, in FIFO order, up to a timeout. If the wait
+ * queue is full the caller does not wait at all. Several semaphores can
+ * share one wait queue, bounding the callers waiting for any of them.
+ */
+public class BoundedQueueSemaphore {
+
+  /**
+   * Outcome of {@link #acquire(long)}.
+   */
+  public enum Result {
+    /** A permit was taken. */
+    ACQUIRED,
+    /** The wait queue was full, no permit was taken. */
+    QUEUE_FULL,
+    /** No permit was freed within the timeout, no permit was taken. */
+    TIMED_OUT
+  }
+
+  private final int permits;
+  private final Semaphore semaphore;
+  private final int queueSize;
+  private final AtomicInteger queue;
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  /**
+   * Creates a semaphore with its own wait queue.
+   *
+   * @param permits number of permits, it must be positive.
+   * @param queueSize maximum number of callers waiting.
+   */
+  public BoundedQueueSemaphore(int permits, int queueSize) {
+    this(permits, queueSize, new AtomicInteger());
+  }
+
+  /**
+   * Creates a semaphore with a wait queue shared with other semaphores.
+   *
+   * @param permits number of permits, it must be positive.
+   * @param queueSize maximum number of callers waiting in the shared queue.
+   * @param queue number of callers waiting in the shared queue.
+   */
+  public BoundedQueueSemaphore(int permits, int queueSize, AtomicInteger queue) {
+    Check.gt0(permits, "permits");
+    this.permits = permits;
+    semaphore = new Semaphore(permits, true);
+    this.queueSize = queueSize;
+    this.queue = Check.notNull(queue, "queue");
+  }
+
+  /**
+   * Takes a free permit without waiting, unless other callers are waiting
+   * for one.
+   *
+   * @return if a permit was taken.
+   */
+  public boolean tryAcquire() {
+    // barging a free permit is fine only if nobody is waiting for it
+    return waiting.get() == 0 && semaphore.tryAcquire();
+  }
+
+  /**
+   * Takes a permit, waiting for it if none is free and the wait queue is not
+   * full. An interrupted wait is a timeout, with the interrupt status of the
+   * thread set.
+   *
+   * @param timeoutMillis maximum time to wait for a permit.
+   *
+   * @return the outcome, a permit was taken only if it is
+   * {@link Result#ACQUIRED}.
+   */
+  public Result acquire(long timeoutMillis) {
+    if (tryAcquire()) {
+      return Result.ACQUIRED;
+    }
+    if (queue.incrementAndGet() > queueSize) {
+      queue.decrementAndGet();
+      return Result.QUEUE_FULL;
+    }
+    waiting.incrementAndGet();
+    try {
+      return (semaphore.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) ? Result.ACQUIRED : Result.TIMED_OUT;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return Result.TIMED_OUT;
+    } finally {
+      waiting.decrementAndGet();
+      queue.decrementAndGet();
+    }
+  }
+
+  /**
+   * Returns a permit.
+   */
+  public void release() {
+    semaphore.release();
+  }
+
+  public int getPermits() {
+    return permits;
+  }
+
+  /**
+   * Returns the number of permits taken.
+   *
+   * @return the number of permits taken.
+   */
+  public int getRunning() {
+    return permits - semaphore.availablePermits();
+  }
+
+  /**
+   * Returns the number of callers waiting for a permit of this semaphore.
+   *
+   * @return the number of callers waiting.
+   */
+  public int getWaiting() {
+    return waiting.get();
+  }
+
+}
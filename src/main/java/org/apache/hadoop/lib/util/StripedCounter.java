@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that spreads its updates over several cells to avoid contention.
+ * <p/>
+ * Concurrent threads add to different cells, each one in its own cache line,
+ * instead of competing for a single <code>AtomicLong</code>. Reading the
+ * counter adds up all the cells, the result is not an atomic snapshot if there
+ * are concurrent updates.
+ * <p/>
+ * It extends <code>Number</code> and its <code>toString()</code> is the
+ * counter value, so it can be used wherever an <code>AtomicLong</code> value
+ * was expected.
+ */
+public class StripedCounter extends Number {
+
+  /**
+   * Number of cells, the number of processors rounded up to a power of two
+   * and capped at 16.
+   */
+  public static final int STRIPES;
+
+  static {
+    int stripes = 1;
+    while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 16) {
+      stripes <<= 1;
+    }
+    STRIPES = stripes;
+  }
+
+  // a cell is padded to 64 bytes to avoid false sharing between cells
+  private static final int CELL_WIDTH = 8;
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * CELL_WIDTH);
+
+  /**
+   * Returns the stripe of the current thread, threads are spread over the
+   * stripes by a hash of their ID.
+   *
+   * @return the stripe of the current thread, between <code>0</code> and
+   * <code>STRIPES - 1</code>.
+   */
+  public static int getStripe() {
+    long id = Thread.currentThread().getId();
+    return (int) ((id ^ (id >>> 16)) * 0x9E3779B9L >>> 16) & (STRIPES - 1);
+  }
+
+  /**
+   * Adds a value to the counter.
+   *
+   * @param value value to add.
+   */
+  public void add(long value) {
+    cells.addAndGet(getStripe() * CELL_WIDTH, value);
+  }
+
+  /**
+   * Increments the counter by one.
+   */
+  public void increment() {
+    add(1);
+  }
+
+  /**
+   * Returns the counter value.
+   *
+   * @return the sum of all the cells.
+   */
+  public long get() {
+    long sum = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += cells.get(i * CELL_WIDTH);
+    }
+    return sum;
+  }
+
+  @Override
+  public int intValue() {
+    return (int) get();
+  }
+
+  @Override
+  public long longValue() {
+    return get();
+  }
+
+  @Override
+  public float floatValue() {
+    return (float) get();
+  }
+
+  @Override
+  public double doubleValue() {
+    return (double) get();
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(get());
+  }
+
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.util;
+
+import org.apache.hadoop.util.Time;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter.
+ * <p/>
+ * Tokens are added at a constant rate up to the burst size. Taking more
+ * tokens than available puts the bucket in debt, the caller waits until the
+ * debt is paid off by the rate. Later callers wait for the earlier debt too,
+ * so concurrent callers taking small amounts of tokens share the rate in
+ * arrival order.
+ */
+public class TokenBucket {
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final long rate;
+  private final long burst;
+  private double tokens;
+  private long lastNanos;
+
+  /**
+   * Creates a token bucket, full.
+   *
+   * @param rate tokens added per second, it must be positive.
+   * @param burst maximum number of tokens in the bucket, if not positive the
+   * rate is used.
+   */
+  public TokenBucket(long rate, long burst) {
+    Check.gt0(rate, "rate");
+    this.rate = rate;
+    this.burst = (burst > 0) ? burst : rate;
+    tokens = this.burst;
+    lastNanos = Time.monotonicNowNanos();
+  }
+
+  public long getRate() {
+    return rate;
+  }
+
+  public long getBurst() {
+    return burst;
+  }
+
+  /**
+   * Returns if the bucket is full, it is then the same as a new bucket.
+   *
+   * @return if the bucket is full.
+   */
+  public synchronized boolean isFull() {
+    long now = Time.monotonicNowNanos();
+    return tokens + (double) (now - lastNanos) * rate / NANOS_PER_SECOND >= burst;
+  }
+
+  /**
+   * Takes tokens from the bucket without waiting.
+   *
+   * @param count number of tokens to take.
+   *
+   * @return the time, in nanoseconds, the caller must wait for the tokens,
+   * <code>0</code> if they were available.
+   */
+  public synchronized long reserve(long count) {
+    long now = Time.monotonicNowNanos();
+    tokens = Math.min(burst, tokens + (double) (now - lastNanos) * rate / NANOS_PER_SECOND);
+    lastNanos = now;
+    tokens -= count;
+    return (tokens >= 0) ? 0 : (long) (-tokens * NANOS_PER_SECOND / rate);
+  }
+
+  /**
+   * Takes tokens from the bucket, waiting until they are available.
+   *
+   * @param count number of tokens to take.
+   *
+   * @return the time waited in nanoseconds.
+   *
+   * @throws IOException thrown if interrupted while waiting.
+   */
+  public long acquire(long count) throws IOException {
+    long wait = reserve(count);
+    sleep(wait);
+    return wait;
+  }
+
+  /**
+   * Sleeps for the time returned by {@link #reserve}.
+   *
+   * @param nanos time to sleep in nanoseconds.
+   *
+   * @throws IOException thrown if interrupted while sleeping.
+   */
+  public static void sleep(long nanos) throws IOException {
+    if (nanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(nanos);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while throttled");
+      }
+    }
+  }
+
+}
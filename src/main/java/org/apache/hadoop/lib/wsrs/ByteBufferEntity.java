@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.wsrs;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams a range of a buffer, with the offset and length semantics of
+ * {@link InputStreamEntity}.
+ */
+public class ByteBufferEntity implements StreamingOutput {
+  private ByteBuffer buffer;
+  private long offset;
+  private long len;
+
+  public ByteBufferEntity(ByteBuffer buffer, long offset, long len) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.len = len;
+  }
+
+  @Override
+  public void write(OutputStream os) throws IOException {
+    try {
+      ByteBuffer data = buffer.duplicate();
+      if (offset > data.remaining()) {
+        throw new EOFException("Bytes to skip: " + offset + " actual: " + data.remaining());
+      }
+      data.position(data.position() + (int) offset);
+      if (len >= 0 && len < data.remaining()) {
+        data.limit(data.position() + (int) len);
+      }
+      WritableByteChannel channel = Channels.newChannel(os);
+      while (data.hasRemaining()) {
+        channel.write(data);
+      }
+    } finally {
+      os.close();
+    }
+  }
+}
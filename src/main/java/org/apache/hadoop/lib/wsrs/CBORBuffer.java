@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.wsrs;
+
+/**
+ * A CBOR (RFC 7049) document encoded directly into a growable byte buffer.
+ * <p/>
+ * Objects and arrays are written as indefinite length maps and arrays, so
+ * their size does not have to be known up front. Numbers use the shortest
+ * integer encoding, strings are UTF-8 text strings.
+ */
+public class CBORBuffer extends EntityBuffer {
+  static final int UNSIGNED = 0x00;
+  static final int NEGATIVE = 0x20;
+  static final int TEXT = 0x60;
+  static final int ARRAY = 0x80;
+  static final int MAP = 0xA0;
+  static final int INDEFINITE = 0x1F;
+  static final int FALSE = 0xF4;
+  static final int TRUE = 0xF5;
+  static final int NULL = 0xF6;
+  static final int BREAK = 0xFF;
+
+  public CBORBuffer() {
+    this(256);
+  }
+
+  public CBORBuffer(int initialCapacity) {
+    super(initialCapacity);
+  }
+
+  static byte[] encodeString(String value) {
+    CBORBuffer cbor = new CBORBuffer(value.length() * 3 + 9);
+    cbor.writeString(value);
+    return cbor.toByteArray();
+  }
+
+  @Override
+  public Format getFormat() {
+    return Format.CBOR;
+  }
+
+  @Override
+  public CBORBuffer startObject() {
+    write((byte) (MAP | INDEFINITE));
+    return this;
+  }
+
+  @Override
+  public CBORBuffer endObject() {
+    write((byte) BREAK);
+    return this;
+  }
+
+  @Override
+  public CBORBuffer startArray() {
+    write((byte) (ARRAY | INDEFINITE));
+    return this;
+  }
+
+  @Override
+  public CBORBuffer endArray() {
+    write((byte) BREAK);
+    return this;
+  }
+
+  @Override
+  public CBORBuffer key(Token key) {
+    write(key.cbor);
+    return this;
+  }
+
+  @Override
+  public CBORBuffer value(long value) {
+    ensureCapacity(9);
+    if (value < 0) {
+      // negative integers are encoded as -1 - n
+      writeHeader(NEGATIVE, ~value);
+    } else {
+      writeHeader(UNSIGNED, value);
+    }
+    return this;
+  }
+
+  @Override
+  public CBORBuffer value(boolean value) {
+    write((byte) ((value) ? TRUE : FALSE));
+    return this;
+  }
+
+  @Override
+  public CBORBuffer value(String value) {
+    if (value == null) {
+      write((byte) NULL);
+    } else {
+      writeString(value);
+    }
+    return this;
+  }
+
+  @Override
+  public CBORBuffer value(Token value) {
+    write(value.cbor);
+    return this;
+  }
+
+  @Override
+  public CBORBuffer stringValue(long value, int radix) {
+    // at most 65 digits, the length fits in a 2 bytes header
+    ensureCapacity(67);
+    int start = count;
+    count += 2;
+    writeDigits(value, radix);
+    int len = count - start - 2;
+    if (len < 24) {
+      buf[start] = (byte) (TEXT | len);
+      System.arraycopy(buf, start + 2, buf, start + 1, len);
+      count--;
+    } else {
+      buf[start] = (byte) (TEXT | 24);
+      buf[start + 1] = (byte) len;
+    }
+    return this;
+  }
+
+  @Override
+  public CBORBuffer hexValue(byte[] value) {
+    ensureCapacity(value.length * 2 + 9);
+    writeHeader(TEXT, value.length * 2);
+    writeHexDigits(value);
+    return this;
+  }
+
+  /**
+   * Writes a major type header, the buffer must have 9 bytes available.
+   */
+  private void writeHeader(int majorType, long value) {
+    byte[] b = buf;
+    int c = count;
+    if (value < 24) {
+      b[c++] = (byte) (majorType | value);
+    } else if (value < 0x100) {
+      b[c++] = (byte) (majorType | 24);
+      b[c++] = (byte) value;
+    } else if (value < 0x10000) {
+      b[c++] = (byte) (majorType | 25);
+      b[c++] = (byte) (value >> 8);
+      b[c++] = (byte) value;
+    } else if (value < 0x100000000L) {
+      b[c++] = (byte) (majorType | 26);
+      for (int shift = 24; shift >= 0; shift -= 8) {
+        b[c++] = (byte) (value >> shift);
+      }
+    } else {
+      b[c++] = (byte) (majorType | 27);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        b[c++] = (byte) (value >> shift);
+      }
+    }
+    count = c;
+  }
+
+  private void writeString(String str) {
+    int len = str.length();
+    int utf8Len = 0;
+    for (int i = 0; i < len; i++) {
+      char ch = str.charAt(i);
+      if (ch < 0x80) {
+        utf8Len++;
+      } else if (ch < 0x800) {
+        utf8Len += 2;
+      } else if (Character.isHighSurrogate(ch) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+        utf8Len += 4;
+        i++;
+      } else if (Character.isHighSurrogate(ch) || Character.isLowSurrogate(ch)) {
+        utf8Len++;
+      } else {
+        utf8Len += 3;
+      }
+    }
+    ensureCapacity(utf8Len + 9);
+    writeHeader(TEXT, utf8Len);
+    byte[] b = buf;
+    int c = count;
+    for (int i = 0; i < len; i++) {
+      char ch = str.charAt(i);
+      if (ch < 0x80) {
+        b[c++] = (byte) ch;
+      } else if (ch < 0x800) {
+        b[c++] = (byte) (0xC0 | (ch >> 6));
+        b[c++] = (byte) (0x80 | (ch & 0x3F));
+      } else if (Character.isHighSurrogate(ch) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+        int cp = Character.toCodePoint(ch, str.charAt(++i));
+        b[c++] = (byte) (0xF0 | (cp >> 18));
+        b[c++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        b[c++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        b[c++] = (byte) (0x80 | (cp & 0x3F));
+      } else if (Character.isHighSurrogate(ch) || Character.isLowSurrogate(ch)) {
+        // unpaired surrogate, same replacement the UTF-8 encoder uses
+        b[c++] = '?';
+      } else {
+        b[c++] = (byte) (0xE0 | (ch >> 12));
+        b[c++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+        b[c++] = (byte) (0x80 | (ch & 0x3F));
+      }
+    }
+    count = c;
+  }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.wsrs;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A <code>StreamingOutput</code> that compresses the output of another
+ * <code>StreamingOutput</code> with a HTTP content encoding.
+ */
+public class CompressedEntity implements StreamingOutput {
+
+  /**
+   * Supported HTTP content encodings.
+   */
+  public enum Encoding {
+    GZIP("gzip"), DEFLATE("deflate");
+
+    private String name;
+
+    Encoding(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+  }
+
+  private StreamingOutput entity;
+  private Encoding encoding;
+  private int level;
+
+  /**
+   * Creates a compressed entity.
+   *
+   * @param entity the entity to compress.
+   * @param encoding the content encoding.
+   * @param level the compression level, 0 to 9 or -1 for the default.
+   */
+  public CompressedEntity(StreamingOutput entity, Encoding encoding, int level) {
+    this.entity = entity;
+    this.encoding = encoding;
+    this.level = level;
+  }
+
+  public Encoding getEncoding() {
+    return encoding;
+  }
+
+  /**
+   * Returns the preferred supported encoding of a HTTP
+   * <code>Accept-Encoding</code> header, <code>gzip</code> is preferred over
+   * <code>deflate</code> if both have the same quality.
+   *
+   * @param acceptEncoding <code>Accept-Encoding</code> header value, it may be
+   * <code>null</code>.
+   *
+   * @return the preferred encoding, <code>null</code> if none is acceptable.
+   */
+  public static Encoding negotiate(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+    Encoding selected = null;
+    float selectedQ = 0;
+    for (String element : acceptEncoding.split(",")) {
+      String[] parts = element.split(";");
+      String name = parts[0].trim().toLowerCase(Locale.ENGLISH);
+      float q = 1;
+      for (int i = 1; i < parts.length; i++) {
+        String param = parts[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            q = Float.parseFloat(param.substring(2).trim());
+          } catch (NumberFormatException ex) {
+            q = 0;
+          }
+        }
+      }
+      Encoding encoding = null;
+      if (name.equals("gzip") || name.equals("x-gzip") || name.equals("*")) {
+        encoding = Encoding.GZIP;
+      } else if (name.equals("deflate")) {
+        encoding = Encoding.DEFLATE;
+      }
+      if (encoding != null && q > 0 && (q > selectedQ || (q == selectedQ && encoding == Encoding.GZIP))) {
+        selected = encoding;
+        selectedQ = q;
+      }
+    }
+    return selected;
+  }
+
+  @Override
+  public void write(OutputStream os) throws IOException {
+    Deflater deflater = (encoding == Encoding.GZIP)
+                        ? new Deflater(level, true) : new Deflater(level);
+    try {
+      DeflaterOutputStream out = (encoding == Encoding.GZIP)
+                                 ? new GzipStream(os, deflater) : new DeflaterOutputStream(os, deflater, 4096);
+      entity.write(out);
+      // the entity may have closed the stream already, then this is a NOP
+      out.finish();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * <code>GZIPOutputStream</code> using the given deflater so the compression
+   * level can be set.
+   */
+  private static class GzipStream extends GZIPOutputStream {
+
+    GzipStream(OutputStream os, Deflater deflater) throws IOException {
+      super(os, 4096);
+      def.end();
+      def = deflater;
+    }
+  }
+
+}
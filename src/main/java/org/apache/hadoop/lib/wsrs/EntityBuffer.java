@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.wsrs;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A structured response entity (objects, arrays, strings, numbers) encoded
+ * directly into a growable byte buffer.
+ * <p/>
+ * Concrete subclasses define the wire encoding, {@link JSONBuffer} for JSON
+ * and {@link CBORBuffer} for CBOR. Keys and constant strings are pre-encoded
+ * once for all encodings as {@link Token}s, so writing a document does not box
+ * values or create intermediate maps.
+ */
+public abstract class EntityBuffer implements StreamingOutput {
+
+  /**
+   * Supported encodings.
+   */
+  public enum Format {
+    JSON("application/json"), CBOR("application/cbor");
+
+    private String mediaType;
+
+    Format(String mediaType) {
+      this.mediaType = mediaType;
+    }
+
+    public String getMediaType() {
+      return mediaType;
+    }
+
+    public EntityBuffer createBuffer(int initialCapacity) {
+      return (this == CBOR) ? new CBORBuffer(initialCapacity) : new JSONBuffer(initialCapacity);
+    }
+  }
+
+  /**
+   * A key or a constant string value pre-encoded for all formats.
+   */
+  public static final class Token {
+    final byte[] json;
+    final byte[] cbor;
+
+    private Token(byte[] json, byte[] cbor) {
+      this.json = json;
+      this.cbor = cbor;
+    }
+  }
+
+  static final byte[] HEX = utf8("0123456789abcdef");
+
+  byte[] buf;
+  int count;
+
+  protected EntityBuffer(int initialCapacity) {
+    buf = new byte[Math.max(16, initialCapacity)];
+  }
+
+  /**
+   * Pre-encodes an object key.
+   *
+   * @param name key name.
+   *
+   * @return the encoded key, to be used with {@link #key(Token)}.
+   */
+  public static Token key(String name) {
+    return new Token(JSONBuffer.encodeKey(name), CBORBuffer.encodeString(name));
+  }
+
+  /**
+   * Pre-encodes a string value.
+   *
+   * @param value string value.
+   *
+   * @return the encoded value, to be used with {@link #value(Token)}.
+   */
+  public static Token string(String value) {
+    return new Token(JSONBuffer.encodeString(value), CBORBuffer.encodeString(value));
+  }
+
+  static byte[] utf8(String str) {
+    try {
+      return str.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  public abstract Format getFormat();
+
+  public abstract EntityBuffer startObject();
+
+  public abstract EntityBuffer endObject();
+
+  public abstract EntityBuffer startArray();
+
+  public abstract EntityBuffer endArray();
+
+  public abstract EntityBuffer key(Token key);
+
+  public abstract EntityBuffer value(long value);
+
+  public abstract EntityBuffer value(boolean value);
+
+  public abstract EntityBuffer value(String value);
+
+  /**
+   * Writes a pre-encoded string value, as returned by {@link #string(String)}.
+   */
+  public abstract EntityBuffer value(Token value);
+
+  /**
+   * Writes a number as a string in the given radix (8 to 16), i.e. an octal
+   * permission, without creating the intermediate <code>String</code>.
+   */
+  public abstract EntityBuffer stringValue(long value, int radix);
+
+  /**
+   * Writes a byte array as a string with its lowercase hex representation.
+   */
+  public abstract EntityBuffer hexValue(byte[] value);
+
+  public int size() {
+    return count;
+  }
+
+  public byte[] toByteArray() {
+    byte[] bytes = new byte[count];
+    System.arraycopy(buf, 0, bytes, 0, count);
+    return bytes;
+  }
+
+  @Override
+  public void write(OutputStream os) throws IOException {
+    os.write(buf, 0, count);
+    os.flush();
+  }
+
+  void ensureCapacity(int extra) {
+    if (count + extra > buf.length) {
+      byte[] newBuf = new byte[Math.max(buf.length << 1, count + extra)];
+      System.arraycopy(buf, 0, newBuf, 0, count);
+      buf = newBuf;
+    }
+  }
+
+  void write(byte b) {
+    ensureCapacity(1);
+    buf[count++] = b;
+  }
+
+  void write(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buf, count, bytes.length);
+    count += bytes.length;
+  }
+
+  /**
+   * Writes the digits of a number, the buffer must have 65 bytes available.
+   */
+  void writeDigits(long value, int radix) {
+    // digits are computed on the negative value so Long.MIN_VALUE works
+    if (value < 0) {
+      buf[count++] = '-';
+    } else {
+      value = -value;
+    }
+    int start = count;
+    do {
+      buf[count++] = HEX[(int) -(value % radix)];
+      value /= radix;
+    } while (value != 0);
+    for (int i = start, j = count - 1; i < j; i++, j--) {
+      byte b = buf[i];
+      buf[i] = buf[j];
+      buf[j] = b;
+    }
+  }
+
+  void writeHexDigits(byte[] value) {
+    for (byte b : value) {
+      buf[count++] = HEX[(b >> 4) & 0x0F];
+      buf[count++] = HEX[b & 0x0F];
+    }
+  }
+
+}
@@ -0,0 +1,289 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.wsrs;
+
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+
+/**
+ * A JSON document encoded directly into a growable byte buffer.
+ * <p/>
+ * The produced bytes are the same json-simple produces for the equivalent
+ * <code>Map</code> (same string escaping, no whitespace) encoded as UTF-8,
+ * so a <code>JSONBuffer</code> can replace a <code>Map</code> response entity
+ * transparently. It is written out followed by a line separator, like
+ * {@link JSONMapProvider} does.
+ */
+public class JSONBuffer extends EntityBuffer {
+  private static final byte[] ENTER = utf8(System.getProperty("line.separator"));
+  private static final byte[] NULL = utf8("null");
+  private static final byte[] TRUE = utf8("true");
+  private static final byte[] FALSE = utf8("false");
+  private static final byte[] HEX_UPPER = utf8("0123456789ABCDEF");
+
+  // json-simple escaping, 0 means no escaping, 'u' means \\uXXXX
+  private static final byte[] ESCAPES = new byte[0xA0];
+
+  static {
+    for (int i = 0; i < 0x20; i++) {
+      ESCAPES[i] = 'u';
+    }
+    for (int i = 0x7F; i < 0xA0; i++) {
+      ESCAPES[i] = 'u';
+    }
+    ESCAPES['"'] = '"';
+    ESCAPES['\\'] = '\\';
+    ESCAPES['/'] = '/';
+    ESCAPES['\b'] = 'b';
+    ESCAPES['\f'] = 'f';
+    ESCAPES['\n'] = 'n';
+    ESCAPES['\r'] = 'r';
+    ESCAPES['\t'] = 't';
+  }
+
+  private boolean comma;
+
+  public JSONBuffer() {
+    this(256);
+  }
+
+  public JSONBuffer(int initialCapacity) {
+    super(initialCapacity);
+  }
+
+  /**
+   * Creates a JSON buffer with the json-simple encoding of a <code>Map</code>,
+   * the same bytes {@link JSONMapProvider} writes.
+   *
+   * @param json map to encode.
+   *
+   * @return the JSON buffer.
+   */
+  public static JSONBuffer valueOf(Map json) {
+    return valueOf(utf8(JSONObject.toJSONString(json)));
+  }
+
+  /**
+   * Creates a JSON buffer with an already encoded JSON document.
+   *
+   * @param json UTF-8 encoded JSON document.
+   *
+   * @return the JSON buffer.
+   */
+  public static JSONBuffer valueOf(byte[] json) {
+    JSONBuffer buffer = new JSONBuffer(json.length);
+    buffer.write(json);
+    return buffer;
+  }
+
+  static byte[] encodeKey(String name) {
+    JSONBuffer json = new JSONBuffer(name.length() * 6 + 3);
+    json.writeString(name);
+    json.write((byte) ':');
+    return json.toByteArray();
+  }
+
+  static byte[] encodeString(String value) {
+    JSONBuffer json = new JSONBuffer(value.length() * 6 + 2);
+    json.writeString(value);
+    return json.toByteArray();
+  }
+
+  @Override
+  public Format getFormat() {
+    return Format.JSON;
+  }
+
+  @Override
+  public JSONBuffer startObject() {
+    separator();
+    write((byte) '{');
+    comma = false;
+    return this;
+  }
+
+  @Override
+  public JSONBuffer endObject() {
+    write((byte) '}');
+    comma = true;
+    return this;
+  }
+
+  @Override
+  public JSONBuffer startArray() {
+    separator();
+    write((byte) '[');
+    comma = false;
+    return this;
+  }
+
+  @Override
+  public JSONBuffer endArray() {
+    write((byte) ']');
+    comma = true;
+    return this;
+  }
+
+  @Override
+  public JSONBuffer key(Token key) {
+    separator();
+    write(key.json);
+    comma = false;
+    return this;
+  }
+
+  @Override
+  public JSONBuffer value(long value) {
+    separator();
+    ensureCapacity(65);
+    writeDigits(value, 10);
+    comma = true;
+    return this;
+  }
+
+  @Override
+  public JSONBuffer value(boolean value) {
+    separator();
+    write((value) ? TRUE : FALSE);
+    comma = true;
+    return this;
+  }
+
+  @Override
+  public JSONBuffer value(String value) {
+    separator();
+    if (value == null) {
+      write(NULL);
+    } else {
+      writeString(value);
+    }
+    comma = true;
+    return this;
+  }
+
+  @Override
+  public JSONBuffer value(Token value) {
+    separator();
+    write(value.json);
+    comma = true;
+    return this;
+  }
+
+  @Override
+  public JSONBuffer stringValue(long value, int radix) {
+    separator();
+    ensureCapacity(67);
+    buf[count++] = '"';
+    writeDigits(value, radix);
+    buf[count++] = '"';
+    comma = true;
+    return this;
+  }
+
+  @Override
+  public JSONBuffer hexValue(byte[] value) {
+    separator();
+    ensureCapacity(value.length * 2 + 2);
+    buf[count++] = '"';
+    writeHexDigits(value);
+    buf[count++] = '"';
+    comma = true;
+    return this;
+  }
+
+  @Override
+  public void write(OutputStream os) throws IOException {
+    os.write(buf, 0, count);
+    os.write(ENTER);
+    os.flush();
+  }
+
+  @Override
+  public String toString() {
+    try {
+      return new String(buf, 0, count, "UTF-8");
+    } catch (UnsupportedEncodingException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  private void separator() {
+    if (comma) {
+      write((byte) ',');
+    }
+  }
+
+  private void writeString(String str) {
+    int len = str.length();
+    // worst case is 6 bytes per char, \\uXXXX
+    ensureCapacity(len * 6 + 2);
+    byte[] b = buf;
+    int c = count;
+    b[c++] = '"';
+    for (int i = 0; i < len; i++) {
+      char ch = str.charAt(i);
+      if (ch < 0x80) {
+        byte escape = ESCAPES[ch];
+        if (escape == 0) {
+          b[c++] = (byte) ch;
+        } else if (escape == 'u') {
+          c = writeUnicodeEscape(b, c, ch);
+        } else {
+          b[c++] = '\\';
+          b[c++] = escape;
+        }
+      } else if (ch < 0xA0 || (ch >= 0x2000 && ch <= 0x20FF)) {
+        c = writeUnicodeEscape(b, c, ch);
+      } else if (ch < 0x800) {
+        b[c++] = (byte) (0xC0 | (ch >> 6));
+        b[c++] = (byte) (0x80 | (ch & 0x3F));
+      } else if (Character.isHighSurrogate(ch) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+        int cp = Character.toCodePoint(ch, str.charAt(++i));
+        b[c++] = (byte) (0xF0 | (cp >> 18));
+        b[c++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        b[c++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        b[c++] = (byte) (0x80 | (cp & 0x3F));
+      } else if (Character.isHighSurrogate(ch) || Character.isLowSurrogate(ch)) {
+        // unpaired surrogate, same replacement the UTF-8 encoder uses
+        b[c++] = '?';
+      } else {
+        b[c++] = (byte) (0xE0 | (ch >> 12));
+        b[c++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+        b[c++] = (byte) (0x80 | (ch & 0x3F));
+      }
+    }
+    b[c++] = '"';
+    count = c;
+  }
+
+  private static int writeUnicodeEscape(byte[] b, int c, char ch) {
+    b[c++] = '\\';
+    b[c++] = 'u';
+    b[c++] = HEX_UPPER[(ch >> 12) & 0x0F];
+    b[c++] = HEX_UPPER[(ch >> 8) & 0x0F];
+    b[c++] = HEX_UPPER[(ch >> 4) & 0x0F];
+    b[c++] = HEX_UPPER[ch & 0x0F];
+    return c;
+  }
+
+}
@@ -53,7 +53,7 @@ public class JSONMapProvider implements MessageBodyWriter<Map> {
   public void writeTo(Map map, Class<?> aClass, Type type, Annotation[] annotations,
                       MediaType mediaType, MultivaluedMap<String, Object> stringObjectMultivaluedMap,
                       OutputStream outputStream) throws IOException, WebApplicationException {
-    Writer writer = new OutputStreamWriter(outputStream);
+    Writer writer = new OutputStreamWriter(outputStream, "UTF-8");
     JSONObject.writeJSONString(map, writer);
     writer.write(ENTER);
     writer.flush();
@@ -53,7 +53,7 @@ public class JSONProvider implements MessageBodyWriter<JSONStreamAware> {
   public void writeTo(JSONStreamAware jsonStreamAware, Class<?> aClass, Type type, Annotation[] annotations,
                       MediaType mediaType, MultivaluedMap<String, Object> stringObjectMultivaluedMap,
                       OutputStream outputStream) throws IOException, WebApplicationException {
-    Writer writer = new OutputStreamWriter(outputStream);
+    Writer writer = new OutputStreamWriter(outputStream, "UTF-8");
     jsonStreamAware.writeJSONString(writer);
     writer.write(ENTER);
     writer.flush();
@@ -26,4 +26,20 @@ public class Time {
     return System.currentTimeMillis();
   }
 
+  /**
+   * Current time from a monotonic clock, in milliseconds. It is not related
+   * to the wall-clock time, it should only be used to measure elapsed time.
+   */
+  public static long monotonicNow() {
+    return System.nanoTime() / 1000000;
+  }
+
+  /**
+   * Current time from a monotonic clock, in nanoseconds. It is not related
+   * to the wall-clock time, it should only be used to measure elapsed time.
+   */
+  public static long monotonicNowNanos() {
+    return System.nanoTime();
+  }
+
 }
@@ -136,6 +136,20 @@ else
   print "Using   HTTPFS_ADMIN_PORT:     ${HTTPFS_ADMIN_PORT}"
 fi
 
+if [ "${HTTPFS_HTTP_PROTOCOL}" = "" ]; then
+  export HTTPFS_HTTP_PROTOCOL=HTTP/1.1
+  print "Setting HTTPFS_HTTP_PROTOCOL: ${HTTPFS_HTTP_PROTOCOL}"
+else
+  print "Using   HTTPFS_HTTP_PROTOCOL: ${HTTPFS_HTTP_PROTOCOL}"
+fi
+
+if [ "${HTTPFS_MAX_THREADS}" = "" ]; then
+  export HTTPFS_MAX_THREADS=200
+  print "Setting HTTPFS_MAX_THREADS:   ${HTTPFS_MAX_THREADS}"
+else
+  print "Using   HTTPFS_MAX_THREADS:   ${HTTPFS_MAX_THREADS}"
+fi
+
 if [ "${HTTPFS_HTTP_HOSTNAME}" = "" ]; then
   export HTTPFS_HTTP_HOSTNAME=`hostname -f`
   print "Setting HTTPFS_HTTP_HOSTNAME: ${HTTPFS_HTTP_HOSTNAME}"
@@ -40,8 +40,9 @@ BASEDIR=`cd ${BASEDIR}/..;pwd`
 
 source ${HADOOP_LIBEXEC_DIR:-${BASEDIR}/libexec}/httpfs-config.sh
 
-# The Java System property 'httpfs.http.port' it is not used by HttpFS,
-# it is used in Tomcat's server.xml configuration file
+# The Java System properties 'httpfs.http.port', 'httpfs.http.protocol' and
+# 'httpfs.max.threads' are not used by HttpFS, they are used in Tomcat's
+# server.xml configuration file
 #
 export CATALINA_OPTS="${CATALINA_OPTS} -Djava.library.path=/opt/mapr/lib -Dhttpfs.proxyuser.mapred.skip.reduce.max.skip.hosts=0 -Dhttpfs.proxyuser.mapred.skip.reduce.max.skip.groups=0"
 
@@ -51,6 +52,8 @@ catalina_opts="${catalina_opts} -Dhttpfs.log.dir=${HTTPFS_LOG}";
 catalina_opts="${catalina_opts} -Dhttpfs.temp.dir=${HTTPFS_TEMP}";
 catalina_opts="${catalina_opts} -Dhttpfs.admin.port=${HTTPFS_ADMIN_PORT}";
 catalina_opts="${catalina_opts} -Dhttpfs.http.port=${HTTPFS_HTTP_PORT}";
+catalina_opts="${catalina_opts} -Dhttpfs.http.protocol=${HTTPFS_HTTP_PROTOCOL}";
+catalina_opts="${catalina_opts} -Dhttpfs.max.threads=${HTTPFS_MAX_THREADS}";
 catalina_opts="${catalina_opts} -Dhttpfs.http.hostname=${HTTPFS_HTTP_HOSTNAME}";
 
 print "Adding to CATALINA_OPTS:     ${catalina_opts}"
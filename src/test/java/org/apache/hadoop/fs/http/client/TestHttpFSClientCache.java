@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.test.HTestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+public class TestHttpFSClientCache extends HTestCase {
+
+  @Test
+  public void getPut() {
+    HttpFSClientCache cache = new HttpFSClientCache(10, 100);
+    assertNull(cache.get("a"));
+    cache.put("a", "W/\"1\"", "A");
+    HttpFSClientCache.Entry entry = cache.get("a");
+    assertNotNull(entry);
+    assertEquals(entry.getETag(), "W/\"1\"");
+    assertEquals(entry.getValue(), "A");
+    cache.put("a", "W/\"2\"", "B");
+    assertEquals(cache.get("a").getETag(), "W/\"2\"");
+    assertEquals(cache.size(), 1);
+  }
+
+  @Test
+  public void eviction() {
+    HttpFSClientCache cache = new HttpFSClientCache(2, 100);
+    cache.put("a", "1", "A");
+    cache.put("b", "2", "B");
+    // touching 'a' makes 'b' the least recently used
+    cache.get("a");
+    cache.put("c", "3", "C");
+    assertEquals(cache.size(), 2);
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+  }
+
+  private static void drain(InputStream is) throws Exception {
+    byte[] buffer = new byte[3];
+    while (is.read(buffer) > -1) {
+    }
+    is.close();
+  }
+
+  @Test
+  public void cacheStream() throws Exception {
+    HttpFSClientCache cache = new HttpFSClientCache(10, 10);
+    byte[] data = new byte[]{0, 1, 2, 3, 4, 5, 6, 7};
+    InputStream is = cache.cache("a", "1", new ByteArrayInputStream(data));
+    assertEquals(is.read(), 0);
+    // not cached until fully read
+    assertNull(cache.get("a"));
+    drain(is);
+    assertEquals(cache.get("a").getETag(), "1");
+    assertArrayEquals((byte[]) cache.get("a").getValue(), data);
+  }
+
+  @Test
+  public void cacheStreamTooBig() throws Exception {
+    HttpFSClientCache cache = new HttpFSClientCache(10, 4);
+    drain(cache.cache("a", "1", new ByteArrayInputStream(new byte[8])));
+    assertNull(cache.get("a"));
+  }
+
+  @Test
+  public void cacheStreamSkip() throws Exception {
+    HttpFSClientCache cache = new HttpFSClientCache(10, 10);
+    InputStream is = cache.cache("a", "1", new ByteArrayInputStream(new byte[8]));
+    is.skip(2);
+    drain(is);
+    assertNull(cache.get("a"));
+  }
+
+}
@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.http.client.CBORParser;
+import org.apache.hadoop.fs.http.client.HttpFSFileSystem;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.lib.wsrs.EntityBuffer;
+import org.apache.hadoop.lib.wsrs.JSONMapProvider;
+import org.json.simple.JSONArray;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+public class TestFSOperations {
+
+  // Map based encoding the JSONBuffer encoders replaced, the output must not change
+
+  @SuppressWarnings({"unchecked", "deprecation"})
+  private static Map legacyFileStatus(FileStatus status, boolean emptyPathSuffix) {
+    Map json = new LinkedHashMap();
+    json.put(HttpFSFileSystem.PATH_SUFFIX_JSON, (emptyPathSuffix) ? "" : status.getPath().getName());
+    json.put(HttpFSFileSystem.TYPE_JSON, HttpFSFileSystem.FILE_TYPE.getType(status).toString());
+    json.put(HttpFSFileSystem.LENGTH_JSON, status.getLen());
+    json.put(HttpFSFileSystem.OWNER_JSON, status.getOwner());
+    json.put(HttpFSFileSystem.GROUP_JSON, status.getGroup());
+    json.put(HttpFSFileSystem.PERMISSION_JSON, HttpFSFileSystem.permissionToString(status.getPermission()));
+    json.put(HttpFSFileSystem.ACCESS_TIME_JSON, status.getAccessTime());
+    json.put(HttpFSFileSystem.MODIFICATION_TIME_JSON, status.getModificationTime());
+    json.put(HttpFSFileSystem.BLOCK_SIZE_JSON, status.getBlockSize());
+    json.put(HttpFSFileSystem.REPLICATION_JSON, status.getReplication());
+    return json;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map wrap(String key, Object value) {
+    Map json = new LinkedHashMap();
+    json.put(key, value);
+    return json;
+  }
+
+  private static byte[] toBytes(Map map) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    new JSONMapProvider().writeTo(map, Map.class, null, null, null, null, baos);
+    return baos.toByteArray();
+  }
+
+  private static byte[] toBytes(EntityBuffer json) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    json.write(baos);
+    return baos.toByteArray();
+  }
+
+  private static void assertSameBytes(Map expected, EntityBuffer actual) throws IOException {
+    assertArrayEquals(toBytes(expected), toBytes(actual));
+  }
+
+  private static FileStatus[] createStatuses() {
+    return new FileStatus[]{
+      new FileStatus(1234, false, 3, 64 * 1024 * 1024, 1000, 2000, new FsPermission((short) 0644),
+                     "owner", "group", new Path("/tmp/file.txt")),
+      new FileStatus(0, true, 0, 0, Long.MAX_VALUE, 0, new FsPermission((short) 01777),
+                     "user\"1", "gr/oup", new Path("/tmp/dir é中")),
+      new FileStatus(5, false, 1, 512, 1, 1, null, null, null, new Path("/tmp/tab\tfile"))
+    };
+  }
+
+  @Test
+  public void fileStatus() throws Exception {
+    for (FileStatus status : createStatuses()) {
+      assertSameBytes(wrap(HttpFSFileSystem.FILE_STATUS_JSON, legacyFileStatus(status, true)),
+                      FSOperations.fileStatusToJSON(status, EntityBuffer.Format.JSON));
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void listStatus() throws Exception {
+    FileStatus[] statuses = createStatuses();
+    JSONArray array = new JSONArray();
+    for (FileStatus status : statuses) {
+      array.add(legacyFileStatus(status, false));
+    }
+    assertSameBytes(wrap(HttpFSFileSystem.FILE_STATUSES_JSON, wrap(HttpFSFileSystem.FILE_STATUS_JSON, array)),
+                    FSOperations.fileStatusToJSON(statuses, EntityBuffer.Format.JSON));
+
+    assertSameBytes(wrap(HttpFSFileSystem.FILE_STATUSES_JSON, wrap(HttpFSFileSystem.FILE_STATUS_JSON, new JSONArray())),
+                    FSOperations.fileStatusToJSON(new FileStatus[0], EntityBuffer.Format.JSON));
+    assertSameBytes(wrap(HttpFSFileSystem.FILE_STATUSES_JSON, wrap(HttpFSFileSystem.FILE_STATUS_JSON, new JSONArray())),
+                    FSOperations.fileStatusToJSON((FileStatus[]) null, EntityBuffer.Format.JSON));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void contentSummary() throws Exception {
+    ContentSummary summary = new ContentSummary(100, 10, 2, -1, 300, Long.MIN_VALUE);
+    Map json = new LinkedHashMap();
+    json.put(HttpFSFileSystem.CONTENT_SUMMARY_DIRECTORY_COUNT_JSON, summary.getDirectoryCount());
+    json.put(HttpFSFileSystem.CONTENT_SUMMARY_FILE_COUNT_JSON, summary.getFileCount());
+    json.put(HttpFSFileSystem.CONTENT_SUMMARY_LENGTH_JSON, summary.getLength());
+    json.put(HttpFSFileSystem.CONTENT_SUMMARY_QUOTA_JSON, summary.getQuota());
+    json.put(HttpFSFileSystem.CONTENT_SUMMARY_SPACE_CONSUMED_JSON, summary.getSpaceConsumed());
+    json.put(HttpFSFileSystem.CONTENT_SUMMARY_SPACE_QUOTA_JSON, summary.getSpaceQuota());
+    assertSameBytes(wrap(HttpFSFileSystem.CONTENT_SUMMARY_JSON, json),
+                    FSOperations.contentSummaryToJSON(summary, EntityBuffer.Format.JSON));
+  }
+
+  private static FileChecksum createChecksum() {
+    return new FileChecksum() {
+      @Override
+      public String getAlgorithmName() {
+        return "MD5-of-0MD5-of-512CRC32";
+      }
+
+      @Override
+      public int getLength() {
+        return 28;
+      }
+
+      @Override
+      public byte[] getBytes() {
+        return new byte[]{0, 1, 2, (byte) 0xab, (byte) 0xff, 0x10};
+      }
+
+      @Override
+      public void write(DataOutput out) throws IOException {
+      }
+
+      @Override
+      public void readFields(DataInput in) throws IOException {
+      }
+    };
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void fileChecksum() throws Exception {
+    FileChecksum checksum = createChecksum();
+    Map json = new LinkedHashMap();
+    json.put(HttpFSFileSystem.CHECKSUM_ALGORITHM_JSON, checksum.getAlgorithmName());
+    json.put(HttpFSFileSystem.CHECKSUM_BYTES_JSON,
+             org.apache.hadoop.util.StringUtils.byteToHexString(checksum.getBytes()));
+    json.put(HttpFSFileSystem.CHECKSUM_LENGTH_JSON, checksum.getLength());
+    assertSameBytes(wrap(HttpFSFileSystem.FILE_CHECKSUM_JSON, json),
+                    FSOperations.fileChecksumToJSON(checksum, EntityBuffer.Format.JSON));
+  }
+
+  private static void assertSameContent(EntityBuffer json, EntityBuffer cbor) throws Exception {
+    Object expected = new JSONParser().parse(new String(json.toByteArray(), "UTF-8"));
+    Object actual = new CBORParser(new ByteArrayInputStream(cbor.toByteArray())).parse();
+    assertEquals(expected, actual);
+    assertTrue(cbor.size() < json.size());
+  }
+
+  @Test
+  public void cbor() throws Exception {
+    EntityBuffer.Format json = EntityBuffer.Format.JSON;
+    EntityBuffer.Format cbor = EntityBuffer.Format.CBOR;
+    FileStatus[] statuses = createStatuses();
+    for (FileStatus status : statuses) {
+      assertSameContent(FSOperations.fileStatusToJSON(status, json), FSOperations.fileStatusToJSON(status, cbor));
+    }
+    assertSameContent(FSOperations.fileStatusToJSON(statuses, json), FSOperations.fileStatusToJSON(statuses, cbor));
+    assertSameContent(FSOperations.fileStatusToJSON(new FileStatus[0], json),
+                      FSOperations.fileStatusToJSON(new FileStatus[0], cbor));
+    ContentSummary summary = new ContentSummary(100, 10, 2, -1, 300, Long.MIN_VALUE);
+    assertSameContent(FSOperations.contentSummaryToJSON(summary, json),
+                      FSOperations.contentSummaryToJSON(summary, cbor));
+    assertSameContent(FSOperations.fileChecksumToJSON(createChecksum(), json),
+                      FSOperations.fileChecksumToJSON(createChecksum(), cbor));
+  }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.test.HInstrumentedTestCase;
+import org.apache.hadoop.test.TestDir;
+import org.apache.hadoop.util.Time;
+import org.junit.Test;
+
+public class TestHttpFSBandwidthThrottle extends HInstrumentedTestCase {
+
+  @Test
+  @TestDir
+  public void disabled() throws Exception {
+    HttpFSBandwidthThrottle throttle = new HttpFSBandwidthThrottle(0, 0, 0, 0, instrumentation);
+    assertFalse(throttle.isEnabled());
+    InputStream is = new ByteArrayInputStream(new byte[0]);
+    assertSame(throttle.throttle(is, "u"), is);
+    StreamingOutput output = entity(new byte[0]);
+    assertSame(throttle.throttle(output, "u"), output);
+  }
+
+  @Test
+  @TestDir
+  public void upload() throws Exception {
+    // 10KB/s per user, 1KB burst
+    HttpFSBandwidthThrottle throttle = new HttpFSBandwidthThrottle(0, 0, 10 * 1024, 1024, instrumentation);
+    assertTrue(throttle.isEnabled());
+    byte[] data = new byte[4 * 1024];
+    Arrays.fill(data, (byte) 1);
+    long start = Time.monotonicNow();
+    InputStream is = throttle.throttle(new ByteArrayInputStream(data), "u");
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    IOUtils.copy(is, os);
+    long elapsed = Time.monotonicNow() - start;
+    assertArrayEquals(os.toByteArray(), data);
+    // 3KB beyond the burst take 300ms
+    assertTrue(elapsed >= 250);
+    assertTrue(getCounter(HttpFSBandwidthThrottle.THROTTLE_GROUP, "in.throttled") > 0);
+    assertTrue(getCounter(HttpFSBandwidthThrottle.THROTTLE_GROUP, "in.throttled.ms") > 0);
+  }
+
+  @Test
+  @TestDir
+  public void download() throws Exception {
+    // 20KB/s for all users, 1KB burst, a user alone is not throttled
+    HttpFSBandwidthThrottle throttle = new HttpFSBandwidthThrottle(20 * 1024, 1024, 0, 0, instrumentation);
+    byte[] data = new byte[5 * 1024];
+    Arrays.fill(data, (byte) 2);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    long start = Time.monotonicNow();
+    throttle.throttle(entity(data), "u").write(os);
+    long elapsed = Time.monotonicNow() - start;
+    assertArrayEquals(os.toByteArray(), data);
+    // 4KB beyond the burst take 200ms
+    assertTrue(elapsed >= 150);
+    assertTrue(getCounter(HttpFSBandwidthThrottle.THROTTLE_GROUP, "out.throttled") > 0);
+  }
+
+  @Test
+  @TestDir
+  public void users() throws Exception {
+    // each user has its own bucket
+    HttpFSBandwidthThrottle throttle = new HttpFSBandwidthThrottle(0, 0, 1024, 1024, instrumentation);
+    assertEquals(throttle.acquire("a", HttpFSBandwidthThrottle.Direction.IN, 1024), 0);
+    assertEquals(throttle.acquire("b", HttpFSBandwidthThrottle.Direction.IN, 1024), 0);
+  }
+
+  @Test
+  @TestDir
+  public void idleUsers() throws Exception {
+    // 1MB/s per user, the buckets are full again in 1ms
+    HttpFSBandwidthThrottle throttle = new HttpFSBandwidthThrottle(0, 0, 1024 * 1024, 1024, instrumentation);
+    for (int i = 0; i < 100; i++) {
+      throttle.acquire("u" + i, HttpFSBandwidthThrottle.Direction.IN, 1024);
+    }
+    assertEquals(throttle.getUserBuckets(), 100);
+    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(HttpFSBandwidthThrottle.SWEEP_INTERVAL_NANOS) + 100);
+    // a new user sweeps the full buckets of the idle users
+    throttle.acquire("v", HttpFSBandwidthThrottle.Direction.IN, 1024);
+    assertEquals(throttle.getUserBuckets(), 1);
+  }
+
+  private static StreamingOutput entity(final byte[] data) {
+    return new StreamingOutput() {
+      @Override
+      public void write(OutputStream os) throws IOException {
+        os.write(data);
+        os.close();
+      }
+    };
+  }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.fs.http.client.HttpFSFileSystem;
+import org.apache.hadoop.lib.service.FileSystemAccessException;
+import org.apache.hadoop.lib.service.FileSystemAccessRejectedException;
+import org.apache.hadoop.test.HInstrumentedTestCase;
+import org.apache.hadoop.test.TestDir;
+import org.junit.Test;
+
+public class TestHttpFSBulkheads extends HInstrumentedTestCase {
+
+  @Test
+  @TestDir
+  public void types() {
+    assertEquals(HttpFSBulkheads.getType(HttpFSFileSystem.Operation.OPEN, false), HttpFSBulkheads.Type.STREAMING);
+    assertEquals(HttpFSBulkheads.getType(HttpFSFileSystem.Operation.CREATE, true), HttpFSBulkheads.Type.STREAMING);
+    assertEquals(HttpFSBulkheads.getType(HttpFSFileSystem.Operation.CREATE, false), HttpFSBulkheads.Type.METADATA);
+    assertEquals(HttpFSBulkheads.getType(HttpFSFileSystem.Operation.APPEND, true), HttpFSBulkheads.Type.STREAMING);
+    assertEquals(HttpFSBulkheads.getType(HttpFSFileSystem.Operation.GETFILESTATUS, false),
+                 HttpFSBulkheads.Type.METADATA);
+  }
+
+  @Test
+  @TestDir
+  public void unlimited() throws Exception {
+    HttpFSBulkheads bulkheads = new HttpFSBulkheads(0, 0, 0, 0, 100, 5, instrumentation);
+    for (int i = 0; i < 10; i++) {
+      bulkheads.acquire(HttpFSBulkheads.Type.STREAMING);
+    }
+    bulkheads.release();
+    assertEquals(getCounter(HttpFSBulkheads.INSTRUMENTATION_GROUP, "streaming.admitted"), 10);
+  }
+
+  @Test
+  @TestDir
+  public void isolation() throws Exception {
+    final HttpFSBulkheads bulkheads = new HttpFSBulkheads(0, 0, 1, 0, 100, 7, instrumentation);
+    final CountDownLatch streaming = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          bulkheads.acquire(HttpFSBulkheads.Type.STREAMING);
+          streaming.countDown();
+          done.await();
+        } catch (Exception ex) {
+          //NOP
+        } finally {
+          bulkheads.release();
+        }
+      }
+    };
+    thread.start();
+    streaming.await();
+    assertEquals(bulkheads.getRunning(HttpFSBulkheads.Type.STREAMING), 1);
+
+    // metadata requests are not affected by the streaming ones
+    bulkheads.acquire(HttpFSBulkheads.Type.METADATA);
+    bulkheads.release();
+
+    // no wait queue, rejected right away
+    try {
+      bulkheads.acquire(HttpFSBulkheads.Type.STREAMING);
+      fail();
+    } catch (FileSystemAccessRejectedException ex) {
+      assertEquals(ex.getError(), FileSystemAccessException.ERROR.H16);
+      assertFalse(ex.isUserLimit());
+      assertEquals(ex.getRetryAfterSeconds(), 7);
+    }
+    assertEquals(getCounter(HttpFSBulkheads.INSTRUMENTATION_GROUP, "streaming.rejected.queue.full"), 1);
+
+    done.countDown();
+    thread.join();
+    assertEquals(bulkheads.getRunning(HttpFSBulkheads.Type.STREAMING), 0);
+    bulkheads.acquire(HttpFSBulkheads.Type.STREAMING);
+    bulkheads.release();
+  }
+
+  @Test
+  @TestDir
+  public void queue() throws Exception {
+    final HttpFSBulkheads bulkheads = new HttpFSBulkheads(1, 1, 0, 0, 50, 5, instrumentation);
+    bulkheads.acquire(HttpFSBulkheads.Type.METADATA);
+    final AtomicBoolean rejected = new AtomicBoolean();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          bulkheads.acquire(HttpFSBulkheads.Type.METADATA);
+        } catch (FileSystemAccessRejectedException ex) {
+          rejected.set(true);
+        } catch (Exception ex) {
+          //NOP
+        }
+      }
+    };
+    thread.start();
+    thread.join();
+    assertTrue(rejected.get());
+    assertEquals(getCounter(HttpFSBulkheads.INSTRUMENTATION_GROUP, "metadata.rejected.timeout"), 1);
+    assertEquals(bulkheads.getWaiting(HttpFSBulkheads.Type.METADATA), 0);
+    bulkheads.release();
+    assertEquals(bulkheads.getRunning(HttpFSBulkheads.Type.METADATA), 0);
+  }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.MD5MD5CRC32FileChecksum;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.test.HInstrumentedTestCase;
+import org.apache.hadoop.test.TestDir;
+import org.apache.hadoop.test.TestDirHelper;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHttpFSChecksumCache extends HInstrumentedTestCase {
+
+  /**
+   * Local filesystem that computes a checksum, counting the computations.
+   */
+  private static class ChecksumFileSystem extends InitializedLocalFileSystem {
+    private int computed;
+
+    private ChecksumFileSystem() throws IOException {
+    }
+
+    @Override
+    public FileChecksum getFileChecksum(Path f) throws IOException {
+      computed++;
+      return new MD5MD5CRC32FileChecksum(512, getFileStatus(f).getLen(), MD5Hash.digest(f.toString()));
+    }
+  }
+
+  private ChecksumFileSystem fs;
+
+  @Before
+  public void setUp() throws Exception {
+    fs = new ChecksumFileSystem();
+  }
+
+  private Path write(String name, int length) throws IOException {
+    Path path = new Path(new File(TestDirHelper.getTestDir(), name).getAbsolutePath());
+    OutputStream os = fs.create(path, true);
+    os.write(new byte[length]);
+    os.close();
+    return path;
+  }
+
+  @Test
+  @TestDir
+  public void disabled() throws Exception {
+    HttpFSChecksumCache cache = new HttpFSChecksumCache(0, true, instrumentation);
+    assertFalse(cache.isEnabled());
+    Path path = write("a", 10);
+    cache.getFileChecksum(fs, path);
+    cache.getFileChecksum(fs, path);
+    assertEquals(fs.computed, 2);
+    assertEquals(cache.size(), 0);
+    cache.precompute(path.toUri().getPath(), "u");
+    assertEquals(cache.getPending(), 0);
+  }
+
+  @Test
+  @TestDir
+  public void hitAndMiss() throws Exception {
+    HttpFSChecksumCache cache = new HttpFSChecksumCache(10, false, instrumentation);
+    assertTrue(cache.isEnabled());
+    Path path = write("a", 10);
+    FileChecksum checksum = cache.getFileChecksum(fs, path);
+    assertSame(cache.getFileChecksum(fs, path), checksum);
+    assertEquals(fs.computed, 1);
+    assertEquals(cache.size(), 1);
+    assertEquals(getCounter(HttpFSChecksumCache.INSTRUMENTATION_GROUP, "hits"), 1);
+    assertEquals(getCounter(HttpFSChecksumCache.INSTRUMENTATION_GROUP, "misses"), 1);
+
+    // a changed file is computed again
+    write("a", 20);
+    assertNotSame(cache.getFileChecksum(fs, path), checksum);
+    assertEquals(fs.computed, 2);
+    assertEquals(cache.size(), 1);
+  }
+
+  @Test
+  @TestDir
+  public void invalidate() throws Exception {
+    HttpFSChecksumCache cache = new HttpFSChecksumCache(10, false, instrumentation);
+    Path dir = new Path(new File(TestDirHelper.getTestDir(), "d").getAbsolutePath());
+    Path a = write("a", 10);
+    Path b = write("d/b", 10);
+    cache.getFileChecksum(fs, a);
+    cache.getFileChecksum(fs, b);
+    assertEquals(cache.size(), 2);
+    cache.invalidate(dir.toUri().getPath(), false);
+    assertEquals(cache.size(), 2);
+    cache.invalidate(dir.toUri().getPath(), true);
+    assertEquals(cache.size(), 1);
+    cache.invalidate(a.toUri().getPath(), false);
+    assertEquals(cache.size(), 0);
+  }
+
+  @Test
+  @TestDir
+  public void eviction() throws Exception {
+    HttpFSChecksumCache cache = new HttpFSChecksumCache(2, false, instrumentation);
+    Path a = write("a", 10);
+    Path b = write("b", 10);
+    Path c = write("c", 10);
+    cache.getFileChecksum(fs, a);
+    cache.getFileChecksum(fs, b);
+    // touching 'a' makes 'b' the least recently used
+    cache.getFileChecksum(fs, a);
+    cache.getFileChecksum(fs, c);
+    assertEquals(cache.size(), 2);
+    assertEquals(getCounter(HttpFSChecksumCache.INSTRUMENTATION_GROUP, "evicted"), 1);
+    assertEquals(fs.computed, 3);
+    cache.getFileChecksum(fs, a);
+    assertEquals(fs.computed, 3);
+    cache.getFileChecksum(fs, b);
+    assertEquals(fs.computed, 4);
+  }
+
+  @Test
+  @TestDir
+  public void precomputeQueue() throws Exception {
+    HttpFSChecksumCache cache = new HttpFSChecksumCache(2, true, instrumentation);
+    cache.precompute("/a", "u");
+    cache.precompute("/a", "u");
+    cache.precompute("/b", "u");
+    cache.precompute("/c", "u");
+    assertEquals(cache.getPending(), 2);
+    assertEquals(getCounter(HttpFSChecksumCache.INSTRUMENTATION_GROUP, "precompute.dropped"), 1);
+    assertEquals(new HttpFSChecksumCache(2, false, instrumentation).getPending(), 0);
+  }
+
+}
@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.test.HInstrumentedTestCase;
+import org.apache.hadoop.test.TestDir;
+import org.apache.hadoop.test.TestDirHelper;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHttpFSChunkCache extends HInstrumentedTestCase {
+
+  private OpenCountingFileSystem fs;
+  private File cacheDir;
+  private byte[] data;
+
+  @Before
+  public void setUp() throws Exception {
+    fs = new OpenCountingFileSystem();
+    cacheDir = new File(TestDirHelper.getTestDir(), "cache");
+    data = new byte[100];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+  }
+
+  private Path write(byte[] content) throws IOException {
+    Path path = new Path(new File(TestDirHelper.getTestDir(), "file").getAbsolutePath());
+    OutputStream os = fs.create(path, true);
+    os.write(content);
+    os.close();
+    return path;
+  }
+
+  private byte[] read(HttpFSChunkCache cache, Path path, long offset, long len) throws IOException {
+    FileStatus status = fs.getFileStatus(path);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    cache.getEntity(fs, path, status, offset, len, 4096).write(baos);
+    return baos.toByteArray();
+  }
+
+  @Test
+  @TestDir
+  public void disabled() throws Exception {
+    assertFalse(new HttpFSChunkCache(cacheDir, 10, 0, instrumentation).isEnabled());
+    assertFalse(new HttpFSChunkCache(cacheDir, 10, 5, instrumentation).isEnabled());
+    assertFalse(new HttpFSChunkCache(cacheDir, 0, 100, instrumentation).isEnabled());
+    HttpFSChunkCache cache = new HttpFSChunkCache(cacheDir, 10, 0, instrumentation);
+    Path path = write(data);
+    assertNull(cache.getEntity(fs, path, fs.getFileStatus(path), 0, -1, 4096));
+  }
+
+  @Test
+  @TestDir
+  public void readThrough() throws Exception {
+    HttpFSChunkCache cache = new HttpFSChunkCache(cacheDir, 30, 1000, instrumentation);
+    assertTrue(cache.isEnabled());
+    Path path = write(data);
+    assertArrayEquals(read(cache, path, 0, -1), data);
+    assertEquals(fs.getOpened(), 1);
+    assertEquals(cache.size(), 4);
+    assertEquals(cache.getBytes(), 100);
+    assertEquals(cacheDir.listFiles().length, 4);
+    assertEquals(getCounter(HttpFSChunkCache.INSTRUMENTATION_GROUP, "misses"), 4);
+    assertEquals(getCounter(HttpFSChunkCache.INSTRUMENTATION_GROUP, "bytes.loaded"), 100);
+
+    // ranges are served from the cached chunks
+    assertArrayEquals(read(cache, path, 25, 50), Arrays.copyOfRange(data, 25, 75));
+    assertArrayEquals(read(cache, path, 95, -1), Arrays.copyOfRange(data, 95, 100));
+    assertArrayEquals(read(cache, path, 0, 1000), data);
+    assertArrayEquals(read(cache, path, 100, -1), new byte[0]);
+    assertEquals(fs.getOpened(), 1);
+    assertEquals(getCounter(HttpFSChunkCache.INSTRUMENTATION_GROUP, "misses"), 4);
+    assertEquals(getCounter(HttpFSChunkCache.INSTRUMENTATION_GROUP, "bytes.saved"), 50 + 5 + 100);
+  }
+
+  @Test
+  @TestDir
+  public void partialLoad() throws Exception {
+    HttpFSChunkCache cache = new HttpFSChunkCache(cacheDir, 30, 1000, instrumentation);
+    Path path = write(data);
+    // the whole chunk is cached, not only the requested range
+    assertArrayEquals(read(cache, path, 35, 10), Arrays.copyOfRange(data, 35, 45));
+    assertEquals(cache.size(), 1);
+    assertEquals(cache.getBytes(), 30);
+    assertArrayEquals(read(cache, path, 30, 30), Arrays.copyOfRange(data, 30, 60));
+    assertEquals(fs.getOpened(), 1);
+  }
+
+  @Test
+  @TestDir
+  public void changedFile() throws Exception {
+    HttpFSChunkCache cache = new HttpFSChunkCache(cacheDir, 30, 1000, instrumentation);
+    Path path = write(data);
+    read(cache, path, 0, -1);
+    byte[] changed = new byte[50];
+    Arrays.fill(changed, (byte) 7);
+    write(changed);
+    assertArrayEquals(read(cache, path, 0, -1), changed);
+    assertEquals(fs.getOpened(), 2);
+  }
+
+  @Test
+  @TestDir
+  public void eviction() throws Exception {
+    HttpFSChunkCache cache = new HttpFSChunkCache(cacheDir, 30, 60, instrumentation);
+    Path path = write(data);
+    assertArrayEquals(read(cache, path, 0, -1), data);
+    assertEquals(cache.size(), 2);
+    assertEquals(cache.getBytes(), 40);
+    assertEquals(getCounter(HttpFSChunkCache.INSTRUMENTATION_GROUP, "evicted"), 2);
+    assertEquals(cacheDir.listFiles().length, 2);
+  }
+
+  @Test
+  @TestDir
+  public void restart() throws Exception {
+    HttpFSChunkCache cache = new HttpFSChunkCache(cacheDir, 30, 1000, instrumentation);
+    read(cache, write(data), 0, -1);
+    assertEquals(cacheDir.listFiles().length, 4);
+    File other = new File(cacheDir, "other");
+    assertTrue(other.createNewFile());
+    new HttpFSChunkCache(cacheDir, 30, 1000, instrumentation);
+    // only the files of the cache are deleted
+    assertEquals(cacheDir.listFiles().length, 1);
+    assertTrue(other.exists());
+  }
+
+  @Test
+  @TestDir
+  public void destroy() throws Exception {
+    HttpFSChunkCache cache = new HttpFSChunkCache(cacheDir, 30, 1000, instrumentation);
+    Path path = write(data);
+    read(cache, path, 0, -1);
+    assertEquals(cacheDir.listFiles().length, 4);
+    File other = new File(cacheDir, "other");
+    assertTrue(other.createNewFile());
+    cache.destroy();
+    assertFalse(cache.isEnabled());
+    assertEquals(cache.size(), 0);
+    assertEquals(cache.getBytes(), 0);
+    assertEquals(cacheDir.listFiles().length, 1);
+    assertTrue(other.exists());
+  }
+
+  @Test(expected = EOFException.class)
+  @TestDir
+  public void offsetPastEnd() throws Exception {
+    HttpFSChunkCache cache = new HttpFSChunkCache(cacheDir, 30, 1000, instrumentation);
+    read(cache, write(data), 101, -1);
+  }
+
+}
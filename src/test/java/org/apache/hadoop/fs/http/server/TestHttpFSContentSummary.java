@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.test.HInstrumentedTestCase;
+import org.apache.hadoop.test.TestDir;
+import org.apache.hadoop.test.TestDirHelper;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHttpFSContentSummary extends HInstrumentedTestCase {
+
+  /**
+   * Local filesystem counting the directory listings.
+   */
+  private static class ListingFileSystem extends InitializedLocalFileSystem {
+    private final AtomicInteger listed = new AtomicInteger();
+
+    private ListingFileSystem() throws IOException {
+    }
+
+    @Override
+    public FileStatus[] listStatus(Path f) throws IOException {
+      listed.incrementAndGet();
+      return super.listStatus(f);
+    }
+  }
+
+  /**
+   * Local filesystem computing the content summary itself.
+   */
+  private static class SummaryFileSystem extends RawLocalFileSystem {
+    private static final ContentSummary SUMMARY = new ContentSummary(1, 2, 3);
+
+    @Override
+    public ContentSummary getContentSummary(Path f) throws IOException {
+      return SUMMARY;
+    }
+  }
+
+  private ListingFileSystem fs;
+  private Path root;
+
+  @Before
+  public void setUp() throws Exception {
+    fs = new ListingFileSystem();
+    root = new Path(new File(TestDirHelper.getTestDir(), "root").getAbsolutePath());
+  }
+
+  private void write(String name, int length) throws IOException {
+    OutputStream os = fs.create(new Path(root, name), true);
+    os.write(new byte[length]);
+    os.close();
+  }
+
+  private void createTree() throws IOException {
+    write("a", 1);
+    write("d1/b", 10);
+    write("d1/c", 100);
+    write("d1/d11/d", 1000);
+    write("d2/e", 10000);
+    fs.mkdirs(new Path(root, "d3/d31/d311"));
+  }
+
+  private static void assertSummary(ContentSummary actual, ContentSummary expected) {
+    assertEquals(actual.getLength(), expected.getLength());
+    assertEquals(actual.getFileCount(), expected.getFileCount());
+    assertEquals(actual.getDirectoryCount(), expected.getDirectoryCount());
+  }
+
+  @Test
+  @TestDir
+  public void clientSideWalk() throws Exception {
+    assertTrue(HttpFSContentSummary.isClientSideWalk(fs));
+    assertFalse(HttpFSContentSummary.isClientSideWalk(new SummaryFileSystem()));
+  }
+
+  @Test
+  @TestDir
+  public void disabled() throws Exception {
+    HttpFSContentSummary engine = new HttpFSContentSummary(0, 1000, 10, instrumentation);
+    assertFalse(engine.isEnabled());
+    createTree();
+    assertSummary(engine.getContentSummary(fs, root), fs.getContentSummary(root));
+    engine.destroy();
+  }
+
+  @Test
+  @TestDir
+  public void notWalked() throws Exception {
+    HttpFSContentSummary engine = new HttpFSContentSummary(2, 1000, 10, instrumentation);
+    SummaryFileSystem summaryFs = new SummaryFileSystem();
+    assertSame(engine.getContentSummary(summaryFs, root), SummaryFileSystem.SUMMARY);
+    engine.destroy();
+  }
+
+  @Test
+  @TestDir
+  public void parallelWalk() throws Exception {
+    HttpFSContentSummary engine = new HttpFSContentSummary(3, 0, 0, instrumentation);
+    createTree();
+    ContentSummary summary = engine.getContentSummary(fs, root);
+    assertEquals(summary.getLength(), 11111);
+    assertEquals(summary.getFileCount(), 5);
+    assertEquals(summary.getDirectoryCount(), 7);
+    assertSummary(summary, fs.getContentSummary(root));
+    assertSummary(engine.getContentSummary(fs, new Path(root, "d1/c")), new ContentSummary(100, 1, 0));
+    assertEquals(engine.size(), 0);
+    engine.destroy();
+  }
+
+  @Test
+  @TestDir
+  public void cachedSubtotals() throws Exception {
+    HttpFSContentSummary engine = new HttpFSContentSummary(3, 60000, 100, instrumentation);
+    createTree();
+    engine.getContentSummary(fs, root);
+    assertEquals(fs.listed.get(), 7);
+    assertEquals(engine.size(), 7);
+
+    // unchanged directories are not listed again
+    fs.listed.set(0);
+    assertEquals(engine.getContentSummary(fs, root).getLength(), 11111);
+    assertEquals(fs.listed.get(), 0);
+
+    // a changed directory is listed again
+    Thread.sleep(1000);
+    write("d2/f", 100000);
+    fs.listed.set(0);
+    ContentSummary summary = engine.getContentSummary(fs, root);
+    assertEquals(summary.getLength(), 111111);
+    assertEquals(summary.getFileCount(), 6);
+    assertEquals(fs.listed.get(), 1);
+
+    // an invalidated directory is listed again
+    fs.listed.set(0);
+    engine.invalidate(new Path(root, "d1/b").toUri().getPath(), false);
+    engine.getContentSummary(fs, root);
+    assertEquals(fs.listed.get(), 1);
+    fs.listed.set(0);
+    engine.invalidate(new Path(root, "d3").toUri().getPath(), true);
+    engine.getContentSummary(fs, root);
+    assertEquals(fs.listed.get(), 4);
+    engine.destroy();
+  }
+
+  private ContentSummary getContentSummary(String user, final HttpFSContentSummary engine) throws Exception {
+    return UserGroupInformation.createRemoteUser(user).doAs(new PrivilegedExceptionAction<ContentSummary>() {
+      @Override
+      public ContentSummary run() throws Exception {
+        return engine.getContentSummary(fs, root);
+      }
+    });
+  }
+
+  @Test
+  @TestDir
+  public void cachedPerUser() throws Exception {
+    HttpFSContentSummary engine = new HttpFSContentSummary(3, 60000, 14, instrumentation);
+    createTree();
+    getContentSummary("alice", engine);
+    assertEquals(fs.listed.get(), 7);
+
+    // the subtotals listed by a user are not used for another user
+    fs.listed.set(0);
+    assertEquals(getContentSummary("bob", engine).getLength(), 11111);
+    assertEquals(fs.listed.get(), 7);
+    fs.listed.set(0);
+    getContentSummary("bob", engine);
+    assertEquals(fs.listed.get(), 0);
+
+    // the subtotals of each user count towards the maximum
+    assertEquals(engine.size(), 14);
+    getContentSummary("carol", engine);
+    assertTrue(engine.size() <= 14);
+    assertTrue(getCounter(HttpFSContentSummary.INSTRUMENTATION_GROUP, "evicted") > 0);
+    engine.destroy();
+  }
+
+  @Test(expected = FileNotFoundException.class)
+  @TestDir
+  public void notFound() throws Exception {
+    HttpFSContentSummary engine = new HttpFSContentSummary(2, 60000, 100, instrumentation);
+    try {
+      engine.getContentSummary(fs, new Path(root, "x"));
+    } finally {
+      engine.destroy();
+    }
+  }
+
+}
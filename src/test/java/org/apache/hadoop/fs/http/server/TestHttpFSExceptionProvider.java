@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.FileNotFoundException;
+
+import javax.ws.rs.core.Response;
+
+import org.apache.hadoop.lib.service.FileSystemAccessException;
+import org.apache.hadoop.lib.service.FileSystemAccessRejectedException;
+import org.junit.Test;
+
+public class TestHttpFSExceptionProvider {
+
+  @Test
+  public void rejected() {
+    HttpFSExceptionProvider provider = new HttpFSExceptionProvider();
+    Response response = provider.toResponse(
+      new FileSystemAccessRejectedException(3, FileSystemAccessException.ERROR.H12, "u", "1"));
+    assertEquals(response.getStatus(), HttpFSExceptionProvider.TOO_MANY_REQUESTS);
+    assertEquals(response.getMetadata().getFirst("Retry-After"), "3");
+
+    response = provider.toResponse(
+      new FileSystemAccessRejectedException(5, FileSystemAccessException.ERROR.H13, "heavy", "1", "wait queue full"));
+    assertEquals(response.getStatus(), Response.Status.SERVICE_UNAVAILABLE.getStatusCode());
+    assertEquals(response.getMetadata().getFirst("Retry-After"), "5");
+
+    response = provider.toResponse(
+      new FileSystemAccessRejectedException(7, FileSystemAccessException.ERROR.H16, "streaming", "1",
+                                            "wait queue full"));
+    assertEquals(response.getStatus(), Response.Status.SERVICE_UNAVAILABLE.getStatusCode());
+    assertEquals(response.getMetadata().getFirst("Retry-After"), "7");
+  }
+
+  @Test
+  public void wrapped() {
+    HttpFSExceptionProvider provider = new HttpFSExceptionProvider();
+    Response response = provider.toResponse(
+      new FileSystemAccessException(FileSystemAccessException.ERROR.H03, new FileNotFoundException("foo")));
+    assertEquals(response.getStatus(), Response.Status.NOT_FOUND.getStatusCode());
+  }
+
+}
@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.test.HInstrumentedTestCase;
+import org.apache.hadoop.test.TestDir;
+import org.apache.hadoop.test.TestDirHelper;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHttpFSFileCache extends HInstrumentedTestCase {
+
+  private OpenCountingFileSystem fs;
+
+  @Before
+  public void setUp() throws Exception {
+    fs = new OpenCountingFileSystem();
+  }
+
+  private Path write(String name, int length, byte value) throws IOException {
+    Path path = new Path(new File(TestDirHelper.getTestDir(), name).getAbsolutePath());
+    OutputStream os = fs.create(path, true);
+    byte[] data = new byte[length];
+    Arrays.fill(data, value);
+    os.write(data);
+    os.close();
+    return path;
+  }
+
+  private ByteBuffer get(HttpFSFileCache cache, Path path) throws IOException {
+    return cache.getFileData(fs, path, fs.getFileStatus(path), 4096);
+  }
+
+  @Test
+  @TestDir
+  public void disabled() throws Exception {
+    assertFalse(new HttpFSFileCache(0, 10, instrumentation).isEnabled());
+    assertFalse(new HttpFSFileCache(100, 0, instrumentation).isEnabled());
+    HttpFSFileCache cache = new HttpFSFileCache(0, 10, instrumentation);
+    assertNull(get(cache, write("a", 5, (byte) 1)));
+  }
+
+  @Test
+  @TestDir
+  public void hitAndMiss() throws Exception {
+    HttpFSFileCache cache = new HttpFSFileCache(100, 10, instrumentation);
+    assertTrue(cache.isEnabled());
+    Path path = write("a", 5, (byte) 1);
+    ByteBuffer data = get(cache, path);
+    assertNotNull(data);
+    assertTrue(data.isReadOnly());
+    assertEquals(data.remaining(), 5);
+    assertEquals(data.get(0), 1);
+    assertEquals(fs.getOpened(), 1);
+    data = get(cache, path);
+    assertEquals(data.remaining(), 5);
+    assertEquals(fs.getOpened(), 1);
+    assertEquals(cache.size(), 1);
+    assertEquals(cache.getBytes(), 5);
+    assertEquals(getCounter(HttpFSFileCache.INSTRUMENTATION_GROUP, "hits"), 1);
+    assertEquals(getCounter(HttpFSFileCache.INSTRUMENTATION_GROUP, "misses"), 1);
+    assertEquals(getCounter(HttpFSFileCache.INSTRUMENTATION_GROUP, "loaded"), 1);
+
+    // a changed file is loaded again
+    write("a", 6, (byte) 2);
+    data = get(cache, path);
+    assertEquals(data.remaining(), 6);
+    assertEquals(data.get(0), 2);
+    assertEquals(fs.getOpened(), 2);
+    assertEquals(cache.getBytes(), 6);
+
+    cache.invalidate(path.toUri().getPath(), false);
+    assertEquals(cache.size(), 0);
+    assertEquals(cache.getBytes(), 0);
+  }
+
+  @Test
+  @TestDir
+  public void tooBig() throws Exception {
+    HttpFSFileCache cache = new HttpFSFileCache(100, 10, instrumentation);
+    assertNull(get(cache, write("a", 11, (byte) 1)));
+    assertEquals(fs.getOpened(), 0);
+    assertEquals(cache.size(), 0);
+  }
+
+  @Test
+  @TestDir
+  public void admission() throws Exception {
+    HttpFSFileCache cache = new HttpFSFileCache(20, 10, instrumentation);
+    Path a = write("a", 10, (byte) 1);
+    Path b = write("b", 10, (byte) 2);
+    Path c = write("c", 10, (byte) 3);
+    for (int i = 0; i < 3; i++) {
+      get(cache, a);
+      get(cache, b);
+    }
+    assertEquals(cache.size(), 2);
+
+    // a one-off read does not evict frequently read files
+    assertNull(get(cache, c));
+    assertEquals(getCounter(HttpFSFileCache.INSTRUMENTATION_GROUP, "rejected"), 1);
+    assertEquals(cache.size(), 2);
+
+    // a file read more often than the least recently used file evicts it
+    for (int i = 0; i < 4; i++) {
+      get(cache, c);
+    }
+    assertEquals(cache.size(), 2);
+    assertEquals(getCounter(HttpFSFileCache.INSTRUMENTATION_GROUP, "evicted"), 1);
+    get(cache, b);
+    int opened = fs.getOpened();
+    get(cache, b);
+    get(cache, c);
+    assertEquals(fs.getOpened(), opened);
+    assertEquals(cache.getBytes(), 20);
+  }
+
+  @Test
+  @TestDir
+  public void destroy() throws Exception {
+    HttpFSFileCache cache = new HttpFSFileCache(100, 10, instrumentation);
+    Path path = write("a", 5, (byte) 1);
+    assertNotNull(get(cache, path));
+    cache.destroy();
+    assertFalse(cache.isEnabled());
+    assertEquals(cache.size(), 0);
+    assertEquals(cache.getBytes(), 0);
+    assertNull(get(cache, path));
+    assertEquals(cache.size(), 0);
+  }
+
+  @Test
+  @TestDir
+  public void sketch() throws Exception {
+    HttpFSFileCache.FrequencySketch sketch = new HttpFSFileCache.FrequencySketch(16);
+    assertEquals(sketch.frequency("a"), 0);
+    for (int i = 0; i < 20; i++) {
+      sketch.increment("a");
+    }
+    // counters saturate
+    assertEquals(sketch.frequency("a"), 15);
+    // and are halved once the sample size is reached
+    for (int i = 0; i < 320; i++) {
+      sketch.increment("b" + i);
+    }
+    assertTrue(sketch.frequency("a") < 15);
+  }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.test.HTestCase;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+public class TestHttpFSInFlightRequests extends HTestCase {
+
+  @Test
+  public void registry() throws Exception {
+    HttpFSInFlightRequests registry = new HttpFSInFlightRequests(0);
+    assertTrue(registry.getRequests().isEmpty());
+
+    HttpFSInFlightRequests.Request request = registry.register("GETFILESTATUS", "/foo", "u");
+    assertEquals(request.getPhase(), HttpFSInFlightRequests.Phase.AUTH);
+    HttpFSInFlightRequests.setPhase(HttpFSInFlightRequests.Phase.EXECUTOR);
+    assertEquals(request.getPhase(), HttpFSInFlightRequests.Phase.EXECUTOR);
+
+    List<HttpFSInFlightRequests.Request> requests = registry.getRequests();
+    assertEquals(requests.size(), 1);
+    assertEquals(requests.get(0).getOperation(), "GETFILESTATUS");
+    assertEquals(requests.get(0).getPath(), "/foo");
+    assertEquals(requests.get(0).getUser(), "u");
+    assertEquals(requests.get(0).getThread(), Thread.currentThread().getName());
+
+    // a request not deregistered is replaced by the next one of the thread
+    HttpFSInFlightRequests.Request next = registry.register("OPEN", "/bar", "u");
+    assertEquals(registry.getRequests().size(), 1);
+    assertEquals(registry.getRequests().get(0).getId(), next.getId());
+
+    registry.deregister();
+    assertTrue(registry.getRequests().isEmpty());
+    // NOPs without a request
+    registry.deregister();
+    HttpFSInFlightRequests.setPhase(HttpFSInFlightRequests.Phase.STREAMING);
+  }
+
+  @Test
+  public void json() throws Exception {
+    final HttpFSInFlightRequests registry = new HttpFSInFlightRequests(1);
+    final CountDownLatch registered = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread thread = new Thread("blocked") {
+      @Override
+      public void run() {
+        registry.register("LISTSTATUS", "/a\"b", "u1");
+        HttpFSInFlightRequests.setPhase(HttpFSInFlightRequests.Phase.FS_CREATE);
+        registered.countDown();
+        try {
+          done.await();
+        } catch (InterruptedException ex) {
+          //NOP
+        }
+        registry.deregister();
+      }
+    };
+    thread.start();
+    registered.await();
+    registry.register("OPEN", "/c", "u2");
+    HttpFSInFlightRequests.setPhase(HttpFSInFlightRequests.Phase.STREAMING);
+
+    JSONObject json = (JSONObject) new JSONParser().parse(registry.toJSON().toString());
+    JSONArray requests = (JSONArray) json.get("requests");
+    assertEquals(requests.size(), 2);
+    JSONObject first = (JSONObject) requests.get(0);
+    assertEquals(first.get("operation"), "LISTSTATUS");
+    assertEquals(first.get("path"), "/a\"b");
+    assertEquals(first.get("user"), "u1");
+    assertEquals(first.get("thread"), "blocked");
+    assertEquals(first.get("phase"), "FS_CREATE");
+    assertTrue((Long) first.get("elapsed") >= 0);
+    assertTrue((Long) first.get("startTime") > 0);
+    JSONObject second = (JSONObject) requests.get(1);
+    assertEquals(second.get("operation"), "OPEN");
+    assertEquals(second.get("phase"), "STREAMING");
+
+    done.countDown();
+    thread.join();
+    sleep(5);
+    // logged as slow
+    registry.deregister();
+    assertTrue(registry.getRequests().isEmpty());
+  }
+
+}
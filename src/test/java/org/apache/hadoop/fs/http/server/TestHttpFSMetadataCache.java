@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.lib.wsrs.EntityBuffer;
+import org.apache.hadoop.lib.wsrs.JSONBuffer;
+import org.apache.hadoop.test.HInstrumentedTestCase;
+import org.apache.hadoop.test.TestDir;
+import org.junit.Test;
+
+public class TestHttpFSMetadataCache extends HInstrumentedTestCase {
+  private static final String STATUS = "GETFILESTATUS";
+  private static final String LIST = "LISTSTATUS";
+
+
+  private static String key(String user, String op) {
+    return HttpFSMetadataCache.key(user, op, null, EntityBuffer.Format.JSON);
+  }
+
+  private static EntityBuffer value() {
+    return new JSONBuffer(16).startObject().endObject();
+  }
+
+  @Test
+  @TestDir
+  public void disabled() {
+    assertFalse(new HttpFSMetadataCache(0, 10, instrumentation).isEnabled());
+    assertFalse(new HttpFSMetadataCache(1000, 0, instrumentation).isEnabled());
+    assertTrue(new HttpFSMetadataCache(1000, 10, instrumentation).isEnabled());
+  }
+
+  @Test
+  @TestDir
+  public void perUser() {
+    HttpFSMetadataCache cache = new HttpFSMetadataCache(60000, 10, instrumentation);
+    EntityBuffer value = value();
+    cache.put("/a/b", key("u", STATUS), value, cache.getSequence());
+    assertSame(cache.get("/a/b/", key("u", STATUS)), value);
+    assertNull(cache.get("/a/b", key("v", STATUS)));
+    assertNull(cache.get("/a/b", key("u", LIST)));
+    assertNull(cache.get("/a/b", HttpFSMetadataCache.key("u", STATUS, null, EntityBuffer.Format.CBOR)));
+    assertEquals(getCounter(HttpFSMetadataCache.INSTRUMENTATION_GROUP, "hits"), 1);
+    assertEquals(getCounter(HttpFSMetadataCache.INSTRUMENTATION_GROUP, "misses"), 3);
+  }
+
+  @Test
+  @TestDir
+  public void expiration() throws Exception {
+    HttpFSMetadataCache cache = new HttpFSMetadataCache(50, 10, instrumentation);
+    cache.put("/a", key("u", STATUS), value(), cache.getSequence());
+    assertTrue(cache.get("/a", key("u", STATUS)) != null);
+    Thread.sleep(100);
+    assertNull(cache.get("/a", key("u", STATUS)));
+    assertEquals(cache.size(), 0);
+  }
+
+  @Test
+  @TestDir
+  public void invalidation() {
+    HttpFSMetadataCache cache = new HttpFSMetadataCache(60000, 100, instrumentation);
+    for (String path : new String[]{"/", "/a", "/a/b", "/a/b/c", "/a/bb", "/x"}) {
+      cache.put(path, key("u", STATUS), value(), cache.getSequence());
+      cache.put(path, key("v", LIST), value(), cache.getSequence());
+    }
+    assertEquals(cache.size(), 12);
+
+    // the path and its parent
+    cache.invalidate("/a/b", false);
+    assertNull(cache.get("/a/b", key("u", STATUS)));
+    assertNull(cache.get("/a", key("v", LIST)));
+    assertTrue(cache.get("/a/b/c", key("u", STATUS)) != null);
+    assertTrue(cache.get("/", key("u", STATUS)) != null);
+    assertEquals(cache.size(), 8);
+
+    // everything under the path, but not its siblings
+    cache.invalidate("/a/b", true);
+    assertNull(cache.get("/a/b/c", key("u", STATUS)));
+    assertTrue(cache.get("/a/bb", key("u", STATUS)) != null);
+    assertTrue(cache.get("/x", key("u", STATUS)) != null);
+    assertEquals(cache.size(), 6);
+    assertEquals(getCounter(HttpFSMetadataCache.INSTRUMENTATION_GROUP, "invalidated"), 6);
+  }
+
+  @Test
+  @TestDir
+  public void staleResponse() {
+    HttpFSMetadataCache cache = new HttpFSMetadataCache(60000, 10, instrumentation);
+    long sequence = cache.getSequence();
+    // changed while the response was being computed
+    cache.invalidate("/a", false);
+    cache.put("/a", key("u", STATUS), value(), sequence);
+    assertNull(cache.get("/a", key("u", STATUS)));
+  }
+
+  @Test
+  @TestDir
+  public void eviction() {
+    HttpFSMetadataCache cache = new HttpFSMetadataCache(60000, 3, instrumentation);
+    cache.put("/a", key("u", STATUS), value(), cache.getSequence());
+    cache.put("/b", key("u", STATUS), value(), cache.getSequence());
+    cache.put("/c", key("u", STATUS), value(), cache.getSequence());
+    // '/a' is the most recently used
+    assertTrue(cache.get("/a", key("u", STATUS)) != null);
+    cache.put("/d", key("u", STATUS), value(), cache.getSequence());
+    assertEquals(cache.size(), 3);
+    assertNull(cache.get("/b", key("u", STATUS)));
+    assertTrue(cache.get("/a", key("u", STATUS)) != null);
+    assertTrue(cache.get("/d", key("u", STATUS)) != null);
+    assertEquals(getCounter(HttpFSMetadataCache.INSTRUMENTATION_GROUP, "evicted"), 1);
+  }
+
+}
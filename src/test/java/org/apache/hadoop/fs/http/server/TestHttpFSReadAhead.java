@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.test.HInstrumentedTestCase;
+import org.apache.hadoop.test.TestDir;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHttpFSReadAhead extends HInstrumentedTestCase {
+
+  /**
+   * Stream counting the bytes read from it, optionally slow or failing.
+   */
+  private static class TestInputStream extends ByteArrayInputStream {
+    private final AtomicInteger read = new AtomicInteger();
+    private final long delay;
+    private final int failAt;
+    private volatile boolean closed;
+
+    private TestInputStream(byte[] data, long delay, int failAt) {
+      super(data);
+      this.delay = delay;
+      this.failAt = failAt;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      if (delay > 0) {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        read.addAndGet(n);
+      }
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+  }
+
+  private byte[] data;
+
+  @Before
+  public void setUp() throws Exception {
+    data = new byte[1000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+  }
+
+  @Test
+  @TestDir
+  public void disabled() throws Exception {
+    HttpFSReadAhead readAhead = new HttpFSReadAhead(0, 4, 2, instrumentation);
+    assertFalse(readAhead.isEnabled());
+    InputStream is = new ByteArrayInputStream(data);
+    assertSame(readAhead.readAhead(is, -1), is);
+    assertFalse(new HttpFSReadAhead(100, 4, 0, instrumentation).isEnabled());
+  }
+
+  @Test
+  @TestDir
+  public void readAhead() throws Exception {
+    HttpFSReadAhead readAhead = new HttpFSReadAhead(64, 4, 2, instrumentation);
+    assertTrue(readAhead.isEnabled());
+    for (int chunk : new int[]{1, 7, 64, 100, 2000}) {
+      TestInputStream is = new TestInputStream(data, 0, -1);
+      assertArrayEquals(readFully(readAhead.readAhead(is, -1), chunk), data);
+      assertTrue(is.closed);
+    }
+    assertEquals(getCounter(HttpFSReadAhead.INSTRUMENTATION_GROUP, "streams"), 5);
+    assertEquals(getCounter(HttpFSReadAhead.INSTRUMENTATION_GROUP, "bytes"), 5000);
+    assertEquals(readAhead.getBufferedBytes(), 0);
+    readAhead.destroy();
+  }
+
+  @Test
+  @TestDir
+  public void limit() throws Exception {
+    HttpFSReadAhead readAhead = new HttpFSReadAhead(64, 4, 2, instrumentation);
+    TestInputStream is = new TestInputStream(data, 0, -1);
+    assertArrayEquals(readFully(readAhead.readAhead(is, 100), 30), Arrays.copyOf(data, 100));
+    // nothing is read past the limit
+    assertEquals(is.read.get(), 100);
+    assertArrayEquals(readFully(readAhead.readAhead(new TestInputStream(data, 0, -1), 0), 30), new byte[0]);
+    readAhead.destroy();
+  }
+
+  @Test
+  @TestDir
+  public void overlap() throws Exception {
+    HttpFSReadAhead readAhead = new HttpFSReadAhead(64, 4, 2, instrumentation);
+    TestInputStream is = new TestInputStream(data, 0, -1);
+    InputStream ra = readAhead.readAhead(is, -1);
+    // two chunks, the double buffer, are read before the client reads
+    long start = System.currentTimeMillis();
+    while (is.read.get() < 128 && System.currentTimeMillis() - start < 5000) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(100);
+    assertEquals(is.read.get(), 128);
+    assertEquals(readAhead.getBufferedBytes(), 128);
+    assertArrayEquals(readFully(ra, 64), data);
+    assertEquals(readAhead.getBufferedBytes(), 0);
+    readAhead.destroy();
+  }
+
+  @Test
+  @TestDir
+  public void adaptiveWindow() throws Exception {
+    HttpFSReadAhead readAhead = new HttpFSReadAhead(64, 4, 2, instrumentation);
+    // the client waits for a slow filesystem, the window grows
+    TestInputStream is = new TestInputStream(data, 20, -1);
+    InputStream ra = readAhead.readAhead(is, -1);
+    byte[] b = new byte[64];
+    for (int i = 0; i < 6; i++) {
+      ra.read(b);
+    }
+    assertTrue(getCounter(HttpFSReadAhead.INSTRUMENTATION_GROUP, "stalls") > 0);
+    // while the client pauses the grown window is filled, up to the maximum
+    Thread.sleep(500);
+    assertEquals(readAhead.getBufferedBytes(), 256);
+    ra.close();
+    assertTrue(is.closed);
+    assertEquals(readAhead.getBufferedBytes(), 0);
+    readAhead.destroy();
+  }
+
+  @Test(expected = IOException.class)
+  @TestDir
+  public void error() throws Exception {
+    HttpFSReadAhead readAhead = new HttpFSReadAhead(64, 4, 2, instrumentation);
+    InputStream is = new InputStream() {
+      private int count;
+
+      @Override
+      public int read() throws IOException {
+        if (++count > 100) {
+          throw new IOException("failed");
+        }
+        return 0;
+      }
+    };
+    try {
+      readFully(readAhead.readAhead(is, -1), 10);
+    } finally {
+      readAhead.destroy();
+    }
+  }
+
+}
@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.hadoop.fs.http.client.HttpFSFileSystem;
+import org.apache.hadoop.test.HInstrumentedTestCase;
+import org.apache.hadoop.test.TestDir;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestHttpFSRequestMetricsFilter extends HInstrumentedTestCase {
+
+  @Test
+  @TestDir
+  public void operation() {
+    assertEquals(HttpFSRequestMetricsFilter.getOperation("create"), "CREATE");
+    assertEquals(HttpFSRequestMetricsFilter.getOperation("GETFILESTATUS"), "GETFILESTATUS");
+    assertEquals(HttpFSRequestMetricsFilter.getOperation("foo"), HttpFSRequestMetricsFilter.UNKNOWN_OPERATION);
+    assertEquals(HttpFSRequestMetricsFilter.getOperation(null), HttpFSRequestMetricsFilter.NO_OPERATION);
+  }
+
+  @Test
+  @TestDir
+  public void metrics() throws Exception {
+    HttpFSRequestMetricsFilter filter = createFilter(10, 10);
+    filter.doFilter(request("create", "0123456789"), response(), new Chain("u", HttpServletResponse.SC_CREATED, 5));
+
+    assertEquals(getCounter(HttpFSRequestMetricsFilter.BYTES_IN_GROUP, "CREATE"), 10);
+    assertEquals(getCounter(HttpFSRequestMetricsFilter.BYTES_OUT_GROUP, "CREATE"), 5);
+    assertEquals(getCounter(HttpFSRequestMetricsFilter.STATUS_GROUP, "201"), 1);
+    assertNull(getGroup("counters", HttpFSRequestMetricsFilter.ERRORS_GROUP));
+    assertNotNull(getGroup("timers", HttpFSRequestMetricsFilter.REQUESTS_GROUP).get("CREATE"));
+    assertNotNull(getGroup("timers", HttpFSRequestMetricsFilter.DISPATCH_GROUP).get("CREATE"));
+
+    Map<String, Map<String, Long>> top = filter.getTopUsers();
+    assertEquals(top.size(), 1);
+    assertEquals(top.get("u").get("requests").longValue(), 1);
+    assertEquals(top.get("u").get("bytes").longValue(), 15);
+    assertTrue(top.get("u").get("nanos") > 0);
+  }
+
+  @Test
+  @TestDir
+  public void dispatchTime() throws Exception {
+    HttpFSRequestMetricsFilter filter = createFilter(10, 10);
+    // the response takes 200ms after the request is dispatched
+    filter.doFilter(request("open", ""), response(), new Chain("u", HttpServletResponse.SC_OK, 1, 200));
+    long request = getLastTotal(HttpFSRequestMetricsFilter.REQUESTS_GROUP, "OPEN");
+    long dispatch = getLastTotal(HttpFSRequestMetricsFilter.DISPATCH_GROUP, "OPEN");
+    assertTrue(request >= 200);
+    assertTrue(dispatch < request);
+  }
+
+  @Test
+  @TestDir
+  public void errors() throws Exception {
+    HttpFSRequestMetricsFilter filter = createFilter(10, 10);
+
+    // rejected before being dispatched, like an authentication failure
+    filter.doFilter(request("foo", ""), response(), new Chain(null, HttpServletResponse.SC_UNAUTHORIZED, 0));
+    assertEquals(getCounter(HttpFSRequestMetricsFilter.ERRORS_GROUP, HttpFSRequestMetricsFilter.UNKNOWN_OPERATION), 1);
+    assertEquals(getCounter(HttpFSRequestMetricsFilter.STATUS_GROUP, "401"), 1);
+    assertNull(getGroup("timers", HttpFSRequestMetricsFilter.DISPATCH_GROUP));
+    assertTrue(filter.getTopUsers().isEmpty());
+
+    try {
+      filter.doFilter(request(null, ""), response(), new Chain("u", -1, 0));
+      fail();
+    } catch (IOException ex) {
+      //NOP
+    } catch (Exception ex) {
+      fail();
+    }
+    assertEquals(getCounter(HttpFSRequestMetricsFilter.ERRORS_GROUP, HttpFSRequestMetricsFilter.NO_OPERATION), 1);
+    assertEquals(getCounter(HttpFSRequestMetricsFilter.STATUS_GROUP, "500"), 1);
+    assertEquals(filter.getTopUsers().get("u").get("requests").longValue(), 1);
+  }
+
+  @Test
+  @TestDir
+  public void topUsers() throws Exception {
+    HttpFSRequestMetricsFilter filter = createFilter(2, 3);
+    for (int i = 0; i < 3; i++) {
+      filter.doFilter(request("open", ""), response(), new Chain("a", HttpServletResponse.SC_OK, 1, 10));
+    }
+    filter.doFilter(request("open", ""), response(), new Chain("b", HttpServletResponse.SC_OK, 1));
+    filter.doFilter(request("open", ""), response(), new Chain("c", HttpServletResponse.SC_OK, 1));
+    filter.doFilter(request("open", ""), response(), new Chain("d", HttpServletResponse.SC_OK, 1));
+    assertEquals(getCounter(HttpFSRequestMetricsFilter.BYTES_OUT_GROUP, "OPEN"), 6);
+
+    // new users beyond the maximum replace the users with the lowest time,
+    // which are accounted together
+    Map<String, Map<String, Long>> top = filter.getTopUsers();
+    assertEquals(top.size(), 3);
+    assertEquals(top.get("a").get("requests").longValue(), 3);
+    assertEquals(top.get("d").get("requests").longValue(), 1);
+    assertEquals(top.get(HttpFSRequestMetricsFilter.OTHER_USERS).get("requests").longValue(), 2);
+    assertEquals(top.get(HttpFSRequestMetricsFilter.OTHER_USERS).get("bytes").longValue(), 2);
+    long nanos = Long.MAX_VALUE;
+    for (Map<String, Long> load : top.values()) {
+      assertTrue(load.get("nanos") <= nanos);
+      nanos = load.get("nanos");
+    }
+
+    filter = createFilter(2, 1);
+    filter.doFilter(request("open", ""), response(), new Chain("a", HttpServletResponse.SC_OK, 1));
+    assertEquals(filter.getTopUsers().keySet(), Collections.singleton("a"));
+
+    filter = createFilter(0, 1);
+    filter.doFilter(request("open", ""), response(), new Chain("a", HttpServletResponse.SC_OK, 1));
+    assertEquals(filter.getTopUsers().keySet(), Collections.singleton(HttpFSRequestMetricsFilter.OTHER_USERS));
+  }
+
+  private HttpFSRequestMetricsFilter createFilter(int maxUsers, int topUsers) {
+    HttpFSRequestMetricsFilter filter = new HttpFSRequestMetricsFilter();
+    filter.init(instrumentation, maxUsers, topUsers);
+    return filter;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> getGroup(String section, String group) {
+    return (Map<String, Object>) instrumentation.getSnapshot().get(section).get(group);
+  }
+
+  private long getLastTotal(String group, String name) throws Exception {
+    JSONObject timers = (JSONObject) new JSONParser().parse(JSONObject.toJSONString(getGroup("timers", group)));
+    return (Long) ((JSONObject) timers.get(name)).get("lastTotal");
+  }
+
+  private static HttpServletRequest request(String op, String body) throws IOException {
+    HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    Mockito.when(request.getParameter(HttpFSFileSystem.OP_PARAM)).thenReturn(op);
+    final InputStream is = new ByteArrayInputStream(body.getBytes("UTF-8"));
+    Mockito.when(request.getInputStream()).thenReturn(new ServletInputStream() {
+      @Override
+      public int read() throws IOException {
+        return is.read();
+      }
+    });
+    return request;
+  }
+
+  private static HttpServletResponse response() throws IOException {
+    HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+    final OutputStream os = new ByteArrayOutputStream();
+    Mockito.when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        os.write(b);
+      }
+    });
+    return response;
+  }
+
+  private static class Chain implements FilterChain {
+    private final String user;
+    private final int status;
+    private final int bytes;
+    private final long millis;
+
+    private Chain(String user, int status, int bytes) {
+      this(user, status, bytes, 0);
+    }
+
+    private Chain(String user, int status, int bytes, long millis) {
+      this.user = user;
+      this.status = status;
+      this.bytes = bytes;
+      this.millis = millis;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+      HttpServletResponse httpRes = (HttpServletResponse) response;
+      if (user == null) {
+        httpRes.sendError(status);
+        return;
+      }
+      HttpFSRequestMetricsFilter.dispatched(new Principal() {
+        @Override
+        public String getName() {
+          return user;
+        }
+      });
+      byte[] buffer = new byte[4];
+      InputStream is = request.getInputStream();
+      while (is.read(buffer, 0, buffer.length) > -1) {
+      }
+      if (millis > 0) {
+        try {
+          Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+          throw new IOException(ex);
+        }
+      }
+      if (status == -1) {
+        throw new IOException("failed");
+      }
+      httpRes.setStatus(status);
+      httpRes.getOutputStream().write(new byte[bytes], 0, bytes);
+    }
+  }
+
+}
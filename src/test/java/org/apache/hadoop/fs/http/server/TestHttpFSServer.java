@@ -19,6 +19,8 @@
 package org.apache.hadoop.fs.http.server;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
@@ -136,6 +138,8 @@ public class TestHttpFSServer extends HFSTestCase {
     conf.set("httpfs.proxyuser." + HadoopUsersConfTestHelper.getHadoopProxyUser() + ".hosts",
              HadoopUsersConfTestHelper.getHadoopProxyUserHosts());
     conf.set("httpfs.authentication.signature.secret.file", secretFile.getAbsolutePath());
+    conf.setBoolean("httpfs.open.validators.enabled", true);
+    conf.setBoolean("httpfs.metadata.validators.enabled", true);
     File httpfsSite = new File(new File(homeDir, "conf"), "httpfs-site.xml");
     os = new FileOutputStream(httpfsSite);
     conf.writeXml(os);
@@ -171,6 +175,17 @@ public class TestHttpFSServer extends HFSTestCase {
     reader.close();
     assertTrue(line.contains("\"counters\":{"));
 
+    url = new URL(TestJettyHelper.getJettyURL(),
+                  MessageFormat.format("/webhdfs/v1?user.name={0}&op=instrumentation&sections=counters,timers",
+                                       HadoopUsersConfTestHelper.getHadoopUsers()[0]));
+    conn = (HttpURLConnection) url.openConnection();
+    assertEquals(conn.getResponseCode(), HttpURLConnection.HTTP_OK);
+    reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
+    line = reader.readLine();
+    reader.close();
+    assertTrue(line.contains("\"counters\":{"));
+    assertFalse(line.contains("\"os-env\":{"));
+
     url = new URL(TestJettyHelper.getJettyURL(),
                   MessageFormat.format("/webhdfs/v1/foo?user.name={0}&op=instrumentation",
                                        HadoopUsersConfTestHelper.getHadoopUsers()[0]));
@@ -233,4 +248,55 @@ public class TestHttpFSServer extends HFSTestCase {
     assertEquals(conn.getResponseCode(), HttpURLConnection.HTTP_BAD_REQUEST);
   }
 
+  @Test
+  @TestDir
+  @TestJetty
+  @TestHdfs
+  public void testConditionalRequests() throws Exception {
+    createHttpFSServer();
+
+    FileSystem fs = FileSystem.get(TestHdfsHelper.getHdfsConf());
+    fs.mkdirs(new Path("/tmp"));
+    OutputStream os = fs.create(new Path("/tmp/conditional.txt"));
+    os.write(1);
+    os.close();
+
+    String user = HadoopUsersConfTestHelper.getHadoopUsers()[0];
+    for (String op : new String[]{"open", "getfilestatus", "liststatus"}) {
+      URL url = new URL(TestJettyHelper.getJettyURL(),
+                        MessageFormat.format("/webhdfs/v1/tmp/conditional.txt?user.name={0}&op={1}", user, op));
+      HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+      assertEquals(conn.getResponseCode(), HttpURLConnection.HTTP_OK);
+      String etag = conn.getHeaderField("ETag");
+      assertNotNull(etag);
+      conn.getInputStream().close();
+
+      conn = (HttpURLConnection) url.openConnection();
+      conn.setRequestProperty("If-None-Match", etag);
+      assertEquals(conn.getResponseCode(), HttpURLConnection.HTTP_NOT_MODIFIED);
+      assertEquals(conn.getHeaderField("ETag"), etag);
+    }
+
+    URL url = new URL(TestJettyHelper.getJettyURL(),
+                      MessageFormat.format("/webhdfs/v1/tmp/conditional.txt?user.name={0}&op=open", user));
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    assertEquals(conn.getResponseCode(), HttpURLConnection.HTTP_OK);
+    long lastModified = conn.getLastModified();
+    String etag = conn.getHeaderField("ETag");
+    conn.getInputStream().close();
+    conn = (HttpURLConnection) url.openConnection();
+    conn.setIfModifiedSince(lastModified);
+    assertEquals(conn.getResponseCode(), HttpURLConnection.HTTP_NOT_MODIFIED);
+
+    // a changed file is returned
+    os = fs.create(new Path("/tmp/conditional.txt"), true);
+    os.write(1);
+    os.write(2);
+    os.close();
+    conn = (HttpURLConnection) url.openConnection();
+    conn.setRequestProperty("If-None-Match", etag);
+    assertEquals(conn.getResponseCode(), HttpURLConnection.HTTP_OK);
+    conn.getInputStream().close();
+  }
+
 }
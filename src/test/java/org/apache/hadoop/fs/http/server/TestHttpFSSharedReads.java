@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.lib.service.FileSystemAccess;
+import org.apache.hadoop.test.HInstrumentedTestCase;
+import org.apache.hadoop.test.TestDir;
+import org.apache.hadoop.test.TestDirHelper;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHttpFSSharedReads extends HInstrumentedTestCase {
+
+  /**
+   * FileSystemAccess creating counting local filesystems.
+   */
+  private static class LocalFileSystemAccess implements FileSystemAccess {
+    private OpenCountingFileSystem fs;
+    private int created;
+    private int released;
+
+    @Override
+    public <T> T execute(String user, Configuration conf, FileSystemExecutor<T> executor) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FileSystem createFileSystem(String user, Configuration conf) throws IOException {
+      created++;
+      fs = new OpenCountingFileSystem();
+      return fs;
+    }
+
+    @Override
+    public void releaseFileSystem(FileSystem fs) throws IOException {
+      released++;
+      fs.close();
+    }
+
+    @Override
+    public Configuration getFileSystemConfiguration() {
+      return new Configuration(false);
+    }
+  }
+
+  private LocalFileSystemAccess fsAccess;
+  private OpenCountingFileSystem fs;
+  private Path path;
+  private FileStatus status;
+  private byte[] data;
+
+  @Before
+  public void setUp() throws Exception {
+    fsAccess = new LocalFileSystemAccess();
+    fs = new OpenCountingFileSystem();
+    data = new byte[100];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    path = new Path(new File(TestDirHelper.getTestDir(), "file").getAbsolutePath());
+    OutputStream os = fs.create(path, true);
+    os.write(data);
+    os.close();
+    status = fs.getFileStatus(path);
+  }
+
+  @Test
+  @TestDir
+  public void disabled() throws Exception {
+    assertFalse(new HttpFSSharedReads(fsAccess, 0, 0, 10, instrumentation).isEnabled());
+    assertFalse(new HttpFSSharedReads(fsAccess, 10, 0, 0, instrumentation).isEnabled());
+    HttpFSSharedReads reads = new HttpFSSharedReads(fsAccess, 10, 101, 10, instrumentation);
+    assertTrue(reads.isEnabled());
+    // smaller than the minimum file size
+    assertNull(reads.open(fs, "u", path, status, 0, 4096));
+    reads = new HttpFSSharedReads(fsAccess, 10, 0, 10, instrumentation);
+    assertNull(reads.open(fs, "u", path, status, 100, 4096));
+  }
+
+  @Test
+  @TestDir
+  public void shared() throws Exception {
+    HttpFSSharedReads reads = new HttpFSSharedReads(fsAccess, 1000, 0, 10, instrumentation);
+    InputStream is1 = reads.open(fs, "u", path, status, 0, 4096);
+    InputStream is2 = reads.open(fs, "u", path, status, 0, 4096);
+    InputStream is3 = reads.open(fs, "u", path, status, 10, 4096);
+    assertEquals(reads.getFiles(), 1);
+    assertArrayEquals(readFully(is1, 7), data);
+    assertArrayEquals(readFully(is2, 13), data);
+    assertArrayEquals(readFully(is3, 100), Arrays.copyOfRange(data, 10, 100));
+    // a single upstream stream, no streams of their own
+    assertEquals(fsAccess.created, 1);
+    assertEquals(fsAccess.fs.getOpened(), 1);
+    assertEquals(fs.getOpened(), 0);
+    assertEquals(getCounter(HttpFSSharedReads.INSTRUMENTATION_GROUP, "started"), 1);
+    assertEquals(getCounter(HttpFSSharedReads.INSTRUMENTATION_GROUP, "attached"), 2);
+    assertEquals(getCounter(HttpFSSharedReads.INSTRUMENTATION_GROUP, "bytes.read"), 100);
+    assertEquals(getCounter(HttpFSSharedReads.INSTRUMENTATION_GROUP, "bytes.served"), 290);
+    // the upstream stream is released with the last OPEN
+    assertEquals(reads.getFiles(), 0);
+    assertEquals(fsAccess.released, 1);
+  }
+
+  @Test
+  @TestDir
+  public void slowConsumer() throws Exception {
+    HttpFSSharedReads reads = new HttpFSSharedReads(fsAccess, 16, 0, 10, instrumentation);
+    InputStream fast = reads.open(fs, "u", path, status, 0, 4096);
+    InputStream slow = reads.open(fs, "u", path, status, 0, 4096);
+    byte[] b = new byte[5];
+    assertEquals(slow.read(b), 5);
+    assertArrayEquals(readFully(fast, 8), data);
+    // the slow OPEN falls back to a stream of its own
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    baos.write(b);
+    baos.write(readFully(slow, 8));
+    assertArrayEquals(baos.toByteArray(), data);
+    assertEquals(getCounter(HttpFSSharedReads.INSTRUMENTATION_GROUP, "fallbacks"), 1);
+    assertEquals(fs.getOpened(), 1);
+    assertEquals(getCounter(HttpFSSharedReads.INSTRUMENTATION_GROUP, "bytes.read"), 100);
+    assertEquals(reads.getFiles(), 0);
+    assertEquals(fsAccess.released, 1);
+  }
+
+  @Test
+  @TestDir
+  public void lateArrival() throws Exception {
+    HttpFSSharedReads reads = new HttpFSSharedReads(fsAccess, 16, 0, 10, instrumentation);
+    InputStream first = reads.open(fs, "u", path, status, 0, 4096);
+    byte[] b = new byte[50];
+    assertEquals(first.read(b), 16);
+    assertEquals(first.read(b), 16);
+    // the start of the file is not in the ring buffer anymore
+    InputStream late = reads.open(fs, "u", path, status, 0, 4096);
+    assertNotNull(late);
+    assertEquals(getCounter(HttpFSSharedReads.INSTRUMENTATION_GROUP, "started"), 2);
+    InputStream later = reads.open(fs, "u", path, status, 0, 4096);
+    assertEquals(getCounter(HttpFSSharedReads.INSTRUMENTATION_GROUP, "attached"), 1);
+    assertArrayEquals(readFully(late, 10), data);
+    assertArrayEquals(readFully(later, 10), data);
+    first.close();
+    assertEquals(fsAccess.created, 2);
+    assertEquals(fsAccess.released, 2);
+    assertEquals(reads.getFiles(), 0);
+  }
+
+  @Test
+  @TestDir
+  public void maxFiles() throws Exception {
+    HttpFSSharedReads reads = new HttpFSSharedReads(fsAccess, 16, 0, 1, instrumentation);
+    OutputStream os = fs.create(new Path(path.getParent(), "other"), true);
+    os.write(data);
+    os.close();
+    Path other = new Path(path.getParent(), "other");
+    InputStream is = reads.open(fs, "u", path, status, 0, 4096);
+    assertNull(reads.open(fs, "u", other, fs.getFileStatus(other), 0, 4096));
+    is.close();
+    assertNotNull(reads.open(fs, "u", other, fs.getFileStatus(other), 0, 4096));
+  }
+
+  @Test
+  @TestDir
+  public void destroy() throws Exception {
+    HttpFSSharedReads reads = new HttpFSSharedReads(fsAccess, 16, 0, 10, instrumentation);
+    InputStream is = reads.open(fs, "u", path, status, 0, 4096);
+    byte[] b = new byte[5];
+    assertEquals(is.read(b), 5);
+    reads.destroy();
+    assertFalse(reads.isEnabled());
+    assertEquals(reads.getFiles(), 0);
+    // the upstream stream is released, the OPEN falls back to a stream of its own
+    assertEquals(fsAccess.released, 1);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    baos.write(b);
+    baos.write(readFully(is, 8));
+    assertArrayEquals(baos.toByteArray(), data);
+    assertEquals(fs.getOpened(), 1);
+    assertEquals(fsAccess.created, 1);
+    assertEquals(fsAccess.released, 1);
+    assertNull(reads.open(fs, "u", path, status, 0, 4096));
+  }
+
+}
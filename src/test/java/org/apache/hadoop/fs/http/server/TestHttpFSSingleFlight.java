@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.lib.service.FileSystemAccessException;
+import org.apache.hadoop.test.HInstrumentedTestCase;
+import org.apache.hadoop.test.TestDir;
+import org.junit.Test;
+
+public class TestHttpFSSingleFlight extends HInstrumentedTestCase {
+
+  private static class BlockingCall implements HttpFSSingleFlight.Call<Object> {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger calls = new AtomicInteger();
+    private final Object result = new Object();
+    private final IOException failure;
+
+    private BlockingCall(IOException failure) {
+      this.failure = failure;
+    }
+
+    @Override
+    public Object call() throws IOException, FileSystemAccessException {
+      calls.incrementAndGet();
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException ex) {
+        throw new IOException(ex);
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return result;
+    }
+  }
+
+  private static Thread start(final HttpFSSingleFlight singleFlight, final String key,
+                              final HttpFSSingleFlight.Call<Object> call, final Object[] results,
+                              final int index) {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          results[index] = singleFlight.execute(key, call);
+        } catch (Exception ex) {
+          results[index] = ex;
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  @Test
+  @TestDir
+  public void coalescing() throws Exception {
+    HttpFSSingleFlight singleFlight = new HttpFSSingleFlight(true, instrumentation);
+    BlockingCall call = new BlockingCall(null);
+    Object[] results = new Object[4];
+    Thread leader = start(singleFlight, "k", call, results, 0);
+    call.started.await();
+    Thread[] followers = new Thread[3];
+    for (int i = 0; i < followers.length; i++) {
+      followers[i] = start(singleFlight, "k", call, results, i + 1);
+    }
+    while (getCounter(HttpFSSingleFlight.INSTRUMENTATION_GROUP, "coalesced") < followers.length) {
+      Thread.sleep(10);
+    }
+    call.release.countDown();
+    leader.join();
+    for (Thread follower : followers) {
+      follower.join();
+    }
+    assertEquals(call.calls.get(), 1);
+    for (Object result : results) {
+      assertSame(result, call.result);
+    }
+    assertEquals(getCounter(HttpFSSingleFlight.INSTRUMENTATION_GROUP, "executed"), 1);
+
+    // the call is not in flight anymore, it is executed again
+    assertSame(singleFlight.execute("k", new HttpFSSingleFlight.Call<Object>() {
+      @Override
+      public Object call() {
+        return "again";
+      }
+    }), "again");
+    assertEquals(getCounter(HttpFSSingleFlight.INSTRUMENTATION_GROUP, "executed"), 2);
+  }
+
+  @Test
+  @TestDir
+  public void failure() throws Exception {
+    HttpFSSingleFlight singleFlight = new HttpFSSingleFlight(true, instrumentation);
+    BlockingCall call = new BlockingCall(new IOException("failed"));
+    Object[] results = new Object[2];
+    Thread leader = start(singleFlight, "k", call, results, 0);
+    call.started.await();
+    Thread follower = start(singleFlight, "k", call, results, 1);
+    while (getCounter(HttpFSSingleFlight.INSTRUMENTATION_GROUP, "coalesced") < 1) {
+      Thread.sleep(10);
+    }
+    call.release.countDown();
+    leader.join();
+    follower.join();
+    assertSame(results[0], call.failure);
+    assertSame(results[1], call.failure);
+  }
+
+  @Test
+  @TestDir
+  public void disabled() throws Exception {
+    HttpFSSingleFlight singleFlight = new HttpFSSingleFlight(false, instrumentation);
+    final AtomicInteger calls = new AtomicInteger();
+    for (int i = 0; i < 2; i++) {
+      singleFlight.execute("k", new HttpFSSingleFlight.Call<Object>() {
+        @Override
+        public Object call() {
+          return calls.incrementAndGet();
+        }
+      });
+    }
+    assertEquals(calls.get(), 2);
+    try {
+      singleFlight.execute("k", new HttpFSSingleFlight.Call<Object>() {
+        @Override
+        public Object call() throws IOException {
+          throw new IOException();
+        }
+      });
+      fail();
+    } catch (IOException ex) {
+      //NOP
+    }
+  }
+
+}
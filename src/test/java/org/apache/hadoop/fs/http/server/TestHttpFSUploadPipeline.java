@@ -0,0 +1,327 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.http.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.test.HInstrumentedTestCase;
+import org.apache.hadoop.test.TestDir;
+import org.apache.hadoop.test.TestDirHelper;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHttpFSUploadPipeline extends HInstrumentedTestCase {
+
+  /**
+   * Upload, optionally slow, failing or watching for writes in progress.
+   */
+  private static class TestInputStream extends ByteArrayInputStream {
+    private final long delay;
+    private final int failAt;
+    private TestOutputStream out;
+    private volatile boolean overlapped;
+    private volatile boolean closed;
+
+    private TestInputStream(byte[] data, long delay, int failAt) {
+      super(data);
+      this.delay = delay;
+      this.failAt = failAt;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      if (failAt > -1 && pos >= failAt) {
+        throw new RuntimeException(new IOException("read failed"));
+      }
+      pause(delay);
+      if (out != null && out.writing) {
+        overlapped = true;
+      }
+      return super.read(b, off, Math.min(len, 10));
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+  }
+
+  /**
+   * Filesystem stream, optionally slow or failing.
+   */
+  private static class TestOutputStream extends ByteArrayOutputStream {
+    private final long delay;
+    private final int failAt;
+    private volatile boolean writing;
+    private volatile String thread;
+    private volatile boolean closed;
+
+    private TestOutputStream(long delay, int failAt) {
+      this.delay = delay;
+      this.failAt = failAt;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      writing = true;
+      thread = Thread.currentThread().getName();
+      pause(delay);
+      writing = false;
+      if (failAt > -1 && size() + len > failAt) {
+        throw new RuntimeException(new IOException("write failed"));
+      }
+      super.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+  }
+
+  /**
+   * Streams throwing IOExceptions, ByteArray streams do not declare them.
+   */
+  private static class IOInputStream extends InputStream {
+    private final InputStream in;
+
+    private IOInputStream(InputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      try {
+        return in.read(b, off, len);
+      } catch (RuntimeException ex) {
+        throw (IOException) ex.getCause();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  private static class IOOutputStream extends OutputStream {
+    private final OutputStream out;
+
+    private IOOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      try {
+        out.write(b, off, len);
+      } catch (RuntimeException ex) {
+        throw (IOException) ex.getCause();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  private static void pause(long delay) {
+    if (delay > 0) {
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+  }
+
+  private byte[] data;
+
+  @Before
+  public void setUp() throws Exception {
+    data = new byte[1000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+  }
+
+  @Test
+  @TestDir
+  public void disabled() throws Exception {
+    HttpFSUploadPipeline pipeline = new HttpFSUploadPipeline(0, 4, 2, instrumentation);
+    assertFalse(pipeline.isEnabled());
+    assertFalse(new HttpFSUploadPipeline(100, 4, 0, instrumentation).isEnabled());
+    TestInputStream in = new TestInputStream(data, 0, -1);
+    TestOutputStream out = new TestOutputStream(0, -1);
+    pipeline.copy(in, out, 64);
+    assertArrayEquals(out.toByteArray(), data);
+    assertEquals(out.thread, Thread.currentThread().getName());
+    assertTrue(in.closed);
+    assertTrue(out.closed);
+    assertEquals(getCounter(HttpFSUploadPipeline.INSTRUMENTATION_GROUP, "uploads"), 0);
+  }
+
+  @Test
+  @TestDir
+  public void copy() throws Exception {
+    HttpFSUploadPipeline pipeline = new HttpFSUploadPipeline(64, 4, 2, instrumentation);
+    assertTrue(pipeline.isEnabled());
+    for (int size : new int[]{0, 1, 64, 100, 1000}) {
+      TestInputStream in = new TestInputStream(Arrays.copyOf(data, size), 0, -1);
+      TestOutputStream out = new TestOutputStream(0, -1);
+      pipeline.copy(in, out, 64);
+      assertArrayEquals(out.toByteArray(), Arrays.copyOf(data, size));
+      assertTrue(in.closed);
+      assertTrue(out.closed);
+    }
+    assertEquals(getCounter(HttpFSUploadPipeline.INSTRUMENTATION_GROUP, "uploads"), 5);
+    assertEquals(getCounter(HttpFSUploadPipeline.INSTRUMENTATION_GROUP, "bytes"), 1165);
+    assertEquals(getCounter(HttpFSUploadPipeline.INSTRUMENTATION_GROUP, "failures"), 0);
+    assertEquals(pipeline.getQueuedBytes(), 0);
+    // the buffers are pooled
+    assertTrue(pipeline.getPooledBytes() > 0);
+    assertTrue(pipeline.getPooledBytes() <= 4 * 2 * 64);
+    pipeline.destroy();
+  }
+
+  @Test
+  @TestDir
+  public void overlap() throws Exception {
+    HttpFSUploadPipeline pipeline = new HttpFSUploadPipeline(64, 4, 2, instrumentation);
+    TestInputStream in = new TestInputStream(data, 2, -1);
+    TestOutputStream out = new TestOutputStream(20, -1);
+    in.out = out;
+    pipeline.copy(in, out, 64);
+    assertArrayEquals(out.toByteArray(), data);
+    // the upload was read while the filesystem stream was written
+    assertTrue(in.overlapped);
+    assertFalse(out.thread.equals(Thread.currentThread().getName()));
+    pipeline.destroy();
+  }
+
+  @Test
+  @TestDir
+  public void backpressure() throws Exception {
+    final HttpFSUploadPipeline pipeline = new HttpFSUploadPipeline(64, 2, 2, instrumentation);
+    final long[] maxQueued = new long[1];
+    TestOutputStream out = new TestOutputStream(10, -1) {
+      @Override
+      public void write(byte[] b, int off, int len) {
+        maxQueued[0] = Math.max(maxQueued[0], pipeline.getQueuedBytes());
+        super.write(b, off, len);
+      }
+    };
+    pipeline.copy(new TestInputStream(data, 0, -1), out, 64);
+    assertArrayEquals(out.toByteArray(), data);
+    // the client waited for the slow filesystem, the queue stayed bounded
+    assertTrue(getCounter(HttpFSUploadPipeline.INSTRUMENTATION_GROUP, "stalls") > 0);
+    assertTrue(maxQueued[0] > 0);
+    assertTrue(maxQueued[0] <= 2 * 64);
+    assertEquals(pipeline.getQueuedBytes(), 0);
+    pipeline.destroy();
+  }
+
+  @Test
+  @TestDir
+  public void writeError() throws Exception {
+    HttpFSUploadPipeline pipeline = new HttpFSUploadPipeline(64, 2, 2, instrumentation);
+    TestInputStream in = new TestInputStream(data, 0, -1);
+    TestOutputStream out = new TestOutputStream(0, 300);
+    try {
+      pipeline.copy(new IOInputStream(in), new IOOutputStream(out), 64);
+      fail();
+    } catch (IOException ex) {
+      assertEquals(ex.getMessage(), "write failed");
+    }
+    assertTrue(in.closed);
+    assertTrue(out.closed);
+    assertEquals(getCounter(HttpFSUploadPipeline.INSTRUMENTATION_GROUP, "failures"), 1);
+    assertEquals(pipeline.getQueuedBytes(), 0);
+    pipeline.destroy();
+  }
+
+  @Test
+  @TestDir
+  public void readError() throws Exception {
+    HttpFSUploadPipeline pipeline = new HttpFSUploadPipeline(64, 2, 2, instrumentation);
+    TestInputStream in = new TestInputStream(data, 0, 300);
+    TestOutputStream out = new TestOutputStream(0, -1);
+    try {
+      pipeline.copy(new IOInputStream(in), new IOOutputStream(out), 64);
+      fail();
+    } catch (IOException ex) {
+      assertEquals(ex.getMessage(), "read failed");
+    }
+    assertTrue(in.closed);
+    assertTrue(out.closed);
+    assertFalse(out.writing);
+    assertTrue(out.size() <= 300);
+    assertEquals(getCounter(HttpFSUploadPipeline.INSTRUMENTATION_GROUP, "failures"), 1);
+    assertEquals(pipeline.getQueuedBytes(), 0);
+    pipeline.destroy();
+  }
+
+  @Test
+  @TestDir
+  public void create() throws Exception {
+    HttpFSUploadPipeline pipeline = new HttpFSUploadPipeline(64, 4, 2, instrumentation);
+    FileSystem fs = new RawLocalFileSystem();
+    fs.initialize(FileSystem.getDefaultUri(new Configuration(false)), new Configuration(false));
+    File file = new File(TestDirHelper.getTestDir(), "file");
+    new FSOperations.FSCreate(new ByteArrayInputStream(data), file.getAbsolutePath(), (short) 0644, false,
+                              (short) -1, -1, pipeline).execute(fs);
+    new FSOperations.FSAppend(new ByteArrayInputStream(data), file.getAbsolutePath(), pipeline).execute(fs);
+    byte[] expected = new byte[2 * data.length];
+    System.arraycopy(data, 0, expected, 0, data.length);
+    System.arraycopy(data, 0, expected, data.length, data.length);
+    assertArrayEquals(FileUtils.readFileToByteArray(file), expected);
+    assertEquals(getCounter(HttpFSUploadPipeline.INSTRUMENTATION_GROUP, "uploads"), 2);
+    pipeline.destroy();
+  }
+
+}
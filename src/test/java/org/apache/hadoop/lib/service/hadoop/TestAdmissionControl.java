@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.service.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.lib.service.FileSystemAccessRejectedException;
+import org.apache.hadoop.test.HTestCase;
+import org.junit.Test;
+
+public class TestAdmissionControl extends HTestCase {
+
+  private static AdmissionControl create(int userMax, int heavyMax, int queueSize, long timeout) {
+    Map<String, Integer> classes = new HashMap<String, Integer>();
+    classes.put("heavy", heavyMax);
+    return new AdmissionControl(userMax, classes, Collections.singletonMap("FSContentSummary", "heavy"),
+                                queueSize, timeout, 7);
+  }
+
+  @Test
+  public void disabled() throws Exception {
+    AdmissionControl admission = create(0, 0, 0, 0);
+    assertTrue(admission.acquire("u", "FSContentSummary") == AdmissionControl.NO_PERMIT);
+    AdmissionControl.NO_PERMIT.release();
+  }
+
+  @Test
+  public void operationClasses() throws Exception {
+    AdmissionControl admission = create(0, 1, 0, 0);
+    assertEquals(admission.getOperationClass("FSContentSummary"), admission.getOperationClass("FSContentSummary"));
+    assertFalse(admission.getOperationClass("FSContentSummary") == admission.getOperationClass("FSListStatus"));
+    assertTrue(admission.getOperationClass("FSListStatus") == admission.getOperationClass("unmanaged"));
+  }
+
+  @Test
+  public void userLimit() throws Exception {
+    AdmissionControl admission = create(2, 0, 0, 0);
+    AdmissionControl.Permit p1 = admission.acquire("u", "FSListStatus");
+    AdmissionControl.Permit p2 = admission.acquire("u", "FSContentSummary");
+    try {
+      admission.acquire("u", "FSListStatus");
+      fail();
+    } catch (FileSystemAccessRejectedException ex) {
+      assertTrue(ex.isUserLimit());
+      assertEquals(ex.getRetryAfterSeconds(), 7);
+    }
+    // other users are not affected
+    admission.acquire("v", "FSListStatus").release();
+
+    p1.release();
+    // releasing twice does not leak permits
+    p1.release();
+    AdmissionControl.Permit p3 = admission.acquire("u", "FSListStatus");
+    try {
+      admission.acquire("u", "FSListStatus");
+      fail();
+    } catch (FileSystemAccessRejectedException ex) {
+      //NOP
+    }
+    p2.release();
+    p3.release();
+  }
+
+  @Test
+  public void idleUsers() throws Exception {
+    AdmissionControl admission = create(2, 0, 0, 0);
+    for (int i = 0; i < 100; i++) {
+      admission.acquire("u" + i, "FSListStatus").release();
+    }
+    // idle users are forgotten
+    assertEquals(admission.getUsers(), 0);
+    AdmissionControl.Permit p1 = admission.acquire("u", "FSListStatus");
+    AdmissionControl.Permit p2 = admission.acquire("u", "FSListStatus");
+    assertEquals(admission.getUsers(), 1);
+    p1.release();
+    assertEquals(admission.getUsers(), 1);
+    // the limit still holds for a user with an operation in progress
+    admission.acquire("u", "FSListStatus").release();
+    assertEquals(admission.getUsers(), 1);
+    p2.release();
+    assertEquals(admission.getUsers(), 0);
+  }
+
+  @Test
+  public void idleUsersConcurrency() throws Exception {
+    final AdmissionControl admission = create(1, 0, 0, 0);
+    final AtomicBoolean overLimit = new AtomicBoolean();
+    final AtomicInteger running = new AtomicInteger();
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            try {
+              AdmissionControl.Permit permit = admission.acquire("u", "FSListStatus");
+              if (running.incrementAndGet() > 1) {
+                overLimit.set(true);
+              }
+              running.decrementAndGet();
+              permit.release();
+            } catch (Exception ex) {
+              //NOP, over the user limit
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertFalse(overLimit.get());
+    assertEquals(admission.getUsers(), 0);
+  }
+
+  @Test
+  public void queueFull() throws Exception {
+    AdmissionControl admission = create(0, 1, 0, 1000);
+    AdmissionControl.Permit permit = admission.acquire("u", "FSContentSummary");
+    assertEquals(admission.getOperationClass("FSContentSummary").getRunning(), 1);
+    // the default class has no limit
+    admission.acquire("u", "FSListStatus").release();
+    try {
+      admission.acquire("v", "FSContentSummary");
+      fail();
+    } catch (FileSystemAccessRejectedException ex) {
+      assertFalse(ex.isUserLimit());
+    }
+    permit.release();
+    assertEquals(admission.getOperationClass("FSContentSummary").getRunning(), 0);
+    admission.acquire("v", "FSContentSummary").release();
+  }
+
+  @Test
+  public void queueTimeout() throws Exception {
+    AdmissionControl admission = create(1, 1, 10, 50);
+    AdmissionControl.Permit permit = admission.acquire("u", "FSContentSummary");
+    long start = System.currentTimeMillis();
+    try {
+      admission.acquire("v", "FSContentSummary");
+      fail();
+    } catch (FileSystemAccessRejectedException ex) {
+      assertFalse(ex.isUserLimit());
+    }
+    assertTrue(System.currentTimeMillis() - start >= 50);
+    assertEquals(admission.getOperationClass("FSContentSummary").getWaiting(), 0);
+    // the user permit of the rejected operation was returned
+    admission.acquire("v", "FSListStatus").release();
+    permit.release();
+  }
+
+  @Test
+  public void queueWait() throws Exception {
+    final AdmissionControl admission = create(0, 1, 10, 10000);
+    AdmissionControl.Permit permit = admission.acquire("u", "FSContentSummary");
+    final CountDownLatch acquired = new CountDownLatch(1);
+    final AtomicBoolean failed = new AtomicBoolean();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          admission.acquire("v", "FSContentSummary").release();
+        } catch (Exception ex) {
+          failed.set(true);
+        }
+        acquired.countDown();
+      }
+    };
+    thread.start();
+    waitFor(5000, new Predicate() {
+      @Override
+      public boolean evaluate() throws Exception {
+        return admission.getOperationClass("FSContentSummary").getWaiting() == 1;
+      }
+    });
+    assertEquals(acquired.getCount(), 1);
+    permit.release();
+    thread.join();
+    assertFalse(failed.get());
+    assertEquals(admission.getOperationClass("FSContentSummary").getWaiting(), 0);
+  }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.service.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.test.HTestCase;
+import org.junit.Test;
+
+public class TestThreadedExecution extends HTestCase {
+
+  private static boolean virtualThreadsSupported() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (NoSuchMethodException ex) {
+      return false;
+    }
+  }
+
+  @Test
+  public void execute() throws Exception {
+    ThreadedExecution execution = new ThreadedExecution(10);
+    try {
+      assertEquals(execution.isVirtual(), virtualThreadsSupported());
+      final Thread caller = Thread.currentThread();
+      UserGroupInformation ugi = UserGroupInformation.createRemoteUser("foo");
+      String result = execution.execute(ugi, new PrivilegedExceptionAction<String>() {
+        @Override
+        public String run() throws Exception {
+          assertFalse(Thread.currentThread() == caller);
+          return UserGroupInformation.getCurrentUser().getShortUserName();
+        }
+      });
+      assertEquals(result, "foo");
+    } finally {
+      execution.destroy();
+    }
+  }
+
+  @Test
+  public void exception() throws Exception {
+    ThreadedExecution execution = new ThreadedExecution(10);
+    try {
+      execution.execute(UserGroupInformation.createRemoteUser("foo"), new PrivilegedExceptionAction<Object>() {
+        @Override
+        public Object run() throws Exception {
+          throw new IOException("failed");
+        }
+      });
+      fail();
+    } catch (IOException ex) {
+      assertEquals(ex.getMessage(), "failed");
+    } finally {
+      execution.destroy();
+    }
+  }
+
+  @Test
+  public void concurrencyLimit() throws Exception {
+    final ThreadedExecution execution = new ThreadedExecution(2);
+    final UserGroupInformation ugi = UserGroupInformation.createRemoteUser("foo");
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(6);
+    try {
+      for (int i = 0; i < 6; i++) {
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              execution.execute(ugi, new PrivilegedExceptionAction<Object>() {
+                @Override
+                public Object run() throws Exception {
+                  int count = running.incrementAndGet();
+                  synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), count));
+                  }
+                  Thread.sleep(50);
+                  running.decrementAndGet();
+                  return null;
+                }
+              });
+            } catch (Exception ex) {
+              //NOP
+            } finally {
+              done.countDown();
+            }
+          }
+        }.start();
+      }
+      done.await();
+      assertTrue(maxRunning.get() <= 2);
+      assertEquals(execution.getRunning(), 0);
+    } finally {
+      execution.destroy();
+    }
+  }
+
+}
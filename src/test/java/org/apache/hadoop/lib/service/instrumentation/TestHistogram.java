@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.service.instrumentation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestHistogram {
+
+  @Test
+  public void buckets() throws Exception {
+    int previous = -1;
+    for (long value = 0; value < 100000; value++) {
+      int bucket = Histogram.getBucket(value);
+      assertTrue(bucket == previous || bucket == previous + 1);
+      assertTrue(Histogram.getBucketUpperBound(bucket) >= value);
+      assertTrue(Histogram.getBucketUpperBound(bucket) - value <= value / Histogram.SUB_BUCKETS);
+      previous = bucket;
+    }
+    assertEquals(Histogram.getBucket(Histogram.MAX_VALUE), Histogram.BUCKETS - 1);
+    assertEquals(Histogram.getBucketUpperBound(Histogram.BUCKETS - 1), Histogram.MAX_VALUE);
+  }
+
+  @Test
+  public void percentiles() throws Exception {
+    Histogram histogram = new Histogram(1000, 10);
+    for (long value = 1; value <= 1000; value++) {
+      histogram.record(value, 0);
+    }
+    histogram.record(-5, 0);
+    histogram.record(Long.MAX_VALUE, 0);
+    Histogram.Snapshot snapshot = histogram.getSnapshot(1000, 0);
+    assertEquals(snapshot.count, 1002);
+    assertEquals(snapshot.max, Histogram.MAX_VALUE);
+    assertEquals(snapshot.getPercentile(50), 500, 500 / Histogram.SUB_BUCKETS);
+    assertEquals(snapshot.getPercentile(90), 900, 900 / Histogram.SUB_BUCKETS);
+    assertEquals(snapshot.getPercentile(99), 990, 990 / Histogram.SUB_BUCKETS);
+    assertEquals(snapshot.getPercentile(99.9), 999, 999 / Histogram.SUB_BUCKETS);
+    assertEquals(snapshot.getPercentile(100), Histogram.MAX_VALUE);
+    assertEquals(snapshot.getPercentile(0), 0);
+    assertEquals(new Histogram.Snapshot().getPercentile(50), 0);
+  }
+
+  @Test
+  public void window() throws Exception {
+    Histogram histogram = new Histogram(1000, 5);
+    histogram.record(10, 0);
+    histogram.record(20, 1500);
+    histogram.record(30, 4999);
+    assertEquals(histogram.getSnapshot(5000, 4999).count, 3);
+    assertEquals(histogram.getSnapshot(1000, 4999).count, 1);
+    assertEquals(histogram.getSnapshot(4000, 4999).count, 2);
+    assertEquals(histogram.getSnapshot(60000, 4999).count, 3);
+
+    // first slice expired and reused
+    histogram.record(40, 5000);
+    Histogram.Snapshot snapshot = histogram.getSnapshot(5000, 5000);
+    assertEquals(snapshot.count, 3);
+    assertEquals(snapshot.sum, 90);
+    assertEquals(snapshot.max, 40);
+    assertEquals(snapshot.getMean(), 30);
+
+    // stale time of a slice already reused is dropped
+    histogram.record(50, 10);
+    assertEquals(histogram.getSnapshot(5000, 5000).count, 3);
+
+    assertEquals(histogram.getSnapshot(5000, 20000).count, 0);
+  }
+
+}
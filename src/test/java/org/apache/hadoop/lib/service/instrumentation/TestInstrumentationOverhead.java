@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.service.instrumentation;
+
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.lib.server.Server;
+import org.apache.hadoop.lib.service.Instrumentation;
+import org.apache.hadoop.test.HTestCase;
+import org.apache.hadoop.test.TestDir;
+import org.apache.hadoop.test.TestDirHelper;
+import org.apache.hadoop.util.StringUtils;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Microbenchmark of the instrumentation done by
+ * <code>FileSystemAccessService.execute()</code> for every executor:
+ * <code>createCron()</code>, <code>start()</code>, <code>stop()</code> and
+ * <code>addCron()</code>.
+ * <p/>
+ * The average time per request, single threaded and with as many threads
+ * as processors recording into the same timer, is logged and not asserted,
+ * wall-clock bounds fail on loaded machines. On a modern CPU a request takes
+ * a few hundred nanoseconds, most of it reading the clock.
+ */
+public class TestInstrumentationOverhead extends HTestCase {
+  private static final Logger LOG = LoggerFactory.getLogger(TestInstrumentationOverhead.class);
+  private static final int WARMUP = 200000;
+  private static final int ITERATIONS = 1000000;
+
+  private static void run(Instrumentation instrumentation, int iterations) {
+    for (int i = 0; i < iterations; i++) {
+      Instrumentation.Cron cron = instrumentation.createCron();
+      cron.start();
+      cron.stop();
+      instrumentation.addCron("benchmark", "op", cron);
+    }
+  }
+
+  private static long measure(final Instrumentation instrumentation, int threads) throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch end = new CountDownLatch(threads);
+    final AtomicLong elapsed = new AtomicLong();
+    for (int i = 0; i < threads; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            long begin = System.nanoTime();
+            TestInstrumentationOverhead.run(instrumentation, ITERATIONS);
+            elapsed.addAndGet(System.nanoTime() - begin);
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          } finally {
+            end.countDown();
+          }
+        }
+      }.start();
+    }
+    start.countDown();
+    end.await();
+    // average wall time per request of a single thread
+    return elapsed.get() / threads / ITERATIONS;
+  }
+
+  @Test
+  @TestDir
+  public void overhead() throws Exception {
+    String dir = TestDirHelper.getTestDir().getAbsolutePath();
+    String services = StringUtils.join(",", Arrays.asList(InstrumentationService.class.getName()));
+    Configuration conf = new Configuration(false);
+    conf.set("server.services", services);
+    Server server = new Server("server", dir, dir, dir, dir, conf);
+    server.init();
+    try {
+      Instrumentation instrumentation = server.get(Instrumentation.class);
+      run(instrumentation, WARMUP);
+
+      long single = measure(instrumentation, 1);
+      int processors = Runtime.getRuntime().availableProcessors();
+      long concurrent = measure(instrumentation, processors);
+      LOG.info("Instrumentation overhead per request: {}ns, {}ns with {} threads",
+               new Object[]{single, concurrent, processors});
+      assertNotNull(instrumentation.getSnapshot().get("timers").get("benchmark"));
+    } finally {
+      server.destroy();
+    }
+  }
+
+}
@@ -19,13 +19,18 @@
 package org.apache.hadoop.lib.service.instrumentation;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.StringWriter;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
@@ -50,37 +55,38 @@ public class TestInstrumentationService extends HTestCase {
 
   @Test
   public void cron() {
+    long tolerance = TimeUnit.MILLISECONDS.toNanos(20);
     InstrumentationService.Cron cron = new InstrumentationService.Cron();
     assertEquals(cron.start, 0);
     assertEquals(cron.lapStart, 0);
     assertEquals(cron.own, 0);
     assertEquals(cron.total, 0);
-    long begin = Time.now();
+    long begin = Time.monotonicNowNanos();
     assertEquals(cron.start(), cron);
     assertEquals(cron.start(), cron);
-    assertEquals(cron.start, begin, 20);
+    assertEquals(cron.start, begin, tolerance);
     assertEquals(cron.start, cron.lapStart);
     sleep(100);
     assertEquals(cron.stop(), cron);
-    long end = Time.now();
+    long end = Time.monotonicNowNanos();
     long delta = end - begin;
-    assertEquals(cron.own, delta, 20);
+    assertEquals(cron.own, delta, tolerance);
     assertEquals(cron.total, 0);
     assertEquals(cron.lapStart, 0);
     sleep(100);
-    long reStart = Time.now();
+    long reStart = Time.monotonicNowNanos();
     cron.start();
-    assertEquals(cron.start, begin, 20);
-    assertEquals(cron.lapStart, reStart, 20);
+    assertEquals(cron.start, begin, tolerance);
+    assertEquals(cron.lapStart, reStart, tolerance);
     sleep(100);
     cron.stop();
-    long reEnd = Time.now();
+    long reEnd = Time.monotonicNowNanos();
     delta += reEnd - reStart;
-    assertEquals(cron.own, delta, 20);
+    assertEquals(cron.own, delta, tolerance);
     assertEquals(cron.total, 0);
     assertEquals(cron.lapStart, 0);
     cron.end();
-    assertEquals(cron.total, reEnd - begin, 20);
+    assertEquals(cron.total, reEnd - begin, tolerance);
 
     try {
       cron.start();
@@ -101,7 +107,7 @@ public class TestInstrumentationService extends HTestCase {
 
   @Test
   public void timer() throws Exception {
-    InstrumentationService.Timer timer = new InstrumentationService.Timer(2);
+    InstrumentationService.Timer timer = new InstrumentationService.Timer(2, TimeUnit.MILLISECONDS);
     InstrumentationService.Cron cron = new InstrumentationService.Cron();
 
     long ownStart;
@@ -215,7 +221,7 @@ public class TestInstrumentationService extends HTestCase {
     assertEquals(values[InstrumentationService.Timer.AVG_OWN], avgOwn, 20);
 
     JSONObject json = (JSONObject) new JSONParser().parse(timer.toJSONString());
-    assertEquals(json.size(), 4);
+    assertEquals(json.size(), 5 + InstrumentationService.Timer.WINDOW_NAMES.length);
     assertEquals(json.get("lastTotal"), values[InstrumentationService.Timer.LAST_TOTAL]);
     assertEquals(json.get("lastOwn"), values[InstrumentationService.Timer.LAST_OWN]);
     assertEquals(json.get("avgTotal"), values[InstrumentationService.Timer.AVG_TOTAL]);
@@ -225,11 +231,164 @@ public class TestInstrumentationService extends HTestCase {
     timer.writeJSONString(writer);
     writer.close();
     json = (JSONObject) new JSONParser().parse(writer.toString());
-    assertEquals(json.size(), 4);
+    assertEquals(json.size(), 5 + InstrumentationService.Timer.WINDOW_NAMES.length);
     assertEquals(json.get("lastTotal"), values[InstrumentationService.Timer.LAST_TOTAL]);
     assertEquals(json.get("lastOwn"), values[InstrumentationService.Timer.LAST_OWN]);
     assertEquals(json.get("avgTotal"), values[InstrumentationService.Timer.AVG_TOTAL]);
     assertEquals(json.get("avgOwn"), values[InstrumentationService.Timer.AVG_OWN]);
+    assertEquals(json.get("unit"), "ms");
+    JSONObject window = (JSONObject) json.get("1m");
+    assertEquals(window.get("count"), 3l);
+    assertEquals((Long) window.get("max"), totalDelta, totalDelta / 16 + 20);
+    assertEquals((Long) window.get("p999"), totalDelta, totalDelta / 16 + 20);
+    assertEquals(((JSONObject) json.get("5m")).get("count"), 3l);
+  }
+
+  @Test
+  @TestDir
+  @SuppressWarnings("unchecked")
+  public void counters() throws Exception {
+    String dir = TestDirHelper.getTestDir().getAbsolutePath();
+    String services = StringUtils.join(",", Arrays.asList(InstrumentationService.class.getName()));
+    Configuration conf = new Configuration(false);
+    conf.set("server.services", services);
+    Server server = new Server("server", dir, dir, dir, dir, conf);
+    server.init();
+
+    final Instrumentation instrumentation = server.get(Instrumentation.class);
+    Instrumentation.Counter counter = instrumentation.counter("g", "c");
+    assertTrue(counter == instrumentation.counter("g", "c"));
+    counter.incr(2);
+    instrumentation.incr("g", "c", 3);
+
+    // concurrent registration and increments of the same names
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            instrumentation.incr("g" + (j % 10), "c" + (j % 100), 1);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    JSONObject counters = (JSONObject) new JSONParser().parse(
+      JSONObject.toJSONString((Map<String, ?>) instrumentation.getSnapshot().get("counters")));
+    assertEquals(((JSONObject) counters.get("g")).get("c"), 5L);
+    long total = 0;
+    for (int i = 0; i < 10; i++) {
+      JSONObject group = (JSONObject) counters.get("g" + i);
+      assertEquals(group.size(), 10);
+      for (Object value : group.values()) {
+        total += (Long) value;
+      }
+    }
+    assertEquals(total, 80000);
+    server.destroy();
+  }
+
+  @Test
+  @TestDir
+  public void snapshot() throws Exception {
+    String dir = TestDirHelper.getTestDir().getAbsolutePath();
+    String services = StringUtils.join(",", Arrays.asList(InstrumentationService.class.getName()));
+    Configuration conf = new Configuration(false);
+    conf.set("server.services", services);
+    conf.set("server.instrumentation.snapshot.cache.ms", "60000");
+    Server server = new Server("server", dir, dir, dir, dir, conf);
+    server.init();
+
+    final AtomicInteger evaluations = new AtomicInteger();
+    Instrumentation instrumentation = server.get(Instrumentation.class);
+    instrumentation.incr("g", "c", 1);
+    instrumentation.incr("h", "c", 2);
+    instrumentation.addVariable("g", "v", new Instrumentation.Variable<String>() {
+      @Override
+      public String getValue() {
+        evaluations.incrementAndGet();
+        return "foo\"";
+      }
+    });
+
+    JSONObject json = (JSONObject) new JSONParser().parse(new String(instrumentation.getSnapshot(null, null), "UTF-8"));
+    assertEquals(json.keySet(), new HashSet<String>(Arrays.asList("os-env", "sys-props", "jvm", "counters", "timers",
+                                                                  "variables", "samplers")));
+    assertEquals(((JSONObject) ((JSONObject) json.get("counters")).get("h")).get("c"), 2L);
+    assertEquals(((JSONObject) ((JSONObject) ((JSONObject) json.get("variables")).get("g")).get("v")).get("value"),
+                 "foo\"");
+    assertEquals(evaluations.get(), 1);
+
+    Set<String> sections = new HashSet<String>(Arrays.asList("counters", "variables", "sys-props"));
+    Set<String> groups = new HashSet<String>(Arrays.asList("h"));
+    json = (JSONObject) new JSONParser().parse(new String(instrumentation.getSnapshot(sections, groups), "UTF-8"));
+    // ungrouped sections are left out when selecting groups
+    assertEquals(json.keySet(), new HashSet<String>(Arrays.asList("counters", "variables")));
+    assertEquals(((JSONObject) json.get("counters")).keySet(), Collections.singleton("h"));
+    assertTrue(((JSONObject) json.get("variables")).isEmpty());
+    assertEquals(evaluations.get(), 1);
+
+    json = (JSONObject) new JSONParser().parse(new String(instrumentation.getSnapshot(sections, null), "UTF-8"));
+    assertEquals(json.keySet(), sections);
+
+    // cached, same selectors in any order
+    instrumentation.incr("h", "c", 1);
+    byte[] cached = instrumentation.getSnapshot(new HashSet<String>(Arrays.asList("variables", "sys-props", "counters")),
+                                                new HashSet<String>(Arrays.asList("h")));
+    assertTrue(cached == instrumentation.getSnapshot(sections, groups));
+    json = (JSONObject) new JSONParser().parse(new String(cached, "UTF-8"));
+    assertEquals(((JSONObject) ((JSONObject) json.get("counters")).get("h")).get("c"), 2L);
+
+    // not cached
+    InstrumentationService service = (InstrumentationService) instrumentation;
+    json = (JSONObject) new JSONParser().parse(new String(service.renderSnapshot(sections, groups), "UTF-8"));
+    assertEquals(((JSONObject) ((JSONObject) json.get("counters")).get("h")).get("c"), 3L);
+
+    // concurrent pollers share one render
+    evaluations.set(0);
+    final Instrumentation inst = instrumentation;
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          inst.getSnapshot(Collections.singleton("variables"), null);
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(evaluations.get(), 1);
+    server.destroy();
+  }
+
+  @Test
+  public void timerConcurrency() throws Exception {
+    final InstrumentationService.Timer timer = new InstrumentationService.Timer(10, TimeUnit.MICROSECONDS);
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            timer.addCron(new InstrumentationService.Cron().start());
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    JSONObject json = (JSONObject) new JSONParser().parse(timer.toJSONString());
+    assertEquals(((JSONObject) json.get("5m")).get("count"), 80000l);
   }
 
   @Test
@@ -362,6 +521,10 @@ public class TestInstrumentationService extends HTestCase {
     assertNotNull(((Map<String, Map<String, Object>>) snapshot.get("counters")).get("g").get("c"));
     assertNotNull(((Map<String, Map<String, Object>>) snapshot.get("counters")).get("g").get("c1"));
     assertNotNull(((Map<String, Map<String, Object>>) snapshot.get("timers")).get("g").get("t"));
+    JSONObject timer = (JSONObject) new JSONParser().parse(
+      JSONObject.toJSONString(((Map<String, Map<String, Object>>) snapshot.get("timers")).get("g")));
+    assertEquals(((JSONObject) timer.get("t")).get("unit"), "ms");
+    assertEquals((Long) ((JSONObject) timer.get("t")).get("lastTotal"), 200, 20);
     assertNotNull(((Map<String, Map<String, Object>>) snapshot.get("variables")).get("g").get("v"));
     assertNotNull(((Map<String, Map<String, Object>>) snapshot.get("samplers")).get("g").get("s"));
 
@@ -371,6 +534,75 @@ public class TestInstrumentationService extends HTestCase {
     server.destroy();
   }
 
+  @Test
+  @TestDir
+  public void metrics() throws Exception {
+    String dir = TestDirHelper.getTestDir().getAbsolutePath();
+    String services = StringUtils.join(",", Arrays.asList(InstrumentationService.class.getName()));
+    Configuration conf = new Configuration(false);
+    conf.set("server.services", services);
+    conf.set("server.instrumentation.metrics.cache.ms", "0");
+    Server server = new Server("server", dir, dir, dir, dir, conf);
+    server.init();
+    Instrumentation instrumentation = server.get(Instrumentation.class);
+
+    instrumentation.incr("g", "c\"1", 3);
+    for (int i = 0; i < 3; i++) {
+      InstrumentationService.Cron cron = (InstrumentationService.Cron) instrumentation.createCron();
+      cron.start();
+      cron.stop();
+      instrumentation.addCron("g", "t", cron);
+    }
+    instrumentation.addVariable("g", "v", new Instrumentation.Variable<Integer>() {
+      @Override
+      public Integer getValue() {
+        return 7;
+      }
+    });
+    instrumentation.addVariable("g", "s", new Instrumentation.Variable<String>() {
+      @Override
+      public String getValue() {
+        return "foo";
+      }
+    });
+    instrumentation.addSampler("g", "s", 10, new Instrumentation.Variable<Long>() {
+      @Override
+      public Long getValue() {
+        return 1L;
+      }
+    });
+
+    assertEquals(instrumentation.getMetricsContentType(), "text/plain; version=0.0.4; charset=utf-8");
+    String metrics = new String(instrumentation.getMetrics(), "UTF-8");
+    assertTrue(metrics.contains("# TYPE httpfs_counter_total counter\n"));
+    assertTrue(metrics.contains("httpfs_counter_total{group=\"g\",name=\"c\\\"1\"} 3\n"));
+    assertTrue(metrics.contains("# TYPE httpfs_timer_seconds histogram\n"));
+    assertTrue(metrics.contains("httpfs_timer_seconds_bucket{group=\"g\",name=\"t\",le=\"60.0\"} 3\n"));
+    assertTrue(metrics.contains("httpfs_timer_seconds_bucket{group=\"g\",name=\"t\",le=\"+Inf\"} 3\n"));
+    assertTrue(metrics.contains("httpfs_timer_seconds_count{group=\"g\",name=\"t\"} 3\n"));
+    assertTrue(metrics.contains("httpfs_variable{group=\"g\",name=\"v\"} 7\n"));
+    assertFalse(metrics.contains("name=\"s\"} foo"));
+    assertTrue(metrics.contains("httpfs_variable{group=\"jvm\",name=\"max.memory\"}"));
+    assertTrue(metrics.contains("httpfs_sampler{group=\"g\",name=\"s\"}"));
+    assertFalse(metrics.contains("java.version"));
+
+    // no caching
+    instrumentation.incr("g", "c\"1", 1);
+    metrics = new String(instrumentation.getMetrics(), "UTF-8");
+    assertTrue(metrics.contains("httpfs_counter_total{group=\"g\",name=\"c\\\"1\"} 4\n"));
+    server.destroy();
+
+    conf.set("server.instrumentation.metrics.cache.ms", "60000");
+    server = new Server("server", dir, dir, dir, dir, conf);
+    server.init();
+    instrumentation = server.get(Instrumentation.class);
+    instrumentation.incr("g", "c", 1);
+    byte[] cached = instrumentation.getMetrics();
+    instrumentation.incr("g", "c", 1);
+    assertTrue(cached == instrumentation.getMetrics());
+    server.destroy();
+  }
+
   @Test
   @TestDir
   @SuppressWarnings("unchecked")
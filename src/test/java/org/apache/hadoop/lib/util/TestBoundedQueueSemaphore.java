@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.test.HTestCase;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestBoundedQueueSemaphore extends HTestCase {
+
+  private static Thread acquireInThread(final BoundedQueueSemaphore semaphore, final long timeoutMillis,
+                                        final AtomicReference<BoundedQueueSemaphore.Result> result) {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        result.set(semaphore.acquire(timeoutMillis));
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  private void waitForWaiting(final BoundedQueueSemaphore semaphore, final int waiting) {
+    waitFor(5000, new Predicate() {
+      @Override
+      public boolean evaluate() throws Exception {
+        return semaphore.getWaiting() == waiting;
+      }
+    });
+  }
+
+  @Test
+  public void permits() {
+    BoundedQueueSemaphore semaphore = new BoundedQueueSemaphore(2, 0);
+    assertEquals(semaphore.getPermits(), 2);
+    assertTrue(semaphore.tryAcquire());
+    assertEquals(semaphore.acquire(0), BoundedQueueSemaphore.Result.ACQUIRED);
+    assertEquals(semaphore.getRunning(), 2);
+    assertFalse(semaphore.tryAcquire());
+    // no room to wait
+    assertEquals(semaphore.acquire(1000), BoundedQueueSemaphore.Result.QUEUE_FULL);
+    semaphore.release();
+    assertEquals(semaphore.getRunning(), 1);
+    assertTrue(semaphore.tryAcquire());
+  }
+
+  @Test
+  public void timeout() {
+    BoundedQueueSemaphore semaphore = new BoundedQueueSemaphore(1, 1);
+    assertTrue(semaphore.tryAcquire());
+    assertEquals(semaphore.acquire(100), BoundedQueueSemaphore.Result.TIMED_OUT);
+    assertEquals(semaphore.getWaiting(), 0);
+    assertEquals(semaphore.getRunning(), 1);
+  }
+
+  @Test
+  public void noBarging() throws Exception {
+    BoundedQueueSemaphore semaphore = new BoundedQueueSemaphore(1, 1);
+    assertTrue(semaphore.tryAcquire());
+    AtomicReference<BoundedQueueSemaphore.Result> result = new AtomicReference<BoundedQueueSemaphore.Result>();
+    Thread waiter = acquireInThread(semaphore, 5000, result);
+    waitForWaiting(semaphore, 1);
+    // the permit freed goes to the waiting caller
+    semaphore.release();
+    assertFalse(semaphore.tryAcquire());
+    waiter.join();
+    assertEquals(result.get(), BoundedQueueSemaphore.Result.ACQUIRED);
+    assertEquals(semaphore.getRunning(), 1);
+  }
+
+  @Test
+  public void sharedQueue() throws Exception {
+    AtomicInteger queue = new AtomicInteger();
+    BoundedQueueSemaphore s1 = new BoundedQueueSemaphore(1, 1, queue);
+    BoundedQueueSemaphore s2 = new BoundedQueueSemaphore(1, 1, queue);
+    assertTrue(s1.tryAcquire());
+    assertTrue(s2.tryAcquire());
+    AtomicReference<BoundedQueueSemaphore.Result> result = new AtomicReference<BoundedQueueSemaphore.Result>();
+    Thread waiter = acquireInThread(s1, 5000, result);
+    waitForWaiting(s1, 1);
+    assertEquals(queue.get(), 1);
+    // the queue is full for both semaphores
+    assertEquals(s2.acquire(1000), BoundedQueueSemaphore.Result.QUEUE_FULL);
+    s1.release();
+    waiter.join();
+    assertEquals(result.get(), BoundedQueueSemaphore.Result.ACQUIRED);
+    assertEquals(queue.get(), 0);
+  }
+
+  @Test
+  public void interrupted() throws Exception {
+    final BoundedQueueSemaphore semaphore = new BoundedQueueSemaphore(1, 1);
+    assertTrue(semaphore.tryAcquire());
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicReference<BoundedQueueSemaphore.Result> result = new AtomicReference<BoundedQueueSemaphore.Result>();
+    final AtomicReference<Boolean> interrupted = new AtomicReference<Boolean>();
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        result.set(semaphore.acquire(60000));
+        interrupted.set(Thread.currentThread().isInterrupted());
+        done.countDown();
+      }
+    };
+    waiter.start();
+    waitForWaiting(semaphore, 1);
+    waiter.interrupt();
+    done.await();
+    assertEquals(result.get(), BoundedQueueSemaphore.Result.TIMED_OUT);
+    assertTrue(interrupted.get());
+    assertEquals(semaphore.getWaiting(), 0);
+  }
+
+}
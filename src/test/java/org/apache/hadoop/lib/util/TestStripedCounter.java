@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.test.HTestCase;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+public class TestStripedCounter extends HTestCase {
+
+  @Test
+  public void counter() {
+    StripedCounter counter = new StripedCounter();
+    assertEquals(counter.get(), 0);
+    counter.add(5);
+    counter.increment();
+    counter.add(-2);
+    assertEquals(counter.get(), 4);
+    assertEquals(counter.longValue(), 4);
+    assertEquals(counter.intValue(), 4);
+    assertEquals(counter.toString(), "4");
+    assertEquals(JSONValue.toJSONString(counter), "4");
+  }
+
+  @Test
+  public void stripes() {
+    assertTrue(StripedCounter.STRIPES >= 1 && StripedCounter.STRIPES <= 16);
+    assertEquals(Integer.bitCount(StripedCounter.STRIPES), 1);
+    int stripe = StripedCounter.getStripe();
+    assertTrue(stripe >= 0 && stripe < StripedCounter.STRIPES);
+    assertEquals(StripedCounter.getStripe(), stripe);
+  }
+
+  @Test
+  public void concurrency() throws Exception {
+    final StripedCounter counter = new StripedCounter();
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 100000; j++) {
+            counter.increment();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(counter.get(), 800000);
+  }
+
+}
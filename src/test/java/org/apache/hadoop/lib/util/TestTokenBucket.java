@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.test.HTestCase;
+import org.apache.hadoop.util.Time;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TestTokenBucket extends HTestCase {
+
+  @Test
+  public void burst() {
+    TokenBucket bucket = new TokenBucket(1000, 0);
+    assertEquals(bucket.getRate(), 1000);
+    assertEquals(bucket.getBurst(), 1000);
+    bucket = new TokenBucket(1000, 2000);
+    assertEquals(bucket.getBurst(), 2000);
+    assertEquals(bucket.reserve(2000), 0);
+  }
+
+  @Test
+  public void debt() {
+    TokenBucket bucket = new TokenBucket(1000, 1000);
+    assertEquals(bucket.reserve(1000), 0);
+    long wait = bucket.reserve(500);
+    assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(400));
+    assertTrue(wait <= TimeUnit.MILLISECONDS.toNanos(500));
+    // later reservations wait for the earlier debt
+    assertTrue(bucket.reserve(500) > wait);
+  }
+
+  @Test
+  public void acquire() throws Exception {
+    TokenBucket bucket = new TokenBucket(10000, 1000);
+    long start = Time.monotonicNow();
+    for (int i = 0; i < 4; i++) {
+      bucket.acquire(1000);
+    }
+    // the burst is free, the other 3000 tokens take 300ms
+    long elapsed = Time.monotonicNow() - start;
+    assertTrue(elapsed >= 250);
+    assertTrue(elapsed < 2000);
+  }
+
+  @Test
+  public void full() throws Exception {
+    TokenBucket bucket = new TokenBucket(10000, 1000);
+    assertTrue(bucket.isFull());
+    bucket.reserve(500);
+    assertFalse(bucket.isFull());
+    // refilled in 50ms
+    Thread.sleep(100);
+    assertTrue(bucket.isFull());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidRate() {
+    new TokenBucket(0, 0);
+  }
+
+}
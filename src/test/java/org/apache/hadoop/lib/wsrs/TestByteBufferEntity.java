@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.wsrs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestByteBufferEntity {
+
+  private static String write(ByteBuffer buffer, long offset, long len) throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    new ByteBufferEntity(buffer, offset, len).write(baos);
+    return new String(baos.toByteArray());
+  }
+
+  @Test
+  public void test() throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(3);
+    buffer.put("abc".getBytes());
+    buffer.flip();
+    assertEquals(write(buffer, 0, -1), "abc");
+    assertEquals(write(buffer, 1, 1), "b");
+    assertEquals(write(buffer, 1, 10), "bc");
+    assertEquals(write(buffer, 3, -1), "");
+    // the buffer is not consumed
+    assertEquals(buffer.remaining(), 3);
+  }
+
+  @Test(expected = EOFException.class)
+  public void offsetPastEnd() throws Exception {
+    write(ByteBuffer.wrap("abc".getBytes()), 4, -1);
+  }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.wsrs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+
+import org.apache.hadoop.fs.http.client.CBORParser;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+public class TestCBORBuffer {
+
+  private static byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+
+  private static Object parse(EntityBuffer cbor) throws Exception {
+    return new CBORParser(new ByteArrayInputStream(cbor.toByteArray())).parse();
+  }
+
+  @Test
+  public void numbers() throws Exception {
+    // RFC 7049 appendix A examples
+    assertArrayEquals(new CBORBuffer().value(0).toByteArray(), bytes(0x00));
+    assertArrayEquals(new CBORBuffer().value(23).toByteArray(), bytes(0x17));
+    assertArrayEquals(new CBORBuffer().value(24).toByteArray(), bytes(0x18, 0x18));
+    assertArrayEquals(new CBORBuffer().value(1000).toByteArray(), bytes(0x19, 0x03, 0xe8));
+    assertArrayEquals(new CBORBuffer().value(1000000).toByteArray(), bytes(0x1a, 0x00, 0x0f, 0x42, 0x40));
+    assertArrayEquals(new CBORBuffer().value(1000000000000L).toByteArray(),
+                      bytes(0x1b, 0x00, 0x00, 0x00, 0xe8, 0xd4, 0xa5, 0x10, 0x00));
+    assertArrayEquals(new CBORBuffer().value(-1).toByteArray(), bytes(0x20));
+    assertArrayEquals(new CBORBuffer().value(-1000).toByteArray(), bytes(0x39, 0x03, 0xe7));
+
+    long[] values = {0, 1, -1, 24, -25, 255, 256, 65535, 65536, 4294967295L, 4294967296L,
+                     Long.MAX_VALUE, Long.MIN_VALUE, Integer.MIN_VALUE};
+    for (long value : values) {
+      assertEquals(parse(new CBORBuffer().value(value)), value);
+      assertEquals(parse(new CBORBuffer().stringValue(value, 8)), Long.toString(value, 8));
+      assertEquals(parse(new CBORBuffer().stringValue(value, 2)), Long.toString(value, 2));
+    }
+    assertEquals(parse(new CBORBuffer().hexValue(new byte[]{0, 1, 0x7f, (byte) 0x80, (byte) 0xff})), "00017f80ff");
+  }
+
+  @Test
+  public void strings() throws Exception {
+    assertArrayEquals(new CBORBuffer().value("").toByteArray(), bytes(0x60));
+    assertArrayEquals(new CBORBuffer().value("IETF").toByteArray(), bytes(0x64, 0x49, 0x45, 0x54, 0x46));
+    assertArrayEquals(new CBORBuffer().value("ü").toByteArray(), bytes(0x62, 0xc3, 0xbc));
+    assertArrayEquals(new CBORBuffer().value((String) null).toByteArray(), bytes(0xf6));
+
+    StringBuilder sb = new StringBuilder();
+    for (char c = 0; c < 0x2200; c++) {
+      sb.append(c);
+    }
+    sb.append("😀 \uD83D x \uDE00 ￿");
+    String str = sb.toString();
+    EntityBuffer cbor = new CBORBuffer(4).value(str);
+    assertEquals(parse(cbor), new String(str.getBytes("UTF-8"), "UTF-8"));
+    assertEquals(parse(new CBORBuffer().value(EntityBuffer.string(str))), parse(cbor));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void structure() throws Exception {
+    JSONObject map = new JSONObject();
+    map.put("a", "A");
+    map.put("b", null);
+    map.put("c", 1L);
+    map.put("d", true);
+    JSONObject inner = new JSONObject();
+    inner.put("e", new JSONArray());
+    JSONArray array = new JSONArray();
+    for (int i = 0; i < 2; i++) {
+      JSONObject element = new JSONObject();
+      element.put("e", new JSONArray());
+      array.add(element);
+    }
+    inner.put("f", array);
+    map.put("g", inner);
+    map.put("h", false);
+
+    EntityBuffer.Token kE = EntityBuffer.key("e");
+    EntityBuffer cbor = EntityBuffer.Format.CBOR.createBuffer(1);
+    cbor.startObject();
+    cbor.key(EntityBuffer.key("a")).value("A");
+    cbor.key(EntityBuffer.key("b")).value((String) null);
+    cbor.key(EntityBuffer.key("c")).value(1L);
+    cbor.key(EntityBuffer.key("d")).value(true);
+    cbor.key(EntityBuffer.key("g")).startObject();
+    cbor.key(kE).startArray().endArray();
+    cbor.key(EntityBuffer.key("f")).startArray();
+    cbor.startObject().key(kE).startArray().endArray().endObject();
+    cbor.startObject().key(kE).startArray().endArray().endObject();
+    cbor.endArray();
+    cbor.endObject();
+    cbor.key(EntityBuffer.key("h")).value(false);
+    cbor.endObject();
+
+    assertEquals(parse(cbor), map);
+    assertArrayEquals(EntityBuffer.Format.CBOR.createBuffer(0).startObject().endObject().toByteArray(),
+                      bytes(0xbf, 0xff));
+  }
+
+}
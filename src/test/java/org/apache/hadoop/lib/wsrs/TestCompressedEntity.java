@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.wsrs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class TestCompressedEntity {
+
+  @Test
+  public void negotiate() {
+    assertNull(CompressedEntity.negotiate(null));
+    assertNull(CompressedEntity.negotiate(""));
+    assertNull(CompressedEntity.negotiate("identity"));
+    assertNull(CompressedEntity.negotiate("gzip;q=0, deflate;q=0"));
+    assertEquals(CompressedEntity.negotiate("gzip"), CompressedEntity.Encoding.GZIP);
+    assertEquals(CompressedEntity.negotiate("x-gzip"), CompressedEntity.Encoding.GZIP);
+    assertEquals(CompressedEntity.negotiate("*"), CompressedEntity.Encoding.GZIP);
+    assertEquals(CompressedEntity.negotiate("deflate"), CompressedEntity.Encoding.DEFLATE);
+    assertEquals(CompressedEntity.negotiate("deflate, gzip"), CompressedEntity.Encoding.GZIP);
+    assertEquals(CompressedEntity.negotiate("GZIP;q=0.5, deflate"), CompressedEntity.Encoding.DEFLATE);
+    assertEquals(CompressedEntity.negotiate("gzip;q=0, deflate;q=0.1"), CompressedEntity.Encoding.DEFLATE);
+    assertEquals(CompressedEntity.negotiate("gzip;q=x, deflate"), CompressedEntity.Encoding.DEFLATE);
+  }
+
+  private static byte[] compress(StreamingOutput entity, CompressedEntity.Encoding encoding,
+                                 int level) throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    new CompressedEntity(entity, encoding, level).write(baos);
+    return baos.toByteArray();
+  }
+
+  private static byte[] decompress(byte[] data, CompressedEntity.Encoding encoding) throws Exception {
+    InputStream is = new ByteArrayInputStream(data);
+    is = (encoding == CompressedEntity.Encoding.GZIP) ? new GZIPInputStream(is) : new InflaterInputStream(is);
+    return IOUtils.toByteArray(is);
+  }
+
+  @Test
+  public void compression() throws Exception {
+    JSONBuffer json = new JSONBuffer();
+    json.startArray();
+    for (int i = 0; i < 1000; i++) {
+      json.value("entry-" + i);
+    }
+    json.endArray();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    json.write(expected);
+
+    for (CompressedEntity.Encoding encoding : CompressedEntity.Encoding.values()) {
+      for (int level : new int[]{-1, 0, 1, 9}) {
+        byte[] compressed = compress(json, encoding, level);
+        assertArrayEquals(decompress(compressed, encoding), expected.toByteArray());
+        if (level != 0) {
+          assertTrue(compressed.length < expected.size() / 4);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void closingEntity() throws Exception {
+    // InputStreamEntity closes the output stream
+    byte[] data = new byte[64 * 1024];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 7);
+    }
+    for (CompressedEntity.Encoding encoding : CompressedEntity.Encoding.values()) {
+      InputStreamEntity entity = new InputStreamEntity(new ByteArrayInputStream(data), 10, 1000);
+      byte[] expected = new byte[1000];
+      System.arraycopy(data, 10, expected, 0, 1000);
+      assertArrayEquals(decompress(compress(entity, encoding, 6), encoding), expected);
+    }
+  }
+
+}
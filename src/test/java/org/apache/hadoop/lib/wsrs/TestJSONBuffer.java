@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.wsrs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+public class TestJSONBuffer {
+  private static final String ENTER = System.getProperty("line.separator");
+
+  @Test
+  public void strings() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (char c = 0; c < 0x2200; c++) {
+      sb.append(c);
+    }
+    sb.append("😀 \uD83D x \uDE00 ￿");
+    String str = sb.toString();
+    JSONBuffer json = new JSONBuffer(4);
+    json.value(str);
+    assertArrayEquals(json.toByteArray(), ("\"" + JSONValue.escape(str) + "\"").getBytes("UTF-8"));
+    assertEquals(new String(EntityBuffer.key("a/b").json, "UTF-8"), "\"a\\/b\":");
+    assertEquals(new String(EntityBuffer.string("").json, "UTF-8"), "\"\"");
+  }
+
+  @Test
+  public void numbers() throws Exception {
+    long[] values = {0, 1, -1, 9, 10, 4096, Long.MAX_VALUE, Long.MIN_VALUE, Integer.MIN_VALUE};
+    for (long value : values) {
+      JSONBuffer json = new JSONBuffer();
+      json.value(value);
+      assertEquals(json.toString(), Long.toString(value));
+      json = new JSONBuffer();
+      json.stringValue(value, 8);
+      assertEquals(json.toString(), "\"" + Long.toString(value, 8) + "\"");
+    }
+    JSONBuffer json = new JSONBuffer();
+    json.hexValue(new byte[]{0, 1, 0x7f, (byte) 0x80, (byte) 0xff});
+    assertEquals(json.toString(), "\"00017f80ff\"");
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void structure() throws Exception {
+    Map map = new LinkedHashMap();
+    map.put("a", "A");
+    map.put("b", null);
+    map.put("c", 1L);
+    map.put("d", true);
+    Map inner = new LinkedHashMap();
+    inner.put("e", new JSONArray());
+    JSONArray array = new JSONArray();
+    array.add(new LinkedHashMap(inner));
+    array.add(new LinkedHashMap(inner));
+    inner.put("f", array);
+    map.put("g", inner);
+    map.put("h", false);
+
+    EntityBuffer.Token kE = EntityBuffer.key("e");
+    JSONBuffer json = new JSONBuffer(1);
+    json.startObject();
+    json.key(EntityBuffer.key("a")).value("A");
+    json.key(EntityBuffer.key("b")).value((String) null);
+    json.key(EntityBuffer.key("c")).value(1L);
+    json.key(EntityBuffer.key("d")).value(true);
+    json.key(EntityBuffer.key("g")).startObject();
+    json.key(kE).startArray().endArray();
+    json.key(EntityBuffer.key("f")).startArray();
+    json.startObject().key(kE).startArray().endArray().endObject();
+    json.startObject().key(kE).startArray().endArray().endObject();
+    json.endArray();
+    json.endObject();
+    json.key(EntityBuffer.key("h")).value(false);
+    json.endObject();
+
+    assertEquals(json.toString(), JSONObject.toJSONString(map));
+    assertEquals(json.size(), JSONObject.toJSONString(map).length());
+    assertEquals(JSONBuffer.valueOf(map).toString(), JSONObject.toJSONString(map));
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    json.write(baos);
+    assertEquals(new String(baos.toByteArray(), "UTF-8"), JSONObject.toJSONString(map) + ENTER);
+  }
+
+}
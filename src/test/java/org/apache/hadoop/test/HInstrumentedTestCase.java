@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.lib.server.Server;
+import org.apache.hadoop.lib.service.Instrumentation;
+import org.apache.hadoop.lib.service.instrumentation.InstrumentationService;
+import org.apache.hadoop.util.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+
+/**
+ * Base class of the tests of components reporting to an
+ * {@link Instrumentation}. Every test runs with a server, in its
+ * {@link TestDir}, with the {@link InstrumentationService}, the tests must be
+ * annotated with {@link TestDir}.
+ */
+public abstract class HInstrumentedTestCase extends HTestCase {
+
+  /**
+   * Local filesystem, initialized with the default URI.
+   */
+  public static class InitializedLocalFileSystem extends RawLocalFileSystem {
+
+    public InitializedLocalFileSystem() throws IOException {
+      initialize(FileSystem.getDefaultUri(new Configuration(false)), new Configuration(false));
+    }
+  }
+
+  /**
+   * Local filesystem counting the files opened.
+   */
+  public static class OpenCountingFileSystem extends InitializedLocalFileSystem {
+    private final AtomicInteger opened = new AtomicInteger();
+
+    public OpenCountingFileSystem() throws IOException {
+    }
+
+    @Override
+    public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+      opened.incrementAndGet();
+      return super.open(f, bufferSize);
+    }
+
+    public int getOpened() {
+      return opened.get();
+    }
+  }
+
+  private Server server;
+
+  protected Instrumentation instrumentation;
+
+  @Before
+  public void startInstrumentation() throws Exception {
+    String dir = TestDirHelper.getTestDir().getAbsolutePath();
+    String services = StringUtils.join(",", Arrays.asList(InstrumentationService.class.getName()));
+    Configuration conf = new Configuration(false);
+    conf.set("server.services", services);
+    server = new Server("server", dir, dir, dir, dir, conf);
+    server.init();
+    instrumentation = server.get(Instrumentation.class);
+  }
+
+  @After
+  public void stopInstrumentation() {
+    server.destroy();
+  }
+
+  /**
+   * Returns the value of a counter of the instrumentation.
+   *
+   * @param group the counter group.
+   * @param name the counter name.
+   *
+   * @return the counter value, zero if the counter does not exist.
+   */
+  @SuppressWarnings("unchecked")
+  protected long getCounter(String group, String name) {
+    Map<String, Object> counters = (Map<String, Object>) instrumentation.getSnapshot().get("counters").get(group);
+    Object value = (counters != null) ? counters.get(name) : null;
+    return (value != null) ? ((Number) value).longValue() : 0;
+  }
+
+  /**
+   * Reads a stream to the end and closes it.
+   *
+   * @param is the stream.
+   * @param chunk the size of the reads.
+   *
+   * @return the bytes read.
+   *
+   * @throws IOException thrown if the stream could not be read.
+   */
+  public static byte[] readFully(InputStream is, int chunk) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    byte[] buffer = new byte[chunk];
+    int n = is.read(buffer);
+    while (n > -1) {
+      baos.write(buffer, 0, n);
+      n = is.read(buffer);
+    }
+    is.close();
+    return baos.toByteArray();
+  }
+
+}